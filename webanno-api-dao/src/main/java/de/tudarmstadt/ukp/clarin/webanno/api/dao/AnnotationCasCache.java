@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.CASSerializer;
+import org.apache.uima.cas.impl.Serialization;
+import org.springframework.beans.factory.annotation.Value;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Keeps the most recently used annotation documents in memory so that they do not have to be
+ * read and deserialized from disk on every request. The cache is bounded by the approximate
+ * amount of memory the cached documents use and evicts the least recently used documents first.
+ * <p>
+ * The cache holds in-memory snapshots of the CAS heaps, not the CAS objects themselves. Every
+ * caller still gets a CAS of its own which it may modify and release to the {@link CasPool}
+ * without affecting the cached data. Restoring a snapshot is a plain copy of the heap arrays and
+ * does not depend on the size of the serialized file on disk.
+ * <p>
+ * Each entry remembers the version of the stored document it corresponds to (see
+ * {@link CasStorage#getVersion}). If the document was changed by other means than {@link #put}
+ * (e.g. by a project import), the entry is treated as stale. Callers must hold the lock of the annotation document (see
+ * {@link AnnotationDocumentLockManager}) while accessing the cache.
+ */
+public class AnnotationCasCache
+{
+    private static final long MB = 1024 * 1024;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    /**
+     * Maximum size of the cache in megabytes. A value of 0 disables the cache.
+     */
+    @Value(value = "${cas.cache.size}")
+    private long maxSizeMb = 128;
+
+    private final LinkedHashMap<String, CachedCas> cache = new LinkedHashMap<String, CachedCas>(
+            16, 0.75f, true);
+
+    private long size = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Restore the cached annotation document of the given user into the given CAS.
+     *
+     * @param aDocument
+     *            the source document.
+     * @param aUsername
+     *            the annotator or one of the special users such as the CURATION_USER.
+     * @param aVersion
+     *            the current version of the annotation document on disk.
+     * @param aCas
+     *            an empty CAS to restore the document into. It must have the type system passed
+     *            to {@link #getTypeSystem}.
+     * @return whether the document was restored. If not, the CAS is unchanged.
+     */
+    public boolean get(SourceDocument aDocument, String aUsername, String aVersion, CAS aCas)
+    {
+        CachedCas entry = getEntry(aDocument, aUsername, aVersion);
+        if (entry == null || entry.typeSystem != aCas.getTypeSystem()) {
+            return false;
+        }
+
+        Serialization.deserializeCAS(((CASImpl) aCas).getBaseCAS(), entry.data);
+        return true;
+    }
+
+    /**
+     * Get the type system of the cached annotation document of the given user. A cache hit or
+     * miss is recorded.
+     *
+     * @param aDocument
+     *            the source document.
+     * @param aUsername
+     *            the annotator or one of the special users such as the CURATION_USER.
+     * @param aVersion
+     *            the current version of the annotation document on disk.
+     * @return the type system or {@code null} if the document is not in the cache.
+     */
+    public TypeSystem getTypeSystem(SourceDocument aDocument, String aUsername, String aVersion)
+    {
+        if (maxSizeMb <= 0) {
+            return null;
+        }
+
+        String key = key(aDocument, aUsername);
+        synchronized (cache) {
+            CachedCas entry = cache.get(key);
+            if (entry != null && !entry.matches(aVersion)) {
+                remove(key);
+                entry = null;
+            }
+
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+
+            hits.incrementAndGet();
+            return entry.typeSystem;
+        }
+    }
+
+    /**
+     * Store a snapshot of the given CAS. Call this after the CAS has been written to disk.
+     *
+     * @param aDocument
+     *            the source document.
+     * @param aUsername
+     *            the annotator or one of the special users such as the CURATION_USER.
+     * @param aVersion
+     *            the current version of the annotation document on disk.
+     * @param aCas
+     *            the CAS.
+     */
+    public void put(SourceDocument aDocument, String aUsername, String aVersion, CAS aCas)
+    {
+        if (maxSizeMb <= 0) {
+            return;
+        }
+
+        CASImpl cas = ((CASImpl) aCas).getBaseCAS();
+        CachedCas entry = new CachedCas(cas.getTypeSystem(), Serialization.serializeCAS(cas),
+                aVersion);
+
+        String key = key(aDocument, aUsername);
+        synchronized (cache) {
+            remove(key);
+
+            if (entry.size > maxSizeMb * MB) {
+                log.debug("Annotation document [" + key + "] too large to be cached ["
+                        + entry.size + " bytes]");
+                return;
+            }
+
+            cache.put(key, entry);
+            size += entry.size;
+
+            // Evict least recently used entries until we are below the limit again
+            Iterator<Entry<String, CachedCas>> i = cache.entrySet().iterator();
+            while (size > maxSizeMb * MB && i.hasNext()) {
+                Entry<String, CachedCas> e = i.next();
+                size -= e.getValue().size;
+                i.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drop the cached annotation document of the given user.
+     *
+     * @param aDocument
+     *            the source document.
+     * @param aUsername
+     *            the annotator or one of the special users such as the CURATION_USER.
+     */
+    public void invalidate(SourceDocument aDocument, String aUsername)
+    {
+        synchronized (cache) {
+            remove(key(aDocument, aUsername));
+        }
+    }
+
+    /**
+     * Drop the cached annotation documents of all users for the given source document.
+     *
+     * @param aDocument
+     *            the source document.
+     */
+    public void invalidate(SourceDocument aDocument)
+    {
+        String prefix = key(aDocument, "");
+        synchronized (cache) {
+            Iterator<Entry<String, CachedCas>> i = cache.entrySet().iterator();
+            while (i.hasNext()) {
+                Entry<String, CachedCas> e = i.next();
+                if (e.getKey().startsWith(prefix)) {
+                    size -= e.getValue().size;
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop all cached documents.
+     */
+    public void invalidateAll()
+    {
+        synchronized (cache) {
+            cache.clear();
+            size = 0;
+        }
+    }
+
+    private CachedCas getEntry(SourceDocument aDocument, String aUsername, String aVersion)
+    {
+        synchronized (cache) {
+            CachedCas entry = cache.get(key(aDocument, aUsername));
+            return entry != null && entry.matches(aVersion) ? entry : null;
+        }
+    }
+
+    private void remove(String aKey)
+    {
+        CachedCas entry = cache.remove(aKey);
+        if (entry != null) {
+            size -= entry.size;
+        }
+    }
+
+    private static String key(SourceDocument aDocument, String aUsername)
+    {
+        return aDocument.getProject().getId() + "/" + aDocument.getId() + "/" + aUsername;
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    public long getEvictions()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * @return the ratio of cache hits to all lookups or 0 if there were no lookups yet.
+     */
+    public double getHitRate()
+    {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * @return the approximate number of bytes used by the cached documents.
+     */
+    public long getSize()
+    {
+        synchronized (cache) {
+            return size;
+        }
+    }
+
+    public int getCount()
+    {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    public long getMaxSizeMb()
+    {
+        return maxSizeMb;
+    }
+
+    public void setMaxSizeMb(long aMaxSizeMb)
+    {
+        maxSizeMb = aMaxSizeMb;
+        if (maxSizeMb <= 0) {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("AnnotationCasCache [documents=%d, size=%d, hits=%d, misses=%d, "
+                + "evictions=%d, hitRate=%.2f, maxSizeMb=%d]", getCount(), getSize(), getHits(),
+                getMisses(), getEvictions(), getHitRate(), maxSizeMb);
+    }
+
+    private static class CachedCas
+    {
+        private final TypeSystem typeSystem;
+        private final CASSerializer data;
+        private final String version;
+        private final long size;
+
+        public CachedCas(TypeSystem aTypeSystem, CASSerializer aData, String aVersion)
+        {
+            typeSystem = aTypeSystem;
+            data = aData;
+            version = aVersion;
+            size = estimateSize(aData);
+        }
+
+        public boolean matches(String aVersion)
+        {
+            return version.equals(aVersion);
+        }
+
+        private static long estimateSize(CASSerializer aData)
+        {
+            long bytes = 0;
+            bytes += aData.heapArray != null ? aData.heapArray.length * 4L : 0;
+            bytes += aData.fsIndex != null ? aData.fsIndex.length * 4L : 0;
+            bytes += aData.heapMetaData != null ? aData.heapMetaData.length * 4L : 0;
+            bytes += aData.byteHeapArray != null ? aData.byteHeapArray.length : 0;
+            bytes += aData.shortHeapArray != null ? aData.shortHeapArray.length * 2L : 0;
+            bytes += aData.longHeapArray != null ? aData.longHeapArray.length * 8L : 0;
+            if (aData.stringTable != null) {
+                for (String s : aData.stringTable) {
+                    // Object header, fields and backing array
+                    bytes += 40 + (s != null ? s.length() * 2L : 0);
+                }
+            }
+            return bytes;
+        }
+    }
+}
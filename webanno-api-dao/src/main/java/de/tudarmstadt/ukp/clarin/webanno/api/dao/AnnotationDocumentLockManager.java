@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Hands out read/write locks guarding the serialized annotation document of one user for one
+ * source document in one project. Reading and writing unrelated documents can thus happen
+ * concurrently, while readers and writers of the same document are still properly serialized.
+ * <p>
+ * The locks are striped: a fixed number of locks is allocated up front and each (project,
+ * document, user) key is mapped to one of them. This keeps the memory footprint constant no
+ * matter how many documents there are. Two different keys may share a stripe, so callers must
+ * never try to acquire a write lock while holding any other lock from this manager.
+ */
+public class AnnotationDocumentLockManager
+{
+    public static final int DEFAULT_STRIPES = 256;
+
+    private final ReadWriteLock[] locks;
+    private final int mask;
+
+    public AnnotationDocumentLockManager()
+    {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param aStripes
+     *            the number of locks to allocate. This is rounded up to the next power of two.
+     */
+    public AnnotationDocumentLockManager(int aStripes)
+    {
+        if (aStripes < 1) {
+            throw new IllegalArgumentException("Number of stripes must be positive but was ["
+                    + aStripes + "]");
+        }
+
+        int size = Integer.highestOneBit(aStripes);
+        if (size < aStripes) {
+            size <<= 1;
+        }
+
+        locks = new ReadWriteLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Get the lock for the annotation document of the given user.
+     *
+     * @param aDocument
+     *            the source document.
+     * @param aUsername
+     *            the annotator or one of the special users such as the CURATION_USER.
+     * @return the lock.
+     */
+    public ReadWriteLock getLock(SourceDocument aDocument, String aUsername)
+    {
+        return getLock(aDocument.getProject().getId(), aDocument.getId(), aUsername);
+    }
+
+    /**
+     * Get the lock for the annotation document of the given user.
+     *
+     * @param aProjectId
+     *            the project ID.
+     * @param aDocumentId
+     *            the source document ID.
+     * @param aUsername
+     *            the annotator or one of the special users such as the CURATION_USER.
+     * @return the lock.
+     */
+    public ReadWriteLock getLock(long aProjectId, long aDocumentId, String aUsername)
+    {
+        int h = (int) (aProjectId ^ (aProjectId >>> 32));
+        h = 31 * h + (int) (aDocumentId ^ (aDocumentId >>> 32));
+        h = 31 * h + (aUsername == null ? 0 : aUsername.hashCode());
+        return locks[spread(h) & mask];
+    }
+
+    /**
+     * @return the number of stripes.
+     */
+    public int getStripes()
+    {
+        return locks.length;
+    }
+
+    /**
+     * Mix the bits of the hash code so that keys which differ only in the upper bits still end up
+     * in different stripes (same scheme as used by {@link java.util.HashMap}).
+     */
+    private static int spread(int aHash)
+    {
+        int h = aHash;
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+}
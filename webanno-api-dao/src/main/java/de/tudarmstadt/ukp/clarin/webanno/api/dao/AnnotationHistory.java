@@ -0,0 +1,403 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Resource;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Keeps history backups of annotation documents. A backup is named
+ * {@code <username>.ser.<timestamp>.bak} and is stored next to the annotation document.
+ * <p>
+ * Annotation documents are never modified in place - a new snapshot is always written to a new
+ * file which then replaces the previous one. A backup can thus simply be a hard link to the
+ * current snapshot, sharing its data on disk instead of copying it. If the file system does not
+ * support hard links, the snapshot is copied.
+ * <p>
+ * The time of the latest backup of each annotation document is remembered, so saving a document
+ * does not need to list the annotation folder. Surplus and outdated backups
+ * ({@code backup.keep.number}, {@code backup.keep.time}) are removed by a background task which
+ * runs every {@code backup.prune.interval} seconds.
+ */
+public class AnnotationHistory
+{
+    private static final String PROJECT = "project";
+    private static final String DOCUMENT = "document";
+    private static final String ANNOTATION = "annotation";
+
+    private static final Pattern BACKUP_PATTERN = Pattern.compile("(.+)\\.ser\\.([0-9]+)\\.bak");
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    @Value(value = "${backup.interval}")
+    private long backupInterval;
+
+    @Value(value = "${backup.keep.number}")
+    private int backupKeepNumber;
+
+    @Value(value = "${backup.keep.time}")
+    private long backupKeepTime;
+
+    /**
+     * Time in seconds between two runs of the background pruning.
+     */
+    @Value(value = "${backup.prune.interval}")
+    private long pruneInterval = 3600;
+
+    @Resource(name = "casStorage")
+    private CasStorage casStorage;
+
+    @Resource(name = "annotationDocumentLockManager")
+    private AnnotationDocumentLockManager lockManager;
+
+    /**
+     * Time of the latest backup for each annotation document file. A value of 0 means there is no
+     * backup yet.
+     */
+    private final Map<String, Long> latestBackup = new ConcurrentHashMap<String, Long>();
+
+    private volatile boolean linksSupported = true;
+
+    private ScheduledExecutorService scheduler;
+
+    private int linked;
+
+    private int copied;
+
+    private int pruned;
+
+    /**
+     * Start pruning in the background.
+     */
+    public synchronized void start()
+    {
+        if (scheduler != null || pruneInterval <= 0
+                || (backupKeepNumber <= 0 && backupKeepTime <= 0)) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable aRunnable)
+            {
+                Thread thread = new Thread(aRunnable, "Annotation history pruning");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    prune();
+                }
+                catch (RuntimeException e) {
+                    // Keep the task scheduled
+                    log.error("Unable to prune annotation history", e);
+                }
+            }
+        }, pruneInterval, pruneInterval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop pruning in the background.
+     */
+    public synchronized void stop()
+    {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Make a backup of the given annotation document if the latest backup is older than the
+     * backup interval. The caller must hold the write lock of the annotation document and must
+     * have just written the document to a new file.
+     *
+     * @param aFile
+     *            the annotation document file.
+     * @throws IOException
+     *             if the backup cannot be created.
+     */
+    public void backup(File aFile)
+        throws IOException
+    {
+        if (backupInterval <= 0) {
+            return;
+        }
+
+        // Determine the reference point in time based on the current version
+        long now = aFile.lastModified();
+
+        // Check if the newest history file is significantly older than the current one. If
+        // there is no history yet, we create a history file in any case.
+        long latest = getLatestBackup(aFile);
+        if (latest > 0 && latest + backupInterval >= now) {
+            return;
+        }
+
+        File historyFile = new File(aFile.getPath() + "." + now + ".bak");
+        if (!historyFile.exists()) {
+            createBackup(aFile, historyFile);
+        }
+        latestBackup.put(aFile.getPath(), now);
+    }
+
+    private long getLatestBackup(File aFile)
+    {
+        Long latest = latestBackup.get(aFile.getPath());
+        if (latest == null) {
+            // Only scan once per document, afterwards the time is tracked in memory
+            latest = 0L;
+            String username = aFile.getName().substring(0,
+                    aFile.getName().length() - ".ser".length());
+            List<Backup> history = listBackups(aFile.getParentFile()).get(username);
+            if (history != null) {
+                for (Backup backup : history) {
+                    latest = Math.max(latest, backup.time);
+                }
+            }
+            latestBackup.put(aFile.getPath(), latest);
+        }
+        return latest;
+    }
+
+    private void createBackup(File aFile, File aHistoryFile)
+        throws IOException
+    {
+        if (linksSupported) {
+            try {
+                Files.createLink(aHistoryFile.toPath(), aFile.toPath());
+                linked++;
+                return;
+            }
+            catch (UnsupportedOperationException e) {
+                linksSupported = false;
+                log.info("File system does not support hard links - history backups are copied");
+            }
+            catch (FileSystemException e) {
+                // E.g. a file system without hard links or a limit on the number of links
+                log.debug("Unable to link [" + aHistoryFile + "] - copying instead", e);
+            }
+        }
+
+        FileUtils.copyFile(aFile, aHistoryFile);
+        copied++;
+    }
+
+    /**
+     * Remove surplus and outdated backups of all annotation documents in all projects.
+     */
+    public void prune()
+    {
+        long start = System.currentTimeMillis();
+        pruned = 0;
+
+        File[] projects = listDirectories(new File(casStorage.getDir(), PROJECT));
+        for (File projectDir : projects) {
+            long projectId = parseId(projectDir);
+            if (projectId < 0) {
+                continue;
+            }
+
+            for (File documentDir : listDirectories(new File(projectDir, DOCUMENT))) {
+                long documentId = parseId(documentDir);
+                if (documentId < 0) {
+                    continue;
+                }
+
+                Map<String, List<Backup>> backups = listBackups(new File(documentDir, ANNOTATION));
+                for (Entry<String, List<Backup>> e : backups.entrySet()) {
+                    prune(projectId, documentId, e.getKey(), e.getValue(), start);
+                }
+            }
+        }
+
+        if (pruned > 0) {
+            log.info("Removed [" + pruned + "] history backups in ["
+                    + (System.currentTimeMillis() - start) + "] ms");
+        }
+    }
+
+    private void prune(long aProjectId, long aDocumentId, String aUsername, List<Backup> aHistory,
+            long aNow)
+    {
+        // Sort the files (oldest one first)
+        Collections.sort(aHistory);
+
+        List<Backup> toRemove = new ArrayList<Backup>();
+        for (int i = 0; i < aHistory.size(); i++) {
+            Backup backup = aHistory.get(i);
+            boolean surplus = backupKeepNumber > 0 && i < aHistory.size() - backupKeepNumber;
+            boolean outdated = backupKeepTime > 0 && backup.time + backupKeepTime < aNow;
+            if (surplus || outdated) {
+                toRemove.add(backup);
+            }
+        }
+
+        if (toRemove.isEmpty()) {
+            return;
+        }
+
+        Lock writeLock = lockManager.getLock(aProjectId, aDocumentId, aUsername).writeLock();
+        writeLock.lock();
+        try {
+            for (Backup backup : toRemove) {
+                if (backup.file.delete()) {
+                    pruned++;
+                    log.debug("Removed history file [" + backup.file + "]");
+                }
+                else if (backup.file.exists()) {
+                    log.error("Unable to remove history file [" + backup.file + "]");
+                }
+            }
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * List the backups in the given annotation folder grouped by user.
+     */
+    private static Map<String, List<Backup>> listBackups(File aAnnotationFolder)
+    {
+        Map<String, List<Backup>> backups = new HashMap<String, List<Backup>>();
+        String[] names = aAnnotationFolder.list();
+        if (names == null) {
+            return backups;
+        }
+
+        Matcher matcher = BACKUP_PATTERN.matcher("");
+        for (String name : names) {
+            if (!matcher.reset(name).matches()) {
+                continue;
+            }
+
+            List<Backup> userBackups = backups.get(matcher.group(1));
+            if (userBackups == null) {
+                userBackups = new ArrayList<Backup>();
+                backups.put(matcher.group(1), userBackups);
+            }
+            userBackups.add(new Backup(new File(aAnnotationFolder, name), Long.parseLong(matcher
+                    .group(2))));
+        }
+        return backups;
+    }
+
+    private static File[] listDirectories(File aDir)
+    {
+        File[] dirs = aDir.listFiles(new FileFilter()
+        {
+            @Override
+            public boolean accept(File aFile)
+            {
+                return aFile.isDirectory();
+            }
+        });
+        return dirs != null ? dirs : new File[0];
+    }
+
+    private static long parseId(File aDir)
+    {
+        try {
+            return Long.parseLong(aDir.getName());
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public int getLinked()
+    {
+        return linked;
+    }
+
+    public int getCopied()
+    {
+        return copied;
+    }
+
+    public int getPruned()
+    {
+        return pruned;
+    }
+
+    public void setBackupInterval(long aBackupInterval)
+    {
+        backupInterval = aBackupInterval;
+    }
+
+    public void setBackupKeepNumber(int aBackupKeepNumber)
+    {
+        backupKeepNumber = aBackupKeepNumber;
+    }
+
+    public void setBackupKeepTime(long aBackupKeepTime)
+    {
+        backupKeepTime = aBackupKeepTime;
+    }
+
+    private static class Backup
+        implements Comparable<Backup>
+    {
+        private final File file;
+        private final long time;
+
+        public Backup(File aFile, long aTime)
+        {
+            file = aFile;
+            time = aTime;
+        }
+
+        @Override
+        public int compareTo(Backup aOther)
+        {
+            return time < aOther.time ? -1 : (time == aOther.time ? 0 : 1);
+        }
+    }
+}
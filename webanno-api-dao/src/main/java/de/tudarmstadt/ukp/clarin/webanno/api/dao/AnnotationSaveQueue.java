@@ -0,0 +1,472 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Writes annotation documents to disk in a background thread so that users do not have to wait
+ * for the disk when saving. Saves are delayed for a short time ({@code cas.writebehind.delay}
+ * milliseconds). If the same document is saved again within that time, only the latest version
+ * is written (coalescing).
+ * <p>
+ * Ordering guarantees:
+ * <ul>
+ * <li>A document has at most one pending save. A newer save replaces the pending one but keeps
+ * its position in the queue, so a document is written at most {@code delay} milliseconds after
+ * its first unwritten change.</li>
+ * <li>Documents are written in the order in which they were first saved. If writing a document
+ * fails, it keeps its position in the queue and is retried after a pause which grows with each
+ * failure. Documents behind it are written in the meantime.</li>
+ * <li>A pending save is only removed from the queue after it has been written, while holding the
+ * write lock of the document (see {@link AnnotationDocumentLockManager}). Thus, whoever holds the
+ * read or write lock of a document can rely on the document either being pending in the queue or
+ * being completely written to disk.</li>
+ * </ul>
+ * A save which cannot be written is never dropped. The last error is available through
+ * {@link #getFailure} so that it can be reported to the user on the next save of the document.
+ * <p>
+ * Callers which access the files directly (e.g. exports) must call {@link #flush} first. All
+ * pending saves are written when the application shuts down. This is write-behind: pending saves
+ * are only kept in memory, so if the application is killed or crashes, changes saved within the
+ * last {@code delay} milliseconds (or longer, if writing failed) are lost.
+ */
+public class AnnotationSaveQueue
+{
+    /**
+     * A save waiting in the queue.
+     */
+    public interface Save
+    {
+        /**
+         * Write the document to disk. Called while holding the write lock of the document.
+         *
+         * @throws IOException
+         *             if the document cannot be written.
+         */
+        void write()
+            throws IOException;
+    }
+
+    /**
+     * Maximum time in milliseconds until writing a document is retried after it failed.
+     */
+    private static final long MAX_RETRY_DELAY = 60000;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    /**
+     * Time in milliseconds a save is delayed. A value of 0 disables the queue and documents are
+     * written synchronously.
+     */
+    @Value(value = "${cas.writebehind.delay}")
+    private long delay = 1000;
+
+    /**
+     * Pending saves in the order in which they were first enqueued.
+     */
+    private final LinkedHashMap<String, Entry> pending = new LinkedHashMap<String, Entry>();
+
+    private Thread worker;
+
+    private boolean stopped;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Start the background thread.
+     */
+    public synchronized void start()
+    {
+        if (worker != null) {
+            return;
+        }
+
+        synchronized (pending) {
+            stopped = false;
+        }
+        worker = new Thread("Annotation save queue")
+        {
+            @Override
+            public void run()
+            {
+                process();
+            }
+        };
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Stop the background thread after writing all pending saves.
+     */
+    public synchronized void stop()
+    {
+        synchronized (pending) {
+            stopped = true;
+            pending.notifyAll();
+        }
+
+        if (worker != null) {
+            try {
+                worker.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            worker = null;
+        }
+
+        // Write anything that may have been enqueued while stopping
+        flushAll();
+
+        int lost = getQueueDepth();
+        if (lost > 0) {
+            log.error("Unable to write [" + lost + "] annotation documents before shutting down "
+                    + "- their latest changes are lost");
+        }
+        log.info(this);
+    }
+
+    /**
+     * @return whether saves are written in the background. If not, callers should write
+     *         synchronously.
+     */
+    public boolean isEnabled()
+    {
+        return delay > 0;
+    }
+
+    /**
+     * Enqueue a save. The caller must hold the write lock of the document.
+     *
+     * @param aKey
+     *            the key identifying the document.
+     * @param aLock
+     *            the lock of the document.
+     * @param aSave
+     *            the save.
+     */
+    public void enqueue(String aKey, ReadWriteLock aLock, Save aSave)
+    {
+        enqueued.incrementAndGet();
+        synchronized (pending) {
+            Entry entry = pending.get(aKey);
+            if (entry != null) {
+                // Keep the failure state, so that a failing document does not block the queue
+                entry.save = aSave;
+                coalesced.incrementAndGet();
+            }
+            else {
+                pending.put(aKey, new Entry(aKey, aLock, aSave, System.currentTimeMillis()));
+                pending.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Get the pending save of a document. The caller must hold the read or write lock of the
+     * document.
+     *
+     * @param aKey
+     *            the key identifying the document.
+     * @return the pending save or {@code null} if there is none.
+     */
+    public Save getPending(String aKey)
+    {
+        synchronized (pending) {
+            Entry entry = pending.get(aKey);
+            return entry != null ? entry.save : null;
+        }
+    }
+
+    /**
+     * Get the error that occurred when the pending save of a document was last written. The caller
+     * must hold the read or write lock of the document.
+     *
+     * @param aKey
+     *            the key identifying the document.
+     * @return the error or {@code null} if the document is not pending or was not tried yet.
+     */
+    public IOException getFailure(String aKey)
+    {
+        synchronized (pending) {
+            Entry entry = pending.get(aKey);
+            return entry != null ? entry.failure : null;
+        }
+    }
+
+    /**
+     * Drop the pending save of a document, e.g. because the document is being deleted.
+     *
+     * @param aKey
+     *            the key identifying the document.
+     */
+    public void discard(String aKey)
+    {
+        synchronized (pending) {
+            pending.remove(aKey);
+        }
+    }
+
+    /**
+     * Drop the pending saves of all documents whose key starts with the given prefix.
+     *
+     * @param aKeyPrefix
+     *            the key prefix.
+     */
+    public void discardAll(String aKeyPrefix)
+    {
+        synchronized (pending) {
+            Iterator<String> i = pending.keySet().iterator();
+            while (i.hasNext()) {
+                if (i.next().startsWith(aKeyPrefix)) {
+                    i.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the pending save of the given document now. When this method returns, the document is
+     * completely written to disk. The caller must not hold any document lock.
+     *
+     * @param aKey
+     *            the key identifying the document.
+     * @throws IOException
+     *             if the document cannot be written.
+     */
+    public void flush(String aKey)
+        throws IOException
+    {
+        Entry entry;
+        synchronized (pending) {
+            entry = pending.get(aKey);
+        }
+
+        if (entry != null) {
+            write(entry.lock, aKey);
+        }
+    }
+
+    /**
+     * Write all pending saves now. Each save is tried once. Saves which fail remain in the queue.
+     */
+    public void flushAll()
+    {
+        List<String> keys;
+        synchronized (pending) {
+            keys = new ArrayList<String>(pending.keySet());
+        }
+
+        for (String key : keys) {
+            try {
+                flush(key);
+            }
+            catch (IOException e) {
+                // Already logged
+            }
+        }
+    }
+
+    private void process()
+    {
+        while (true) {
+            Entry next = null;
+            synchronized (pending) {
+                while (next == null) {
+                    // Whatever is still pending is written by stop()
+                    if (stopped) {
+                        return;
+                    }
+
+                    if (pending.isEmpty()) {
+                        waitQuietly(0);
+                        continue;
+                    }
+
+                    // The first entry which is due, failed entries may be waiting for a retry
+                    long now = System.currentTimeMillis();
+                    long wait = Long.MAX_VALUE;
+                    for (Entry entry : pending.values()) {
+                        long due = entry.failure != null ? entry.retry : entry.enqueued + delay;
+                        if (due <= now) {
+                            next = entry;
+                            break;
+                        }
+                        wait = Math.min(wait, due - now);
+                    }
+                    if (next == null) {
+                        waitQuietly(wait);
+                    }
+                }
+            }
+
+            try {
+                write(next.lock, next.key);
+            }
+            catch (IOException e) {
+                // Already logged
+            }
+        }
+    }
+
+    private void write(ReadWriteLock aLock, String aKey)
+        throws IOException
+    {
+        Lock writeLock = aLock.writeLock();
+        writeLock.lock();
+        try {
+            // Nobody else can enqueue a save for the document while the write lock is held, so the
+            // entry stays in place - and keeps its position in the queue - until it is written.
+            Entry entry;
+            synchronized (pending) {
+                entry = pending.get(aKey);
+            }
+            if (entry == null) {
+                return;
+            }
+
+            try {
+                entry.save.write();
+                written.incrementAndGet();
+                synchronized (pending) {
+                    pending.remove(aKey);
+                }
+            }
+            catch (IOException e) {
+                failed.incrementAndGet();
+                synchronized (pending) {
+                    entry.failure = e;
+                    entry.attempts++;
+                    entry.retry = System.currentTimeMillis()
+                            + Math.min(MAX_RETRY_DELAY, Math.max(delay, 1) << Math.min(
+                                    entry.attempts, 16));
+                }
+                log.error("Unable to write annotation document [" + aKey + "] (attempt ["
+                        + entry.attempts + "]) - keeping it in the queue", e);
+                throw e;
+            }
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void waitQuietly(long aMillis)
+    {
+        try {
+            pending.wait(aMillis);
+        }
+        catch (InterruptedException e) {
+            // Continue - pending saves are written before the thread terminates
+        }
+    }
+
+    /**
+     * @return the number of documents waiting to be written.
+     */
+    public int getQueueDepth()
+    {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    public long getEnqueued()
+    {
+        return enqueued.get();
+    }
+
+    public long getCoalesced()
+    {
+        return coalesced.get();
+    }
+
+    public long getWritten()
+    {
+        return written.get();
+    }
+
+    public long getFailed()
+    {
+        return failed.get();
+    }
+
+    /**
+     * @return the ratio of saves that were replaced by a newer save before being written or 0 if
+     *         there were no saves yet.
+     */
+    public double getCoalescingRatio()
+    {
+        long total = enqueued.get();
+        return total == 0 ? 0 : (double) coalesced.get() / total;
+    }
+
+    public long getDelay()
+    {
+        return delay;
+    }
+
+    public void setDelay(long aDelay)
+    {
+        delay = aDelay;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("AnnotationSaveQueue [queueDepth=%d, enqueued=%d, coalesced=%d, "
+                + "written=%d, failed=%d, coalescingRatio=%.2f, delay=%d]", getQueueDepth(),
+                getEnqueued(), getCoalesced(), getWritten(), getFailed(), getCoalescingRatio(),
+                delay);
+    }
+
+    private static class Entry
+    {
+        private final String key;
+        private final ReadWriteLock lock;
+        private Save save;
+        private final long enqueued;
+        private int attempts;
+        private IOException failure;
+        private long retry;
+
+        public Entry(String aKey, ReadWriteLock aLock, Save aSave, long aEnqueued)
+        {
+            key = aKey;
+            lock = aLock;
+            save = aSave;
+            enqueued = aEnqueued;
+        }
+    }
+}
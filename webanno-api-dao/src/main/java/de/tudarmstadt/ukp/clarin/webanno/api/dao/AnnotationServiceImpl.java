@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.annotation.Resource;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
@@ -64,6 +65,12 @@ public class AnnotationServiceImpl
     @SpringBean(name = "documentRepository")
     private RepositoryService projectRepository;
 
+    @Resource(name = "typeSystemCache")
+    private TypeSystemCache typeSystemCache;
+
+    @Resource(name = "projectAuditLog")
+    private ProjectAuditLog auditLog;
+
     public AnnotationServiceImpl()
     {
 
@@ -76,11 +83,9 @@ public class AnnotationServiceImpl
     {
         entityManager.persist(aTag);
 
-        RepositoryServiceDbData.createLog(aTag.getTagSet().getProject(), aUser.getUsername()).info(
+        auditLog.info(aTag.getTagSet().getProject(), aUser.getUsername(),
                 " Added tag [" + aTag.getName() + "] with ID [" + aTag.getId() + "] to TagSet ["
                         + aTag.getTagSet().getName() + "]");
-        RepositoryServiceDbData.createLog(aTag.getTagSet().getProject(), aUser.getUsername())
-                .removeAllAppenders();
     }
 
     @Override
@@ -95,10 +100,8 @@ public class AnnotationServiceImpl
         else {
             entityManager.merge(aTagSet);
         }
-        RepositoryServiceDbData.createLog(aTagSet.getProject(), aUser.getUsername()).info(
+        auditLog.info(aTagSet.getProject(), aUser.getUsername(),
                 " Added tagset [" + aTagSet.getName() + "] with ID [" + aTagSet.getId() + "]");
-        RepositoryServiceDbData.createLog(aTagSet.getProject(), aUser.getUsername())
-                .removeAllAppenders();
     }
 
     @Override
@@ -112,10 +115,9 @@ public class AnnotationServiceImpl
         else {
             entityManager.merge(aLayer);
         }
-        RepositoryServiceDbData.createLog(aLayer.getProject(), aUser.getUsername()).info(
+        typeSystemCache.invalidate(aLayer.getProject());
+        auditLog.info(aLayer.getProject(), aUser.getUsername(),
                 " Added layer [" + aLayer.getName() + "] with ID [" + aLayer.getId() + "]");
-        RepositoryServiceDbData.createLog(aLayer.getProject(), aUser.getUsername())
-                .removeAllAppenders();
     }
 
     @Override
@@ -128,6 +130,7 @@ public class AnnotationServiceImpl
         else {
             entityManager.merge(aFeature);
         }
+        typeSystemCache.invalidate(aFeature.getProject());
     }
 
     @Override
@@ -706,7 +709,7 @@ public class AnnotationServiceImpl
     public void removeAnnotationFeature(AnnotationFeature aFeature)
     {
         entityManager.remove(aFeature);
-
+        typeSystemCache.invalidate(aFeature.getProject());
     }
 
     @Override
@@ -714,6 +717,13 @@ public class AnnotationServiceImpl
     public void removeAnnotationLayer(AnnotationLayer aLayer)
     {
         entityManager.remove(aLayer);
+        typeSystemCache.invalidate(aLayer.getProject());
+    }
 
+    @Override
+    public long getLayerVersion(Project aProject)
+    {
+        // The type system cache is invalidated on every change to the layers and features
+        return typeSystemCache.getGeneration(aProject);
     }
 }
@@ -0,0 +1,401 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+import static org.apache.commons.io.IOUtils.copyLarge;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Content-addressed store for source documents. Each distinct content is stored once as a blob
+ * named after its SHA-256 hash ({@code blob/<first two hex digits>/<hash>} in the repository). The
+ * source document files in the projects are hard links to these blobs, so all code reading source
+ * documents works on the usual paths while identical documents - e.g. in imported copies of a
+ * project - share their data on disk. Storing content which is already present only needs to read
+ * it to compute the hash.
+ * <p>
+ * The reference count of a blob is the number of hard links to it, as maintained by the file
+ * system. Blobs which are no longer referenced by any source document are removed by
+ * {@link #collectGarbage}. Since this scans all blobs, removing documents only
+ * {@link #requestGarbageCollection requests} a collection, which runs in the background
+ * {@code collectDelay} seconds later. Source documents must never be modified in place, since
+ * this would change all documents sharing the blob.
+ * <p>
+ * If the file system does not support hard links or does not report link counts, documents are
+ * copied as before.
+ */
+public class BlobStore
+{
+    private static final String BLOB = "blob";
+
+    private static final String NLINK = "unix:nlink";
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private File dir;
+
+    @Value(value = "${source.dedup.enabled}")
+    private boolean enabled = true;
+
+    private volatile Boolean supported;
+
+    /**
+     * Seconds to wait before collecting garbage after a request, so that removing many documents
+     * results in a single collection.
+     */
+    private long collectDelay = 60;
+
+    private volatile ScheduledExecutorService scheduler;
+
+    private final AtomicBoolean collectPending = new AtomicBoolean();
+
+    private int stored;
+
+    private int deduplicated;
+
+    private long bytesSaved;
+
+    /**
+     * Start collecting garbage in the background. Garbage left from before a restart is collected
+     * as well.
+     */
+    public synchronized void start()
+    {
+        if (scheduler != null) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable aRunnable)
+            {
+                Thread thread = new Thread(aRunnable, "Blob garbage collection");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        requestGarbageCollection();
+    }
+
+    /**
+     * Stop collecting garbage in the background.
+     */
+    public synchronized void stop()
+    {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+            collectPending.set(false);
+        }
+    }
+
+    /**
+     * Remove the blobs which are no longer referenced in the background. Requests made while a
+     * collection is pending are merged into it.
+     */
+    public void requestGarbageCollection()
+    {
+        ScheduledExecutorService executor = scheduler;
+        if (executor == null) {
+            // Not started (e.g. outside the application context) - collect synchronously
+            collectGarbage();
+            return;
+        }
+
+        if (collectPending.compareAndSet(false, true)) {
+            executor.schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    collectPending.set(false);
+                    try {
+                        collectGarbage();
+                    }
+                    catch (RuntimeException e) {
+                        log.error("Unable to remove unreferenced blobs", e);
+                    }
+                }
+            }, collectDelay, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Store content at the given location, replacing any existing file.
+     *
+     * @param aContent
+     *            the content. The stream is not closed.
+     * @param aTarget
+     *            the file which should provide the content afterwards.
+     * @throws IOException
+     *             if the content cannot be stored.
+     */
+    public void store(InputStream aContent, File aTarget)
+        throws IOException
+    {
+        FileUtils.forceMkdir(aTarget.getParentFile());
+
+        if (!isSupported()) {
+            write(aContent, aTarget);
+            return;
+        }
+
+        File blobFolder = getBlobFolder();
+        FileUtils.forceMkdir(blobFolder);
+        File tmpFile = File.createTempFile("blob", ".tmp", blobFolder);
+        try {
+            // Write the content to a temporary file while computing its hash
+            DigestInputStream is = new DigestInputStream(aContent, createDigest());
+            write(is, tmpFile);
+            String hash = toHex(is.getMessageDigest().digest());
+            File blob = getBlobFile(hash);
+
+            synchronized (this) {
+                if (blob.exists()) {
+                    deduplicated++;
+                    bytesSaved += tmpFile.length();
+                }
+                else {
+                    FileUtils.forceMkdir(blob.getParentFile());
+                    if (!tmpFile.renameTo(blob)) {
+                        throw new IOException("Cannot rename file [" + tmpFile + "] to [" + blob
+                                + "]");
+                    }
+                    stored++;
+                }
+
+                Files.deleteIfExists(aTarget.toPath());
+                try {
+                    Files.createLink(aTarget.toPath(), blob.toPath());
+                }
+                catch (FileSystemException e) {
+                    // E.g. the repository spans multiple file systems
+                    log.debug("Unable to link [" + aTarget + "] - copying instead", e);
+                    FileUtils.copyFile(blob, aTarget);
+                }
+            }
+        }
+        finally {
+            FileUtils.deleteQuietly(tmpFile);
+        }
+    }
+
+    /**
+     * Remove all blobs which are no longer referenced by any source document.
+     */
+    public synchronized void collectGarbage()
+    {
+        if (!isSupported()) {
+            return;
+        }
+
+        File[] folders = getBlobFolder().listFiles();
+        if (folders == null) {
+            return;
+        }
+
+        int removed = 0;
+        for (File folder : folders) {
+            File[] blobs = folder.listFiles();
+            if (blobs == null) {
+                continue;
+            }
+
+            for (File blob : blobs) {
+                try {
+                    if (getLinkCount(blob) <= 1 && blob.delete()) {
+                        removed++;
+                    }
+                }
+                catch (IOException e) {
+                    log.error("Unable to check blob [" + blob + "]", e);
+                }
+            }
+        }
+
+        if (removed > 0) {
+            log.info("Removed [" + removed + "] unreferenced blobs");
+        }
+    }
+
+    /**
+     * @return whether content is deduplicated. This requires hard links and link counts.
+     */
+    public boolean isSupported()
+    {
+        if (!enabled) {
+            return false;
+        }
+
+        if (supported == null) {
+            supported = checkSupport();
+        }
+        return supported;
+    }
+
+    private synchronized boolean checkSupport()
+    {
+        File folder = getBlobFolder();
+        File file = new File(folder, "check.tmp");
+        File link = new File(folder, "check-link.tmp");
+        try {
+            FileUtils.forceMkdir(folder);
+            FileUtils.touch(file);
+            Files.deleteIfExists(link.toPath());
+            Files.createLink(link.toPath(), file.toPath());
+            return getLinkCount(file) == 2;
+        }
+        catch (UnsupportedOperationException e) {
+            log.info("File system does not support hard links - source documents are copied");
+            return false;
+        }
+        catch (IOException e) {
+            log.info("Unable to use hard links - source documents are copied: " + e.getMessage());
+            return false;
+        }
+        finally {
+            FileUtils.deleteQuietly(link);
+            FileUtils.deleteQuietly(file);
+        }
+    }
+
+    private static int getLinkCount(File aFile)
+        throws IOException
+    {
+        return (Integer) Files.getAttribute(aFile.toPath(), NLINK);
+    }
+
+    private static void write(InputStream aContent, File aFile)
+        throws IOException
+    {
+        OutputStream os = null;
+        try {
+            os = new FileOutputStream(aFile);
+            copyLarge(aContent, os);
+        }
+        finally {
+            closeQuietly(os);
+        }
+    }
+
+    private static MessageDigest createDigest()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] aBytes)
+    {
+        StringBuilder sb = new StringBuilder(aBytes.length * 2);
+        for (byte b : aBytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private File getBlobFolder()
+    {
+        return new File(dir, BLOB);
+    }
+
+    private File getBlobFile(String aHash)
+    {
+        return new File(new File(getBlobFolder(), aHash.substring(0, 2)), aHash);
+    }
+
+    public File getDir()
+    {
+        return dir;
+    }
+
+    public void setDir(File aDir)
+    {
+        dir = aDir;
+    }
+
+    public long getCollectDelay()
+    {
+        return collectDelay;
+    }
+
+    public void setCollectDelay(long aCollectDelay)
+    {
+        collectDelay = aCollectDelay;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setEnabled(boolean aEnabled)
+    {
+        enabled = aEnabled;
+        supported = null;
+    }
+
+    public synchronized int getStored()
+    {
+        return stored;
+    }
+
+    public synchronized int getDeduplicated()
+    {
+        return deduplicated;
+    }
+
+    public synchronized long getBytesSaved()
+    {
+        return bytesSaved;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "BlobStore [stored=" + stored + ", deduplicated=" + deduplicated + ", bytesSaved="
+                + bytesSaved + "]";
+    }
+}
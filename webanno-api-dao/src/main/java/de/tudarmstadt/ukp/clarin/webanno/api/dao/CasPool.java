@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.Serialization;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.springframework.beans.factory.annotation.Value;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasGeneration;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.TypeSystemCache.ProjectTypeSystem;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+/**
+ * Keeps a bounded number of idle CAS objects per project so that loading an annotation document
+ * does not have to allocate a fresh CAS every time. Each project pool is tied to one version of
+ * the project type system (see {@link TypeSystemCache}). When the type system of a project
+ * changes, the idle CASes of the old version are evicted.
+ * <p>
+ * Every CAS in the pool has the type system of the pool version. A CAS whose type system was
+ * replaced while it was in use (e.g. by deserializing a CAS in the legacy Java-serialized format)
+ * is re-initialized with the project type system when it is released.
+ * <p>
+ * A CAS must only be released by the code that acquired it or by the code that obtained it from
+ * the {@link de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService}, and only when nobody
+ * holds a reference to it anymore. The annotation pages release the CASes loaded during a request
+ * when the request ends (see
+ * {@link de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService#beginCasScope}).
+ */
+public class CasPool
+{
+    private final Log log = LogFactory.getLog(getClass());
+
+    @Value(value = "${cas.pool.size}")
+    private int maxIdlePerProject = 4;
+
+    private final Map<Long, ProjectPool> pools = new HashMap<Long, ProjectPool>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Get an empty CAS with the given project type system. A pooled CAS is returned if one is
+     * available, otherwise a new one is created.
+     *
+     * @param aProject
+     *            the project.
+     * @param aTypeSystem
+     *            the current type system of the project.
+     * @return an empty CAS.
+     * @throws ResourceInitializationException
+     *             if a new CAS cannot be created.
+     */
+    public CAS acquire(Project aProject, ProjectTypeSystem aTypeSystem)
+        throws ResourceInitializationException
+    {
+        CAS cas = null;
+        synchronized (pools) {
+            ProjectPool pool = getPool(aProject, aTypeSystem);
+            if (pool != null) {
+                cas = pool.idle.pollFirst();
+            }
+        }
+
+        if (cas != null) {
+            hits.incrementAndGet();
+            return cas;
+        }
+
+        misses.incrementAndGet();
+        return aTypeSystem.createCas();
+    }
+
+    /**
+     * Return a CAS to the pool. The CAS is reset and its {@link CasGeneration} is advanced. If
+     * the pool of the project is full, or if the project type system changed in the meantime, the
+     * CAS is dropped.
+     *
+     * @param aProject
+     *            the project.
+     * @param aTypeSystem
+     *            the current type system of the project.
+     * @param aCas
+     *            the CAS. It must not be used anymore after it has been released.
+     */
+    public void release(Project aProject, ProjectTypeSystem aTypeSystem, CAS aCas)
+    {
+        if (aCas == null || maxIdlePerProject <= 0) {
+            return;
+        }
+
+        CASImpl cas = ((CASImpl) aCas).getBaseCAS();
+
+        // Invalidate everything derived from the old content, even if the CAS is dropped
+        CasGeneration.advance(cas);
+
+        // Clean up outside the lock
+        if (cas.getTypeSystem() == aTypeSystem.getTypeSystem()) {
+            cas.reset();
+        }
+        else {
+            // Bring the CAS back to the project type system. This also removes all data.
+            try {
+                Serialization.deserializeCASComplete(aTypeSystem.getTemplate(), cas);
+            }
+            catch (ResourceInitializationException e) {
+                log.warn("Unable to reset CAS to type system of project [" + aProject.getId()
+                        + "] - dropping it", e);
+                evictions.incrementAndGet();
+                return;
+            }
+        }
+
+        synchronized (pools) {
+            ProjectPool pool = getPool(aProject, aTypeSystem);
+            if (pool == null) {
+                pool = new ProjectPool(aTypeSystem.getVersion());
+                pools.put(aProject.getId(), pool);
+            }
+
+            if (pool.version != aTypeSystem.getVersion() || pool.idle.size() >= maxIdlePerProject) {
+                evictions.incrementAndGet();
+            }
+            else {
+                pool.idle.addFirst(cas);
+            }
+        }
+    }
+
+    /**
+     * Drop all idle CASes of the given project.
+     *
+     * @param aProject
+     *            the project.
+     */
+    public void evict(Project aProject)
+    {
+        synchronized (pools) {
+            ProjectPool pool = pools.remove(aProject.getId());
+            if (pool != null) {
+                evictions.addAndGet(pool.idle.size());
+            }
+        }
+    }
+
+    /**
+     * Get the pool of the given project. If the pool was created for an older type system version,
+     * it is evicted. Must be called while holding the lock on {@link #pools}.
+     */
+    private ProjectPool getPool(Project aProject, ProjectTypeSystem aTypeSystem)
+    {
+        ProjectPool pool = pools.get(aProject.getId());
+        if (pool != null && pool.version < aTypeSystem.getVersion()) {
+            log.debug("Type system of project [" + aProject.getId() + "] changed from version ["
+                    + pool.version + "] to [" + aTypeSystem.getVersion() + "] - evicting ["
+                    + pool.idle.size() + "] pooled CASes");
+            evictions.addAndGet(pool.idle.size());
+            pools.remove(aProject.getId());
+            pool = null;
+        }
+        return pool;
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    public long getEvictions()
+    {
+        return evictions.get();
+    }
+
+    public int getMaxIdlePerProject()
+    {
+        return maxIdlePerProject;
+    }
+
+    public void setMaxIdlePerProject(int aMaxIdlePerProject)
+    {
+        maxIdlePerProject = aMaxIdlePerProject;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CasPool [hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+                + ", maxIdlePerProject=" + maxIdlePerProject + "]";
+    }
+
+    private static class ProjectPool
+    {
+        private final long version;
+        private final Deque<CAS> idle = new ArrayDeque<CAS>();
+
+        public ProjectPool(long aVersion)
+        {
+            version = aVersion;
+        }
+    }
+}
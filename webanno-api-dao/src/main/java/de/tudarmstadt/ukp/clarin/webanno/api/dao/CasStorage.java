@@ -0,0 +1,933 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.UIMARuntimeException;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Marker;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.impl.CASCompleteSerializer;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.CASMgrSerializer;
+import org.apache.uima.cas.impl.Serialization;
+import org.apache.uima.cas.impl.TypeSystemImpl;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.util.CasCreationUtils;
+import org.springframework.beans.factory.annotation.Value;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+/**
+ * Reads and writes the serialized annotation documents ({@code <username>.ser}).
+ * <p>
+ * Two storage formats are supported:
+ * <ul>
+ * <li><b>serialized</b> - a Java-serialized {@link CASCompleteSerializer} as written by the
+ * DKPro Core {@code SerializedCasWriter}. Every file contains the full type system.</li>
+ * <li><b>binary</b> - UIMA compressed binary form 6. The type system is not stored in the file.
+ * Instead, the file refers to a type system file which is shared by all documents of the
+ * project that were written with the same type system.</li>
+ * </ul>
+ * Which format is used for writing is configured via {@code cas.storage.format}. Files in either
+ * format can always be read. Reading a binary file maps its content to the type system of the
+ * target CAS, so documents written with an older project type system are upgraded on the fly.
+ * <p>
+ * The shared type system files are stored in the {@code typesystem} folder of the project and
+ * are named after a hash of their content. They are never deleted, because history backups of
+ * annotation documents may still refer to them.
+ * <p>
+ * If journaling is enabled ({@code cas.journal.enabled}), saving a CAS which was loaded through
+ * {@link #read} only appends the changes made since it was loaded to a journal file next to the
+ * snapshot ({@code <username>.ser.journal}) using the UIMA delta CAS format. When reading, the
+ * snapshot is loaded and the journal is replayed on top of it. Replaying requires the CAS to have
+ * exactly the same heap layout as when the changes were recorded, so the journal remembers the
+ * type system and a hash of the content of the snapshot it is based on. The content hash rather
+ * than the modification time identifies the snapshot, so journals stay valid when the repository
+ * is copied or restored without preserving modification times. Once the journal becomes larger
+ * than the snapshot, a full snapshot is written again and the journal is removed (compaction).
+ */
+public class CasStorage
+{
+    public static final String FORMAT_SERIALIZED = "serialized";
+    public static final String FORMAT_BINARY = "binary";
+
+    private static final String PROJECT = "/project/";
+    private static final String TYPESYSTEM = "/typesystem/";
+
+    /**
+     * Magic bytes at the beginning of a file in the binary format followed by the format version.
+     */
+    private static final byte[] HEADER = new byte[] { 'W', 'A', 'B', 'C' };
+    private static final int VERSION = 1;
+
+    /**
+     * Magic bytes at the beginning of a journal file followed by the journal version.
+     */
+    private static final byte[] JOURNAL_HEADER = new byte[] { 'W', 'A', 'B', 'J' };
+    private static final int JOURNAL_VERSION = 2;
+
+    public static final String JOURNAL_SUFFIX = ".journal";
+
+    /**
+     * Suffix of journals which do not belong to their snapshot. They are kept for manual
+     * recovery.
+     */
+    public static final String STALE_JOURNAL_SUFFIX = ".stale";
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private File dir;
+
+    @Value(value = "${cas.storage.format}")
+    private String format = FORMAT_BINARY;
+
+    @Value(value = "${cas.journal.enabled}")
+    private boolean journalEnabled = true;
+
+    /**
+     * The CASes loaded through {@link #read} for which changes can be written to the journal. Weak
+     * keys so that CASes which are never saved do not leak. The states must not refer to their CAS
+     * strongly, otherwise the keys would never be collected (see {@link LoadState}).
+     */
+    private final Map<CAS, LoadState> tracked = new WeakHashMap<CAS, LoadState>();
+
+    /**
+     * Content hashes of the snapshots, so that a snapshot is only hashed again when it changed.
+     * Within the running application, the modification time reliably tells if it did.
+     */
+    private final Map<File, SnapshotHash> snapshotHashes =
+            new ConcurrentHashMap<File, SnapshotHash>();
+
+    /**
+     * Hashes of the type systems that were already written. Weak keys so that type systems which
+     * are no longer in use by any CAS can be garbage collected.
+     */
+    private final Map<TypeSystem, String> typeSystemHashes = new WeakHashMap<TypeSystem, String>();
+
+    /**
+     * Type systems that were already loaded from the shared type system files.
+     */
+    private final Map<String, TypeSystemImpl> loadedTypeSystems = new ConcurrentHashMap<String, TypeSystemImpl>();
+
+    /**
+     * Write the given CAS to the given file using the configured storage format.
+     *
+     * @param aProject
+     *            the project the document belongs to.
+     * @param aCas
+     *            the CAS.
+     * @param aFile
+     *            the target file.
+     * @throws IOException
+     *             if the CAS cannot be written.
+     */
+    public void write(Project aProject, CAS aCas, File aFile)
+        throws IOException
+    {
+        if (FORMAT_SERIALIZED.equals(format)) {
+            writeSerialized(aCas, aFile);
+        }
+        else {
+            writeBinary(aProject, aCas, aFile);
+        }
+
+        // The snapshot contains everything now. The heap layout of the CAS does not correspond
+        // to the new snapshot, so changes to it can no longer be journaled.
+        FileUtils.deleteQuietly(getJournalFile(aFile));
+        // The file may have been replaced without changing its modification time or size
+        snapshotHashes.remove(aFile);
+        synchronized (tracked) {
+            tracked.remove(((CASImpl) aCas).getBaseCAS());
+        }
+    }
+
+    /**
+     * Append the changes made to the given CAS since it was loaded to the journal of the given
+     * file. This is only possible if journaling is enabled, if the CAS was loaded through
+     * {@link #read} and was not saved since, if neither the snapshot nor the journal were changed
+     * in the meantime and if the journal does not need to be compacted. Otherwise, nothing is
+     * written and the caller has to write a full snapshot using {@link #write}.
+     *
+     * @param aProject
+     *            the project the document belongs to.
+     * @param aCas
+     *            the CAS.
+     * @param aFile
+     *            the snapshot file.
+     * @return whether the changes were written to the journal.
+     * @throws IOException
+     *             if the journal cannot be written.
+     */
+    public boolean writeDelta(Project aProject, CAS aCas, File aFile)
+        throws IOException
+    {
+        if (!journalEnabled) {
+            return false;
+        }
+
+        CASImpl cas = ((CASImpl) aCas).getBaseCAS();
+        LoadState state;
+        synchronized (tracked) {
+            state = tracked.remove(cas);
+        }
+
+        Marker marker = state != null ? state.getMarker() : null;
+        if (marker == null || !marker.isValid() || !state.matches(aFile)) {
+            return false;
+        }
+
+        File journalFile = getJournalFile(aFile);
+        long journalLength = journalFile.length();
+
+        // Compact once replaying the journal is more expensive than reading a snapshot
+        if (journalLength > aFile.length()) {
+            log.debug("Compacting journal [" + journalFile + "]");
+            return false;
+        }
+
+        String tsHash = writeTypeSystem(aProject, cas);
+        String snapshotHash = getSnapshotHash(aFile);
+        if (journalLength > 0) {
+            JournalHeader header = readJournalHeader(journalFile);
+            if (header == null || !snapshotHash.equals(header.snapshotHash)
+                    || !header.typeSystemHash.equals(tsHash)) {
+                return false;
+            }
+        }
+
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        Serialization.serializeCAS(cas, delta, marker);
+
+        DataOutputStream os = null;
+        try {
+            os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile,
+                    true)));
+            if (journalLength == 0) {
+                os.write(JOURNAL_HEADER);
+                os.writeInt(JOURNAL_VERSION);
+                os.writeUTF(tsHash);
+                os.writeUTF(snapshotHash);
+            }
+            os.writeInt(delta.size());
+            delta.writeTo(os);
+            os.close();
+        }
+        catch (IOException e) {
+            closeQuietly(os);
+            // Remove the partially written entry so that later entries are not appended to it
+            truncate(journalFile, journalLength);
+            throw e;
+        }
+
+        return true;
+    }
+
+    /**
+     * Write a full snapshot including the journal of the given file and remove the journal.
+     *
+     * @param aProject
+     *            the project the document belongs to.
+     * @param aFile
+     *            the snapshot file.
+     * @throws IOException
+     *             if the snapshot cannot be written.
+     */
+    public void compact(Project aProject, File aFile)
+        throws IOException
+    {
+        File journalFile = getJournalFile(aFile);
+        if (!journalFile.exists()) {
+            return;
+        }
+
+        JournalHeader header = readJournalHeader(journalFile);
+        if (header == null || !isBasedOn(header, aFile)) {
+            // Keep the journal around - it may still be possible to recover the changes manually
+            File staleFile = new File(journalFile.getPath() + STALE_JOURNAL_SUFFIX);
+            log.warn("Moving stale journal [" + journalFile + "] to [" + staleFile + "]");
+            FileUtils.deleteQuietly(staleFile);
+            FileUtils.moveFile(journalFile, staleFile);
+            return;
+        }
+
+        CAS cas;
+        try {
+            cas = CasCreationUtils.createCas(loadTypeSystem(aProject, header.typeSystemHash),
+                    null, null, null);
+        }
+        catch (ResourceInitializationException e) {
+            throw new IOException(e);
+        }
+        readSnapshot(aProject, aFile, cas);
+        replayJournal(journalFile, cas);
+
+        File oldVersion = new File(aFile.getPath() + ".old");
+        if (!aFile.renameTo(oldVersion)) {
+            throw new IOException("Cannot rename file [" + aFile + "] to [" + oldVersion + "]");
+        }
+        try {
+            write(aProject, cas, aFile);
+        }
+        catch (IOException e) {
+            FileUtils.deleteQuietly(aFile);
+            oldVersion.renameTo(aFile);
+            throw e;
+        }
+        FileUtils.forceDelete(oldVersion);
+    }
+
+    /**
+     * Write the given CAS to the given file as Java-serialized {@link CASCompleteSerializer}.
+     * Files in this format are self-contained and can be read by older versions of WebAnno.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aFile
+     *            the target file.
+     * @throws IOException
+     *             if the CAS cannot be written.
+     */
+    public void writeSerialized(CAS aCas, File aFile)
+        throws IOException
+    {
+        ObjectOutputStream os = null;
+        try {
+            os = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(aFile)));
+            os.writeObject(Serialization.serializeCASComplete(((CASImpl) aCas).getBaseCAS()));
+        }
+        finally {
+            closeQuietly(os);
+        }
+    }
+
+    private void writeBinary(Project aProject, CAS aCas, File aFile)
+        throws IOException
+    {
+        CASImpl cas = ((CASImpl) aCas).getBaseCAS();
+        String tsHash = writeTypeSystem(aProject, cas);
+
+        DataOutputStream os = null;
+        try {
+            os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(aFile)));
+            os.write(HEADER);
+            os.writeInt(VERSION);
+            os.writeUTF(tsHash);
+            Serialization.serializeWithCompression(cas, os, cas.getTypeSystem());
+        }
+        catch (ResourceInitializationException e) {
+            throw new IOException(e);
+        }
+        finally {
+            closeQuietly(os);
+        }
+    }
+
+    /**
+     * Read the given file and its journal. The storage format is detected automatically.
+     * <p>
+     * If the file is in the serialized format, the type system of the CAS is replaced by the type
+     * system stored in the file. If it is in the binary format, the CAS keeps its type system.
+     * <p>
+     * If there is a journal which was recorded with another type system than the one of the given
+     * CAS, the journal can only be replayed on a CAS with that type system. In this case, a new
+     * CAS is created and returned and the given CAS is not modified.
+     *
+     * @param aProject
+     *            the project the document belongs to.
+     * @param aFile
+     *            the source file.
+     * @param aCas
+     *            the target CAS.
+     * @return the CAS containing the document. This is usually the given CAS.
+     * @throws IOException
+     *             if the CAS cannot be read.
+     */
+    public CAS read(Project aProject, File aFile, CAS aCas)
+        throws IOException
+    {
+        CAS cas = aCas;
+
+        // An existing journal is always replayed, even if journaling has been disabled in the
+        // meantime. Otherwise changes would be lost.
+        File journalFile = getJournalFile(aFile);
+        JournalHeader header = null;
+        if (journalFile.exists()) {
+            header = readJournalHeader(journalFile);
+            if (header == null || !isBasedOn(header, aFile)) {
+                log.warn("Ignoring stale journal [" + journalFile + "]");
+                header = null;
+            }
+        }
+
+        if (header != null
+                && !header.typeSystemHash.equals(getTypeSystemHash(((CASImpl) cas).getBaseCAS()))) {
+            try {
+                cas = CasCreationUtils.createCas(loadTypeSystem(aProject, header.typeSystemHash),
+                        null, null, null);
+            }
+            catch (ResourceInitializationException e) {
+                throw new IOException(e);
+            }
+        }
+
+        readSnapshot(aProject, aFile, cas);
+        if (header != null) {
+            replayJournal(journalFile, cas);
+        }
+
+        if (journalEnabled) {
+            startTracking(cas, aFile);
+        }
+
+        return cas;
+    }
+
+    /**
+     * Remember the current state of the given CAS so that changes made to it from now on can be
+     * written to the journal of the given file. Call this only if the CAS contains exactly what
+     * {@link #read} would produce from the current snapshot and journal, e.g. after restoring it
+     * from an in-memory copy of a CAS that was read or saved through this class.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aFile
+     *            the snapshot file.
+     */
+    public void startTracking(CAS aCas, File aFile)
+    {
+        if (!journalEnabled) {
+            return;
+        }
+
+        CASImpl cas = ((CASImpl) aCas).getBaseCAS();
+        try {
+            LoadState state = new LoadState(cas.createMarker(), aFile.lastModified(),
+                    aFile.length(), getJournalFile(aFile).length());
+            synchronized (tracked) {
+                tracked.put(cas, state);
+            }
+        }
+        catch (UIMARuntimeException e) {
+            // UIMA only supports one marker per CAS until it is reset. If the CAS is already
+            // tracked, changes are saved as a full snapshot.
+            log.debug("Unable to track changes to CAS: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Forget the state of the given CAS, e.g. because it is reset and reused for another document.
+     * Changes made to it can no longer be written to the journal.
+     *
+     * @param aCas
+     *            the CAS.
+     */
+    public void stopTracking(CAS aCas)
+    {
+        synchronized (tracked) {
+            tracked.remove(((CASImpl) aCas).getBaseCAS());
+        }
+    }
+
+    private void readSnapshot(Project aProject, File aFile, CAS aCas)
+        throws IOException
+    {
+        InputStream is = null;
+        try {
+            is = new BufferedInputStream(new FileInputStream(aFile));
+            if (readHeader(is)) {
+                DataInputStream dis = new DataInputStream(is);
+                int version = dis.readInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported binary CAS version [" + version + "] in ["
+                            + aFile + "]");
+                }
+                TypeSystemImpl ts = loadTypeSystem(aProject, dis.readUTF());
+                Serialization.deserializeCAS(aCas, dis, ts, null);
+            }
+            else {
+                ObjectInputStream ois = new ObjectInputStream(is);
+                CASCompleteSerializer serializer = (CASCompleteSerializer) ois.readObject();
+                Serialization.deserializeCASComplete(serializer, ((CASImpl) aCas).getBaseCAS());
+            }
+        }
+        catch (ResourceInitializationException e) {
+            throw new IOException(e);
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        finally {
+            closeQuietly(is);
+        }
+    }
+
+    private void replayJournal(File aJournalFile, CAS aCas)
+        throws IOException
+    {
+        DataInputStream is = null;
+        try {
+            is = new DataInputStream(new BufferedInputStream(new FileInputStream(aJournalFile)));
+            readJournalHeader(is);
+            byte[] buffer = new byte[0];
+            while (true) {
+                int length;
+                try {
+                    length = is.readInt();
+                }
+                catch (EOFException e) {
+                    break;
+                }
+
+                if (buffer.length < length) {
+                    buffer = new byte[length];
+                }
+                try {
+                    is.readFully(buffer, 0, length);
+                }
+                catch (EOFException e) {
+                    // The last entry was not written completely, e.g. because the server crashed
+                    // while saving. Ignore it.
+                    log.warn("Ignoring incomplete entry at the end of journal [" + aJournalFile
+                            + "]");
+                    break;
+                }
+
+                Serialization.deserializeCAS(((CASImpl) aCas).getBaseCAS(),
+                        new ByteArrayInputStream(buffer, 0, length));
+            }
+        }
+        finally {
+            closeQuietly(is);
+        }
+    }
+
+    private JournalHeader readJournalHeader(File aJournalFile)
+        throws IOException
+    {
+        DataInputStream is = null;
+        try {
+            is = new DataInputStream(new BufferedInputStream(new FileInputStream(aJournalFile)));
+            return readJournalHeader(is);
+        }
+        catch (EOFException e) {
+            return null;
+        }
+        finally {
+            closeQuietly(is);
+        }
+    }
+
+    private JournalHeader readJournalHeader(DataInputStream aIs)
+        throws IOException
+    {
+        byte[] header = new byte[JOURNAL_HEADER.length];
+        aIs.readFully(header);
+        if (!Arrays.equals(header, JOURNAL_HEADER)) {
+            return null;
+        }
+
+        int version = aIs.readInt();
+        if (version != JOURNAL_VERSION) {
+            throw new IOException("Unsupported journal version [" + version + "]");
+        }
+        return new JournalHeader(aIs.readUTF(), aIs.readUTF());
+    }
+
+    /**
+     * Check if the given journal was recorded on top of the given snapshot.
+     */
+    private boolean isBasedOn(JournalHeader aHeader, File aFile)
+        throws IOException
+    {
+        return aHeader.snapshotHash.equals(getSnapshotHash(aFile));
+    }
+
+    /**
+     * @return the hash of the content of the given snapshot file.
+     */
+    private String getSnapshotHash(File aFile)
+        throws IOException
+    {
+        SnapshotHash cached = snapshotHashes.get(aFile);
+        if (cached != null && cached.matches(aFile)) {
+            return cached.hash;
+        }
+
+        long lastModified = aFile.lastModified();
+        long length = aFile.length();
+        MessageDigest digest = createDigest();
+        InputStream is = null;
+        try {
+            is = new DigestInputStream(new FileInputStream(aFile), digest);
+            byte[] buffer = new byte[8192];
+            while (is.read(buffer) >= 0) {
+                // Only compute the digest
+            }
+        }
+        finally {
+            closeQuietly(is);
+        }
+
+        String hash = toHex(digest.digest());
+        snapshotHashes.put(aFile, new SnapshotHash(lastModified, length, hash));
+        return hash;
+    }
+
+    private void truncate(File aFile, long aLength)
+    {
+        if (aLength == 0) {
+            FileUtils.deleteQuietly(aFile);
+            return;
+        }
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(aFile, "rw");
+            raf.setLength(aLength);
+        }
+        catch (IOException e) {
+            log.error("Unable to truncate journal [" + aFile + "] - removing it", e);
+            FileUtils.deleteQuietly(aFile);
+        }
+        finally {
+            closeQuietly(raf);
+        }
+    }
+
+    /**
+     * @return the journal belonging to the given snapshot file.
+     */
+    public File getJournalFile(File aFile)
+    {
+        return new File(aFile.getPath() + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * Get a string which changes whenever the document stored in the given file changes, i.e.
+     * whenever the snapshot or the journal is written.
+     *
+     * @param aFile
+     *            the snapshot file.
+     * @return the version.
+     */
+    public String getVersion(File aFile)
+    {
+        return aFile.lastModified() + "-" + aFile.length() + "-"
+                + getJournalFile(aFile).length();
+    }
+
+    /**
+     * Check if the given file is stored in the binary format.
+     *
+     * @param aFile
+     *            the file.
+     * @return whether the file is in the binary format.
+     * @throws IOException
+     *             if the file cannot be read.
+     */
+    public boolean isBinary(File aFile)
+        throws IOException
+    {
+        InputStream is = null;
+        try {
+            is = new BufferedInputStream(new FileInputStream(aFile));
+            return readHeader(is);
+        }
+        finally {
+            closeQuietly(is);
+        }
+    }
+
+    /**
+     * Checks the header. If the header does not match, the stream is reset to its start.
+     */
+    private boolean readHeader(InputStream aIs)
+        throws IOException
+    {
+        aIs.mark(HEADER.length);
+        byte[] header = new byte[HEADER.length];
+        int read = 0;
+        while (read < header.length) {
+            int n = aIs.read(header, read, header.length - read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+
+        if (read == header.length && Arrays.equals(header, HEADER)) {
+            return true;
+        }
+
+        aIs.reset();
+        return false;
+    }
+
+    /**
+     * Make sure the shared type system file for the type system of the given CAS exists.
+     *
+     * @return the hash identifying the type system file.
+     */
+    private String writeTypeSystem(Project aProject, CASImpl aCas)
+        throws IOException
+    {
+        String hash = getTypeSystemHash(aCas);
+
+        File tsFile = getTypeSystemFile(aProject, hash);
+        if (!tsFile.exists()) {
+            byte[] data = serializeTypeSystem(aCas);
+
+            // Write to a temporary file first so that concurrent readers never see a partially
+            // written type system file.
+            FileUtils.forceMkdir(tsFile.getParentFile());
+            File tmpFile = File.createTempFile(hash, ".tmp", tsFile.getParentFile());
+            FileUtils.writeByteArrayToFile(tmpFile, data);
+            if (!tmpFile.renameTo(tsFile)) {
+                FileUtils.deleteQuietly(tmpFile);
+                if (!tsFile.exists()) {
+                    throw new IOException("Unable to write type system file [" + tsFile + "]");
+                }
+            }
+            log.info("Created type system file [" + tsFile + "]");
+        }
+
+        return hash;
+    }
+
+    private String getTypeSystemHash(CASImpl aCas)
+        throws IOException
+    {
+        String hash;
+        synchronized (typeSystemHashes) {
+            hash = typeSystemHashes.get(aCas.getTypeSystem());
+        }
+
+        if (hash == null) {
+            hash = hash(serializeTypeSystem(aCas));
+            synchronized (typeSystemHashes) {
+                typeSystemHashes.put(aCas.getTypeSystem(), hash);
+            }
+        }
+
+        return hash;
+    }
+
+    private TypeSystemImpl loadTypeSystem(Project aProject, String aHash)
+        throws IOException
+    {
+        TypeSystemImpl ts = loadedTypeSystems.get(aHash);
+        if (ts != null) {
+            return ts;
+        }
+
+        File tsFile = getTypeSystemFile(aProject, aHash);
+        ObjectInputStream ois = null;
+        try {
+            ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(tsFile)));
+            CASMgrSerializer casMgrSerializer = (CASMgrSerializer) ois.readObject();
+            ts = casMgrSerializer.getTypeSystem();
+            ts.commit();
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+        finally {
+            closeQuietly(ois);
+        }
+
+        loadedTypeSystems.put(aHash, ts);
+        return ts;
+    }
+
+    private byte[] serializeTypeSystem(CASImpl aCas)
+        throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream os = new ObjectOutputStream(bos);
+        os.writeObject(Serialization.serializeCASMgr(aCas));
+        os.close();
+        return bos.toByteArray();
+    }
+
+    private static String hash(byte[] aData)
+    {
+        return toHex(createDigest().digest(aData));
+    }
+
+    private static MessageDigest createDigest()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] aBytes)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : aBytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the folder containing the shared type system files of the given project.
+     */
+    public File getTypeSystemFolder(Project aProject)
+    {
+        return new File(dir, PROJECT + aProject.getId() + TYPESYSTEM);
+    }
+
+    private File getTypeSystemFile(Project aProject, String aHash)
+    {
+        return new File(getTypeSystemFolder(aProject), aHash + ".ser");
+    }
+
+    public File getDir()
+    {
+        return dir;
+    }
+
+    public void setDir(File aDir)
+    {
+        dir = aDir;
+    }
+
+    public String getFormat()
+    {
+        return format;
+    }
+
+    public void setFormat(String aFormat)
+    {
+        format = aFormat;
+    }
+
+    public boolean isJournalEnabled()
+    {
+        return journalEnabled;
+    }
+
+    public void setJournalEnabled(boolean aJournalEnabled)
+    {
+        journalEnabled = aJournalEnabled;
+    }
+
+    /**
+     * The state of a document at the time it was loaded into a CAS. The marker refers to its CAS,
+     * so it is only referenced weakly. The CAS itself keeps its marker alive until it is reset.
+     */
+    private static class LoadState
+    {
+        private final WeakReference<Marker> marker;
+        private final long snapshotLastModified;
+        private final long snapshotLength;
+        private final long journalLength;
+
+        public LoadState(Marker aMarker, long aSnapshotLastModified, long aSnapshotLength,
+                long aJournalLength)
+        {
+            marker = new WeakReference<Marker>(aMarker);
+            snapshotLastModified = aSnapshotLastModified;
+            snapshotLength = aSnapshotLength;
+            journalLength = aJournalLength;
+        }
+
+        public Marker getMarker()
+        {
+            return marker.get();
+        }
+
+        public boolean matches(File aFile)
+        {
+            return aFile.lastModified() == snapshotLastModified
+                    && aFile.length() == snapshotLength
+                    && new File(aFile.getPath() + JOURNAL_SUFFIX).length() == journalLength;
+        }
+    }
+
+    /**
+     * The header of a journal file identifying the snapshot and type system it is based on.
+     */
+    private static class JournalHeader
+    {
+        private final String typeSystemHash;
+        private final String snapshotHash;
+
+        public JournalHeader(String aTypeSystemHash, String aSnapshotHash)
+        {
+            typeSystemHash = aTypeSystemHash;
+            snapshotHash = aSnapshotHash;
+        }
+    }
+
+    /**
+     * The content hash of a snapshot file at the time it was computed.
+     */
+    private static class SnapshotHash
+    {
+        private final long lastModified;
+        private final long length;
+        private final String hash;
+
+        public SnapshotHash(long aLastModified, long aLength, String aHash)
+        {
+            lastModified = aLastModified;
+            length = aLength;
+            hash = aHash;
+        }
+
+        public boolean matches(File aFile)
+        {
+            return aFile.lastModified() == lastModified && aFile.length() == length;
+        }
+    }
+}
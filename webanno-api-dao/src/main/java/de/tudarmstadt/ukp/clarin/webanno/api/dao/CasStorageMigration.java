@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.concurrent.locks.Lock;
+
+import javax.annotation.Resource;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.UIMAException;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.resource.metadata.impl.TypeSystemDescription_impl;
+import org.apache.uima.util.CasCreationUtils;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+/**
+ * Converts annotation documents stored in the serialized format to the binary format in the
+ * background (see {@link CasStorage}). The migration is started when the application starts and
+ * only runs if the binary format is configured. Each document is converted while holding its
+ * write lock, so the migration can run while users are working. Only the current version of each
+ * document is converted, history backups are left as they are. A journal belonging to a converted
+ * document is merged into the new snapshot.
+ */
+public class CasStorageMigration
+{
+    private static final String PROJECT = "project";
+    private static final String DOCUMENT = "document";
+    private static final String ANNOTATION = "annotation";
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    @Resource(name = "casStorage")
+    private CasStorage casStorage;
+
+    @Resource(name = "annotationDocumentLockManager")
+    private AnnotationDocumentLockManager lockManager;
+
+    private Thread thread;
+
+    private volatile boolean stopped;
+
+    private int migrated;
+
+    private int failed;
+
+    /**
+     * Start migrating in a background thread.
+     */
+    public synchronized void start()
+    {
+        if (!CasStorage.FORMAT_BINARY.equals(casStorage.getFormat()) || thread != null) {
+            return;
+        }
+
+        stopped = false;
+        thread = new Thread("CAS storage migration")
+        {
+            @Override
+            public void run()
+            {
+                migrate();
+            }
+        };
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stop the background migration. Documents which have not been migrated yet are migrated on
+     * the next start.
+     */
+    public void stop()
+    {
+        Thread t;
+        synchronized (this) {
+            stopped = true;
+            t = thread;
+            thread = null;
+        }
+
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join(10000);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Migrate all annotation documents in all projects.
+     */
+    public void migrate()
+    {
+        long start = System.currentTimeMillis();
+        migrated = 0;
+        failed = 0;
+
+        File[] projects = listDirectories(new File(casStorage.getDir(), PROJECT));
+        for (File projectDir : projects) {
+            long projectId = parseId(projectDir);
+            if (projectId < 0) {
+                continue;
+            }
+
+            Project project = new Project();
+            project.setId(projectId);
+
+            for (File documentDir : listDirectories(new File(projectDir, DOCUMENT))) {
+                long documentId = parseId(documentDir);
+                if (documentId < 0) {
+                    continue;
+                }
+
+                File[] files = new File(documentDir, ANNOTATION).listFiles(new FileFilter()
+                {
+                    @Override
+                    public boolean accept(File aFile)
+                    {
+                        return aFile.isFile() && aFile.getName().endsWith(".ser");
+                    }
+                });
+                if (files == null) {
+                    continue;
+                }
+
+                for (File file : files) {
+                    if (stopped) {
+                        log.info("CAS storage migration stopped after [" + migrated
+                                + "] documents");
+                        return;
+                    }
+
+                    String username = file.getName().substring(0,
+                            file.getName().length() - ".ser".length());
+                    migrate(project, documentId, username, file);
+                }
+            }
+        }
+
+        if (migrated > 0 || failed > 0) {
+            log.info("CAS storage migration converted [" + migrated + "] documents in ["
+                    + (System.currentTimeMillis() - start) + "] ms - [" + failed + "] failed");
+        }
+    }
+
+    private void migrate(Project aProject, long aDocumentId, String aUsername, File aFile)
+    {
+        Lock writeLock = lockManager.getLock(aProject.getId(), aDocumentId, aUsername)
+                .writeLock();
+        writeLock.lock();
+        try {
+            if (!aFile.exists() || casStorage.isBinary(aFile)) {
+                return;
+            }
+
+            // The type system is replaced when reading the serialized format
+            CAS cas = CasCreationUtils.createCas(new TypeSystemDescription_impl(), null,
+                    null);
+            cas = casStorage.read(aProject, aFile, cas);
+
+            File oldVersion = new File(aFile.getPath() + ".old");
+            if (!aFile.renameTo(oldVersion)) {
+                throw new IOException("Cannot rename file [" + aFile + "] to [" + oldVersion
+                        + "]");
+            }
+            try {
+                casStorage.write(aProject, cas, aFile);
+            }
+            catch (IOException e) {
+                FileUtils.deleteQuietly(aFile);
+                oldVersion.renameTo(aFile);
+                throw e;
+            }
+            // Keep the modification time so the backup history is not affected
+            aFile.setLastModified(oldVersion.lastModified());
+            FileUtils.forceDelete(oldVersion);
+
+            migrated++;
+            log.debug("Migrated [" + aFile + "]");
+        }
+        catch (IOException e) {
+            failed++;
+            log.error("Unable to migrate [" + aFile + "]", e);
+        }
+        catch (UIMAException e) {
+            failed++;
+            log.error("Unable to migrate [" + aFile + "]", e);
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    private static File[] listDirectories(File aDir)
+    {
+        File[] dirs = aDir.listFiles(new FileFilter()
+        {
+            @Override
+            public boolean accept(File aFile)
+            {
+                return aFile.isDirectory();
+            }
+        });
+        return dirs != null ? dirs : new File[0];
+    }
+
+    private static long parseId(File aDir)
+    {
+        try {
+            return Long.parseLong(aDir.getName());
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public void setCasStorage(CasStorage aCasStorage)
+    {
+        casStorage = aCasStorage;
+    }
+
+    public void setLockManager(AnnotationDocumentLockManager aLockManager)
+    {
+        lockManager = aLockManager;
+    }
+
+    public int getMigrated()
+    {
+        return migrated;
+    }
+
+    public int getFailed()
+    {
+        return failed;
+    }
+}
@@ -0,0 +1,409 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.RollingFileAppender;
+import org.apache.log4j.spi.LoggingEvent;
+import org.springframework.beans.factory.annotation.Value;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+/**
+ * Writes the audit log of each project ({@code project/project-<id>.log} in the repository).
+ * <p>
+ * Events are queued and written by a background thread in batches, so logging does not block the
+ * caller on disk access. Each project has a single appender which stays open and is shared by all
+ * users of the project. The log file is rotated when it exceeds {@code audit.log.max.size}, keeping
+ * {@code audit.log.max.backups} old files ({@code project-<id>.log.1} etc.).
+ */
+public class ProjectAuditLog
+{
+    private static final String PROJECT = "/project/";
+
+    private static final int BATCH_SIZE = 256;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final Logger logger = Logger.getLogger(getClass());
+
+    private File dir;
+
+    /**
+     * Maximum size of a log file before it is rotated, e.g. {@code 10MB}.
+     */
+    @Value(value = "${audit.log.max.size}")
+    private String maxFileSize = "10MB";
+
+    /**
+     * Number of rotated log files to keep.
+     */
+    @Value(value = "${audit.log.max.backups}")
+    private int maxBackups = 10;
+
+    private final BlockingQueue<Event> queue = new LinkedBlockingQueue<Event>();
+
+    /**
+     * Open appenders by project ID. Only accessed while synchronized on the map.
+     */
+    private final Map<Long, BatchingAppender> appenders = new HashMap<Long, BatchingAppender>();
+
+    private volatile Thread worker;
+
+    private volatile boolean stopped;
+
+    private final AtomicLong enqueued = new AtomicLong();
+
+    /**
+     * Number of events written so far. Guarded by {@link #writtenLock}.
+     */
+    private long written;
+
+    private final Object writtenLock = new Object();
+
+    /**
+     * Start the background thread.
+     */
+    public synchronized void start()
+    {
+        if (worker != null) {
+            return;
+        }
+
+        stopped = false;
+        worker = new Thread("Project audit log")
+        {
+            @Override
+            public void run()
+            {
+                process();
+            }
+        };
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Write all queued events, close all log files and stop the background thread.
+     */
+    public synchronized void stop()
+    {
+        stopped = true;
+        if (worker != null) {
+            worker.interrupt();
+            try {
+                worker.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            worker = null;
+        }
+
+        // Write anything the worker did not get to
+        write(true);
+
+        synchronized (appenders) {
+            for (BatchingAppender appender : appenders.values()) {
+                appender.close();
+            }
+            appenders.clear();
+        }
+    }
+
+    /**
+     * Log an event for the given project.
+     *
+     * @param aProject
+     *            the project.
+     * @param aUsername
+     *            the user who caused the event.
+     * @param aMessage
+     *            the message.
+     */
+    public void info(Project aProject, String aUsername, String aMessage)
+    {
+        log(aProject, aUsername, Level.INFO, aMessage);
+    }
+
+    /**
+     * Log a warning for the given project.
+     *
+     * @param aProject
+     *            the project.
+     * @param aUsername
+     *            the user who caused the event.
+     * @param aMessage
+     *            the message.
+     */
+    public void warn(Project aProject, String aUsername, String aMessage)
+    {
+        log(aProject, aUsername, Level.WARN, aMessage);
+    }
+
+    private void log(Project aProject, String aUsername, Level aLevel, String aMessage)
+    {
+        Event event = new Event(aProject.getId(), new LoggingEvent(Logger.class.getName(), logger,
+                System.currentTimeMillis(), aLevel, "[" + aUsername + "] " + aMessage, null));
+        enqueued.incrementAndGet();
+        queue.add(event);
+
+        if (worker == null) {
+            // Not started (e.g. outside the application context) - write synchronously
+            write(false);
+        }
+    }
+
+    /**
+     * Wait until all events logged so far have been written to disk.
+     */
+    public void flush()
+    {
+        long target = enqueued.get();
+
+        if (worker == null) {
+            write(false);
+            return;
+        }
+
+        synchronized (writtenLock) {
+            while (written < target && worker != null) {
+                try {
+                    writtenLock.wait(100);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write all pending events and close the log file of the given project. Call this before the
+     * log file is accessed or replaced directly. The file is reopened when the next event is
+     * logged.
+     *
+     * @param aProject
+     *            the project.
+     */
+    public void close(Project aProject)
+    {
+        flush();
+        synchronized (appenders) {
+            BatchingAppender appender = appenders.remove(aProject.getId());
+            if (appender != null) {
+                appender.close();
+            }
+        }
+    }
+
+    /**
+     * Get the log file of the given project and its rotated files which exist. Call
+     * {@link #close} first if the files are copied.
+     *
+     * @param aProject
+     *            the project.
+     * @return the log files, the current one first.
+     */
+    public List<File> getLogFiles(Project aProject)
+    {
+        List<File> files = new ArrayList<File>();
+        File logFile = getLogFile(aProject.getId());
+        if (logFile.exists()) {
+            files.add(logFile);
+        }
+        for (int i = 1; i <= maxBackups; i++) {
+            File rotated = new File(logFile.getPath() + "." + i);
+            if (rotated.exists()) {
+                files.add(rotated);
+            }
+        }
+        return files;
+    }
+
+    private void process()
+    {
+        while (!stopped) {
+            write(true);
+        }
+    }
+
+    /**
+     * Write the queued events in batches.
+     *
+     * @param aWait
+     *            whether to wait for events if there are none.
+     */
+    private void write(boolean aWait)
+    {
+        List<Event> batch = new ArrayList<Event>(BATCH_SIZE);
+        try {
+            if (aWait && !stopped) {
+                Event first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    return;
+                }
+                batch.add(first);
+            }
+        }
+        catch (InterruptedException e) {
+            // Stopping - write what is left
+        }
+
+        do {
+            queue.drainTo(batch, BATCH_SIZE - batch.size());
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            synchronized (appenders) {
+                List<BatchingAppender> used = new ArrayList<BatchingAppender>();
+                for (Event event : batch) {
+                    BatchingAppender appender = getAppender(event.projectId);
+                    appender.doAppend(event.event);
+                    if (!used.contains(appender)) {
+                        used.add(appender);
+                    }
+                }
+
+                for (BatchingAppender appender : used) {
+                    appender.flush();
+                }
+            }
+
+            synchronized (writtenLock) {
+                written += batch.size();
+                writtenLock.notifyAll();
+            }
+            batch.clear();
+        }
+        while (!queue.isEmpty());
+    }
+
+    private BatchingAppender getAppender(long aProjectId)
+    {
+        BatchingAppender appender = appenders.get(aProjectId);
+        if (appender == null) {
+            appender = new BatchingAppender();
+            appender.setFile(getLogFile(aProjectId).getAbsolutePath());
+            appender.setAppend(true);
+            appender.setEncoding("UTF-8");
+            appender.setLayout(new PatternLayout("%d %m%n"));
+            appender.setMaxFileSize(maxFileSize);
+            appender.setMaxBackupIndex(maxBackups);
+            appender.setImmediateFlush(false);
+            appender.activateOptions();
+            appenders.put(aProjectId, appender);
+            log.debug("Opened audit log of project [" + aProjectId + "]");
+        }
+        return appender;
+    }
+
+    private File getLogFile(long aProjectId)
+    {
+        return new File(dir.getAbsolutePath() + PROJECT + "project-" + aProjectId + ".log");
+    }
+
+    public File getDir()
+    {
+        return dir;
+    }
+
+    public void setDir(File aDir)
+    {
+        dir = aDir;
+    }
+
+    public void setMaxFileSize(String aMaxFileSize)
+    {
+        maxFileSize = aMaxFileSize;
+    }
+
+    public void setMaxBackups(int aMaxBackups)
+    {
+        maxBackups = aMaxBackups;
+    }
+
+    public long getEnqueued()
+    {
+        return enqueued.get();
+    }
+
+    public long getWritten()
+    {
+        synchronized (writtenLock) {
+            return written;
+        }
+    }
+
+    /**
+     * @return the number of events waiting to be written.
+     */
+    public int getQueueDepth()
+    {
+        return queue.size();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ProjectAuditLog [enqueued=" + getEnqueued() + ", written=" + getWritten()
+                + ", queueDepth=" + getQueueDepth() + "]";
+    }
+
+    private static class Event
+    {
+        private final long projectId;
+        private final LoggingEvent event;
+
+        public Event(long aProjectId, LoggingEvent aEvent)
+        {
+            projectId = aProjectId;
+            event = aEvent;
+        }
+    }
+
+    /**
+     * A rolling file appender which does not flush after every event, but only once per batch.
+     */
+    private static class BatchingAppender
+        extends RollingFileAppender
+    {
+        public void flush()
+        {
+            if (qw != null) {
+                qw.flush();
+            }
+        }
+    }
+}
@@ -30,7 +30,6 @@ import java.beans.PropertyDescriptor;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -42,17 +41,16 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.locks.Lock;
 
 import javax.annotation.Resource;
 import javax.persistence.EntityManager;
@@ -62,17 +60,11 @@ import javax.persistence.PersistenceContext;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.LineIterator;
-import org.apache.commons.io.comparator.LastModifiedFileComparator;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.log4j.FileAppender;
-import org.apache.log4j.Level;
-import org.apache.log4j.Logger;
-import org.apache.log4j.PatternLayout;
 import org.apache.uima.UIMAException;
 import org.apache.uima.analysis_engine.AnalysisEngine;
 import org.apache.uima.analysis_engine.AnalysisEngineDescription;
-import org.apache.uima.analysis_engine.AnalysisEngineProcessException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
@@ -80,11 +72,10 @@ import org.apache.uima.cas.Type;
 import org.apache.uima.cas.TypeSystem;
 import org.apache.uima.cas.impl.CASCompleteSerializer;
 import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.CASSerializer;
 import org.apache.uima.cas.impl.Serialization;
 import org.apache.uima.collection.CollectionReader;
-import org.apache.uima.fit.factory.AnalysisEngineFactory;
 import org.apache.uima.fit.factory.CollectionReaderFactory;
-import org.apache.uima.fit.factory.JCasFactory;
 import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
 import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.fit.util.JCasUtil;
@@ -105,9 +96,12 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.transaction.annotation.Transactional;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasGeneration;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
+import de.tudarmstadt.ukp.clarin.webanno.api.TextLayout;
 import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.TypeSystemCache.ProjectTypeSystem;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
@@ -130,8 +124,6 @@ import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.DocumentMetaData;
 import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.TagsetDescription;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
-import de.tudarmstadt.ukp.dkpro.core.io.bincas.SerializedCasReader;
-import de.tudarmstadt.ukp.dkpro.core.io.bincas.SerializedCasWriter;
 import de.tudarmstadt.ukp.dkpro.core.tokit.BreakIteratorSegmenter;
 
 /**
@@ -144,18 +136,6 @@ public class RepositoryServiceDbData
     implements RepositoryService
 {
     private final Log log = LogFactory.getLog(getClass());
-    
-    public static Logger createLog(Project aProject, String aUser)
-        throws IOException
-    {
-        Logger logger = Logger.getLogger(RepositoryServiceDbData.class);
-        String targetLog = dir.getAbsolutePath() + PROJECT + "project-" + aProject.getId() + ".log";
-        FileAppender apndr = new FileAppender(new PatternLayout("%d [" + aUser + "] %m%n"),
-                targetLog, true);
-        logger.addAppender(apndr);
-        logger.setLevel(Level.ALL);
-        return logger;
-    }
 
     @Resource(name = "annotationService")
     private AnnotationService annotationService;
@@ -163,17 +143,38 @@ public class RepositoryServiceDbData
     @Resource(name = "userRepository")
     private UserDao userRepository;
 
-    @Value(value = "${backup.keep.time}")
-    private long backupKeepTime;
+    @Resource(name = "typeSystemCache")
+    private TypeSystemCache typeSystemCache;
 
-    @Value(value = "${crowdsource.enabled}")
-    private int crowdsourceEnabled;
+    @Resource(name = "casPool")
+    private CasPool casPool;
+
+    /**
+     * The CASes handed out on the current thread since {@link #beginCasScope} which have not been
+     * released yet.
+     */
+    private final ThreadLocal<Map<CAS, Project>> casScope = new ThreadLocal<Map<CAS, Project>>();
+
+    @Resource(name = "annotationCasCache")
+    private AnnotationCasCache casCache;
 
-    @Value(value = "${backup.interval}")
-    private long backupInterval;
+    @Resource(name = "casStorage")
+    private CasStorage casStorage;
 
-    @Value(value = "${backup.keep.number}")
-    private int backupKeepNumber;
+    @Resource(name = "annotationSaveQueue")
+    private AnnotationSaveQueue saveQueue;
+
+    @Resource(name = "annotationHistory")
+    private AnnotationHistory annotationHistory;
+
+    @Resource(name = "projectAuditLog")
+    private ProjectAuditLog auditLog;
+
+    @Resource(name = "blobStore")
+    private BlobStore blobStore;
+
+    @Value(value = "${crowdsource.enabled}")
+    private int crowdsourceEnabled;
 
     @Resource(name = "formats")
     private Properties readWriteFileFormats;
@@ -186,6 +187,7 @@ public class RepositoryServiceDbData
     private static final String MIRA_TEMPLATE = "/template/";
     private static final String DOCUMENT = "/document/";
     private static final String SOURCE = "/source";
+    private static final String LAYOUT = "/layout";
     private static final String GUIDELINE = "/guideline/";
     private static final String ANNOTATION = "/annotation";
     private static final String SETTINGS = "/settings/";
@@ -203,7 +205,8 @@ public class RepositoryServiceDbData
     // The annotation preference properties File name
     String annotationPreferencePropertiesFileName;
 
-    private final Object lock = new Object();
+    @Resource(name = "annotationDocumentLockManager")
+    private AnnotationDocumentLockManager lockManager;
 
     public RepositoryServiceDbData()
     {
@@ -222,14 +225,17 @@ public class RepositoryServiceDbData
             entityManager.merge(aAnnotationDocument);
         }
 
-        createLog(aAnnotationDocument.getProject(), aAnnotationDocument.getUser()).info(
+        if (AnnotationDocumentState.FINISHED.equals(aAnnotationDocument.getState())) {
+            compactAnnotationContent(aAnnotationDocument.getDocument(),
+                    aAnnotationDocument.getUser());
+        }
+
+        auditLog.info(aAnnotationDocument.getProject(), aAnnotationDocument.getUser(),
                 " User [" + aAnnotationDocument.getUser()
                         + "] creates annotation document for source document ["
                         + aAnnotationDocument.getDocument().getId() + "] in project ["
                         + aAnnotationDocument.getProject().getId() + "] with id ["
                         + aAnnotationDocument.getId() + "]");
-        createLog(aAnnotationDocument.getProject(), aAnnotationDocument.getUser())
-                .removeAllAppenders();
     }
 
     /**
@@ -292,10 +298,8 @@ public class RepositoryServiceDbData
         entityManager.persist(aProject);
         String path = dir.getAbsolutePath() + PROJECT + aProject.getId();
         FileUtils.forceMkdir(new File(path));
-        createLog(aProject, aUser.getUsername())
-                .info(" Created  Project [" + aProject.getName() + "] with ID [" + aProject.getId()
-                        + "]");
-        createLog(aProject, aUser.getUsername()).removeAllAppenders();
+        auditLog.info(aProject, aUser.getUsername(), " Created  Project [" + aProject.getName()
+                + "] with ID [" + aProject.getId() + "]");
     }
 
     @Override
@@ -310,10 +314,9 @@ public class RepositoryServiceDbData
             entityManager.merge(aCrowdJob);
         }
 
-        createLog(aCrowdJob.getProject(), "crowd_user").info(
+        auditLog.info(aCrowdJob.getProject(), "crowd_user",
                 " Created  crowd job from project [" + aCrowdJob.getProject() + "] with ID ["
                         + aCrowdJob.getId() + "]");
-        createLog(aCrowdJob.getProject(), "crowd_user").removeAllAppenders();
     }
 
     @Override
@@ -322,11 +325,10 @@ public class RepositoryServiceDbData
         throws IOException
     {
         entityManager.persist(aPermission);
-        createLog(aPermission.getProject(), aPermission.getUser()).info(
+        auditLog.info(aPermission.getProject(), aPermission.getUser(),
                 " New Permission created on Project[" + aPermission.getProject().getName()
                         + "] for user [" + aPermission.getUser() + "] with permission ["
                         + aPermission.getLevel() + "]" + "]");
-        createLog(aPermission.getProject(), aPermission.getUser()).removeAllAppenders();
     }
 
     @Override
@@ -396,7 +398,8 @@ public class RepositoryServiceDbData
     public boolean existsAnnotationDocumentContent(SourceDocument aSourceDocument, String aUsername)
         throws IOException
     {
-        if (new File(getAnnotationFolder(aSourceDocument), aUsername + ".ser").exists()) {
+        if (saveQueue.getPending(saveKey(aSourceDocument, aUsername)) != null
+                || new File(getAnnotationFolder(aSourceDocument), aUsername + ".ser").exists()) {
             return true;
         }
         else {
@@ -570,6 +573,7 @@ public class RepositoryServiceDbData
     {
         File annotationFolder = getAnnotationFolder(aDocument);
         String serializedCaseFileName;
+        String serializedCasUser;
         // for Correction, it will export the corrected document (of the logged
         // in user)
         // (CORRECTION_USER.ser is
@@ -580,18 +584,17 @@ public class RepositoryServiceDbData
         // document
         if (aMode.equals(Mode.ANNOTATION) || aMode.equals(Mode.AUTOMATION)
                 || aMode.equals(Mode.CORRECTION)) {
-            serializedCaseFileName = aUser + ".ser";
+            serializedCasUser = aUser;
         }
         // The merge result will be exported
         else {
-            serializedCaseFileName = WebAnnoConst.CURATION_USER + ".ser";
+            serializedCasUser = WebAnnoConst.CURATION_USER;
         }
+        serializedCaseFileName = serializedCasUser + ".ser";
 
-        CollectionReader reader = CollectionReaderFactory
-                .createReader(SerializedCasReader.class, SerializedCasReader.PARAM_SOURCE_LOCATION,
-                        annotationFolder, SerializedCasReader.PARAM_PATTERNS, new String[] { "[+]"
-                                + serializedCaseFileName });
-        if (!reader.hasNext()) {
+        flushAnnotationContent(aDocument, serializedCasUser);
+        File serializedCasFile = new File(annotationFolder, serializedCaseFileName);
+        if (!serializedCasFile.exists()) {
             throw new FileNotFoundException("Annotation file [" + serializedCaseFileName
                     + "] not found in [" + annotationFolder + "]");
         }
@@ -621,48 +624,72 @@ public class RepositoryServiceDbData
                     JCasFileWriter_ImplBase.PARAM_TARGET_LOCATION, exportTempDir,
                     JCasFileWriter_ImplBase.PARAM_STRIP_EXTENSION, aStripExtension);
         }
-        CAS cas = JCasFactory.createJCas().getCas();
-        reader.getNext(cas);
-        // Get the original TCF file and preserve it
-        DocumentMetaData documentMetadata = DocumentMetaData.get(cas.getJCas());
-        // Update the source file name in case it is changed for some reason
+        CAS pooledCas = casPool.acquire(aDocument.getProject(),
+                getProjectTypeSystem(aDocument.getProject()));
+        CAS cas;
+        Lock readLock = lockManager.getLock(aDocument, serializedCasUser).readLock();
+        readLock.lock();
+        try {
+            cas = casStorage.read(aDocument.getProject(), serializedCasFile, pooledCas);
+        }
+        catch (IOException e) {
+            releaseCas(aDocument.getProject(), pooledCas);
+            throw e;
+        }
+        finally {
+            readLock.unlock();
+        }
+        if (cas != pooledCas) {
+            releaseCas(aDocument.getProject(), pooledCas);
+        }
 
         Project project = aDocument.getProject();
-        File currentDocumentUri = new File(dir.getAbsolutePath() + PROJECT + project.getId()
-                + DOCUMENT + aDocument.getId() + SOURCE);
+        try {
+            // Get the original TCF file and preserve it
+            DocumentMetaData documentMetadata = DocumentMetaData.get(cas.getJCas());
+            // Update the source file name in case it is changed for some reason
 
-        documentMetadata.setDocumentUri(new File(currentDocumentUri, aFileName).toURI().toURL()
-                .toExternalForm());
+            File currentDocumentUri = new File(dir.getAbsolutePath() + PROJECT + project.getId()
+                    + DOCUMENT + aDocument.getId() + SOURCE);
 
-        documentMetadata.setDocumentBaseUri(currentDocumentUri.toURI().toURL().toExternalForm());
+            documentMetadata.setDocumentUri(new File(currentDocumentUri, aFileName).toURI().toURL()
+                    .toExternalForm());
 
-        documentMetadata.setCollectionId(currentDocumentUri.toURI().toURL().toExternalForm());
+            documentMetadata.setDocumentBaseUri(currentDocumentUri.toURI().toURL()
+                    .toExternalForm());
 
-        documentMetadata.setDocumentUri(new File(dir.getAbsolutePath() + PROJECT + project.getId()
-                + DOCUMENT + aDocument.getId() + SOURCE + "/" + aFileName).toURI().toURL()
-                .toExternalForm());
+            documentMetadata.setCollectionId(currentDocumentUri.toURI().toURL().toExternalForm());
 
-        // update the cas first
-        upgrade(cas, aDocument.getProject());
-        // update with the correct tagset name
-        List<AnnotationFeature> features = annotationService.listAnnotationFeature(project);
-        for (AnnotationFeature feature : features) {
+            documentMetadata.setDocumentUri(new File(dir.getAbsolutePath() + PROJECT
+                    + project.getId() + DOCUMENT + aDocument.getId() + SOURCE + "/" + aFileName)
+                    .toURI().toURL().toExternalForm());
 
-            TagSet tagSet = feature.getTagset();
-            if (tagSet == null) {
-                continue;
+            // update the cas first
+            upgrade(cas, aDocument.getProject());
+            // update with the correct tagset name
+            List<AnnotationFeature> features = annotationService.listAnnotationFeature(project);
+            for (AnnotationFeature feature : features) {
+
+                TagSet tagSet = feature.getTagset();
+                if (tagSet == null) {
+                    continue;
+                }
+                else if (!feature.getLayer().getType().equals(WebAnnoConst.CHAIN_TYPE)) {
+                    updateCasWithTagSet(cas, feature.getLayer().getName(), tagSet.getName());
+                }
             }
-            else if (!feature.getLayer().getType().equals(WebAnnoConst.CHAIN_TYPE)) {
-                updateCasWithTagSet(cas, feature.getLayer().getName(), tagSet.getName());
+
+            runPipeline(cas, writer);
+        }
+        finally {
+            if (cas == pooledCas) {
+                releaseCas(aDocument.getProject(), cas);
             }
         }
 
-        runPipeline(cas, writer);
-
-        createLog(project, aUser).info(
+        auditLog.info(project, aUser,
                 " Exported file [" + aDocument.getName() + "] with ID [" + aDocument.getId()
                         + "] from project [" + project.getId() + "]");
-        createLog(project, aUser).removeAllAppenders();
 
         File exportFile;
         if (exportTempDir.listFiles().length > 1) {
@@ -671,7 +698,7 @@ public class RepositoryServiceDbData
                 ZipUtils.zipFolder(exportTempDir, exportFile);
             }
             catch (Exception e) {
-                createLog(project, aUser).info("Unable to create zip File");
+                auditLog.info(project, aUser, "Unable to create zip File");
             }
         }
         else {
@@ -693,17 +720,68 @@ public class RepositoryServiceDbData
     @Override
     public File exportserializedCas(SourceDocument aDocument, String aUser)
     {
+        try {
+            flushAnnotationContent(aDocument, aUser);
+        }
+        catch (IOException e) {
+            throw new DataRetrievalFailureException("Unable to write annotation", e);
+        }
+
         File documentUri = new File(dir.getAbsolutePath() + PROJECT
                 + aDocument.getProject().getId() + DOCUMENT + aDocument.getId() + ANNOTATION);
         return new File(documentUri, aUser + ".ser");
     }
 
+    @Override
+    public File exportPortableSerializedCas(SourceDocument aDocument, String aUser)
+        throws IOException
+    {
+        flushAnnotationContent(aDocument, aUser);
+        File serializedCasFile = exportserializedCas(aDocument, aUser);
+
+        File exportTempDir = File.createTempFile("webanno", "export");
+        exportTempDir.delete();
+        exportTempDir.mkdirs();
+        File exportFile = new File(exportTempDir, serializedCasFile.getName());
+
+        Lock readLock = lockManager.getLock(aDocument, aUser).readLock();
+        readLock.lock();
+        try {
+            if (casStorage.isBinary(serializedCasFile)
+                    || casStorage.getJournalFile(serializedCasFile).exists()) {
+                CAS cas = getProjectTypeSystem(aDocument.getProject()).createCas();
+                cas = casStorage.read(aDocument.getProject(), serializedCasFile, cas);
+                casStorage.writeSerialized(cas, exportFile);
+            }
+            else {
+                FileUtils.copyFile(serializedCasFile, exportFile);
+            }
+        }
+        catch (ResourceInitializationException e) {
+            throw new IOException(e);
+        }
+        finally {
+            readLock.unlock();
+        }
+
+        return exportFile;
+    }
+
     @Override
     public File exportProjectLog(Project aProject)
     {
+        // The file may be copied or replaced by the caller
+        auditLog.close(aProject);
         return new File(dir.getAbsolutePath() + PROJECT + "project-" + aProject.getId() + ".log");
     }
 
+    @Override
+    public List<File> exportProjectLogs(Project aProject)
+    {
+        auditLog.close(aProject);
+        return auditLog.getLogFiles(aProject);
+    }
+
     @Override
     public File exportGuidelines(Project aProject)
     {
@@ -737,6 +815,93 @@ public class RepositoryServiceDbData
                 aAnnotationDocument.getUser());
     }
 
+    @Override
+    public String getAnnotationDocumentVersion(AnnotationDocument aAnnotationDocument)
+    {
+        SourceDocument document = aAnnotationDocument.getDocument();
+        String username = aAnnotationDocument.getUser();
+        Lock readLock = lockManager.getLock(document, username).readLock();
+        readLock.lock();
+        try {
+            File serializedCasFile = new File(new File(dir, PROJECT
+                    + document.getProject().getId() + DOCUMENT + document.getId() + ANNOTATION),
+                    username + ".ser");
+            if (saveQueue.getPending(saveKey(document, username)) != null
+                    || !serializedCasFile.exists()) {
+                return null;
+            }
+            return casStorage.getVersion(serializedCasFile);
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    @Override
+    public void releaseJCas(Project aProject, JCas aJCas)
+    {
+        if (aJCas == null) {
+            return;
+        }
+
+        Map<CAS, Project> scope = casScope.get();
+        if (scope != null) {
+            scope.remove(aJCas.getCas());
+        }
+        releaseCas(aProject, aJCas.getCas());
+    }
+
+    @Override
+    public void beginCasScope()
+    {
+        if (casScope.get() == null) {
+            casScope.set(new IdentityHashMap<CAS, Project>());
+        }
+    }
+
+    @Override
+    public void endCasScope()
+    {
+        Map<CAS, Project> scope = casScope.get();
+        casScope.remove();
+        if (scope == null) {
+            return;
+        }
+
+        for (Entry<CAS, Project> entry : scope.entrySet()) {
+            releaseCas(entry.getValue(), entry.getKey());
+        }
+    }
+
+    /**
+     * Remember a CAS handed out on the current thread so that it is released when the CAS scope
+     * ends.
+     */
+    private CAS addToCasScope(Project aProject, CAS aCas)
+    {
+        Map<CAS, Project> scope = casScope.get();
+        if (scope != null) {
+            scope.put(aCas, aProject);
+        }
+        return aCas;
+    }
+
+    private void releaseCas(Project aProject, CAS aCas)
+    {
+        // The CAS is reset when it is pooled, so changes to it can no longer be journaled
+        casStorage.stopTracking(aCas);
+        try {
+            casPool.release(aProject, getProjectTypeSystem(aProject), aCas);
+        }
+        catch (ResourceInitializationException e) {
+            log.warn("Unable to return CAS to the pool", e);
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug(casPool);
+        }
+    }
+
     @Override
     @Transactional(noRollbackFor = NoResultException.class)
     public List<Authority> listAuthorities(User aUser)
@@ -849,10 +1014,9 @@ public class RepositoryServiceDbData
         copyLarge(new FileInputStream(aContent), new FileOutputStream(new File(guidelinePath
                 + aFileName)));
 
-        createLog(aProject, aUsername).info(
+        auditLog.info(aProject, aUsername,
                 " Created Guideline file[ " + aFileName + "] for Project [" + aProject.getName()
                         + "] with ID [" + aProject.getId() + "]");
-        createLog(aProject, aUsername).removeAllAppenders();
     }
 
     @Override
@@ -865,10 +1029,9 @@ public class RepositoryServiceDbData
         copyLarge(new FileInputStream(aContent), new FileOutputStream(new File(templatePath
                 + aFileName)));
 
-        createLog(aProject, aUsername).info(
+        auditLog.info(aProject, aUsername,
                 " Created Template file[ " + aFileName + "] for Project [" + aProject.getName()
                         + "] with ID [" + aProject.getId() + "]");
-        createLog(aProject, aUsername).removeAllAppenders();
     }
 
     @Override
@@ -1183,11 +1346,11 @@ public class RepositoryServiceDbData
             removeCrowdJob(crowdJob);
         }
         for (SourceDocument document : listSourceDocuments(aProject)) {
-            removeSourceDocument(document, aUser);
+            deleteSourceDocument(document, aUser);
         }
 
         for (SourceDocument document : listTabSepDocuments(aProject)) {
-            removeSourceDocument(document, aUser);
+            deleteSourceDocument(document, aUser);
         }
 
         for (MiraTemplate template : listMiraTemplates(aProject)) {
@@ -1213,7 +1376,7 @@ public class RepositoryServiceDbData
             FileUtils.deleteDirectory(new File(path));
         }
         catch (FileNotFoundException e) {
-            createLog(aProject, aUser.getUsername()).warn(
+            auditLog.warn(aProject, aUser.getUsername(),
                     "Project directory to be deleted was not found: [" + path + "]. Ignoring.");
         }
 
@@ -1222,9 +1385,12 @@ public class RepositoryServiceDbData
         }
         // remove metadata from DB
         entityManager.remove(aProject);
-        createLog(aProject, aUser.getUsername()).info(
+        saveQueue.discardAll(aProject.getId() + "/");
+        casPool.evict(aProject);
+        blobStore.requestGarbageCollection();
+        auditLog.info(aProject, aUser.getUsername(),
                 " Removed Project [" + aProject.getName() + "] with ID [" + aProject.getId() + "]");
-        createLog(aProject, aUser.getUsername()).removeAllAppenders();
+        auditLog.close(aProject);
 
     }
 
@@ -1241,10 +1407,9 @@ public class RepositoryServiceDbData
     {
         FileUtils.forceDelete(new File(dir.getAbsolutePath() + PROJECT + aProject.getId()
                 + GUIDELINE + aFileName));
-        createLog(aProject, username).info(
+        auditLog.info(aProject, username,
                 " Removed Guideline file from [" + aProject.getName() + "] with ID ["
                         + aProject.getId() + "]");
-        createLog(aProject, username).removeAllAppenders();
     }
 
     @Override
@@ -1253,25 +1418,25 @@ public class RepositoryServiceDbData
     {
         FileUtils.forceDelete(new File(dir.getAbsolutePath() + PROJECT + aProject.getId() + MIRA
                 + MIRA_TEMPLATE + aFileName));
-        createLog(aProject, username).info(
+        auditLog.info(aProject, username,
                 " Removed Template file from [" + aProject.getName() + "] with ID ["
                         + aProject.getId() + "]");
-        createLog(aProject, username).removeAllAppenders();
     }
 
     @Override
     public void removeCurationDocumentContent(SourceDocument aSourceDocument, String aUsername)
         throws IOException
     {
+        saveQueue.discard(saveKey(aSourceDocument, WebAnnoConst.CURATION_USER));
         if (new File(getAnnotationFolder(aSourceDocument), WebAnnoConst.CURATION_USER + ".ser")
                 .exists()) {
             FileUtils.forceDelete(new File(getAnnotationFolder(aSourceDocument),
                     WebAnnoConst.CURATION_USER + ".ser"));
+            casCache.invalidate(aSourceDocument, WebAnnoConst.CURATION_USER);
 
-            createLog(aSourceDocument.getProject(), aUsername).info(
+            auditLog.info(aSourceDocument.getProject(), aUsername,
                     " Removed Curated document from  project [" + aSourceDocument.getProject()
                             + "] for the source document [" + aSourceDocument.getId());
-            createLog(aSourceDocument.getProject(), aUsername).removeAllAppenders();
         }
     }
 
@@ -1281,11 +1446,10 @@ public class RepositoryServiceDbData
         throws IOException
     {
         entityManager.remove(projectPermission);
-        createLog(projectPermission.getProject(), projectPermission.getUser()).info(
+        auditLog.info(projectPermission.getProject(), projectPermission.getUser(),
                 " Removed Project Permission [" + projectPermission.getLevel() + "] for the USer ["
                         + projectPermission.getUser() + "] From project ["
                         + projectPermission.getProject().getId() + "]");
-        createLog(projectPermission.getProject(), projectPermission.getUser()).removeAllAppenders();
 
     }
 
@@ -1294,7 +1458,17 @@ public class RepositoryServiceDbData
     public void removeSourceDocument(SourceDocument aDocument, User aUser)
         throws IOException
     {
+        deleteSourceDocument(aDocument, aUser);
+        blobStore.requestGarbageCollection();
+    }
 
+    /**
+     * Remove a source document without removing its content from the blob store. When removing
+     * many documents, the unreferenced content is removed once at the end.
+     */
+    private void deleteSourceDocument(SourceDocument aDocument, User aUser)
+        throws IOException
+    {
         for (AnnotationDocument annotationDocument : listAllAnnotationDocuments(aDocument)) {
             removeAnnotationDocument(annotationDocument);
         }
@@ -1307,6 +1481,8 @@ public class RepositoryServiceDbData
         }
 
         entityManager.remove(aDocument);
+        saveQueue.discardAll(saveKey(aDocument, ""));
+        casCache.invalidate(aDocument);
 
         String path = dir.getAbsolutePath() + PROJECT + aDocument.getProject().getId() + DOCUMENT
                 + aDocument.getId();
@@ -1314,10 +1490,9 @@ public class RepositoryServiceDbData
         if (new File(path).exists()) {
             FileUtils.forceDelete(new File(path));
         }
-        createLog(aDocument.getProject(), aUser.getUsername()).info(
+        auditLog.info(aDocument.getProject(), aUser.getUsername(),
                 " Removed Document [" + aDocument.getName() + "] with ID [" + aDocument.getId()
                         + "] from Project [" + aDocument.getProject().getId() + "]");
-        createLog(aDocument.getProject(), aUser.getUsername()).removeAllAppenders();
 
     }
 
@@ -1388,11 +1563,10 @@ public class RepositoryServiceDbData
         property.store(new FileOutputStream(new File(propertiesPath,
                 annotationPreferencePropertiesFileName)), null);
 
-        createLog(aProject, aUsername).info(
+        auditLog.info(aProject, aUsername,
                 " Saved preferences file [" + annotationPreferencePropertiesFileName
                         + "] for project [" + aProject.getName() + "] with ID [" + aProject.getId()
                         + "] to location: [" + propertiesPath + "]");
-        createLog(aProject, aUsername).removeAllAppenders();
 
     }
 
@@ -1434,7 +1608,9 @@ public class RepositoryServiceDbData
                 }
             }
             else {
-                getJCasFromFile(aFile, getReadableFormats().get(aDocument.getFormat()), aDocument);
+                JCas jCas = getJCasFromFile(aFile,
+                        getReadableFormats().get(aDocument.getFormat()), aDocument);
+                writeTextLayout(aDocument, TextLayout.of(jCas.getCas()));
             }
         }
         catch (IOException e) {
@@ -1447,25 +1623,20 @@ public class RepositoryServiceDbData
 
         String path = dir.getAbsolutePath() + PROJECT + aDocument.getProject().getId() + DOCUMENT
                 + aDocument.getId() + SOURCE;
-        FileUtils.forceMkdir(new File(path));
         File newTcfFile = new File(path, aDocument.getName());
 
         InputStream is = null;
-        OutputStream os = null;
         try {
-            os = new FileOutputStream(newTcfFile);
             is = new FileInputStream(aFile);
-            copyLarge(is, os);
+            blobStore.store(is, newTcfFile);
         }
         finally {
-            closeQuietly(os);
             closeQuietly(is);
         }
 
-        createLog(aDocument.getProject(), aUser.getUsername()).info(
+        auditLog.info(aDocument.getProject(), aUser.getUsername(),
                 " Imported file [" + aDocument.getName() + "] with ID [" + aDocument.getId()
                         + "] to Project [" + aDocument.getProject().getId() + "]");
-        createLog(aDocument.getProject(), aUser.getUsername()).removeAllAppenders();
 
     }
 
@@ -1474,52 +1645,45 @@ public class RepositoryServiceDbData
     public void uploadSourceDocument(InputStream aIs, SourceDocument aDocument, User aUser)
         throws IOException
     {
-        String path = dir.getAbsolutePath() + PROJECT + aDocument.getProject().getId() + DOCUMENT
-                + aDocument.getId() + SOURCE;
-        FileUtils.forceMkdir(new File(path));
-        File newTcfFile = new File(path, aDocument.getName());
+        createSourceDocumentContent(aIs, aDocument);
 
-        OutputStream os = null;
+        auditLog.info(aDocument.getProject(), aUser.getUsername(),
+                " Imported file [" + aDocument.getName() + "] with ID [" + aDocument.getId()
+                        + "] to Project [" + aDocument.getProject().getId() + "]");
+
+    }
+
+    @Override
+    public void createSourceDocumentContent(InputStream aIs, SourceDocument aDocument)
+        throws IOException
+    {
         try {
-            os = new FileOutputStream(newTcfFile);
-            copyLarge(aIs, os);
+            blobStore.store(aIs, exportSourceDocument(aDocument));
         }
         finally {
-            closeQuietly(os);
             closeQuietly(aIs);
         }
-
-        createLog(aDocument.getProject(), aUser.getUsername()).info(
-                " Imported file [" + aDocument.getName() + "] with ID [" + aDocument.getId()
-                        + "] to Project [" + aDocument.getProject().getId() + "]");
-        createLog(aDocument.getProject(), aUser.getUsername()).removeAllAppenders();
-
     }
 
     private void writeContent(SourceDocument aDocument, JCas aJcas, String aUsername)
         throws IOException
     {
+        File targetPath = getAnnotationFolder(aDocument);
+        setDocumentId(aJcas, aUsername);
+        casStorage.write(aDocument.getProject(), aJcas.getCas(), new File(targetPath, aUsername
+                + ".ser"));
+    }
+
+    private void setDocumentId(JCas aJcas, String aUsername)
+    {
+        DocumentMetaData md;
         try {
-            File targetPath = getAnnotationFolder(aDocument);
-            AnalysisEngine writer = AnalysisEngineFactory.createEngine(
-                    SerializedCasWriter.class, SerializedCasWriter.PARAM_TARGET_LOCATION,
-                    targetPath, SerializedCasWriter.PARAM_USE_DOCUMENT_ID, true);
-            DocumentMetaData md;
-            try {
-                md = DocumentMetaData.get(aJcas);
-            }
-            catch (IllegalArgumentException e) {
-                md = DocumentMetaData.create(aJcas);
-            }
-            md.setDocumentId(aUsername);
-            writer.process(aJcas);
-        }
-        catch (ResourceInitializationException e) {
-            throw new IOException(e);
+            md = DocumentMetaData.get(aJcas);
         }
-        catch (AnalysisEngineProcessException e) {
-            throw new IOException(e);
+        catch (IllegalArgumentException e) {
+            md = DocumentMetaData.create(aJcas);
         }
+        md.setDocumentId(aUsername);
     }
 
     @Override
@@ -1693,142 +1857,216 @@ public class RepositoryServiceDbData
                 + "] for user [" + aUser.getUsername() + "]");
         //DebugUtils.smallStack();
        
-        synchronized (lock) {
-            File annotationFolder = getAnnotationFolder(aDocument);
-            FileUtils.forceMkdir(annotationFolder);
-
-            final String username = aUserName;
-
-            File currentVersion = new File(annotationFolder, username + ".ser");
-            File oldVersion = new File(annotationFolder, username + ".ser.old");
-
-            // Save current version
-            try {
-                // Make a backup of the current version of the file before
-                // overwriting
-                if (currentVersion.exists()) {
-                    renameFile(currentVersion, oldVersion);
-                }
-
-                // Now write the new version to "<username>.ser" or
-                // CURATION_USER.ser
-                writeContent(aDocument, aJcas, aUserName);
-                createLog(aDocument.getProject(), aUser.getUsername()).info(
+        Lock writeLock = lockManager.getLock(aDocument, aUserName).writeLock();
+        writeLock.lock();
+        try {
+            File currentVersion = new File(getAnnotationFolder(aDocument), aUserName + ".ser");
+
+            // If possible, only append the changes since the document was loaded to the journal.
+            // History backups are only made when a full snapshot is written. If a snapshot is
+            // still waiting to be written, the file on disk is outdated and cannot be appended to.
+            setDocumentId(aJcas, aUserName);
+            String key = saveKey(aDocument, aUserName);
+            if (saveQueue.getPending(key) == null
+                    && casStorage.writeDelta(aDocument.getProject(), aJcas.getCas(),
+                            currentVersion)) {
+                casCache.put(aDocument, aUserName, casStorage.getVersion(currentVersion),
+                        aJcas.getCas());
+                auditLog.info(aDocument.getProject(), aUser.getUsername(),
                         "Updated annotation document [" + aDocument.getName() + "] " + "with ID ["
                                 + aDocument.getId() + "] in project ID ["
                                 + aDocument.getProject().getId() + "] for user ["
                                 + aUser.getUsername() + "]");
-                createLog(aDocument.getProject(), aUser.getUsername()).removeAllAppenders();
+                return;
+            }
 
-                // If the saving was successful, we delete the old version
-                if (oldVersion.exists()) {
-                    FileUtils.forceDelete(oldVersion);
+            // Otherwise write a full snapshot - in the background if possible
+            if (saveQueue.isEnabled()) {
+                saveQueue.enqueue(key, lockManager.getLock(aDocument, aUserName),
+                        new PendingAnnotationSave(aDocument, aJcas.getCas(), aUserName, aUser));
+                casCache.invalidate(aDocument, aUserName);
+
+                // The changes are kept in the queue, but the user must learn that they are not
+                // on disk yet
+                IOException failure = saveQueue.getFailure(key);
+                if (failure != null) {
+                    throw new IOException("Unable to write annotation document ["
+                            + aDocument.getName() + "] to disk. The changes are kept and writing "
+                            + "them is retried.", failure);
                 }
             }
-            catch (IOException e) {
-                // If we could not save the new version, restore the old one.
-                FileUtils.forceDelete(currentVersion);
-                // If this is the first version, there is no old version, so do
-                // not restore anything
-                if (oldVersion.exists()) {
-                    renameFile(oldVersion, currentVersion);
-                }
-                // Now abort anyway
-                throw e;
-            }
-
-            // Manage history
-            if (backupInterval > 0) {
-                // Determine the reference point in time based on the current
-                // version
-                long now = currentVersion.lastModified();
-
-                // Get all history files for the current user
-                File[] history = annotationFolder.listFiles(new FileFilter()
-                {
-                    private final Matcher matcher = Pattern.compile(
-                            Pattern.quote(username) + "\\.ser\\.[0-9]+\\.bak").matcher("");
-
-                    @Override
-                    public boolean accept(File aFile)
-                    {
-                        // Check if the filename matches the pattern given
-                        // above.
-                        return matcher.reset(aFile.getName()).matches();
-                    }
-                });
-
-                // Sort the files (oldest one first)
-                Arrays.sort(history, LastModifiedFileComparator.LASTMODIFIED_COMPARATOR);
-
-                // Check if we need to make a new history file
-                boolean historyFileCreated = false;
-                File historyFile = new File(annotationFolder, username + ".ser." + now + ".bak");
-                if (history.length == 0) {
-                    // If there is no history yet but we should keep history,
-                    // then we create a
-                    // history file in any case.
-                    FileUtils.copyFile(currentVersion, historyFile);
-                    historyFileCreated = true;
-                }
-                else {
-                    // Check if the newest history file is significantly older
-                    // than the current one
-                    File latestHistory = history[history.length - 1];
-                    if (latestHistory.lastModified() + backupInterval < now) {
-                        FileUtils.copyFile(currentVersion, historyFile);
-                        historyFileCreated = true;
-                    }
-                }
+            else {
+                writeAnnotationContent(aDocument, aJcas, aUserName, aUser);
+            }
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
 
-                // Prune history based on number of backup
-                if (historyFileCreated) {
-                    // The new version is not in the history, so we keep that in
-                    // any case. That
-                    // means we need to keep one less.
-                    int toKeep = Math.max(backupKeepNumber - 1, 0);
-                    if ((backupKeepNumber > 0) && (toKeep < history.length)) {
-                        // Copy the oldest files to a new array
-                        File[] toRemove = new File[history.length - toKeep];
-                        System.arraycopy(history, 0, toRemove, 0, toRemove.length);
-
-                        // Restrict the history to what is left
-                        File[] newHistory = new File[toKeep];
-                        if (toKeep > 0) {
-                            System.arraycopy(history, toRemove.length, newHistory, 0,
-                                    newHistory.length);
-                        }
-                        history = newHistory;
-
-                        // Remove these old files
-                        for (File file : toRemove) {
-                            FileUtils.forceDelete(file);
-                            createLog(aDocument.getProject(), aUser.getUsername()).info(
-                                    "Removed surplus history file [" + file.getName() + "] "
-                                            + "for document with ID [" + aDocument.getId()
-                                            + "] in project ID [" + aDocument.getProject().getId()
-                                            + "]");
-                            createLog(aDocument.getProject(), aUser.getUsername())
-                                    .removeAllAppenders();
-                        }
-                    }
+    /**
+     * Write a full snapshot of an annotation document and manage the history backups. The caller
+     * must hold the write lock of the annotation document.
+     */
+    private void writeAnnotationContent(SourceDocument aDocument, JCas aJcas, String aUserName,
+            User aUser)
+        throws IOException
+    {
+        File annotationFolder = getAnnotationFolder(aDocument);
+        FileUtils.forceMkdir(annotationFolder);
 
-                    // Prune history based on time
-                    if (backupKeepTime > 0) {
-                        for (File file : history) {
-                            if ((file.lastModified() + backupKeepTime) < now) {
-                                FileUtils.forceDelete(file);
-                                createLog(aDocument.getProject(), aUser.getUsername()).info(
-                                        "Removed outdated history file [" + file.getName() + "] "
-                                                + " for document with ID [" + aDocument.getId()
-                                                + "] in project ID ["
-                                                + aDocument.getProject().getId() + "]");
-                                createLog(aDocument.getProject(), aUser.getUsername())
-                                        .removeAllAppenders();
-                            }
-                        }
-                    }
-                }
+        File currentVersion = new File(annotationFolder, aUserName + ".ser");
+        File oldVersion = new File(annotationFolder, aUserName + ".ser.old");
+
+        // Save current version
+        try {
+            // Make a backup of the current version of the file before
+            // overwriting
+            if (currentVersion.exists()) {
+                renameFile(currentVersion, oldVersion);
+            }
+
+            // Now write the new version to "<username>.ser" or
+            // CURATION_USER.ser
+            writeContent(aDocument, aJcas, aUserName);
+            if (casStorage.isJournalEnabled()) {
+                // The heap layout of the CAS differs from what reading the new snapshot
+                // produces, so it must not be used as a base for journaling
+                casCache.invalidate(aDocument, aUserName);
+            }
+            else {
+                casCache.put(aDocument, aUserName, casStorage.getVersion(currentVersion),
+                        aJcas.getCas());
+            }
+            auditLog.info(aDocument.getProject(), aUser.getUsername(),
+                    "Updated annotation document [" + aDocument.getName() + "] " + "with ID ["
+                            + aDocument.getId() + "] in project ID ["
+                            + aDocument.getProject().getId() + "] for user ["
+                            + aUser.getUsername() + "]");
+
+            // If the saving was successful, we delete the old version
+            if (oldVersion.exists()) {
+                FileUtils.forceDelete(oldVersion);
+            }
+        }
+        catch (IOException e) {
+            casCache.invalidate(aDocument, aUserName);
+            // If we could not save the new version, restore the old one.
+            FileUtils.forceDelete(currentVersion);
+            // If this is the first version, there is no old version, so do
+            // not restore anything
+            if (oldVersion.exists()) {
+                renameFile(oldVersion, currentVersion);
+            }
+            // Now abort anyway
+            throw e;
+        }
+
+        // Manage history
+        annotationHistory.backup(currentVersion);
+    }
+
+    /**
+     * Merge the journal of an annotation document into its snapshot.
+     *
+     * @param aDocument
+     *            the {@link SourceDocument}
+     * @param aUsername
+     *            the user who annotates the document or the CURATION_USER
+     */
+    private void compactAnnotationContent(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        flushAnnotationContent(aDocument, aUsername);
+
+        Lock writeLock = lockManager.getLock(aDocument, aUsername).writeLock();
+        writeLock.lock();
+        try {
+            File serializedCasFile = new File(getAnnotationFolder(aDocument), aUsername + ".ser");
+            if (casStorage.getJournalFile(serializedCasFile).exists()) {
+                casStorage.compact(aDocument.getProject(), serializedCasFile);
+                casCache.invalidate(aDocument, aUsername);
+            }
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Write the annotation document if it is still waiting in the {@link AnnotationSaveQueue}. Call
+     * this before accessing the files of the annotation document directly. The caller must not
+     * hold the lock of the annotation document.
+     *
+     * @param aDocument
+     *            the {@link SourceDocument}
+     * @param aUsername
+     *            the user who annotates the document or the CURATION_USER
+     */
+    private void flushAnnotationContent(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        saveQueue.flush(saveKey(aDocument, aUsername));
+    }
+
+    private static String saveKey(SourceDocument aDocument, String aUsername)
+    {
+        return aDocument.getProject().getId() + "/" + aDocument.getId() + "/" + aUsername;
+    }
+
+    /**
+     * A full snapshot of an annotation document waiting in the {@link AnnotationSaveQueue}. The
+     * snapshot is taken when the save is enqueued, so the caller may continue to modify or release
+     * its CAS.
+     */
+    private class PendingAnnotationSave
+        implements AnnotationSaveQueue.Save
+    {
+        private final SourceDocument document;
+        private final String username;
+        private final User user;
+        private final TypeSystem typeSystem;
+        private final CASSerializer data;
+
+        public PendingAnnotationSave(SourceDocument aDocument, CAS aCas, String aUsername,
+                User aUser)
+        {
+            document = aDocument;
+            username = aUsername;
+            user = aUser;
+            CASImpl cas = ((CASImpl) aCas).getBaseCAS();
+            typeSystem = cas.getTypeSystem();
+            data = Serialization.serializeCAS(cas);
+        }
+
+        /**
+         * Restore the snapshot into a new CAS.
+         */
+        public CAS restore(ProjectTypeSystem aProjectTypeSystem)
+            throws UIMAException
+        {
+            CAS cas;
+            if (typeSystem == aProjectTypeSystem.getTypeSystem()) {
+                cas = casPool.acquire(document.getProject(), aProjectTypeSystem);
+            }
+            else {
+                cas = CasCreationUtils.createCas(typeSystem, null, null, null);
+            }
+            Serialization.deserializeCAS(((CASImpl) cas).getBaseCAS(), data);
+            return cas;
+        }
+
+        @Override
+        public void write()
+            throws IOException
+        {
+            try {
+                CAS cas = CasCreationUtils.createCas(typeSystem, null, null, null);
+                Serialization.deserializeCAS(((CASImpl) cas).getBaseCAS(), data);
+                writeAnnotationContent(document, cas.getJCas(), username, user);
+            }
+            catch (UIMAException e) {
+                throw new IOException(e);
             }
         }
     }
@@ -1851,36 +2089,69 @@ public class RepositoryServiceDbData
         
         //DebugUtils.smallStack();
         
-        synchronized (lock) {
+        Lock readLock = lockManager.getLock(aDocument, aUsername).readLock();
+        readLock.lock();
+        try {
 
             File annotationFolder = getAnnotationFolder(aDocument);
 
             String file = aUsername + ".ser";
 
             try {
+                ProjectTypeSystem projectTypeSystem = getProjectTypeSystem(aDocument.getProject());
+
+                // A snapshot waiting to be written is newer than anything on disk or in the cache
+                AnnotationSaveQueue.Save pendingSave = saveQueue.getPending(saveKey(aDocument,
+                        aUsername));
+                if (pendingSave instanceof PendingAnnotationSave) {
+                    CAS cas = ((PendingAnnotationSave) pendingSave).restore(projectTypeSystem);
+                    attachTextLayout(aDocument, cas);
+                    return addToCasScope(aDocument.getProject(), cas).getJCas();
+                }
 
-                TypeSystemDescription builtInTypes = TypeSystemDescriptionFactory
-                        .createTypeSystemDescription();
-                List<TypeSystemDescription> projectTypes = getProjectTypes(aDocument.getProject());
-                projectTypes.add(builtInTypes);
-                TypeSystemDescription allTypes = CasCreationUtils.mergeTypeSystems(projectTypes);
+                // Try the cache first. The cached document may still use the type system it was
+                // stored with if it has not been upgraded yet.
+                File serializedCasFile = new File(annotationFolder, file);
+                String version = casStorage.getVersion(serializedCasFile);
+                TypeSystem cachedTypeSystem = casCache.getTypeSystem(aDocument, aUsername,
+                        version);
+                if (cachedTypeSystem != null) {
+                    CAS cas;
+                    if (cachedTypeSystem == projectTypeSystem.getTypeSystem()) {
+                        cas = casPool.acquire(aDocument.getProject(), projectTypeSystem);
+                    }
+                    else {
+                        cas = CasCreationUtils.createCas(cachedTypeSystem, null, null, null);
+                    }
 
-                CAS cas = JCasFactory.createJCas(allTypes).getCas();
+                    if (casCache.get(aDocument, aUsername, version, cas)) {
+                        casStorage.startTracking(cas, serializedCasFile);
+                        if (log.isDebugEnabled()) {
+                            log.debug(casCache);
+                        }
+                        attachTextLayout(aDocument, cas);
+                        return addToCasScope(aDocument.getProject(), cas).getJCas();
+                    }
+                    releaseJCas(aDocument.getProject(), cas.getJCas());
+                }
 
-                CollectionReader reader = CollectionReaderFactory.createReader(
-                        SerializedCasReader.class, SerializedCasReader.PARAM_SOURCE_LOCATION,
-                        annotationFolder, SerializedCasReader.PARAM_PATTERNS, new String[] { "[+]"
-                                + file });
-                if (!reader.hasNext()) {
+                if (!serializedCasFile.exists()) {
                     throw new FileNotFoundException("Annotation document of user [" + aUsername
                             + "] for source document [" + aDocument.getName() + "] ("
                             + aDocument.getId() + "). not found in project["
                             + aDocument.getProject().getName() + "] ("
                             + aDocument.getProject().getId() + ")");
                 }
-                reader.getNext(cas);
+                CAS pooledCas = casPool.acquire(aDocument.getProject(), projectTypeSystem);
+                CAS cas = casStorage.read(aDocument.getProject(), serializedCasFile, pooledCas);
+                if (cas != pooledCas) {
+                    releaseJCas(aDocument.getProject(), pooledCas.getJCas());
+                }
 
-                return cas.getJCas();
+                casCache.put(aDocument, aUsername, version, cas);
+                attachTextLayout(aDocument, cas);
+
+                return addToCasScope(aDocument.getProject(), cas).getJCas();
             }
             catch (IOException e) {
                 throw new DataRetrievalFailureException("Unable to parse annotation", e);
@@ -1889,6 +2160,60 @@ public class RepositoryServiceDbData
                 throw new DataRetrievalFailureException("Unable to parse annotation", e);
             }
         }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    private File getTextLayoutFile(SourceDocument aDocument)
+    {
+        return new File(dir, PROJECT + aDocument.getProject().getId() + DOCUMENT
+                + aDocument.getId() + LAYOUT);
+    }
+
+    private void writeTextLayout(SourceDocument aDocument, TextLayout aLayout)
+    {
+        File file = getTextLayoutFile(aDocument);
+        try {
+            FileUtils.forceMkdir(file.getParentFile());
+            aLayout.write(file);
+        }
+        catch (IOException e) {
+            // Rendering computes the layout from the CAS instead
+            log.warn("Unable to store text layout of document [" + aDocument.getName()
+                    + "] with ID [" + aDocument.getId() + "]", e);
+        }
+    }
+
+    /**
+     * Start a new {@link CasGeneration} of a CAS the document has just been loaded into and attach
+     * the stored text layout of the document to it. Documents imported before the layout was
+     * stored get it now.
+     */
+    private void attachTextLayout(SourceDocument aDocument, CAS aCas)
+    {
+        CasGeneration.advance(aCas);
+
+        File file = getTextLayoutFile(aDocument);
+        if (file.exists()) {
+            try {
+                if (TextLayout.attach(aCas, TextLayout.read(file))) {
+                    return;
+                }
+                // E.g. the user has changed the tokenization of an imported annotation document
+                log.debug("Text layout of document [" + aDocument.getName() + "] with ID ["
+                        + aDocument.getId() + "] does not match the CAS");
+                return;
+            }
+            catch (IOException e) {
+                log.warn("Unable to read text layout of document [" + aDocument.getName()
+                        + "] with ID [" + aDocument.getId() + "] - recreating it", e);
+            }
+        }
+
+        TextLayout layout = TextLayout.of(aCas);
+        TextLayout.attach(aCas, layout);
+        writeTextLayout(aDocument, layout);
     }
 
     @Override
@@ -1967,12 +2292,11 @@ public class RepositoryServiceDbData
                 // no need to catch, it is acceptable that no curation document
                 // exists to be upgraded while there are annotation documents
             }
-            createLog(aDocument.getProject(), aUsername).info(
+            auditLog.info(aDocument.getProject(), aUsername,
                     "Upgraded annotation document [" + aDocument.getName() + "] " + "with ID ["
                             + aDocument.getId() + "] in project ID ["
                             + aDocument.getProject().getId() + "] for user [" + aUsername
                             + "] in mode [" + aMode + "]");
-            createLog(aDocument.getProject(), aUsername).removeAllAppenders();
         }
     }
 
@@ -1981,15 +2305,8 @@ public class RepositoryServiceDbData
         throws UIMAException, IOException
     {
 
-        TypeSystemDescription builtInTypes = TypeSystemDescriptionFactory
-                .createTypeSystemDescription();
-        List<TypeSystemDescription> projectTypes = getProjectTypes(aProject);
-        projectTypes.add(builtInTypes);
-        TypeSystemDescription allTypes = CasCreationUtils.mergeTypeSystems(projectTypes);
-
         // Prepare template for new CAS
-        CAS newCas = JCasFactory.createJCas(allTypes).getCas();
-        CASCompleteSerializer serializer = Serialization.serializeCASComplete((CASImpl) newCas);
+        CASCompleteSerializer serializer = getProjectTypeSystem(aProject).getTemplate();
 
         // Save old type system
         TypeSystem oldTypeSystem = aCas.getTypeSystem();
@@ -2092,13 +2409,7 @@ public class RepositoryServiceDbData
     public JCas getJCasFromFile(File aFile, Class aReader, SourceDocument aDocument)
         throws UIMAException, IOException
     {
-        TypeSystemDescription builtInTypes = TypeSystemDescriptionFactory
-                .createTypeSystemDescription();
-        List<TypeSystemDescription> projectTypes = getProjectTypes(aDocument.getProject());
-        projectTypes.add(builtInTypes);
-        TypeSystemDescription allTypes = CasCreationUtils.mergeTypeSystems(projectTypes);
-
-        CAS cas = JCasFactory.createJCas(allTypes).getCas();
+        CAS cas = getProjectTypeSystem(aDocument.getProject()).createCas();
 
         /*
          * List<AnnotationLayer> layers =
@@ -2268,6 +2579,37 @@ public class RepositoryServiceDbData
         entityManager.remove(aStstus);
     }
 
+    /**
+     * Get the type system of the given project, i.e. the built-in types merged with the custom
+     * layers of the project. The type system is built once and then served from the
+     * {@link TypeSystemCache} until a layer or feature of the project changes.
+     *
+     * @param aProject
+     *            the project.
+     * @return the committed project type system.
+     * @throws ResourceInitializationException
+     *             if the type system cannot be built.
+     */
+    private ProjectTypeSystem getProjectTypeSystem(Project aProject)
+        throws ResourceInitializationException
+    {
+        ProjectTypeSystem pts = typeSystemCache.get(aProject);
+        if (pts == null) {
+            long generation = typeSystemCache.getGeneration(aProject);
+
+            TypeSystemDescription builtInTypes = TypeSystemDescriptionFactory
+                    .createTypeSystemDescription();
+            List<TypeSystemDescription> projectTypes = getProjectTypes(aProject);
+            projectTypes.add(builtInTypes);
+            TypeSystemDescription allTypes = CasCreationUtils.mergeTypeSystems(projectTypes);
+
+            pts = typeSystemCache.put(aProject, generation, allTypes);
+            log.debug("Built type system of project [" + aProject.getId() + "] (generation "
+                    + generation + ")");
+        }
+        return pts;
+    }
+
     List<TypeSystemDescription> getProjectTypes(Project aProject)
     {
 
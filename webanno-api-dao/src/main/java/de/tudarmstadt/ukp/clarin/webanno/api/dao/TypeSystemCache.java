@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.impl.CASCompleteSerializer;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.Serialization;
+import org.apache.uima.resource.ResourceInitializationException;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+/**
+ * Caches the merged and committed UIMA type system of each project, i.e. the built-in types plus
+ * the custom layers and features defined in the project. Building the type system requires
+ * querying all layers and features from the database and merging the descriptions which is too
+ * expensive to do every time a CAS is loaded.
+ * <p>
+ * The cache must be invalidated whenever a layer or feature of a project is created, changed or
+ * removed (see {@link AnnotationServiceImpl}).
+ */
+public class TypeSystemCache
+{
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final ConcurrentMap<Long, ProjectTypeSystem> cache = new ConcurrentHashMap<Long, ProjectTypeSystem>();
+
+    /**
+     * The generation of a project is incremented on every invalidation. A type system computed
+     * from an older generation is never put into the cache because the layers it was built from
+     * may already be outdated.
+     */
+    private final ConcurrentMap<Long, AtomicLong> generations = new ConcurrentHashMap<Long, AtomicLong>();
+
+    /**
+     * Get the cached type system of the given project.
+     *
+     * @param aProject
+     *            the project.
+     * @return the type system or {@code null} if there is none in the cache.
+     */
+    public ProjectTypeSystem get(Project aProject)
+    {
+        return cache.get(aProject.getId());
+    }
+
+    /**
+     * Get the current generation of the type system of the given project. Call this before
+     * building the type system description and pass the value on to
+     * {@link #put(Project, long, TypeSystemDescription)}.
+     *
+     * @param aProject
+     *            the project.
+     * @return the generation.
+     */
+    public long getGeneration(Project aProject)
+    {
+        return getGenerationCounter(aProject.getId()).get();
+    }
+
+    /**
+     * Commit the given type system description and store the result in the cache unless the
+     * project type system has been invalidated in the meantime.
+     *
+     * @param aProject
+     *            the project.
+     * @param aGeneration
+     *            the generation obtained from {@link #getGeneration(Project)} before the
+     *            description was built.
+     * @param aDescription
+     *            the merged type system description of the project.
+     * @return the committed type system.
+     * @throws ResourceInitializationException
+     *             if the type system cannot be committed.
+     */
+    public ProjectTypeSystem put(Project aProject, long aGeneration,
+            TypeSystemDescription aDescription)
+        throws ResourceInitializationException
+    {
+        CAS template = CasCreationUtils.createCas(aDescription, null, null);
+        ProjectTypeSystem pts = new ProjectTypeSystem(aGeneration, aDescription,
+                template.getTypeSystem());
+
+        // Only cache if nobody invalidated the project while we were building the type system.
+        // There is a small window in which an invalidation could slip in between the check and
+        // the put, so check again afterwards and remove the entry if necessary.
+        if (getGeneration(aProject) == aGeneration) {
+            cache.put(aProject.getId(), pts);
+            if (getGeneration(aProject) != aGeneration) {
+                cache.remove(aProject.getId(), pts);
+            }
+        }
+
+        return pts;
+    }
+
+    /**
+     * Drop the cached type system of the given project. If called within a transaction, the type
+     * system is dropped again when the transaction completes so that no type system built from
+     * uncommitted or rolled back layer definitions survives in the cache.
+     *
+     * @param aProject
+     *            the project.
+     */
+    public void invalidate(final Project aProject)
+    {
+        doInvalidate(aProject.getId());
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            final long projectId = aProject.getId();
+            TransactionSynchronizationManager
+                    .registerSynchronization(new TransactionSynchronizationAdapter()
+                    {
+                        @Override
+                        public void afterCompletion(int aStatus)
+                        {
+                            doInvalidate(projectId);
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Drop all cached type systems.
+     */
+    public void invalidateAll()
+    {
+        for (Long projectId : generations.keySet()) {
+            doInvalidate(projectId);
+        }
+    }
+
+    private void doInvalidate(long aProjectId)
+    {
+        getGenerationCounter(aProjectId).incrementAndGet();
+        if (cache.remove(aProjectId) != null) {
+            log.debug("Invalidated type system of project [" + aProjectId + "]");
+        }
+    }
+
+    private AtomicLong getGenerationCounter(long aProjectId)
+    {
+        AtomicLong generation = generations.get(aProjectId);
+        if (generation == null) {
+            generation = new AtomicLong();
+            AtomicLong existing = generations.putIfAbsent(aProjectId, generation);
+            if (existing != null) {
+                generation = existing;
+            }
+        }
+        return generation;
+    }
+
+    /**
+     * The merged type system of a project.
+     */
+    public static class ProjectTypeSystem
+    {
+        private final long version;
+        private final TypeSystemDescription description;
+        private final TypeSystem typeSystem;
+        private CASCompleteSerializer template;
+
+        public ProjectTypeSystem(long aVersion, TypeSystemDescription aDescription,
+                TypeSystem aTypeSystem)
+        {
+            version = aVersion;
+            description = aDescription;
+            typeSystem = aTypeSystem;
+        }
+
+        /**
+         * @return the generation of the project type system this was built from.
+         */
+        public long getVersion()
+        {
+            return version;
+        }
+
+        /**
+         * @return the merged type system description. Must not be modified.
+         */
+        public TypeSystemDescription getDescription()
+        {
+            return description;
+        }
+
+        /**
+         * @return the committed type system.
+         */
+        public TypeSystem getTypeSystem()
+        {
+            return typeSystem;
+        }
+
+        /**
+         * Create a new empty CAS sharing the committed type system.
+         *
+         * @return the CAS.
+         * @throws ResourceInitializationException
+         *             if the CAS cannot be created.
+         */
+        public CAS createCas()
+            throws ResourceInitializationException
+        {
+            return CasCreationUtils.createCas(typeSystem, null, null, null);
+        }
+
+        /**
+         * Get a serialized empty CAS with this type system. Deserializing it into an existing CAS
+         * using {@link Serialization#deserializeCASComplete} switches that CAS over to this type
+         * system.
+         *
+         * @return the serialized empty CAS.
+         * @throws ResourceInitializationException
+         *             if the CAS cannot be created.
+         */
+        public synchronized CASCompleteSerializer getTemplate()
+            throws ResourceInitializationException
+        {
+            if (template == null) {
+                template = Serialization.serializeCASComplete((CASImpl) createCas());
+            }
+            return template;
+        }
+    }
+}
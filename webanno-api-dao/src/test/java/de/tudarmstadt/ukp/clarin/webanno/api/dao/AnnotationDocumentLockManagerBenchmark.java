@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkRunner;
+import de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkRunner.Operation;
+
+/**
+ * Simulates annotators saving different documents at the same time, once with a single global
+ * lock as used before and once with the locks of an {@link AnnotationDocumentLockManager}. With a
+ * global lock the throughput stays flat no matter how many threads are saving. With per-document
+ * locks it grows with the number of threads.
+ *
+ * @see BenchmarkRunner
+ */
+public class AnnotationDocumentLockManagerBenchmark
+{
+    /**
+     * Simulated time spent writing one annotation document to disk.
+     */
+    private static final long SAVE_MILLIS = 5;
+
+    private static final int SAVES_PER_THREAD = 40;
+
+    @Test
+    public void benchmarkSaveThroughput()
+        throws Exception
+    {
+        AnnotationDocumentLockManager manager = new AnnotationDocumentLockManager();
+
+        double global1 = measureSaveThroughput(1, null);
+        double global8 = measureSaveThroughput(8, null);
+        double striped1 = measureSaveThroughput(1, manager);
+        double striped8 = measureSaveThroughput(8, manager);
+
+        // A global lock does not scale, striped locks do
+        assertTrue(global8 < global1 * 2);
+        assertTrue(striped8 > striped1 * 3);
+    }
+
+    /**
+     * @return the saves per millisecond.
+     */
+    private double measureSaveThroughput(final int aThreads,
+            final AnnotationDocumentLockManager aManager)
+        throws Exception
+    {
+        String name = (aManager != null ? "striped locks" : "global lock") + ", " + aThreads
+                + " threads";
+        return aThreads * SAVES_PER_THREAD / BenchmarkRunner.measure(name, 1, new Operation()
+        {
+            @Override
+            public long run()
+                throws Exception
+            {
+                saveConcurrently(aThreads, aManager);
+                return aThreads * SAVES_PER_THREAD;
+            }
+        }).getMillis();
+    }
+
+    private void saveConcurrently(int aThreads, final AnnotationDocumentLockManager aManager)
+        throws InterruptedException
+    {
+        final ReadWriteLock globalLock = new ReentrantReadWriteLock();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < aThreads; t++) {
+            // Every thread is a different annotator working on a different document in a
+            // different project
+            final long project = t;
+            final long document = 1000 + t;
+            final String user = "user" + t;
+            threads.add(new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        start.await();
+                        for (int i = 0; i < SAVES_PER_THREAD; i++) {
+                            ReadWriteLock rwLock = aManager != null ? aManager.getLock(project,
+                                    document, user) : globalLock;
+                            Lock lock = rwLock.writeLock();
+                            lock.lock();
+                            try {
+                                Thread.sleep(SAVE_MILLIS);
+                            }
+                            finally {
+                                lock.unlock();
+                            }
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.junit.Test;
+
+public class AnnotationDocumentLockManagerTest
+{
+    @Test
+    public void testSameKeySameLock()
+    {
+        AnnotationDocumentLockManager manager = new AnnotationDocumentLockManager();
+
+        assertSame(manager.getLock(1, 2, "user1"), manager.getLock(1, 2, "user1"));
+    }
+
+    @Test
+    public void testStripesRoundedToPowerOfTwo()
+    {
+        assertEquals(1, new AnnotationDocumentLockManager(1).getStripes());
+        assertEquals(128, new AnnotationDocumentLockManager(100).getStripes());
+        assertEquals(256, new AnnotationDocumentLockManager(256).getStripes());
+    }
+
+    @Test
+    public void testWritersOnSameDocumentAreExclusive()
+        throws Exception
+    {
+        final AnnotationDocumentLockManager manager = new AnnotationDocumentLockManager();
+        final int[] counter = new int[1];
+        final boolean[] overlap = new boolean[1];
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int i = 0; i < 1000; i++) {
+                        Lock lock = manager.getLock(1, 1, "user1").writeLock();
+                        lock.lock();
+                        try {
+                            int before = counter[0];
+                            Thread.yield();
+                            if (counter[0] != before) {
+                                overlap[0] = true;
+                            }
+                            counter[0] = before + 1;
+                        }
+                        finally {
+                            lock.unlock();
+                        }
+                    }
+                }
+            });
+        }
+        runAll(threads);
+
+        assertEquals(8000, counter[0]);
+        assertFalse(overlap[0]);
+    }
+
+    @Test
+    public void testDifferentDocumentsUseDifferentStripes()
+    {
+        AnnotationDocumentLockManager manager = new AnnotationDocumentLockManager();
+
+        Set<ReadWriteLock> locks = Collections.newSetFromMap(
+                new IdentityHashMap<ReadWriteLock, Boolean>());
+        for (int t = 0; t < 8; t++) {
+            locks.add(manager.getLock(t, 1000 + t, "user" + t));
+        }
+        assertEquals(8, locks.size());
+
+        // With a single stripe, all documents share one lock
+        AnnotationDocumentLockManager single = new AnnotationDocumentLockManager(1);
+        assertSame(single.getLock(1, 1, "user1"), single.getLock(2, 2, "user2"));
+    }
+
+    @Test
+    public void testWriterDoesNotBlockOtherDocument()
+        throws Exception
+    {
+        AnnotationDocumentLockManager manager = new AnnotationDocumentLockManager();
+        ReadWriteLock document1 = manager.getLock(1, 1, "user1");
+        ReadWriteLock document2 = manager.getLock(1, 2, "user1");
+
+        document1.writeLock().lock();
+        try {
+            assertTrue(tryLockInOtherThread(document2.writeLock()));
+            assertFalse(tryLockInOtherThread(document1.writeLock()));
+            assertFalse(tryLockInOtherThread(document1.readLock()));
+        }
+        finally {
+            document1.writeLock().unlock();
+        }
+    }
+
+    @Test
+    public void testReadersShareButExcludeWriters()
+        throws Exception
+    {
+        AnnotationDocumentLockManager manager = new AnnotationDocumentLockManager();
+        ReadWriteLock document = manager.getLock(1, 1, "user1");
+
+        document.readLock().lock();
+        try {
+            assertTrue(tryLockInOtherThread(document.readLock()));
+            assertFalse(tryLockInOtherThread(document.writeLock()));
+        }
+        finally {
+            document.readLock().unlock();
+        }
+    }
+
+    /**
+     * Try to acquire the lock in another thread and release it again right away, since a lock
+     * held by the current thread would always be reentered.
+     */
+    private boolean tryLockInOtherThread(final Lock aLock)
+        throws InterruptedException
+    {
+        final boolean[] acquired = new boolean[1];
+        Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                if (aLock.tryLock()) {
+                    acquired[0] = true;
+                    aLock.unlock();
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+        return acquired[0];
+    }
+
+    private void runAll(List<Thread> aThreads)
+        throws InterruptedException
+    {
+        for (Thread thread : aThreads) {
+            thread.start();
+        }
+        for (Thread thread : aThreads) {
+            thread.join();
+        }
+    }
+}
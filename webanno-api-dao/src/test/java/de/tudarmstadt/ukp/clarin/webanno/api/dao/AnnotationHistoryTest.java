@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AnnotationHistoryTest
+{
+    private File annotationFolder;
+
+    private AnnotationHistory history;
+
+    @Before
+    public void setup()
+        throws IOException
+    {
+        annotationFolder = new File("target/test-output/AnnotationHistoryTest");
+        FileUtils.deleteQuietly(annotationFolder);
+        FileUtils.forceMkdir(annotationFolder);
+
+        history = new AnnotationHistory();
+        history.setBackupInterval(1000);
+    }
+
+    @Test
+    public void testFirstSaveIsBackedUp()
+        throws IOException
+    {
+        File file = save("user1", "v1", 10000);
+        history.backup(file);
+
+        assertEquals(asList("user1.ser", "user1.ser.10000.bak"), list());
+        assertEquals("v1", FileUtils.readFileToString(new File(annotationFolder,
+                "user1.ser.10000.bak")));
+    }
+
+    @Test
+    public void testBackupInterval()
+        throws IOException
+    {
+        history.backup(save("user1", "v1", 10000));
+        history.backup(save("user1", "v2", 10500));
+        history.backup(save("user1", "v3", 11500));
+
+        assertEquals(asList("user1.ser", "user1.ser.10000.bak", "user1.ser.11500.bak"), list());
+    }
+
+    @Test
+    public void testBackupUnaffectedByNextSave()
+        throws IOException
+    {
+        history.backup(save("user1", "v1", 10000));
+        save("user1", "v2", 10500);
+
+        assertEquals("v1", FileUtils.readFileToString(new File(annotationFolder,
+                "user1.ser.10000.bak")));
+    }
+
+    @Test
+    public void testDisabled()
+        throws IOException
+    {
+        history.setBackupInterval(0);
+        history.backup(save("user1", "v1", 10000));
+
+        assertEquals(asList("user1.ser"), list());
+        assertEquals(0, history.getLinked() + history.getCopied());
+    }
+
+    /**
+     * Like the repository, always write a new file instead of overwriting the existing one.
+     */
+    private File save(String aUsername, String aContent, long aTime)
+        throws IOException
+    {
+        File file = new File(annotationFolder, aUsername + ".ser");
+        FileUtils.deleteQuietly(file);
+        FileUtils.writeStringToFile(file, aContent);
+        file.setLastModified(aTime);
+        return file;
+    }
+
+    private List<String> list()
+    {
+        String[] names = annotationFolder.list();
+        Arrays.sort(names);
+        return asList(names);
+    }
+}
@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.junit.Test;
+
+public class AnnotationSaveQueueTest
+{
+    private final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    @Test
+    public void testCoalescing()
+        throws Exception
+    {
+        AnnotationSaveQueue queue = new AnnotationSaveQueue();
+        queue.setDelay(60000);
+
+        for (int i = 0; i < 5; i++) {
+            queue.enqueue("1/1/user1", lock, save("user1-" + i));
+        }
+        queue.enqueue("1/1/user2", lock, save("user2"));
+
+        assertEquals(2, queue.getQueueDepth());
+        assertEquals(4, queue.getCoalesced());
+        assertNotNull(queue.getPending("1/1/user1"));
+
+        queue.flushAll();
+
+        assertEquals(asList("user1-4", "user2"), written);
+        assertNull(queue.getPending("1/1/user1"));
+        assertEquals(0, queue.getQueueDepth());
+    }
+
+    @Test
+    public void testWrittenInBackground()
+        throws Exception
+    {
+        AnnotationSaveQueue queue = new AnnotationSaveQueue();
+        queue.setDelay(10);
+        queue.start();
+        try {
+            queue.enqueue("1/1/user1", lock, save("user1"));
+
+            long timeout = System.currentTimeMillis() + 5000;
+            while (queue.getQueueDepth() > 0 && System.currentTimeMillis() < timeout) {
+                Thread.sleep(10);
+            }
+
+            assertEquals(asList("user1"), written);
+        }
+        finally {
+            queue.stop();
+        }
+    }
+
+    @Test
+    public void testStopWritesPendingSaves()
+    {
+        AnnotationSaveQueue queue = new AnnotationSaveQueue();
+        queue.setDelay(60000);
+        queue.start();
+
+        queue.enqueue("1/1/user1", lock, save("user1"));
+        queue.enqueue("1/2/user1", lock, save("user1-doc2"));
+        queue.stop();
+
+        assertEquals(asList("user1", "user1-doc2"), written);
+    }
+
+    @Test
+    public void testDiscard()
+    {
+        AnnotationSaveQueue queue = new AnnotationSaveQueue();
+        queue.setDelay(60000);
+
+        queue.enqueue("1/1/user1", lock, save("user1"));
+        queue.enqueue("1/1/user2", lock, save("user2"));
+        queue.enqueue("1/2/user1", lock, save("user1-doc2"));
+        queue.discardAll("1/1/");
+        queue.flushAll();
+
+        assertEquals(asList("user1-doc2"), written);
+    }
+
+    @Test
+    public void testFailedSaveIsRetried()
+    {
+        AnnotationSaveQueue queue = new AnnotationSaveQueue();
+        queue.setDelay(60000);
+
+        queue.enqueue("1/1/user1", lock, new AnnotationSaveQueue.Save()
+        {
+            @Override
+            public void write()
+                throws IOException
+            {
+                throw new IOException("Disk full");
+            }
+        });
+
+        try {
+            queue.flush("1/1/user1");
+        }
+        catch (IOException e) {
+            // Expected
+        }
+
+        assertNotNull(queue.getPending("1/1/user1"));
+        assertNotNull(queue.getFailure("1/1/user1"));
+        assertEquals(1, queue.getFailed());
+    }
+
+    @Test
+    public void testFailedSaveKeepsPosition()
+    {
+        AnnotationSaveQueue queue = new AnnotationSaveQueue();
+        queue.setDelay(60000);
+
+        final boolean[] failing = { true };
+        queue.enqueue("1/1/user1", lock, new AnnotationSaveQueue.Save()
+        {
+            @Override
+            public void write()
+                throws IOException
+            {
+                if (failing[0]) {
+                    throw new IOException("Disk full");
+                }
+                written.add("user1");
+            }
+        });
+        queue.enqueue("1/1/user2", lock, save("user2"));
+
+        try {
+            queue.flush("1/1/user1");
+        }
+        catch (IOException e) {
+            // Expected
+        }
+        queue.enqueue("1/1/user3", lock, save("user3"));
+
+        failing[0] = false;
+        queue.flushAll();
+
+        assertEquals(asList("user1", "user2", "user3"), written);
+        assertNull(queue.getFailure("1/1/user1"));
+        assertEquals(0, queue.getQueueDepth());
+    }
+
+    private AnnotationSaveQueue.Save save(final String aName)
+    {
+        return new AnnotationSaveQueue.Save()
+        {
+            @Override
+            public void write()
+            {
+                written.add(aName);
+            }
+        };
+    }
+}
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlobStoreTest
+{
+    private File repository;
+
+    private BlobStore store;
+
+    @Before
+    public void setup()
+    {
+        repository = new File("target/test-output/BlobStoreTest");
+        FileUtils.deleteQuietly(repository);
+
+        store = new BlobStore();
+        store.setDir(repository);
+        assumeTrue(store.isSupported());
+    }
+
+    @Test
+    public void testIdenticalContentIsStoredOnce()
+        throws IOException
+    {
+        File doc1 = store("project/1/document/1/source/a.txt", "content");
+        File doc2 = store("project/2/document/2/source/a.txt", "content");
+        File doc3 = store("project/2/document/3/source/b.txt", "other content");
+
+        assertEquals("content", FileUtils.readFileToString(doc1));
+        assertEquals("content", FileUtils.readFileToString(doc2));
+        assertEquals("other content", FileUtils.readFileToString(doc3));
+        assertEquals(2, listBlobs().size());
+        assertEquals(2, store.getStored());
+        assertEquals(1, store.getDeduplicated());
+    }
+
+    @Test
+    public void testUnreferencedContentIsRemoved()
+        throws IOException
+    {
+        File doc1 = store("project/1/document/1/source/a.txt", "content");
+        File doc2 = store("project/2/document/2/source/a.txt", "content");
+
+        FileUtils.forceDelete(doc1);
+        store.collectGarbage();
+        assertEquals(1, listBlobs().size());
+        assertEquals("content", FileUtils.readFileToString(doc2));
+
+        FileUtils.forceDelete(doc2);
+        store.collectGarbage();
+        assertTrue(listBlobs().isEmpty());
+    }
+
+    @Test
+    public void testGarbageCollectionInBackground()
+        throws Exception
+    {
+        File doc = store("project/1/document/1/source/a.txt", "content");
+        FileUtils.forceDelete(doc);
+
+        store.setCollectDelay(0);
+        store.start();
+        try {
+            store.requestGarbageCollection();
+            for (int i = 0; i < 100 && !listBlobs().isEmpty(); i++) {
+                Thread.sleep(100);
+            }
+            assertTrue(listBlobs().isEmpty());
+        }
+        finally {
+            store.stop();
+        }
+    }
+
+    @Test
+    public void testCopyIfDisabled()
+        throws IOException
+    {
+        store.setEnabled(false);
+        File doc = store("project/1/document/1/source/a.txt", "content");
+
+        assertEquals("content", FileUtils.readFileToString(doc));
+        assertTrue(listBlobs().isEmpty());
+    }
+
+    private File store(String aPath, String aContent)
+        throws IOException
+    {
+        File target = new File(repository, aPath);
+        store.store(new ByteArrayInputStream(aContent.getBytes("UTF-8")), target);
+        return target;
+    }
+
+    private Collection<File> listBlobs()
+    {
+        return FileUtils.listFiles(new File(repository, "blob"), null, true);
+    }
+}
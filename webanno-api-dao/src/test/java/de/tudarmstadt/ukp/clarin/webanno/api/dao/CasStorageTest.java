@@ -0,0 +1,331 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+public class CasStorageTest
+{
+    private File repository;
+
+    private CasStorage storage;
+
+    private Project project;
+
+    @Before
+    public void setup()
+    {
+        repository = new File("target/test-output/CasStorageTest");
+        FileUtils.deleteQuietly(repository);
+
+        storage = new CasStorage();
+        storage.setDir(repository);
+        storage.setJournalEnabled(false);
+
+        project = new Project();
+        project.setId(1);
+    }
+
+    @Test
+    public void testBinaryRoundTrip()
+        throws Exception
+    {
+        CAS cas = createCas();
+        File file = getFile(1, "user1");
+
+        storage.write(project, cas, file);
+
+        assertTrue(storage.isBinary(file));
+        assertEquals(1, storage.getTypeSystemFolder(project).list().length);
+        assertEquals(describe(cas), describe(read(file)));
+    }
+
+    @Test
+    public void testSerializedRoundTrip()
+        throws Exception
+    {
+        CAS cas = createCas();
+        File file = getFile(1, "user1");
+
+        storage.setFormat(CasStorage.FORMAT_SERIALIZED);
+        storage.write(project, cas, file);
+
+        assertFalse(storage.isBinary(file));
+        assertFalse(storage.getTypeSystemFolder(project).exists());
+        assertEquals(describe(cas), describe(read(file)));
+    }
+
+    @Test
+    public void testReadMixedFormats()
+        throws Exception
+    {
+        CAS cas = createCas();
+        File serialized = getFile(1, "user1");
+        File binary1 = getFile(1, "user2");
+        File binary2 = getFile(2, "user1");
+
+        storage.setFormat(CasStorage.FORMAT_SERIALIZED);
+        storage.write(project, cas, serialized);
+        storage.setFormat(CasStorage.FORMAT_BINARY);
+        storage.write(project, cas, binary1);
+        storage.write(project, cas, binary2);
+
+        // Documents written with the same type system share the type system file
+        assertEquals(1, storage.getTypeSystemFolder(project).list().length);
+
+        assertEquals(describe(cas), describe(read(serialized)));
+        assertEquals(describe(cas), describe(read(binary1)));
+        assertEquals(describe(cas), describe(read(binary2)));
+    }
+
+    @Test
+    public void testMigration()
+        throws Exception
+    {
+        CAS cas = createCas();
+        File file = getFile(1, "user1");
+
+        storage.setFormat(CasStorage.FORMAT_SERIALIZED);
+        storage.write(project, cas, file);
+        file.setLastModified(1000000000000L);
+        File broken = getFile(2, "user1");
+        FileUtils.writeStringToFile(broken, "not a CAS");
+        storage.setFormat(CasStorage.FORMAT_BINARY);
+
+        CasStorageMigration migration = new CasStorageMigration();
+        migration.setCasStorage(storage);
+        migration.setLockManager(new AnnotationDocumentLockManager());
+        migration.migrate();
+
+        assertEquals(1, migration.getMigrated());
+        assertEquals(1, migration.getFailed());
+        assertTrue(storage.isBinary(file));
+        assertEquals(1000000000000L, file.lastModified());
+        assertEquals(describe(cas), describe(read(file)));
+        // A document which cannot be migrated is left as it is
+        assertEquals("not a CAS", FileUtils.readFileToString(broken));
+        assertFalse(new File(file.getPath() + ".old").exists());
+
+        // Migrated documents are skipped when migrating again
+        migration.migrate();
+        assertEquals(0, migration.getMigrated());
+    }
+
+    @Test
+    public void testJournalReplay()
+        throws Exception
+    {
+        storage.setJournalEnabled(true);
+        File file = getFile(1, "user1");
+        storage.write(project, createCas(), file);
+
+        CAS cas = read(file);
+        addToken(cas, 0, 2);
+        assertTrue(storage.writeDelta(project, cas, file));
+        assertTrue(storage.getJournalFile(file).exists());
+
+        cas = read(file);
+        addToken(cas, 3, 5);
+        assertTrue(storage.writeDelta(project, cas, file));
+
+        assertEquals(describe(cas), describe(read(file)));
+    }
+
+    @Test
+    public void testCompact()
+        throws Exception
+    {
+        storage.setJournalEnabled(true);
+        File file = getFile(1, "user1");
+        storage.write(project, createCas(), file);
+
+        CAS cas = read(file);
+        addToken(cas, 0, 2);
+        assertTrue(storage.writeDelta(project, cas, file));
+
+        storage.compact(project, file);
+
+        assertFalse(storage.getJournalFile(file).exists());
+        assertEquals(describe(cas), describe(read(file)));
+    }
+
+    @Test
+    public void testJournalSurvivesChangedModificationTime()
+        throws Exception
+    {
+        storage.setJournalEnabled(true);
+        File file = getFile(1, "user1");
+        storage.write(project, createCas(), file);
+
+        CAS cas = read(file);
+        addToken(cas, 0, 2);
+        assertTrue(storage.writeDelta(project, cas, file));
+
+        // E.g. the repository was copied without preserving modification times and the
+        // application was restarted
+        file.setLastModified(file.lastModified() - 3600000);
+        storage = new CasStorage();
+        storage.setDir(repository);
+
+        assertEquals(describe(cas), describe(read(file)));
+        storage.compact(project, file);
+        assertFalse(storage.getJournalFile(file).exists());
+        assertEquals(describe(cas), describe(read(file)));
+    }
+
+    @Test
+    public void testStaleJournalIsIgnoredAndKept()
+        throws Exception
+    {
+        storage.setJournalEnabled(true);
+        File file = getFile(1, "user1");
+        CAS original = createCas();
+        storage.write(project, original, file);
+
+        CAS cas = read(file);
+        addToken(cas, 0, 2);
+        assertTrue(storage.writeDelta(project, cas, file));
+        File journalFile = storage.getJournalFile(file);
+        byte[] journal = FileUtils.readFileToByteArray(journalFile);
+
+        // Writing a snapshot removes the journal. Put it back as if it belonged to the new one.
+        CAS other = createCas();
+        addToken(other, 3, 5);
+        storage.write(project, other, file);
+        FileUtils.writeByteArrayToFile(journalFile, journal);
+
+        assertEquals(describe(other), describe(read(file)));
+
+        storage.compact(project, file);
+        assertFalse(journalFile.exists());
+        assertTrue(new File(journalFile.getPath() + CasStorage.STALE_JOURNAL_SUFFIX).exists());
+        assertEquals(describe(other), describe(read(file)));
+    }
+
+    @Test
+    public void testUntrackedCasIsNotJournaled()
+        throws Exception
+    {
+        storage.setJournalEnabled(true);
+        File file = getFile(1, "user1");
+        storage.write(project, createCas(), file);
+
+        CAS cas = read(file);
+        storage.stopTracking(cas);
+        addToken(cas, 0, 2);
+
+        assertFalse(storage.writeDelta(project, cas, file));
+        assertFalse(storage.getJournalFile(file).exists());
+    }
+
+    @Test
+    public void testTrackedCasCanBeCollected()
+        throws Exception
+    {
+        storage.setJournalEnabled(true);
+        File file = getFile(1, "user1");
+        storage.write(project, createCas(), file);
+
+        WeakReference<CAS> cas = new WeakReference<CAS>(read(file));
+        for (int i = 0; i < 50 && cas.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertNull(cas.get());
+    }
+
+    /**
+     * A document with enough distinct words that journal entries are small compared to the
+     * snapshot, so that the journal is not compacted while testing.
+     */
+    private CAS createCas()
+        throws Exception
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append(i % 10 == 9 ? "word" + i + ". " : "word" + i + " ");
+        }
+
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText(text.toString().trim());
+        int begin = 0;
+        int sentenceBegin = 0;
+        for (String token : jcas.getDocumentText().split(" ")) {
+            new Token(jcas, begin, begin + token.length()).addToIndexes();
+            begin += token.length() + 1;
+            if (token.endsWith(".")) {
+                new Sentence(jcas, sentenceBegin, begin - 1).addToIndexes();
+                sentenceBegin = begin;
+            }
+        }
+        return jcas.getCas();
+    }
+
+    private void addToken(CAS aCas, int aBegin, int aEnd)
+        throws Exception
+    {
+        new Token(aCas.getJCas(), aBegin, aEnd).addToIndexes();
+    }
+
+    private CAS read(File aFile)
+        throws Exception
+    {
+        return storage.read(project, aFile, JCasFactory.createJCas().getCas());
+    }
+
+    private File getFile(long aDocumentId, String aUsername)
+        throws IOException
+    {
+        File folder = new File(repository, "project/" + project.getId() + "/document/"
+                + aDocumentId + "/annotation");
+        FileUtils.forceMkdir(folder);
+        return new File(folder, aUsername + ".ser");
+    }
+
+    private static List<String> describe(CAS aCas)
+    {
+        List<String> result = new ArrayList<String>();
+        result.add(aCas.getDocumentText());
+        for (AnnotationFS fs : aCas.getAnnotationIndex()) {
+            result.add(fs.getType().getName() + " " + fs.getBegin() + "-" + fs.getEnd());
+        }
+        return result;
+    }
+}
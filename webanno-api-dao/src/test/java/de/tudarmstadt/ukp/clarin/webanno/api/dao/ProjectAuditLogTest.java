@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+public class ProjectAuditLogTest
+{
+    private File dir;
+
+    private ProjectAuditLog auditLog;
+
+    private Project project;
+
+    @Before
+    public void setup()
+        throws IOException
+    {
+        dir = new File("target/test-output/ProjectAuditLogTest");
+        FileUtils.deleteQuietly(dir);
+        FileUtils.forceMkdir(new File(dir, "project"));
+
+        auditLog = new ProjectAuditLog();
+        auditLog.setDir(dir);
+        auditLog.start();
+
+        project = new Project();
+        project.setId(1);
+    }
+
+    @After
+    public void tearDown()
+    {
+        auditLog.stop();
+    }
+
+    @Test
+    public void testRotatedLogFiles()
+        throws IOException
+    {
+        auditLog.setMaxFileSize("1KB");
+        auditLog.setMaxBackups(2);
+        for (int i = 0; i < 1000; i++) {
+            auditLog.info(project, "user1", " Event " + i);
+        }
+        auditLog.close(project);
+
+        List<File> logFiles = auditLog.getLogFiles(project);
+        assertEquals(3, logFiles.size());
+        assertEquals("project-1.log", logFiles.get(0).getName());
+        assertEquals("project-1.log.1", logFiles.get(1).getName());
+        assertEquals("project-1.log.2", logFiles.get(2).getName());
+        assertTrue(FileUtils.readFileToString(logFiles.get(0), "UTF-8").trim()
+                .endsWith(" Event 999"));
+    }
+
+    @Test
+    public void testCloseWritesFile()
+        throws IOException
+    {
+        auditLog.info(project, "user1", " Created project");
+        auditLog.close(project);
+
+        File logFile = new File(dir, "project/project-1.log");
+        assertTrue(FileUtils.readFileToString(logFile, "UTF-8").trim()
+                .endsWith(" [user1]  Created project"));
+    }
+}
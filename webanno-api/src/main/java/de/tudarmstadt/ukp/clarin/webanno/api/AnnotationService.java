@@ -353,4 +353,15 @@ public interface AnnotationService
      * @param type the type.
      */
     void removeAnnotationLayer(AnnotationLayer type);
+
+    /**
+     * Get the version of the layer configuration of a {@link Project}. The version changes
+     * whenever a layer or feature of the project is created, changed or removed, so it can be used
+     * to cache data derived from the layers. It is not persistent.
+     *
+     * @param project
+     *            the project.
+     * @return the version.
+     */
+    long getLayerVersion(Project project);
 }
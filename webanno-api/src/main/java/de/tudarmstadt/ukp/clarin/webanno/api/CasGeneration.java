@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.impl.CASImpl;
+
+/**
+ * Counts how often a CAS has been reset or loaded with a document. Data derived from a CAS and
+ * kept next to it (e.g. the {@link TextLayout} or sentence and chain indexes) records the
+ * generation it has been computed for and is discarded once the generation changes. This also
+ * covers pooled CASes which are loaded again from the same snapshot and therefore hold an equal
+ * or even the identical document text.
+ * <p>
+ * The generation belongs to the base CAS, so all views of a CAS share it.
+ */
+public final class CasGeneration
+{
+    private static final Map<CAS, Long> GENERATIONS = Collections
+            .synchronizedMap(new WeakHashMap<CAS, Long>());
+
+    private static final AtomicLong NEXT = new AtomicLong();
+
+    private CasGeneration()
+    {
+        // No instances
+    }
+
+    /**
+     * Start a new generation of the given CAS. Must be called whenever the CAS is reset or a
+     * document is loaded into it.
+     *
+     * @param aCas
+     *            the CAS.
+     */
+    public static void advance(CAS aCas)
+    {
+        GENERATIONS.put(base(aCas), NEXT.incrementAndGet());
+    }
+
+    /**
+     * @param aCas
+     *            the CAS.
+     * @return the current generation of the CAS or 0 if it has never been advanced.
+     */
+    public static long get(CAS aCas)
+    {
+        Long generation = GENERATIONS.get(base(aCas));
+        return generation != null ? generation : 0;
+    }
+
+    private static CAS base(CAS aCas)
+    {
+        return ((CASImpl) aCas).getBaseCAS();
+    }
+}
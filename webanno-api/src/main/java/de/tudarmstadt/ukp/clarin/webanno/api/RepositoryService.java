@@ -234,6 +234,21 @@ public interface RepositoryService
      */
     File exportSourceDocument(SourceDocument document);
 
+    /**
+     * Store the content of a source document, e.g. when importing a project. Documents with the
+     * same content share their data on disk, so importing a copy of a project only needs to read
+     * the documents.
+     * 
+     * @param content
+     *            the content. The stream is closed afterwards.
+     * @param document
+     *            the source document.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    void createSourceDocumentContent(InputStream content, SourceDocument document)
+        throws IOException;
+
     /**
      * Get meta data information about {@link SourceDocument} from the database. This method is
      * called either for {@link AnnotationDocument} object creation or
@@ -454,6 +469,23 @@ public interface RepositoryService
      */
     File exportserializedCas(SourceDocument document, String user);
 
+    /**
+     * Export a Serialized CAS annotation document in a self-contained format which includes the
+     * type system. Unlike the file returned by {@link #exportserializedCas}, the exported file can
+     * be imported into any project and into older versions of WebAnno. The caller is responsible
+     * for deleting the returned file.
+     *
+     * @param document
+     *            the source document.
+     * @param user
+     *            the username.
+     * @return a temporary file named after the user containing the serialized CAS.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    File exportPortableSerializedCas(SourceDocument document, String user)
+        throws IOException;
+
     /**
      * Get an {@link AnnotationDocument} object from the database using the {@link SourceDocument}
      * and {@link User} Objects. If {@code getAnnotationDocument} fails, it will be created anew
@@ -485,6 +517,43 @@ public interface RepositoryService
     JCas getAnnotationDocumentContent(AnnotationDocument annotationDocument)
         throws UIMAException, IOException, ClassNotFoundException;
 
+    /**
+     * Get a string which changes whenever the annotation document is saved. The document is not
+     * loaded, so this can be used to check cheaply whether information derived from the document
+     * is still up to date.
+     *
+     * @param annotationDocument
+     *            the annotation document.
+     * @return the version or {@code null} if the document does not exist on disk or has changes
+     *         which are not on disk yet.
+     */
+    String getAnnotationDocumentVersion(AnnotationDocument annotationDocument);
+
+    /**
+     * Hand a CAS obtained from this service back once it is no longer needed so that it can be
+     * reused when loading the next document of the same project. The CAS must not be used anymore
+     * after it has been released and it must not be released twice.
+     *
+     * @param project
+     *            the project the CAS belongs to.
+     * @param jCas
+     *            the JCas.
+     */
+    void releaseJCas(Project project, JCas jCas);
+
+    /**
+     * Start collecting the CASes obtained from this service on the current thread. They are
+     * released by {@link #endCasScope} unless they have been released before. Use this only where
+     * no CAS is kept beyond the end of the scope, e.g. for a single request of a page.
+     */
+    void beginCasScope();
+
+    /**
+     * Release the CASes obtained on the current thread since {@link #beginCasScope}. Does nothing
+     * if no scope has been started.
+     */
+    void endCasScope();
+
     /**
      * List all the {@link AnnotationDocument}s, if available for a given {@link SourceDocument} in
      * the {@link Project}. Returns list of {@link AnnotationDocument}s for all {@link User}s in the
@@ -688,6 +757,16 @@ public interface RepositoryService
      */
     File exportProjectLog(Project project);
 
+    /**
+     * Export the log of this {@link Project} including its rotated files (e.g.
+     * {@code project-1.log.1}).
+     *
+     * @param project
+     *            the project.
+     * @return the existing log files, the current one first.
+     */
+    List<File> exportProjectLogs(Project project);
+
     File exportProjectMetaInf(Project project);
 
     /**
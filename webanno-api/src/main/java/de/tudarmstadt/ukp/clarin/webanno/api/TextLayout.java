@@ -0,0 +1,433 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FSIterator;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.cas.text.AnnotationIndex;
+
+/**
+ * The token and sentence offsets of a document. Tokenization does not change after a document has
+ * been imported, so the layout is computed once and stored in the document folder. It is read by
+ * mapping the file into memory, so loading it does not depend on the size of the document.
+ * <p>
+ * The repository attaches the layout to each CAS it loads for a document (see
+ * {@link #attach(CAS, TextLayout)}). Rendering code obtains it through {@link #get(CAS)}, which
+ * falls back to computing the layout from the CAS if none is attached or the CAS has been reset
+ * or loaded again since (see {@link CasGeneration}).
+ * <p>
+ * Tokens and sentences are kept in the order of the annotation index, i.e. sorted by begin offset.
+ */
+public final class TextLayout
+{
+    public static final String TOKEN_TYPE = "de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token";
+    public static final String SENTENCE_TYPE = "de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence";
+
+    private static final int MAGIC = 0x574c5954; // "WLYT"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 5;
+
+    private static final Map<CAS, Attachment> LAYOUTS = Collections
+            .synchronizedMap(new WeakHashMap<CAS, Attachment>());
+
+    private final int textLength;
+
+    private final IntBuffer tokenBegins;
+    private final IntBuffer tokenEnds;
+
+    /**
+     * Maximum end offset of the tokens at positions {@code 0..i}, used to find the first token
+     * which may overlap an offset by binary search.
+     */
+    private final IntBuffer tokenMaxEnds;
+
+    private final IntBuffer sentenceBegins;
+    private final IntBuffer sentenceEnds;
+
+    private TextLayout(int aTextLength, IntBuffer aTokenBegins, IntBuffer aTokenEnds,
+            IntBuffer aTokenMaxEnds, IntBuffer aSentenceBegins, IntBuffer aSentenceEnds)
+    {
+        textLength = aTextLength;
+        tokenBegins = aTokenBegins;
+        tokenEnds = aTokenEnds;
+        tokenMaxEnds = aTokenMaxEnds;
+        sentenceBegins = aSentenceBegins;
+        sentenceEnds = aSentenceEnds;
+    }
+
+    /**
+     * Compute the layout of the document in the given CAS.
+     *
+     * @param aCas
+     *            the CAS.
+     * @return the layout.
+     */
+    public static TextLayout of(CAS aCas)
+    {
+        String text = aCas.getDocumentText();
+        int textLength = text != null ? text.length() : 0;
+
+        AnnotationIndex<AnnotationFS> tokens = index(aCas, TOKEN_TYPE);
+        int[] tokenBegins = new int[tokens != null ? tokens.size() : 0];
+        int[] tokenEnds = new int[tokenBegins.length];
+        int[] tokenMaxEnds = new int[tokenBegins.length];
+        if (tokens != null) {
+            int i = 0;
+            int max = Integer.MIN_VALUE;
+            for (FSIterator<AnnotationFS> it = tokens.iterator(); it.hasNext(); i++) {
+                AnnotationFS token = it.next();
+                tokenBegins[i] = token.getBegin();
+                tokenEnds[i] = token.getEnd();
+                max = Math.max(max, token.getEnd());
+                tokenMaxEnds[i] = max;
+            }
+        }
+
+        AnnotationIndex<AnnotationFS> sentences = index(aCas, SENTENCE_TYPE);
+        int[] sentenceBegins = new int[sentences != null ? sentences.size() : 0];
+        int[] sentenceEnds = new int[sentenceBegins.length];
+        if (sentences != null) {
+            int i = 0;
+            for (FSIterator<AnnotationFS> it = sentences.iterator(); it.hasNext(); i++) {
+                AnnotationFS sentence = it.next();
+                sentenceBegins[i] = sentence.getBegin();
+                sentenceEnds[i] = sentence.getEnd();
+            }
+        }
+
+        return new TextLayout(textLength, IntBuffer.wrap(tokenBegins), IntBuffer.wrap(tokenEnds),
+                IntBuffer.wrap(tokenMaxEnds), IntBuffer.wrap(sentenceBegins),
+                IntBuffer.wrap(sentenceEnds));
+    }
+
+    private static AnnotationIndex<AnnotationFS> index(CAS aCas, String aTypeName)
+    {
+        Type type = aCas.getTypeSystem().getType(aTypeName);
+        return type != null ? aCas.getAnnotationIndex(type) : null;
+    }
+
+    /**
+     * Read a layout previously stored with {@link #write(File)}. The file is mapped into memory
+     * and must not be changed while the layout is in use.
+     *
+     * @param aFile
+     *            the file.
+     * @return the layout.
+     * @throws IOException
+     *             if the file cannot be read or is not a layout file.
+     */
+    public static TextLayout read(File aFile)
+        throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(aFile, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            // The mapping remains valid after the channel has been closed
+            ByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size()).order(
+                    ByteOrder.BIG_ENDIAN);
+            IntBuffer ints = buffer.asIntBuffer();
+            if (ints.limit() < HEADER_SIZE || ints.get(0) != MAGIC || ints.get(1) != VERSION) {
+                throw new IOException("File [" + aFile + "] is not a text layout file");
+            }
+            int textLength = ints.get(2);
+            int tokenCount = ints.get(3);
+            int sentenceCount = ints.get(4);
+            if (tokenCount < 0 || sentenceCount < 0
+                    || ints.limit() != HEADER_SIZE + 3 * tokenCount + 2 * sentenceCount) {
+                throw new IOException("Text layout file [" + aFile + "] is truncated");
+            }
+
+            int pos = HEADER_SIZE;
+            IntBuffer tokenBegins = slice(ints, pos, tokenCount);
+            pos += tokenCount;
+            IntBuffer tokenEnds = slice(ints, pos, tokenCount);
+            pos += tokenCount;
+            IntBuffer tokenMaxEnds = slice(ints, pos, tokenCount);
+            pos += tokenCount;
+            IntBuffer sentenceBegins = slice(ints, pos, sentenceCount);
+            pos += sentenceCount;
+            IntBuffer sentenceEnds = slice(ints, pos, sentenceCount);
+
+            return new TextLayout(textLength, tokenBegins, tokenEnds, tokenMaxEnds,
+                    sentenceBegins, sentenceEnds);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    private static IntBuffer slice(IntBuffer aBuffer, int aOffset, int aLength)
+    {
+        IntBuffer dup = aBuffer.duplicate();
+        dup.position(aOffset);
+        dup.limit(aOffset + aLength);
+        return dup.slice();
+    }
+
+    /**
+     * Store the layout. The file is written to a temporary file first, so that a layout which is
+     * currently mapped from the same location is not changed and concurrent writers do not
+     * interfere.
+     *
+     * @param aFile
+     *            the file.
+     * @throws IOException
+     *             if the file cannot be written.
+     */
+    public void write(File aFile)
+        throws IOException
+    {
+        int tokenCount = getTokenCount();
+        int sentenceCount = getSentenceCount();
+        ByteBuffer buffer = ByteBuffer.allocate(
+                4 * (HEADER_SIZE + 3 * tokenCount + 2 * sentenceCount)).order(ByteOrder.BIG_ENDIAN);
+        IntBuffer ints = buffer.asIntBuffer();
+        ints.put(MAGIC).put(VERSION).put(textLength).put(tokenCount).put(sentenceCount);
+        ints.put(tokenBegins.duplicate());
+        ints.put(tokenEnds.duplicate());
+        ints.put(tokenMaxEnds.duplicate());
+        ints.put(sentenceBegins.duplicate());
+        ints.put(sentenceEnds.duplicate());
+
+        File tmpFile = File.createTempFile(aFile.getName(), ".tmp", aFile.getParentFile());
+        RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        finally {
+            raf.close();
+        }
+        if (!tmpFile.renameTo(aFile) && !(aFile.delete() && tmpFile.renameTo(aFile))) {
+            tmpFile.delete();
+            throw new IOException("Cannot rename file [" + tmpFile + "] to [" + aFile + "]");
+        }
+    }
+
+    /**
+     * Attach the layout to a CAS holding the document it has been computed for. If the layout
+     * does not fit the document, it is not attached.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aLayout
+     *            the layout.
+     * @return whether the layout has been attached.
+     */
+    public static boolean attach(CAS aCas, TextLayout aLayout)
+    {
+        if (!aLayout.matches(aCas)) {
+            LAYOUTS.remove(aCas);
+            return false;
+        }
+        LAYOUTS.put(aCas, new Attachment(aCas, aLayout));
+        return true;
+    }
+
+    /**
+     * Get the layout of the document in the given CAS, computing it if none is attached.
+     *
+     * @param aCas
+     *            the CAS.
+     * @return the layout.
+     */
+    public static TextLayout get(CAS aCas)
+    {
+        Attachment attachment = LAYOUTS.get(aCas);
+        if (attachment != null && attachment.isValid(aCas)) {
+            return attachment.layout;
+        }
+
+        TextLayout layout = of(aCas);
+        LAYOUTS.put(aCas, new Attachment(aCas, layout));
+        return layout;
+    }
+
+    /**
+     * Check if the layout fits the document in the given CAS. The text length, the number of
+     * tokens and sentences and the offsets of the first and last token and sentence are compared.
+     * This does not walk the annotations, so a retokenization which keeps all of these unchanged
+     * is not detected.
+     *
+     * @param aCas
+     *            the CAS.
+     * @return whether the layout fits the document.
+     */
+    public boolean matches(CAS aCas)
+    {
+        String text = aCas.getDocumentText();
+        return (text != null ? text.length() : 0) == textLength
+                && matches(index(aCas, TOKEN_TYPE), tokenBegins, tokenEnds)
+                && matches(index(aCas, SENTENCE_TYPE), sentenceBegins, sentenceEnds);
+    }
+
+    private static boolean matches(AnnotationIndex<AnnotationFS> aIndex, IntBuffer aBegins,
+            IntBuffer aEnds)
+    {
+        int count = aBegins.limit();
+        if ((aIndex != null ? aIndex.size() : 0) != count) {
+            return false;
+        }
+        if (count == 0) {
+            return true;
+        }
+
+        FSIterator<AnnotationFS> it = aIndex.iterator();
+        it.moveToFirst();
+        AnnotationFS first = it.get();
+        it.moveToLast();
+        AnnotationFS last = it.get();
+        return first.getBegin() == aBegins.get(0) && first.getEnd() == aEnds.get(0)
+                && last.getBegin() == aBegins.get(count - 1)
+                && last.getEnd() == aEnds.get(count - 1);
+    }
+
+    public int getTextLength()
+    {
+        return textLength;
+    }
+
+    public int getTokenCount()
+    {
+        return tokenBegins.limit();
+    }
+
+    public int getTokenBegin(int aIndex)
+    {
+        return tokenBegins.get(aIndex);
+    }
+
+    public int getTokenEnd(int aIndex)
+    {
+        return tokenEnds.get(aIndex);
+    }
+
+    public int getSentenceCount()
+    {
+        return sentenceBegins.limit();
+    }
+
+    public int getSentenceBegin(int aIndex)
+    {
+        return sentenceBegins.get(aIndex);
+    }
+
+    public int getSentenceEnd(int aIndex)
+    {
+        return sentenceEnds.get(aIndex);
+    }
+
+    /**
+     * @param aOffset
+     *            an offset.
+     * @return the position of the first token starting at or after the offset. Tokens covered by
+     *         a range are found from this position on.
+     */
+    public int getFirstTokenStartingAt(int aOffset)
+    {
+        return lowerBound(tokenBegins, aOffset);
+    }
+
+    /**
+     * @param aOffset
+     *            an offset.
+     * @return the first position at which a token ending after the offset may be found. All
+     *         tokens before it end at or before the offset. Tokens overlapping a range are found
+     *         from this position on.
+     */
+    public int getFirstTokenEndingAfter(int aOffset)
+    {
+        int low = 0;
+        int high = getTokenCount();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tokenMaxEnds.get(mid) <= aOffset) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param aOffset
+     *            an offset.
+     * @return the position of the first sentence starting at or after the offset.
+     */
+    public int getFirstSentenceStartingAt(int aOffset)
+    {
+        return lowerBound(sentenceBegins, aOffset);
+    }
+
+    private static int lowerBound(IntBuffer aBegins, int aOffset)
+    {
+        int low = 0;
+        int high = aBegins.limit();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (aBegins.get(mid) < aOffset) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static final class Attachment
+    {
+        private final long generation;
+        private final String text;
+        private final TextLayout layout;
+
+        private Attachment(CAS aCas, TextLayout aLayout)
+        {
+            generation = CasGeneration.get(aCas);
+            text = aCas.getDocumentText();
+            layout = aLayout;
+        }
+
+        private boolean isValid(CAS aCas)
+        {
+            // The document text is the same instance unless another document has been set
+            // without going through the repository
+            return generation == CasGeneration.get(aCas) && text == aCas.getDocumentText()
+                    && layout.matches(aCas);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.resource.metadata.impl.TypeSystemDescription_impl;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TextLayoutTest
+{
+    private File folder;
+
+    private CAS cas;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        folder = new File("target/test-output/TextLayoutTest");
+        FileUtils.deleteQuietly(folder);
+        folder.mkdirs();
+
+        TypeSystemDescription tsd = new TypeSystemDescription_impl();
+        tsd.addType(TextLayout.TOKEN_TYPE, "", CAS.TYPE_NAME_ANNOTATION);
+        tsd.addType(TextLayout.SENTENCE_TYPE, "", CAS.TYPE_NAME_ANNOTATION);
+        cas = CasCreationUtils.createCas(tsd, null, null);
+
+        cas.setDocumentText("One two. Three four five.");
+        addTokens(0, 3, 4, 7, 7, 8, 9, 14, 15, 19, 20, 24, 24, 25);
+        add(TextLayout.SENTENCE_TYPE, 0, 8);
+        add(TextLayout.SENTENCE_TYPE, 9, 25);
+    }
+
+    @Test
+    public void testWriteRead()
+        throws IOException
+    {
+        TextLayout layout = TextLayout.of(cas);
+        File file = new File(folder, "layout");
+        layout.write(file);
+
+        TextLayout read = TextLayout.read(file);
+        assertEquals(25, read.getTextLength());
+        assertEquals(7, read.getTokenCount());
+        assertEquals(2, read.getSentenceCount());
+        for (int i = 0; i < layout.getTokenCount(); i++) {
+            assertEquals(layout.getTokenBegin(i), read.getTokenBegin(i));
+            assertEquals(layout.getTokenEnd(i), read.getTokenEnd(i));
+        }
+        assertEquals(9, read.getSentenceBegin(1));
+        assertEquals(25, read.getSentenceEnd(1));
+        assertEquals(3, read.getFirstTokenEndingAfter(8));
+        assertTrue(read.matches(cas));
+
+        // Writing over a mapped layout does not change it
+        TextLayout.of(cas).write(file);
+        assertEquals(7, read.getTokenCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadOtherFile()
+        throws IOException
+    {
+        File file = new File(folder, "layout");
+        FileUtils.writeStringToFile(file, "This is not a layout file");
+        TextLayout.read(file);
+    }
+
+    @Test
+    public void testGetFirstTokenEndingAfter()
+    {
+        TextLayout layout = TextLayout.of(cas);
+        assertEquals(0, layout.getFirstTokenEndingAfter(-1));
+        assertEquals(1, layout.getFirstTokenEndingAfter(3));
+        assertEquals(1, layout.getFirstTokenEndingAfter(4));
+        assertEquals(3, layout.getFirstTokenEndingAfter(8));
+        assertEquals(7, layout.getFirstTokenEndingAfter(25));
+
+        // A long token overlapping the following ones must still be found
+        add(TextLayout.TOKEN_TYPE, 4, 19);
+        layout = TextLayout.of(cas);
+        assertEquals(1, layout.getFirstTokenEndingAfter(8));
+        assertEquals(4, layout.getFirstTokenStartingAt(9));
+    }
+
+    @Test
+    public void testMatches()
+    {
+        TextLayout layout = TextLayout.of(cas);
+        assertTrue(layout.matches(cas));
+
+        // Retokenized with the same number of tokens: "five." is one token, "four" is split
+        AnnotationFS four = token(4);
+        AnnotationFS five = token(5);
+        AnnotationFS period = token(6);
+        cas.removeFsFromIndexes(four);
+        cas.removeFsFromIndexes(five);
+        cas.removeFsFromIndexes(period);
+        addTokens(15, 17, 17, 19, 20, 25);
+        assertEquals(layout.getTokenCount(), TextLayout.of(cas).getTokenCount());
+        assertFalse(layout.matches(cas));
+
+        cas.reset();
+        cas.setDocumentText("One two. Three four fiv.");
+        assertFalse(layout.matches(cas));
+    }
+
+    @Test
+    public void testAttachAndGet()
+    {
+        TextLayout layout = TextLayout.of(cas);
+        assertTrue(TextLayout.attach(cas, layout));
+        assertSame(layout, TextLayout.get(cas));
+
+        // Loading the CAS again invalidates the attached layout even if it still matches
+        CasGeneration.advance(cas);
+        TextLayout recomputed = TextLayout.get(cas);
+        assertNotSame(layout, recomputed);
+        assertSame(recomputed, TextLayout.get(cas));
+
+        add(TextLayout.SENTENCE_TYPE, 25, 25);
+        assertFalse(TextLayout.attach(cas, recomputed));
+    }
+
+    private void addTokens(int... aOffsets)
+    {
+        for (int i = 0; i < aOffsets.length; i += 2) {
+            add(TextLayout.TOKEN_TYPE, aOffsets[i], aOffsets[i + 1]);
+        }
+    }
+
+    private void add(String aType, int aBegin, int aEnd)
+    {
+        Type type = cas.getTypeSystem().getType(aType);
+        cas.addFsToIndexes(cas.createAnnotation(type, aBegin, aEnd));
+    }
+
+    private AnnotationFS token(int aIndex)
+    {
+        Type type = cas.getTypeSystem().getType(TextLayout.TOKEN_TYPE);
+        int i = 0;
+        for (AnnotationFS token : cas.getAnnotationIndex(type)) {
+            if (i++ == aIndex) {
+                return token;
+            }
+        }
+        throw new IndexOutOfBoundsException(String.valueOf(aIndex));
+    }
+}
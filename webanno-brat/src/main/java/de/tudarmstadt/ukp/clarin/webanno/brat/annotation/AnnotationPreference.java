@@ -32,6 +32,7 @@ public class AnnotationPreference
     private ArrayList<Long> annotationLayers;
     private int windowSize = 10;
     private boolean scrollPage;
+    private boolean virtualScrolling;
 
     private boolean staticColor;
 
@@ -65,6 +66,16 @@ public class AnnotationPreference
         scrollPage = aScrollPage;
     }
 
+    public boolean isVirtualScrolling()
+    {
+        return virtualScrolling;
+    }
+
+    public void setVirtualScrolling(boolean aVirtualScrolling)
+    {
+        virtualScrolling = aVirtualScrolling;
+    }
+
     public boolean isStaticColor()
     {
         return staticColor;
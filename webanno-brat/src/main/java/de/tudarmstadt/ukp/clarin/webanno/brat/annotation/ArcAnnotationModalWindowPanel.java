@@ -61,6 +61,7 @@ import com.googlecode.wicket.kendo.ui.form.combobox.ComboBox;
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.brat.controller.AnnotationIntervalIndex;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.ArcAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAnnotationException;
@@ -516,6 +517,7 @@ public class ArcAnnotationModalWindowPanel
         AnnotationFS idFs = selectByAddr(jCas, selectedArcId);
 
         jCas.removeFsFromIndexes(idFs);
+        AnnotationIntervalIndex.invalidate(jCas.getCas(), idFs.getType());
 
         AnnotationFS originFs = selectByAddr(jCas, originSpanId);
         AnnotationFS targetFs = selectByAddr(jCas, targetSpanId);
@@ -22,7 +22,6 @@ import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.TypeUtil.getAdap
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -31,6 +30,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.apache.commons.io.output.StringBuilderWriter;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.commons.logging.Log;
@@ -67,7 +67,7 @@ import org.apache.wicket.model.LoadableDetachableModel;
 import org.apache.wicket.model.Model;
 import org.apache.wicket.request.IRequestParameters;
 import org.apache.wicket.spring.injection.annot.SpringBean;
-import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.type.TypeReference;
 import org.springframework.http.converter.json.MappingJacksonHttpMessageConverter;
 
 import com.googlecode.wicket.jquery.ui.resource.JQueryUIResourceReference;
@@ -76,6 +76,7 @@ import com.googlecode.wicket.kendo.ui.form.combobox.ComboBox;
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.brat.controller.AnnotationIntervalIndex;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.ArcAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasController;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil;
@@ -86,7 +87,11 @@ import de.tudarmstadt.ukp.clarin.webanno.brat.controller.TypeAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.TypeUtil;
 import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.OffsetsList;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.ArcOpenDialogResponse;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.BatchOperation;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.BatchResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetCollectionInformationResponse;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentBlockResponse;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentPatchResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.LoadConfResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.SpanOpenDialogResponse;
@@ -94,6 +99,7 @@ import de.tudarmstadt.ukp.clarin.webanno.brat.message.WhoamiResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.resource.BratAjaxResourceReference;
 import de.tudarmstadt.ukp.clarin.webanno.brat.resource.BratAnnotationLogResourceReference;
 import de.tudarmstadt.ukp.clarin.webanno.brat.resource.BratAnnotatorUiResourceReference;
+import de.tudarmstadt.ukp.clarin.webanno.brat.resource.BratBlockScrollerResourceReference;
 import de.tudarmstadt.ukp.clarin.webanno.brat.resource.BratConfigurationResourceReference;
 import de.tudarmstadt.ukp.clarin.webanno.brat.resource.BratDispatcherResourceReference;
 import de.tudarmstadt.ukp.clarin.webanno.brat.resource.BratUrlMonitorResourceReference;
@@ -110,6 +116,7 @@ import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
 import de.tudarmstadt.ukp.clarin.webanno.model.Tag;
 import de.tudarmstadt.ukp.clarin.webanno.support.DefaultFocusBehavior;
+import de.tudarmstadt.ukp.clarin.webanno.support.JSONUtil;
 import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
@@ -137,6 +144,13 @@ public class BratAnnotator
     private static final String PARAM_ORIGIN_SPAN_ID = "originSpanId";
     private static final String PARAM_TARGET_TYPE = "targetType";
     private static final String PARAM_ORIGIN_TYPE = "originType";
+    private static final String PARAM_ETAG = "etag";
+    private static final String PARAM_DIRECTION = "direction";
+    private static final String PARAM_MOVE = "move";
+    private static final String PARAM_ADDRESS = "address";
+    private static final String PARAM_OPERATIONS = "operations";
+
+    private static final int SCRIPT_BUFFER_SIZE = 8 * 1024;
 
     @SpringBean(name = "jsonConverter")
     private MappingJacksonHttpMessageConverter jsonConverter;
@@ -156,6 +170,18 @@ public class BratAnnotator
     private AjaxSubmitLink reverseButton;
 
     private AbstractAjaxBehavior controller;
+
+    /**
+     * The document as last sent to the visualizer, used to send only the changes after editing.
+     */
+    private RenderedDocument renderedDocument;
+
+    /**
+     * The block last rendered in advance for paging while scrolling and its first sentence
+     * address.
+     */
+    private RenderedDocument prefetchedDocument;
+    private int prefetchedAddress = -1;
     private String collection = "";
     private String selectedSpanText = "", offsets;
     private Integer originSpanId, targetSpanId;
@@ -310,16 +336,34 @@ public class BratAnnotator
                     else if (action.equals(GetCollectionInformationResponse.COMMAND)) {
                         if (getModelObject().getProject() != null) {
                             result = controller.getCollectionInformation(getModelObject()
-                                    .getAnnotationLayers());
+                                    .getAnnotationLayers(), request.getParameterValue(PARAM_ETAG)
+                                    .toOptionalString());
                         }
                         else {
                             result = new GetCollectionInformationResponse();
                         }
                     }
+                    else if (action.equals(BatchResponse.COMMAND)) {
+                        result = batch(aTarget, controller,
+                                request.getParameterValue(PARAM_OPERATIONS).toString("[]"));
+                    }
+                    else if (action.equals(GetDocumentBlockResponse.COMMAND)) {
+                        if (getModelObject().getProject() != null) {
+                            result = getDocumentBlock(aTarget, request
+                                    .getParameterValue(PARAM_DIRECTION).toInt(), request
+                                    .getParameterValue(PARAM_MOVE).toBoolean(false), request
+                                    .getParameterValue(PARAM_ADDRESS).toInt(-1));
+                        }
+                        else {
+                            result = new GetDocumentBlockResponse();
+                        }
+                    }
                     else if (action.equals(GetDocumentResponse.COMMAND)) {
                         if (getModelObject().getProject() != null) {
-                            result = controller.getDocumentResponse(getModelObject(), 0,
-                                    getCas(getModelObject()), true);
+                            GetDocumentResponse response = controller.getDocumentResponse(
+                                    getModelObject(), 0, getCas(getModelObject()), true);
+                            setRenderedDocument(response);
+                            result = response;
                         }
                         else {
                             result = new GetDocumentResponse();
@@ -343,12 +387,11 @@ public class BratAnnotator
                     LOG.warn("AJAX-RPC: Action [" + action + "] produced no result!");
                 }
                 else {
-                    String json = toJson(result);
                     // Since we cannot pass the JSON directly to Brat, we attach it to the HTML
                     // element into which BRAT renders the SVG. In our modified ajax.js, we pick it
                     // up from there and then pass it on to BRAT to do the rendering.
-                    aTarget.prependJavaScript("Wicket.$('" + vis.getMarkupId() + "').temp = "
-                            + json + ";");
+                    aTarget.prependJavaScript(toScript("Wicket.$('" + vis.getMarkupId()
+                            + "').temp = ", result, ";"));
                 }
                 aTarget.addChildren(getPage(), FeedbackPanel.class);
                 listAnnotationLayers();
@@ -696,6 +739,8 @@ public class BratAnnotator
         aResponse
                 .render(JavaScriptHeaderItem.forReference(BratVisualizerUiResourceReference.get()));
         aResponse.render(JavaScriptHeaderItem.forReference(BratAnnotatorUiResourceReference.get()));
+        aResponse.render(JavaScriptHeaderItem
+                .forReference(BratBlockScrollerResourceReference.get()));
 
         StringBuilder script = new StringBuilder();
         // REC 2014-10-18 - For a reason that I do not understand, the dispatcher cannot be a local
@@ -714,6 +759,8 @@ public class BratAnnotator
         script.append("var visualizerUI = new VisualizerUI(dispatcher, visualizer.svg);");
         script.append("var annotatorUI = new AnnotatorUI(dispatcher, visualizer.svg);");
         script.append("var logger = new AnnotationLog(dispatcher);");
+        script.append("var blockScroller = new BlockScroller(dispatcher, '" + vis.getMarkupId()
+                + "');");
         script.append("dispatcher.post('init');");
         script.append("Wicket.$('" + vis.getMarkupId() + "').dispatcher = dispatcher;");
         script.append("})();");
@@ -729,9 +776,8 @@ public class BratAnnotator
         GetCollectionInformationResponse response = new GetCollectionInformationResponse();
         response.setEntityTypes(BratAjaxCasController.buildEntityTypes(getModelObject()
                 .getAnnotationLayers(), annotationService));
-        String json = toJson(response);
-        return "Wicket.$('" + vis.getMarkupId() + "').dispatcher.post('collectionLoaded', [" + json
-                + "]);";
+        return toScript("Wicket.$('" + vis.getMarkupId()
+                + "').dispatcher.post('collectionLoaded', [", response, "]);");
     }
 
     public String bratRenderCommand(JCas aJCas)
@@ -739,10 +785,214 @@ public class BratAnnotator
         LOG.info("BEGIN bratRenderCommand");
         GetDocumentResponse response = new GetDocumentResponse();
         BratAjaxCasController.render(response, getModelObject(), aJCas, annotationService);
-        String json = toJson(response);
+        setRenderedDocument(response);
+        String script = toScript("Wicket.$('" + vis.getMarkupId()
+                + "').dispatcher.post('renderData', [", response, "]);");
         LOG.info("END bratRenderCommand");
-        return "Wicket.$('" + vis.getMarkupId() + "').dispatcher.post('renderData', [" + json
-                + "]);";
+        return script;
+    }
+
+    /**
+     * Send only the entities and relations which have changed since the last rendering. The
+     * visualizer merges them into the data of the last rendering and then draws the display window
+     * again, so this saves serializing, transferring and parsing the unchanged annotations, not
+     * the layout of the SVG. If anything else has changed, e.g. because the display window moved
+     * to another sentence, or if there is no previous rendering, the complete document is sent.
+     *
+     * @param aJCas
+     *            the CAS to render.
+     * @return the render script.
+     */
+    public String bratRenderPatchCommand(JCas aJCas)
+    {
+        LOG.info("BEGIN bratRenderPatchCommand");
+        GetDocumentResponse response = new GetDocumentResponse();
+        BratAjaxCasController.render(response, getModelObject(), aJCas, annotationService);
+        RenderedDocument previous = renderedDocument;
+        setRenderedDocument(response);
+
+        GetDocumentPatchResponse patch = null;
+        if (previous != null && renderedDocument != null) {
+            patch = renderedDocument.diff(previous, response);
+        }
+
+        String script;
+        if (patch == null) {
+            script = toScript("Wicket.$('" + vis.getMarkupId()
+                    + "').dispatcher.post('renderData', [", response, "]);");
+        }
+        else {
+            script = toScript("Wicket.$('" + vis.getMarkupId()
+                    + "').dispatcher.post('renderPatch', [", patch, "]);");
+        }
+        LOG.info("END bratRenderPatchCommand");
+        return script;
+    }
+
+    private void setRenderedDocument(GetDocumentResponse aResponse)
+    {
+        renderedDocument = toRenderedDocument(aResponse);
+    }
+
+    private RenderedDocument toRenderedDocument(GetDocumentResponse aResponse)
+    {
+        try {
+            return new RenderedDocument(aResponse, jsonConverter.getObjectMapper());
+        }
+        catch (IOException e) {
+            // Without it, the next rendering is simply a complete one
+            LOG.warn("Unable to remember rendered document", e);
+            return null;
+        }
+    }
+
+    /**
+     * Run a batch of operations sent by the client against the document. The document is loaded,
+     * saved and rendered once for the whole batch instead of once per operation.
+     *
+     * @param aTarget
+     *            the AJAX target.
+     * @param aController
+     *            the controller.
+     * @param aOperations
+     *            the operations as JSON array (see {@link BatchOperation}).
+     * @return the response.
+     */
+    private BatchResponse batch(AjaxRequestTarget aTarget, BratAjaxCasController aController,
+            String aOperations)
+        throws UIMAException, ClassNotFoundException, IOException
+    {
+        BratAnnotatorModel model = getModelObject();
+        BatchResponse response;
+        if (model.getProject() == null) {
+            response = new BatchResponse();
+            response.setError("No document is open");
+            return response;
+        }
+        if (BratAnnotatorUtility.isDocumentFinished(repository, model)) {
+            response = new BatchResponse();
+            response.setError("This document is already closed. Please ask your project "
+                    + "manager to re-open it via the Montoring page");
+            error(response.getError());
+            return response;
+        }
+
+        List<BatchOperation> operations = jsonConverter.getObjectMapper().readValue(aOperations,
+                new TypeReference<List<BatchOperation>>()
+                {
+                });
+
+        JCas jCas = getCas(model);
+        response = aController.batch(model, jCas, operations);
+        if (!response.isSuccessful()) {
+            // Nothing is saved, the next request loads the document as it was before the batch
+            error("Operation " + (response.getFailed() + 1) + " of " + operations.size()
+                    + " failed, no changes were made: " + response.getError());
+            return response;
+        }
+        if (operations.isEmpty()) {
+            return response;
+        }
+
+        repository.updateJCas(model.getMode(), model.getDocument(), model.getUser(), jCas);
+        int sentenceNumber = BratAjaxCasUtil.getSentenceNumber(jCas,
+                model.getSentenceBeginOffset());
+        model.getDocument().setSentenceAccessed(sentenceNumber);
+        repository.updateTimeStamp(model.getDocument(), model.getUser(), model.getMode());
+
+        info(operations.size() + " operations done");
+        bratRenderPatch(aTarget, jCas);
+        onChange(aTarget, model);
+        return response;
+    }
+
+    /**
+     * Render the block of sentences following or preceding the current display window when the
+     * user scrolls past its end or beginning. Each block is a display window which replaces the
+     * current one, so rendering costs the same no matter how far the user scrolls. Only the
+     * following block is rendered in advance.
+     *
+     * @param aTarget
+     *            the AJAX target.
+     * @param aDirection
+     *            1 for the following block, -1 for the preceding block.
+     * @param aMove
+     *            whether to move the display window to the block. Otherwise, the block is rendered
+     *            in advance.
+     * @param aAddress
+     *            when moving, the first sentence address of the block rendered in advance which
+     *            the client already shows or -1.
+     * @return the response.
+     */
+    private GetDocumentBlockResponse getDocumentBlock(AjaxRequestTarget aTarget, int aDirection,
+            boolean aMove, int aAddress)
+        throws UIMAException, ClassNotFoundException, IOException
+    {
+        BratAnnotatorModel model = getModelObject();
+        JCas jCas = getCas(model);
+
+        int address;
+        if (aDirection > 0) {
+            address = BratAjaxCasUtil.getNextDisplayWindowSentenceBeginAddress(jCas,
+                    model.getSentenceAddress(), model.getWindowSize());
+        }
+        else {
+            address = BratAjaxCasUtil.getPreviousDisplayWindowSentenceBeginAddress(jCas,
+                    model.getSentenceAddress(), model.getWindowSize());
+        }
+
+        GetDocumentBlockResponse response = new GetDocumentBlockResponse(aDirection);
+        if (address == model.getSentenceAddress()) {
+            // Already at the beginning/end of the document
+            return response;
+        }
+        response.setAvailable(true);
+        response.setAddress(address);
+
+        if (aMove) {
+            setDisplayWindow(jCas, address);
+            response.setMoved(true);
+            if (aAddress == address && aAddress == prefetchedAddress) {
+                // The client already shows the block rendered in advance
+                renderedDocument = prefetchedDocument;
+            }
+            else {
+                BratAjaxCasController.render(response, model, jCas, annotationService);
+                setRenderedDocument(response);
+            }
+            prefetchedDocument = null;
+            prefetchedAddress = -1;
+            // Remember the position like the paging buttons do, it is stored with the next change
+            model.getDocument().setSentenceAccessed(BratAjaxCasUtil.getSentenceNumber(jCas,
+                    model.getSentenceBeginOffset()));
+            onChange(aTarget, model);
+        }
+        else {
+            // Render the block without moving the display window
+            int sentenceAddress = model.getSentenceAddress();
+            int sentenceBeginOffset = model.getSentenceBeginOffset();
+            int sentenceEndOffset = model.getSentenceEndOffset();
+            try {
+                setDisplayWindow(jCas, address);
+                BratAjaxCasController.render(response, model, jCas, annotationService);
+            }
+            finally {
+                model.setSentenceAddress(sentenceAddress);
+                model.setSentenceBeginOffset(sentenceBeginOffset);
+                model.setSentenceEndOffset(sentenceEndOffset);
+            }
+            prefetchedDocument = toRenderedDocument(response);
+            prefetchedAddress = address;
+        }
+        return response;
+    }
+
+    private void setDisplayWindow(JCas aJCas, int aSentenceAddress)
+    {
+        Sentence sentence = selectByAddr(aJCas, Sentence.class, aSentenceAddress);
+        getModelObject().setSentenceAddress(aSentenceAddress);
+        getModelObject().setSentenceBeginOffset(sentence.getBegin());
+        getModelObject().setSentenceEndOffset(sentence.getEnd());
     }
 
     /**
@@ -817,6 +1067,20 @@ public class BratAnnotator
         aTarget.appendJavaScript(bratRenderCommand(aJCas));
     }
 
+    /**
+     * Render the changes since the last rendering as part of the current request.
+     *
+     * @param aTarget
+     *            the AJAX target.
+     * @param aJCas
+     *            the CAS to render.
+     * @see #bratRenderPatchCommand(JCas)
+     */
+    public void bratRenderPatch(AjaxRequestTarget aTarget, JCas aJCas)
+    {
+        aTarget.appendJavaScript(bratRenderPatchCommand(aJCas));
+    }
+
     public void bratInit(AjaxRequestTarget aTarget)
     {
         aTarget.appendJavaScript(bratInitCommand());
@@ -847,18 +1111,33 @@ public class BratAnnotator
         // Overriden in AutomationPage
     }
 
-    private String toJson(Object result)
+    /**
+     * Build a script containing the given object as JSON. The JSON is generated directly into the
+     * script buffer rather than into a separate string which would then have to be copied into it.
+     * <p>
+     * The JSON is not streamed into the response: Wicket takes the script as a string, so the
+     * buffer is still copied once by {@code toString()} and both copies exist until this method
+     * returns.
+     *
+     * @param aPrefix
+     *            the script before the JSON.
+     * @param aResult
+     *            the object to serialize.
+     * @param aSuffix
+     *            the script after the JSON.
+     * @return the script.
+     */
+    private String toScript(String aPrefix, Object aResult, String aSuffix)
     {
-        StringWriter out = new StringWriter();
-        JsonGenerator jsonGenerator = null;
+        StringBuilderWriter out = new StringBuilderWriter(SCRIPT_BUFFER_SIZE);
+        out.append(aPrefix);
         try {
-            jsonGenerator = jsonConverter.getObjectMapper().getJsonFactory()
-                    .createJsonGenerator(out);
-            jsonGenerator.writeObject(result);
+            JSONUtil.generateJson(jsonConverter, aResult, out);
         }
         catch (IOException e) {
             error("Unable to produce JSON response " + ":" + ExceptionUtils.getRootCauseMessage(e));
         }
+        out.append(aSuffix);
         return out.toString();
     }
 
@@ -1043,7 +1322,7 @@ public class BratAnnotator
         aTarget.add(annotationFeatureForm);
 
         setLayerAndFeatureModels(jCas);
-        bratRender(aTarget, jCas);
+        bratRenderPatch(aTarget, jCas);
         onChange(aTarget, getModelObject());
     }
 
@@ -1133,7 +1412,7 @@ public class BratAnnotator
         aTarget.add(annotationFeatureForm);
 
        // setLayerAndFeatureModels(jCas);
-        bratRender(aTarget, jCas);
+        bratRenderPatch(aTarget, jCas);
         onChange(aTarget, getModelObject());
     }
 
@@ -1146,6 +1425,7 @@ public class BratAnnotator
         AnnotationFS idFs = selectByAddr(jCas, selectedAnnotationId);
 
         jCas.removeFsFromIndexes(idFs);
+        AnnotationIntervalIndex.invalidate(jCas.getCas(), idFs.getType());
 
         AnnotationFS originFs = selectByAddr(jCas, originSpanId);
         AnnotationFS targetFs = selectByAddr(jCas, targetSpanId);
@@ -1200,7 +1480,7 @@ public class BratAnnotator
         targetSpanId = temp;
 
         setLayerAndFeatureModels(jCas);
-        bratRender(aTarget, jCas);
+        bratRenderPatch(aTarget, jCas);
         onChange(aTarget, getModelObject());
     }
 
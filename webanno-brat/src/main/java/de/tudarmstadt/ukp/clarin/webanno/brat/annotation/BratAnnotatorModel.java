@@ -105,6 +105,11 @@ public class BratAnnotatorModel
 	 * Used to enable/disable auto-scrolling while annotation
 	 */
 	private boolean scrollPage = true;
+
+	/**
+	 * Used to enable/disable moving to the next/previous display window while scrolling
+	 */
+	private boolean virtualScrolling = false;
 	
 	/**
 	 * If the document is opened through the next/previous buttons on the
@@ -229,6 +234,16 @@ public class BratAnnotatorModel
         scrollPage = aScrollPage;
     }
 
+    public boolean isVirtualScrolling()
+    {
+        return virtualScrolling;
+    }
+
+    public void setVirtualScrolling(boolean aVirtualScrolling)
+    {
+        virtualScrolling = aVirtualScrolling;
+    }
+
     public String getDocumentName()
     {
         return documentName;
@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.annotation;
+
+import static java.util.Arrays.asList;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Entity;
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Relation;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentPatchResponse;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
+
+/**
+ * What has last been sent to the visualizer of a {@link BratAnnotator}: a digest of the JSON of
+ * each entity and relation by ID and of everything else in the {@link GetDocumentResponse} (text,
+ * tokens, sentences, comments). As long as the latter stays the same, a new rendering can be sent
+ * as a {@link GetDocumentPatchResponse} containing only the entities and relations which changed.
+ * <p>
+ * The rendering is stored with the page, so only a 64-bit digest is kept per item instead of its
+ * JSON.
+ */
+public class RenderedDocument
+    implements Serializable
+{
+    private static final long serialVersionUID = -6101283398316270347L;
+
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>()
+    {
+        @Override
+        protected MessageDigest initialValue()
+        {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            }
+            catch (NoSuchAlgorithmException e) {
+                // Every Java platform supports SHA-1
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final long base;
+    private final ItemDigests entities;
+    private final ItemDigests relations;
+
+    public RenderedDocument(GetDocumentResponse aResponse, ObjectMapper aMapper)
+        throws IOException
+    {
+        base = digest(aMapper.writeValueAsBytes(asList(aResponse.getText(),
+                aResponse.getSentenceNumberOffset(), aResponse.getTokenOffsets(),
+                aResponse.getSentenceOffsets(), aResponse.getComments())));
+
+        int[] ids = new int[aResponse.getEntities().size()];
+        long[] digests = new long[ids.length];
+        int n = 0;
+        for (Entity entity : aResponse.getEntities()) {
+            ids[n] = entity.getId();
+            digests[n] = digest(aMapper.writeValueAsBytes(entity));
+            n++;
+        }
+        entities = new ItemDigests(ids, digests);
+
+        ids = new int[aResponse.getRelations().size()];
+        digests = new long[ids.length];
+        n = 0;
+        for (Relation relation : aResponse.getRelations()) {
+            ids[n] = relation.getId();
+            digests[n] = digest(aMapper.writeValueAsBytes(relation));
+            n++;
+        }
+        relations = new ItemDigests(ids, digests);
+    }
+
+    private static long digest(byte[] aJson)
+    {
+        byte[] hash = DIGEST.get().digest(aJson);
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (hash[i] & 0xff);
+        }
+        return value;
+    }
+
+    /**
+     * Get the changes from a previous rendering to this one.
+     *
+     * @param aPrevious
+     *            the previous rendering.
+     * @param aResponse
+     *            the response from which this rendering has been created.
+     * @return the changes or {@code null} if the previous rendering cannot be patched because
+     *         more than the entities and relations have changed.
+     */
+    public GetDocumentPatchResponse diff(RenderedDocument aPrevious, GetDocumentResponse aResponse)
+    {
+        // If IDs are not unique, the visualizer could not tell which item a patch refers to
+        if (!entities.unique || !relations.unique || !aPrevious.entities.unique
+                || !aPrevious.relations.unique || base != aPrevious.base) {
+            return null;
+        }
+
+        GetDocumentPatchResponse patch = new GetDocumentPatchResponse();
+        for (Entity entity : aResponse.getEntities()) {
+            if (entities.isChanged(aPrevious.entities, entity.getId())) {
+                patch.getEntities().add(entity);
+            }
+        }
+        for (Relation relation : aResponse.getRelations()) {
+            if (relations.isChanged(aPrevious.relations, relation.getId())) {
+                patch.getRelations().add(relation);
+            }
+        }
+        aPrevious.entities.collectMissing(entities, patch.getRemovedEntities());
+        aPrevious.relations.collectMissing(relations, patch.getRemovedRelations());
+        return patch;
+    }
+
+    /**
+     * The digests of the entities or relations of a rendering, sorted by ID.
+     */
+    private static class ItemDigests
+        implements Serializable
+    {
+        private static final long serialVersionUID = 2760370425869521402L;
+
+        private final int[] ids;
+        private final long[] digests;
+        private final boolean unique;
+
+        public ItemDigests(final int[] aIds, long[] aDigests)
+        {
+            Integer[] order = new Integer[aIds.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>()
+            {
+                @Override
+                public int compare(Integer aOne, Integer aOther)
+                {
+                    return Integer.compare(aIds[aOne], aIds[aOther]);
+                }
+            });
+
+            ids = new int[aIds.length];
+            digests = new long[aIds.length];
+            boolean allUnique = true;
+            for (int i = 0; i < order.length; i++) {
+                ids[i] = aIds[order[i]];
+                digests[i] = aDigests[order[i]];
+                if (i > 0 && ids[i] == ids[i - 1]) {
+                    allUnique = false;
+                }
+            }
+            unique = allUnique;
+        }
+
+        /**
+         * @return whether the item with the given ID is missing from the previous rendering or
+         *         was rendered differently.
+         */
+        public boolean isChanged(ItemDigests aPrevious, int aId)
+        {
+            int previous = Arrays.binarySearch(aPrevious.ids, aId);
+            return previous < 0
+                    || aPrevious.digests[previous] != digests[Arrays.binarySearch(ids, aId)];
+        }
+
+        /**
+         * Add the IDs of the items which are missing from the other rendering.
+         */
+        public void collectMissing(ItemDigests aOther, List<Integer> aMissing)
+        {
+            for (int id : ids) {
+                if (Arrays.binarySearch(aOther.ids, id) < 0) {
+                    aMissing.add(id);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FSIterator;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.impl.LowLevelCAS;
+import org.apache.uima.cas.text.AnnotationFS;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasGeneration;
+
+/**
+ * Offsets and addresses of the annotations of one type in primitive arrays, sorted in the order of
+ * the annotation index. Covered, overlapping and exact-span lookups use binary search instead of
+ * walking the annotation index from the start as {@code CasUtil.selectCovered} does.
+ * <p>
+ * The index of a type is built on first use and kept with the CAS until the CAS is reset or loaded
+ * again (see {@link CasGeneration}), the number of annotations of the type changes, or it is
+ * {@link #invalidate invalidated}. Code which adds or removes annotations of a type must invalidate
+ * its index, since removing one annotation and adding another does not change the number.
+ * <p>
+ * For overlap lookups, the index keeps the maximum end offset of all annotations up to each
+ * position. Since annotations are sorted by begin offset, this allows finding the first
+ * annotation which may overlap a given offset by binary search as well.
+ */
+public final class AnnotationIntervalIndex
+{
+    private static final Map<CAS, Map<Type, Intervals>> INDEXES = Collections
+            .synchronizedMap(new WeakHashMap<CAS, Map<Type, Intervals>>());
+
+    private final LowLevelCAS cas;
+
+    private final int size;
+    private final int[] begins;
+    private final int[] ends;
+    private final int[] addresses;
+
+    /**
+     * Maximum end offset of the annotations at positions {@code 0..i}.
+     */
+    private final int[] maxEnds;
+
+    private AnnotationIntervalIndex(CAS aCas, Intervals aIntervals)
+    {
+        cas = aCas.getLowLevelCAS();
+        size = aIntervals.size;
+        begins = aIntervals.begins;
+        ends = aIntervals.ends;
+        addresses = aIntervals.addresses;
+        maxEnds = aIntervals.maxEnds;
+    }
+
+    /**
+     * Get the index of all annotations of the given type, building it if necessary.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aType
+     *            the annotation type (including subtypes).
+     * @return the index.
+     */
+    public static AnnotationIntervalIndex get(CAS aCas, Type aType)
+    {
+        Map<Type, Intervals> indexes;
+        synchronized (INDEXES) {
+            indexes = INDEXES.get(aCas);
+            if (indexes == null) {
+                indexes = new HashMap<Type, Intervals>();
+                INDEXES.put(aCas, indexes);
+            }
+        }
+
+        Intervals intervals;
+        synchronized (indexes) {
+            intervals = indexes.get(aType);
+        }
+        if (intervals == null || !intervals.isValid(aCas, aType)) {
+            intervals = new Intervals(aCas, aType);
+            synchronized (indexes) {
+                indexes.put(aType, intervals);
+            }
+        }
+        return new AnnotationIntervalIndex(aCas, intervals);
+    }
+
+    /**
+     * Index all annotations of the given type without keeping the index with the CAS.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aType
+     *            the annotation type (including subtypes).
+     * @return the index.
+     */
+    public static AnnotationIntervalIndex build(CAS aCas, Type aType)
+    {
+        return new AnnotationIntervalIndex(aCas, new Intervals(aCas, aType));
+    }
+
+    /**
+     * Drop the index of the given type after annotations of the type have been added or removed.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aType
+     *            the annotation type.
+     */
+    public static void invalidate(CAS aCas, Type aType)
+    {
+        Map<Type, Intervals> indexes = INDEXES.get(aCas);
+        if (indexes != null) {
+            synchronized (indexes) {
+                // Indexes include subtypes, so supertypes are dropped as well
+                indexes.keySet().removeAll(getSupertypes(aCas, aType));
+            }
+        }
+    }
+
+    private static List<Type> getSupertypes(CAS aCas, Type aType)
+    {
+        List<Type> types = new ArrayList<Type>();
+        for (Type type = aType; type != null; type = aCas.getTypeSystem().getParent(type)) {
+            types.add(type);
+        }
+        return types;
+    }
+
+    /**
+     * @return the number of indexed annotations.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @param aIndex
+     *            the position in the index.
+     * @return the annotation at the given position.
+     */
+    public AnnotationFS get(int aIndex)
+    {
+        if (aIndex < 0 || aIndex >= size) {
+            throw new IndexOutOfBoundsException("Index: " + aIndex + ", Size: " + size);
+        }
+        return cas.ll_getFSForRef(addresses[aIndex]);
+    }
+
+    public int getBegin(int aIndex)
+    {
+        return begins[aIndex];
+    }
+
+    public int getEnd(int aIndex)
+    {
+        return ends[aIndex];
+    }
+
+    public int getAddress(int aIndex)
+    {
+        return addresses[aIndex];
+    }
+
+    /**
+     * Get the annotations covered by the given range in index order, like
+     * {@code CasUtil.selectCovered}.
+     *
+     * @param aBegin
+     *            the begin offset.
+     * @param aEnd
+     *            the end offset.
+     * @return the covered annotations.
+     */
+    public List<AnnotationFS> selectCovered(int aBegin, int aEnd)
+    {
+        List<AnnotationFS> result = new ArrayList<AnnotationFS>();
+        for (int i = lowerBound(aBegin); i < size && begins[i] <= aEnd; i++) {
+            if (ends[i] <= aEnd) {
+                result.add(get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the position of the first annotation covered by the given range.
+     *
+     * @param aBegin
+     *            the begin offset.
+     * @param aEnd
+     *            the end offset.
+     * @return the position or -1 if no annotation is covered by the range.
+     */
+    public int indexOfFirstCovered(int aBegin, int aEnd)
+    {
+        for (int i = lowerBound(aBegin); i < size && begins[i] <= aEnd; i++) {
+            if (ends[i] <= aEnd) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the annotations overlapping the given range in index order, i.e. the annotations
+     * starting before the end of the range and ending after its begin.
+     *
+     * @param aBegin
+     *            the begin offset.
+     * @param aEnd
+     *            the end offset.
+     * @return the overlapping annotations.
+     */
+    public List<AnnotationFS> selectOverlapping(int aBegin, int aEnd)
+    {
+        List<AnnotationFS> result = new ArrayList<AnnotationFS>();
+        for (int i = firstEndingAfter(aBegin); i < size && begins[i] < aEnd; i++) {
+            if (ends[i] > aBegin) {
+                result.add(get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the annotations with exactly the given offsets in index order.
+     *
+     * @param aBegin
+     *            the begin offset.
+     * @param aEnd
+     *            the end offset.
+     * @return the annotations.
+     */
+    public List<AnnotationFS> selectAt(int aBegin, int aEnd)
+    {
+        List<AnnotationFS> result = new ArrayList<AnnotationFS>();
+        for (int i = lowerBound(aBegin); i < size && begins[i] == aBegin; i++) {
+            if (ends[i] == aEnd) {
+                result.add(get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the position of the first annotation containing the given offset, including its end.
+     *
+     * @param aOffset
+     *            the offset.
+     * @return the position or -1 if no annotation contains the offset.
+     */
+    public int indexOfContaining(int aOffset)
+    {
+        for (int i = firstEndingAfter(aOffset - 1); i < size && begins[i] <= aOffset; i++) {
+            if (ends[i] >= aOffset) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the position of the first annotation starting at or after the given offset.
+     */
+    private int lowerBound(int aOffset)
+    {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (begins[mid] < aOffset) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the first position at which an annotation ending after the given offset may be
+     *         found. All annotations before it end at or before the offset.
+     */
+    private int firstEndingAfter(int aOffset)
+    {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (maxEnds[mid] <= aOffset) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * The arrays of an index. They do not refer to the CAS, so they can be kept with it.
+     */
+    private static final class Intervals
+    {
+        private final long generation;
+
+        private int size;
+        private int[] begins;
+        private int[] ends;
+        private int[] addresses;
+        private int[] maxEnds;
+
+        public Intervals(CAS aCas, Type aType)
+        {
+            generation = CasGeneration.get(aCas);
+            int capacity = aCas.getAnnotationIndex(aType).size();
+            begins = new int[capacity];
+            ends = new int[capacity];
+            addresses = new int[capacity];
+            for (FSIterator<AnnotationFS> it = aCas.getAnnotationIndex(aType).iterator(); it
+                    .isValid(); it.moveToNext()) {
+                add(it.get());
+            }
+
+            maxEnds = new int[size];
+            int max = Integer.MIN_VALUE;
+            for (int i = 0; i < size; i++) {
+                max = Math.max(max, ends[i]);
+                maxEnds[i] = max;
+            }
+        }
+
+        private void add(AnnotationFS aFS)
+        {
+            if (size == begins.length) {
+                int capacity = Math.max(16, size * 2);
+                begins = Arrays.copyOf(begins, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                addresses = Arrays.copyOf(addresses, capacity);
+            }
+            begins[size] = aFS.getBegin();
+            ends[size] = aFS.getEnd();
+            addresses[size] = BratAjaxCasUtil.getAddr(aFS);
+            size++;
+        }
+
+        public boolean isValid(CAS aCas, Type aType)
+        {
+            return generation == CasGeneration.get(aCas)
+                    && size == aCas.getAnnotationIndex(aType).size();
+        }
+    }
+}
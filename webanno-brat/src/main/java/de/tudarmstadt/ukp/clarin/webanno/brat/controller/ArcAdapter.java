@@ -19,7 +19,6 @@ package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
 
 import static java.util.Arrays.asList;
 import static org.apache.uima.fit.util.CasUtil.getType;
-import static org.apache.uima.fit.util.CasUtil.selectCovered;
 import static org.apache.uima.fit.util.JCasUtil.selectCovered;
 
 import java.util.ArrayList;
@@ -159,8 +158,8 @@ public class ArcAdapter
         FeatureStructure dependentFs;
         FeatureStructure governorFs;
 
-        for (AnnotationFS fs : selectCovered(aJcas.getCas(), type, firstSentence.getBegin(),
-                lastSentenceInPage.getEnd())) {
+        for (AnnotationFS fs : AnnotationIntervalIndex.get(aJcas.getCas(), type).selectCovered(
+                firstSentence.getBegin(), lastSentenceInPage.getEnd())) {
             if (attacheFeatureName != null) {
                 dependentFs = fs.getFeatureValue(dependentFeature).getFeatureValue(arcSpanFeature);
                 governorFs = fs.getFeatureValue(governorFeature).getFeatureValue(arcSpanFeature);
@@ -246,10 +245,10 @@ public class ArcAdapter
         AnnotationFS governorFs = null;
         // List all sentence in this display window
         List<Sentence> sentences = selectCovered(aJCas, Sentence.class, aBegin, aEnd);
+        AnnotationIntervalIndex arcs = AnnotationIntervalIndex.get(aJCas.getCas(), type);
         for (Sentence sentence : sentences) {
 
-            for (AnnotationFS fs : selectCovered(aJCas.getCas(), type, sentence.getBegin(),
-                    sentence.getEnd())) {
+            for (AnnotationFS fs : arcs.selectCovered(sentence.getBegin(), sentence.getEnd())) {
 
                 if (attacheFeatureName != null) {
                     dependentFs = (AnnotationFS) fs.getFeatureValue(dependentFeature)
@@ -281,10 +280,12 @@ public class ArcAdapter
 
             // for POS annotation, since custom span layers do not have attach feature
             if (attacheFeatureName != null) {
-                dependentFs = selectCovered(aJCas.getCas(), tokenType, dependentFs.getBegin(),
-                        dependentFs.getEnd()).get(0);
-                governorFs = selectCovered(aJCas.getCas(), tokenType, governorFs.getBegin(),
-                        governorFs.getEnd()).get(0);
+                AnnotationIntervalIndex tokens = AnnotationIntervalIndex.get(aJCas.getCas(),
+                        tokenType);
+                dependentFs = tokens.get(tokens.indexOfFirstCovered(dependentFs.getBegin(),
+                        dependentFs.getEnd()));
+                governorFs = tokens.get(tokens.indexOfFirstCovered(governorFs.getBegin(),
+                        governorFs.getEnd()));
             }
 
             // if span A has (start,end)= (20, 26) and B has (start,end)= (30, 36)
@@ -320,6 +321,7 @@ public class ArcAdapter
             // END HACK - ISSUE 953 - Special treatment for ROOT in DKPro Core dependency layer
 
             aJCas.addFsToIndexes(newAnnotation);
+            AnnotationIntervalIndex.invalidate(aJCas.getCas(), type);
             return ((FeatureStructureImpl) newAnnotation).getAddress();
     }
 
@@ -328,6 +330,7 @@ public class ArcAdapter
     {
         FeatureStructure fs = BratAjaxCasUtil.selectByAddr(aJCas, FeatureStructure.class, aAddress);
         aJCas.removeFsFromIndexes(fs);
+        AnnotationIntervalIndex.invalidate(aJCas.getCas(), fs.getType());
     }
 
     @Override
@@ -342,7 +345,8 @@ public class ArcAdapter
 
         Set<AnnotationFS> fsToDelete = new HashSet<AnnotationFS>();
 
-        for (AnnotationFS fs : selectCovered(aJCas.getCas(), type, aBegin, aEnd)) {
+        for (AnnotationFS fs : AnnotationIntervalIndex.get(aJCas.getCas(), type).selectCovered(
+                aBegin, aEnd)) {
 
             if (attacheFeatureName != null) {
                 FeatureStructure dependentFs = fs.getFeatureValue(targetFeature).getFeatureValue(
@@ -374,6 +378,7 @@ public class ArcAdapter
         for (AnnotationFS fs : fsToDelete) {
             aJCas.removeFsFromIndexes(fs);
         }
+        AnnotationIntervalIndex.invalidate(aJCas.getCas(), type);
 
     }
 
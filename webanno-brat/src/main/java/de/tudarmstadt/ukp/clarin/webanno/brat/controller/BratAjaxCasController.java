@@ -36,6 +36,8 @@ import javax.annotation.Resource;
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.uima.UIMAException;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.jcas.JCas;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.util.MultiValueMap;
@@ -44,9 +46,13 @@ import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
 import de.tudarmstadt.ukp.clarin.webanno.brat.annotation.BratAnnotatorModel;
+import de.tudarmstadt.ukp.clarin.webanno.brat.controller.EntityTypeCache.CachedEntityTypes;
 import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.EntityType;
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.OffsetsList;
 import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.RelationType;
 import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Stored;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.BatchOperation;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.BatchResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetCollectionInformationResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentTimestampResponse;
@@ -86,6 +92,11 @@ public class BratAjaxCasController
     @Resource(name = "annotationService")
     private static AnnotationService annotationService;
 
+    /**
+     * The configuration is the same for all users, so it is only created once.
+     */
+    private static final LoadConfResponse LOAD_CONF = new LoadConfResponse();
+
     public BratAjaxCasController()
     {
 
@@ -115,7 +126,7 @@ public class BratAjaxCasController
      */
     public LoadConfResponse loadConf()
     {
-        return new LoadConfResponse();
+        return LOAD_CONF;
     }
 
     /**
@@ -132,8 +143,32 @@ public class BratAjaxCasController
     public GetCollectionInformationResponse getCollectionInformation(
             List<AnnotationLayer> aAnnotationLayers)
     {
+        return getCollectionInformation(aAnnotationLayers, null);
+    }
+
+    /**
+     * Like {@link #getCollectionInformation(List)}, but leaves out the type definitions if the
+     * client already has the current version.
+     *
+     * @param aAnnotationLayers
+     *            the layers.
+     * @param aEtag
+     *            the ETag of the type definitions held by the client or {@code null}.
+     * @return the response.
+     * @see EntityTypeCache
+     */
+    public GetCollectionInformationResponse getCollectionInformation(
+            List<AnnotationLayer> aAnnotationLayers, String aEtag)
+    {
+        CachedEntityTypes types = EntityTypeCache.get(aAnnotationLayers, annotationService);
         GetCollectionInformationResponse info = new GetCollectionInformationResponse();
-        info.setEntityTypes(buildEntityTypes(aAnnotationLayers, annotationService));
+        info.setEtag(types.getEtag());
+        if (types.getEtag() != null && types.getEtag().equals(aEtag)) {
+            info.setNotModified(true);
+        }
+        else {
+            info.setEntityTypes(types.getEntityTypes());
+        }
         return info;
     }
 
@@ -196,6 +231,8 @@ public class BratAjaxCasController
     public static void render(GetDocumentResponse aResponse, BratAnnotatorModel aBModel,
             JCas aJCas, AnnotationService aAnnotationService)
     {
+        aResponse.setVirtualScrolling(aBModel.isVirtualScrolling());
+
         // Render invisible baseline annotations (sentence, tokens)
         SpanAdapter.renderTokenAndSentence(aJCas, aResponse, aBModel);
 
@@ -226,16 +263,282 @@ public class BratAjaxCasController
             i++;
         }
     }
+
+    /**
+     * Run the operations of a {@code batch} request against the given CAS. The CAS is neither
+     * saved nor rendered, this is left to the caller once for the whole batch. If an operation
+     * fails, the remaining operations are skipped and the response reports the failed operation.
+     * The CAS should then be discarded since the operations before may already have changed it.
+     * <p>
+     * Tags which the operations add to open tagsets are only created once all operations have
+     * succeeded, so a failed batch leaves the tagsets unchanged. If creating one of the tags fails,
+     * the batch fails at the operation which introduced the tag; tags created before remain.
+     *
+     * @param aBModel
+     *            the annotator model.
+     * @param aJCas
+     *            the JCas.
+     * @param aOperations
+     *            the operations.
+     * @return the response.
+     */
+    public BatchResponse batch(BratAnnotatorModel aBModel, JCas aJCas,
+            List<BatchOperation> aOperations)
+    {
+        BatchResponse response = new BatchResponse();
+        // New tags with the operation which introduced them
+        Map<Tag, Integer> newTags = new LinkedHashMap<Tag, Integer>();
+        for (int i = 0; i < aOperations.size(); i++) {
+            try {
+                response.getIds().add(execute(aBModel, aJCas, aOperations.get(i),
+                        response.getIds(), newTags, i));
+            }
+            catch (BratAnnotationException e) {
+                response.setFailed(i);
+                response.setError(e.getMessage());
+                return response;
+            }
+        }
+
+        for (Map.Entry<Tag, Integer> newTag : newTags.entrySet()) {
+            try {
+                annotationService.createTag(newTag.getKey(), aBModel.getUser());
+            }
+            catch (IOException e) {
+                response.setFailed(newTag.getValue());
+                response.setError("Unable to create tag [" + newTag.getKey().getName() + "]: "
+                        + e.getMessage());
+                break;
+            }
+        }
+        return response;
+    }
+
+    private int execute(BratAnnotatorModel aBModel, JCas aJCas, BatchOperation aOperation,
+            List<Integer> aPreviousIds, Map<Tag, Integer> aNewTags, int aIndex)
+        throws BratAnnotationException
+    {
+        if (aOperation.getLayer() == null) {
+            throw new BratAnnotationException("No layer given for [" + aOperation.getAction()
+                    + "]");
+        }
+        AnnotationLayer layer = null;
+        for (AnnotationLayer l : annotationService.listAnnotationLayer(aBModel.getProject())) {
+            if (l.getId() == aOperation.getLayer()) {
+                layer = l;
+                break;
+            }
+        }
+        if (layer == null) {
+            throw new BratAnnotationException("No layer [" + aOperation.getLayer()
+                    + "] in the project");
+        }
+        TypeAdapter adapter = getAdapter(layer);
+
+        int address;
+        if (BatchOperation.CREATE_SPAN.equals(aOperation.getAction())) {
+            OffsetsList offsets = aOperation.getOffsets();
+            if (offsets == null || offsets.isEmpty()) {
+                throw new BratAnnotationException("No offsets given for new span");
+            }
+            // Offsets are relative to the display window, as in spanOpenDialog
+            Sentence sentence = BratAjaxCasUtil.selectSentenceAt(aJCas,
+                    aBModel.getSentenceBeginOffset(), aBModel.getSentenceEndOffset());
+            int begin = sentence.getBegin() + offsets.get(0).getBegin();
+            int end = sentence.getBegin() + offsets.get(offsets.size() - 1).getEnd();
+            if (adapter instanceof SpanAdapter) {
+                address = ((SpanAdapter) adapter).add(aJCas, begin, end, null, null);
+            }
+            else if (adapter instanceof ChainAdapter) {
+                address = ((ChainAdapter) adapter).addSpan(aJCas, begin, end, null, null);
+            }
+            else {
+                throw new BratAnnotationException("Layer [" + layer.getUiName()
+                        + "] does not support spans");
+            }
+        }
+        else if (BatchOperation.CREATE_ARC.equals(aOperation.getAction())) {
+            AnnotationFS originFs = selectByAddr(aJCas, resolve(aOperation.getOrigin(),
+                    aOperation.getOriginRef(), aPreviousIds, "origin"));
+            AnnotationFS targetFs = selectByAddr(aJCas, resolve(aOperation.getTarget(),
+                    aOperation.getTargetRef(), aPreviousIds, "target"));
+            if (adapter instanceof ArcAdapter) {
+                address = ((ArcAdapter) adapter).add(originFs, targetFs, aJCas, aBModel, null,
+                        null);
+            }
+            else if (adapter instanceof ChainAdapter) {
+                address = ((ChainAdapter) adapter).addArc(aJCas, originFs, targetFs, null, null);
+            }
+            else {
+                throw new BratAnnotationException("Layer [" + layer.getUiName()
+                        + "] does not support arcs");
+            }
+        }
+        else if (BatchOperation.SET_FEATURES.equals(aOperation.getAction())) {
+            address = resolve(aOperation.getId(), aOperation.getRef(), aPreviousIds, "id");
+        }
+        else if (BatchOperation.DELETE.equals(aOperation.getAction())) {
+            address = resolve(aOperation.getId(), aOperation.getRef(), aPreviousIds, "id");
+            delete(aBModel, aJCas, adapter, address);
+            return address;
+        }
+        else {
+            throw new BratAnnotationException("Unknown operation [" + aOperation.getAction()
+                    + "]");
+        }
+
+        setFeatures(aJCas, layer, adapter, address, aOperation.getFeatures(), aNewTags, aIndex);
+        return address;
+    }
+
+    /**
+     * Get the address of an annotation given either directly or as the position of an earlier
+     * operation of the batch.
+     */
+    private static int resolve(Integer aAddress, Integer aRef, List<Integer> aPreviousIds,
+            String aName)
+        throws BratAnnotationException
+    {
+        if (aAddress != null) {
+            return aAddress;
+        }
+        if (aRef != null && aRef >= 0 && aRef < aPreviousIds.size()) {
+            return aPreviousIds.get(aRef);
+        }
+        throw new BratAnnotationException("No valid [" + aName + "] given");
+    }
+
+    private static AnnotationFS selectByAddr(JCas aJCas, int aAddress)
+        throws BratAnnotationException
+    {
+        try {
+            return BratAjaxCasUtil.selectByAddr(aJCas, aAddress);
+        }
+        catch (RuntimeException e) {
+            throw new BratAnnotationException("No annotation with ID [" + aAddress + "]");
+        }
+    }
+
+    /**
+     * Set the given feature values. Values which are not yet in the open tagset of a feature are
+     * recorded as new tags, to be created by the caller.
+     */
+    private void setFeatures(JCas aJCas, AnnotationLayer aLayer, TypeAdapter aAdapter,
+            int aAddress, Map<String, String> aValues, Map<Tag, Integer> aNewTags, int aIndex)
+        throws BratAnnotationException
+    {
+        if (aValues == null || aValues.isEmpty()) {
+            return;
+        }
+
+        Map<String, AnnotationFeature> features = new LinkedHashMap<String, AnnotationFeature>();
+        for (AnnotationFeature feature : annotationService.listAnnotationFeature(aLayer)) {
+            features.put(feature.getName(), feature);
+        }
+
+        for (Map.Entry<String, String> value : aValues.entrySet()) {
+            AnnotationFeature feature = features.get(value.getKey());
+            if (feature == null) {
+                throw new BratAnnotationException("Layer [" + aLayer.getUiName()
+                        + "] has no feature [" + value.getKey() + "]");
+            }
+            checkFeatureValue(feature, value.getValue());
+
+            // Same as in the annotation editor, new tags are added to open tagsets
+            TagSet tagSet = feature.getTagset();
+            if (tagSet != null && value.getValue() != null
+                    && !annotationService.existsTag(value.getValue(), tagSet)) {
+                if (!tagSet.isCreateTag()) {
+                    throw new BratAnnotationException("[" + value.getValue()
+                            + "] is not in the tag list. Please choose form the existing tags");
+                }
+                Tag tag = new Tag();
+                tag.setName(value.getValue());
+                tag.setTagSet(tagSet);
+                if (!aNewTags.containsKey(tag)) {
+                    aNewTags.put(tag, aIndex);
+                }
+            }
+
+            aAdapter.updateFeature(aJCas, feature, aAddress, value.getValue());
+        }
+    }
+
+    private static void checkFeatureValue(AnnotationFeature aFeature, String aValue)
+        throws BratAnnotationException
+    {
+        if (aValue == null) {
+            return;
+        }
+        try {
+            if (aFeature.getType().equals(CAS.TYPE_NAME_INTEGER)) {
+                Integer.parseInt(aValue);
+            }
+            else if (aFeature.getType().equals(CAS.TYPE_NAME_FLOAT)) {
+                Float.parseFloat(aValue);
+            }
+        }
+        catch (NumberFormatException e) {
+            throw new BratAnnotationException(aValue + " should be of type " + aFeature.getType());
+        }
+    }
+
+    /**
+     * Delete an annotation together with the relations attached to it, like the delete button of
+     * the annotation editor does.
+     */
+    private void delete(BratAnnotatorModel aBModel, JCas aJCas, TypeAdapter aAdapter,
+            int aAddress)
+        throws BratAnnotationException
+    {
+        AnnotationFS fs = selectByAddr(aJCas, aAddress);
+        Sentence sentence = BratAjaxCasUtil.getCurrentSentence(aJCas, fs.getBegin(),
+                fs.getEnd());
+
+        for (AnnotationLayer layer : annotationService.listAnnotationLayer(aBModel
+                .getProject())) {
+            TypeAdapter attached = getAdapter(layer);
+            if (aAdapter.getAnnotationTypeName().equals(attached.getAnnotationTypeName())) {
+                continue;
+            }
+            String attachType = attached.getAttachTypeName();
+            if (attachType == null) {
+                continue;
+            }
+            String attachFeature = attached.getAttachFeatureName();
+            if (attachType.equals(aAdapter.getAnnotationTypeName())
+                    || (attachFeature != null && attachFeature.equals(aAdapter
+                            .getAttachFeatureName()))) {
+                if (sentence != null) {
+                    attached.deleteBySpan(aJCas, fs, sentence.getBegin(), sentence.getEnd());
+                }
+                break;
+            }
+        }
+
+        if (aAdapter instanceof ChainAdapter) {
+            ((ChainAdapter) aAdapter).setArc(false);
+        }
+        aAdapter.delete(aJCas, aAddress);
+    }
     
     /**
-     * Generates brat type definitions from the WebAnno layer definitions.
+     * Generates brat type definitions from the WebAnno layer definitions. The definitions are
+     * cached until the layers of the project change and must not be modified.
      * 
      * @param aAnnotationLayers the layers
      * @param aAnnotationService the annotation service
      * @return the brat type definitions
+     * @see EntityTypeCache
      */
     public static Set<EntityType> buildEntityTypes(List<AnnotationLayer> aAnnotationLayers,
             AnnotationService aAnnotationService)
+    {
+        return EntityTypeCache.get(aAnnotationLayers, aAnnotationService).getEntityTypes();
+    }
+
+    static Set<EntityType> createEntityTypes(List<AnnotationLayer> aAnnotationLayers,
+            AnnotationService aAnnotationService)
     {
         // Sort layers
         List<AnnotationLayer> layers = new ArrayList<AnnotationLayer>(aAnnotationLayers);
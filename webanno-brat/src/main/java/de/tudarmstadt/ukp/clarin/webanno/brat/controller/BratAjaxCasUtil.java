@@ -20,8 +20,6 @@ package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
 import static org.apache.uima.fit.util.CasUtil.selectCovered;
 import static org.apache.uima.fit.util.JCasUtil.select;
 import static org.apache.uima.fit.util.JCasUtil.selectCovered;
-import static org.apache.uima.fit.util.JCasUtil.selectFollowing;
-import static org.apache.uima.fit.util.JCasUtil.selectPreceding;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -36,13 +34,13 @@ import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.jcas.tcas.Annotation;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.TextLayout;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.dkpro.core.api.coref.type.CoreferenceChain;
 import de.tudarmstadt.ukp.dkpro.core.api.metadata.type.TagsetDescription;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
-import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
 
 /**
  * Contain Methods for updating CAS Objects directed from brat UI, different utility methods to
@@ -80,13 +78,7 @@ public class BratAjaxCasUtil
      */
     public static boolean isSameSentence(JCas aJcas, int aStartOffset, int aEndOffset)
     {
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if ((sentence.getBegin() <= aStartOffset && sentence.getEnd() > aStartOffset)
-                    && aEndOffset <= sentence.getEnd()) {
-                return true;
-            }
-        }
-        return false;
+        return SentenceIndex.get(aJcas).isSameSentence(aStartOffset, aEndOffset);
     }
 
     // public static boolean isSame(Annotation a, Annotation b)
@@ -233,23 +225,14 @@ public class BratAjaxCasUtil
      */
     public static int getFirstSentenceAddress(JCas aJcas)
     {
-        int firstSentenceAddress = -1;
-
-        for (Sentence selectedSentence : select(aJcas, Sentence.class)) {
-            firstSentenceAddress = selectedSentence.getAddress();
-            break;
-        }
-        return firstSentenceAddress;
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        return index.size() > 0 ? index.getAddress(0) : -1;
     }
 
     public static int getLastSentenceAddress(JCas aJcas)
     {
-        int lastSentenceAddress = -1;
-
-        for (Sentence selectedSentence : select(aJcas, Sentence.class)) {
-            lastSentenceAddress = selectedSentence.getAddress();
-        }
-        return lastSentenceAddress;
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        return index.size() > 0 ? index.getAddress(index.size() - 1) : -1;
     }
     /**
      * Get the current sentence based on the anotation begin/end offset
@@ -260,14 +243,9 @@ public class BratAjaxCasUtil
      * @return the sentence.
      */
     public static Sentence getCurrentSentence(JCas aJCas, int aBegin, int aEnd){
-        Sentence currentSentence = null;
-        for(Sentence sentence :select(aJCas, Sentence.class)){
-            if(sentence.getBegin()<=aBegin && sentence.getEnd()>=aEnd){
-                currentSentence = sentence;
-                break;
-            }
-        }
-        return currentSentence;
+        SentenceIndex index = SentenceIndex.get(aJCas);
+        int i = index.indexOf(aBegin, aEnd);
+        return i >= 0 ? selectByAddr(aJCas, Sentence.class, index.getAddress(i)) : null;
     }
 
     /**
@@ -283,18 +261,12 @@ public class BratAjaxCasUtil
     public static int getLastSentenceAddressInDisplayWindow(JCas aJcas, int aFirstSentenceAddress,
             int aWindowSize)
     {
-        int i = aFirstSentenceAddress;
-        int lastSentenceAddress = getLastSentenceAddress(aJcas);
-        int count = 1;
-
-        while (count < aWindowSize) {
-            i = getFollowingSentenceAddress(aJcas, i);
-            if (i >= lastSentenceAddress) {
-                return i;
-            }
-            count++;
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        int i = index.indexOfAddress(aFirstSentenceAddress);
+        if (i < 0 || aWindowSize <= 1) {
+            return aFirstSentenceAddress;
         }
-        return i;
+        return index.getAddress(Math.min(i + aWindowSize - 1, index.size() - 1));
     }
 
 
@@ -332,33 +304,27 @@ public class BratAjaxCasUtil
     public static int getSentenceBeginAddress(JCas aJcas, int aSentenceAddress, int aOffSet,
             Project aProject, SourceDocument aDocument, int aWindowSize)
     {
-        int i = aSentenceAddress;
-        int count = 0;
-        while (count <= aWindowSize) {
-            count++;
-            Sentence sentence = selectByAddr(aJcas, Sentence.class, i);
-            if (sentence.getBegin() <= aOffSet && aOffSet <= sentence.getEnd()) {
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        int i = index.indexOfAddress(aSentenceAddress);
+        if (i < 0) {
+            return aSentenceAddress;
+        }
+
+        for (int count = 0; count <= aWindowSize; count++) {
+            if (index.getBegin(i) <= aOffSet && aOffSet <= index.getEnd(i)) {
                 break;
             }
-            List<Sentence> precedingSentences = selectFollowing(aJcas, Sentence.class, sentence, 1);
-            if (precedingSentences.size() > 0) {
-                i = precedingSentences.get(0).getAddress();
+            if (i + 1 < index.size()) {
+                i++;
             }
         }
 
-        Sentence sentence = selectByAddr(aJcas, Sentence.class, i);
-        List<Sentence> precedingSentences = selectPreceding(aJcas, Sentence.class, sentence,
-                aWindowSize / 2);
-
-        if (precedingSentences.size() > 0 && aSentenceAddress >= i) {
-            return precedingSentences.get(0).getAddress();
-        }
-
-        if (precedingSentences.size() > 0 && aWindowSize > 2) {
-            return precedingSentences.get(0).getAddress();
+        int preceding = Math.min(i, aWindowSize / 2);
+        if (preceding > 0 && (aSentenceAddress >= index.getAddress(i) || aWindowSize > 2)) {
+            return index.getAddress(i - preceding);
         }
         // Selection is on the first sentence
-        return sentence.getAddress();
+        return index.getAddress(i);
     }
 
     /**
@@ -373,29 +339,14 @@ public class BratAjaxCasUtil
     public static int getNextDisplayWindowSentenceBeginAddress(JCas aJcas,
             int aCurrenSentenceBeginAddress, int aWindowSize)
     {
-        List<Integer> beginningAddresses = getDisplayWindowBeginningSentenceAddresses(aJcas,
-                aWindowSize);
-
-        int beginningAddress = aCurrenSentenceBeginAddress;
-        for (int i = 0; i < beginningAddresses.size(); i++) {
-
-            if (i == beginningAddresses.size() - 1) {
-                beginningAddress = beginningAddresses.get(i);
-                break;
-            }
-            if (beginningAddresses.get(i) == aCurrenSentenceBeginAddress) {
-                beginningAddress = beginningAddresses.get(i + 1);
-                break;
-            }
-
-            if ((beginningAddresses.get(i) < aCurrenSentenceBeginAddress && beginningAddresses
-                    .get(i + 1) > aCurrenSentenceBeginAddress)) {
-                beginningAddress = beginningAddresses.get(i + 1);
-                break;
-            }
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        int i = index.indexOfAddress(aCurrenSentenceBeginAddress);
+        if (i < 0) {
+            return aCurrenSentenceBeginAddress;
         }
-        return beginningAddress;
 
+        int lastWindow = (index.size() - 1) / aWindowSize;
+        return index.getAddress(Math.min(i / aWindowSize + 1, lastWindow) * aWindowSize);
     }
 
     /**
@@ -410,24 +361,25 @@ public class BratAjaxCasUtil
     public static int getPreviousDisplayWindowSentenceBeginAddress(JCas aJcas,
             int aCurrenSentenceBeginAddress, int aWindowSize)
     {
-        List<Integer> beginningAddresses = getDisplayWindowBeginningSentenceAddresses(aJcas,
-                aWindowSize);
-
-        int beginningAddress = aCurrenSentenceBeginAddress;
-        for (int i = 0; i < beginningAddresses.size() - 1; i++) {
-            if (i == 0 && aCurrenSentenceBeginAddress >= beginningAddresses.get(i)
-                    && beginningAddresses.get(i + 1) >= aCurrenSentenceBeginAddress) {
-                beginningAddress = beginningAddresses.get(i);
-                break;
-            }
-            if (aCurrenSentenceBeginAddress >= beginningAddresses.get(i)
-                    && beginningAddresses.get(i + 1) >= aCurrenSentenceBeginAddress) {
-                beginningAddress = beginningAddresses.get(i);
-                break;
-            }
-            beginningAddress = beginningAddresses.get(i);
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        int i = index.indexOfAddress(aCurrenSentenceBeginAddress);
+        int windows = (index.size() + aWindowSize - 1) / aWindowSize;
+        if (i < 0 || windows < 2) {
+            return aCurrenSentenceBeginAddress;
+        }
+
+        int window = i / aWindowSize;
+        if (i % aWindowSize == 0) {
+            // At the beginning of a window - go to the previous one
+            return index.getAddress(Math.max(window - 1, 0) * aWindowSize);
+        }
+        else if (window < windows - 1) {
+            // Within a window - go to its beginning
+            return index.getAddress(window * aWindowSize);
+        }
+        else {
+            return index.getAddress((windows - 2) * aWindowSize);
         }
-        return beginningAddress;
     }
 
     /**
@@ -441,10 +393,10 @@ public class BratAjaxCasUtil
      */
     public static int getFollowingSentenceAddress(JCas aJcas, int aRef)
     {
-        Sentence sentence = selectByAddr(aJcas, Sentence.class, aRef);
-        List<Sentence> followingSentence = selectFollowing(aJcas, Sentence.class, sentence, 1);
-        if (followingSentence.size() > 0) {
-            return followingSentence.get(0).getAddress();
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        int i = index.indexOfAddress(aRef);
+        if (i >= 0 && i + 1 < index.size()) {
+            return index.getAddress(i + 1);
         }
         else {
             return aRef;
@@ -453,10 +405,8 @@ public class BratAjaxCasUtil
 
     public static int getLastDisplayWindowFirstSentenceAddress(JCas aJcas, int aWindowSize)
     {
-        List<Integer> displayWindowBeginingSentenceAddresses = getDisplayWindowBeginningSentenceAddresses(
-                aJcas, aWindowSize);
-        return displayWindowBeginingSentenceAddresses.get(displayWindowBeginingSentenceAddresses
-                .size() - 1);
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        return index.getAddress((index.size() - 1) / aWindowSize * aWindowSize);
     }
 
     /**
@@ -467,8 +417,7 @@ public class BratAjaxCasUtil
      */
     public static int getNumberOfPages(JCas aJcas)
     {
-        return select(aJcas, Sentence.class).size();
-
+        return SentenceIndex.get(aJcas).size();
     }
 
     /**
@@ -481,16 +430,12 @@ public class BratAjaxCasUtil
     public static List<Integer> getDisplayWindowBeginningSentenceAddresses(JCas aJcas,
             int aWindowSize)
     {
+        SentenceIndex index = SentenceIndex.get(aJcas);
         List<Integer> beginningAddresses = new ArrayList<Integer>();
-        int j = 0;
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (j % aWindowSize == 0) {
-                beginningAddresses.add(sentence.getAddress());
-            }
-            j++;
+        for (int i = 0; i < index.size(); i += aWindowSize) {
+            beginningAddresses.add(index.getAddress(i));
         }
         return beginningAddresses;
-
     }
 
     /**
@@ -504,15 +449,9 @@ public class BratAjaxCasUtil
      */
     public static int getFirstSentenceNumber(JCas aJcas, int aSentenceAddress)
     {
-        int sentenceNumber = 0;
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (sentence.getAddress() == aSentenceAddress) {
-                break;
-            }
-            sentenceNumber++;
-        }
-        return sentenceNumber;
-
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        int i = index.indexOfAddress(aSentenceAddress);
+        return i >= 0 ? i : index.size();
     }
 
     /**
@@ -523,16 +462,9 @@ public class BratAjaxCasUtil
      */
     public static int getSentenceNumber(JCas aJcas, int aBeginOffset)
     {
-        int sentenceNumber = 0;
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (sentence.getBegin() <= aBeginOffset && aBeginOffset<=sentence.getEnd()) {
-                sentenceNumber++;
-                break;
-            }
-            sentenceNumber++;
-        }
-        return sentenceNumber;
-
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        int i = index.indexOf(aBeginOffset, aBeginOffset);
+        return i >= 0 ? i + 1 : index.size();
     }
 
     /**
@@ -543,25 +475,12 @@ public class BratAjaxCasUtil
      */
     public static int getSentenceAddress(JCas aJcas, int aSentenceNumber)
     {
-
-        int i = 1;
-        int address = 0;
-        if (aSentenceNumber <1){
+        SentenceIndex index = SentenceIndex.get(aJcas);
+        if (aSentenceNumber < 1 || index.size() == 0 || aSentenceNumber > index.size() + 1) {
             return 0;
         }
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (i == aSentenceNumber) {
-                address = sentence.getAddress();
-                break;
-            }
-            address = sentence.getAddress();
-            i++;
-        }
-        if (aSentenceNumber > i) {
-            return 0;
-        }
-        return address;
-
+        // One past the last sentence still yields the last sentence
+        return index.getAddress(Math.min(aSentenceNumber, index.size()) - 1);
     }
 
     /**
@@ -577,11 +496,15 @@ public class BratAjaxCasUtil
      */
     public static String getSelectedText(JCas aJcas, int aBeginOffset, int aEndOffset)
     {
-        List<Token> tokens = BratAjaxCasUtil.selectOverlapping(aJcas, Token.class, aBeginOffset,
-                aEndOffset);
+        TextLayout layout = TextLayout.get(aJcas.getCas());
+        String text = aJcas.getDocumentText();
         StringBuilder seletedTextSb = new StringBuilder();
-        for (Token token : tokens) {
-            seletedTextSb.append(token.getCoveredText() + " ");
+        for (int i = layout.getFirstTokenEndingAfter(aBeginOffset); i < layout.getTokenCount()
+                && layout.getTokenBegin(i) < aEndOffset; i++) {
+            if (layout.getTokenEnd(i) > aBeginOffset) {
+                seletedTextSb.append(text, layout.getTokenBegin(i), layout.getTokenEnd(i));
+                seletedTextSb.append(' ');
+            }
         }
         return seletedTextSb.toString();
     }
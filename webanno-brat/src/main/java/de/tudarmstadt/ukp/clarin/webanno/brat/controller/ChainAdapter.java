@@ -23,7 +23,9 @@ import static org.apache.uima.fit.util.CasUtil.selectFS;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.uima.cas.CAS;
@@ -135,88 +137,70 @@ public class ChainAdapter
         // At this point arc and span feature labels must have been found! If not, the later code
         // will crash.
         
-        Type chainType = getAnnotationType(aJcas.getCas());
-        Feature chainFirst = chainType.getFeatureByBaseName(chainFirstFeatureName);
-        
+        // Every chain is supposed to have a different color. The color index of a chain is its
+        // position among all chains, even if it has no visible links in the current window,
+        // because we would like the chain color to be independent of visibility. In particular
+        // the color of a chain should not change when switching pages/scrolling.
+        Map<Integer, String> colors = new HashMap<Integer, String>();
         int colorIndex = 0;
-        // Iterate over the chains
-        for (FeatureStructure chainFs : selectFS(aJcas.getCas(), chainType)) {
-            AnnotationFS linkFs = (AnnotationFS) chainFs.getFeatureValue(chainFirst);
-            AnnotationFS prevLinkFs = null;
-            
-            // Every chain is supposed to have a different color
-            String color = ColoringStrategy.PALETTE_NORMAL_FILTERED[colorIndex
-                    % ColoringStrategy.PALETTE_NORMAL_FILTERED.length];
-            // The color index is updated even for chains that have no visible links in the current
-            // window because we would like the chain color to be independent of visibility. In
-            // particular the color of a chain should not change when switching pages/scrolling.
+        for (FeatureStructure chainFs : selectFS(aJcas.getCas(), getAnnotationType(aJcas
+                .getCas()))) {
+            colors.put(BratAjaxCasUtil.getAddr(chainFs),
+                    ColoringStrategy.PALETTE_NORMAL_FILTERED[colorIndex
+                            % ColoringStrategy.PALETTE_NORMAL_FILTERED.length]);
             colorIndex++;
+        }
 
-            // Iterate over the links of the chain
-            while (linkFs != null) {
-                Feature linkNext = linkFs.getType().getFeatureByBaseName(linkNextFeatureName);
-                AnnotationFS nextLinkFs = (AnnotationFS) linkFs.getFeatureValue(linkNext);
-                
-                // Is link after window? If yes, we can skip the rest of the chain
-                if (linkFs.getBegin() >= windowEnd) {
-                    break; // Go to next chain
-                }
+        String bratTypeName = TypeUtil.getBratTypeName(this);
+        ChainIndex index = getChainIndex(aJcas);
 
-                // Is link before window? We only need links that being within the window and that
-                // end within the window
-                if (!(linkFs.getBegin() >= windowBegin) && (linkFs.getEnd() <= windowEnd)) {
-                    // prevLinkFs remains null until we enter the window
-                    linkFs = nextLinkFs;
-                    continue; // Go to next link
-                }
+        // Iterate over the links within the window instead of walking all chains
+        for (AnnotationFS linkFs : CasUtil.selectCovered(aJcas.getCas(),
+                getLinkType(aJcas.getCas()), windowBegin, windowEnd)) {
+            FeatureStructure chainFs = index.getChain(aJcas.getCas(), linkFs);
+            if (chainFs == null) {
+                // Not part of any chain
+                continue;
+            }
+            String color = colors.get(BratAjaxCasUtil.getAddr(chainFs));
+
+            // Render span
+            {
+                String bratLabelText = TypeUtil.getBratLabelText(this, linkFs,
+                        (spanLabelFeature != null) ? asList(spanLabelFeature)
+                                : Collections.EMPTY_LIST);
+                Offsets offsets = new Offsets(linkFs.getBegin() - windowBegin, 
+                        linkFs.getEnd() - windowBegin);
+
+                aResponse.addEntity(new Entity(BratAjaxCasUtil.getAddr(linkFs), bratTypeName,
+                        offsets, bratLabelText, color));
+            }
+
+            // Render arc from the previous link if that is within the window as well
+            AnnotationFS prevLinkFs = index.getPrev(aJcas.getCas(), linkFs);
+            if (prevLinkFs != null && prevLinkFs.getBegin() >= windowBegin
+                    && prevLinkFs.getEnd() <= windowEnd) {
+                String bratLabelText = null;
                 
-                String bratTypeName = TypeUtil.getBratTypeName(this);
-
-                // Render span
-                {
-                    String bratLabelText = TypeUtil.getBratLabelText(this, linkFs,
-                            (spanLabelFeature != null) ? asList(spanLabelFeature)
-                                    : Collections.EMPTY_LIST);
-                    Offsets offsets = new Offsets(linkFs.getBegin() - windowBegin, 
-                            linkFs.getEnd() - windowBegin);
-    
-                    aResponse.addEntity(new Entity(BratAjaxCasUtil.getAddr(linkFs), bratTypeName,
-                            offsets, bratLabelText, color));
+                if (linkedListBehavior && arcLabelFeature != null) {
+                    // Render arc label
+                    bratLabelText = TypeUtil.getBratLabelText(this, prevLinkFs,
+                            asList(arcLabelFeature));
                 }
-                
-                // Render arc (we do this on prevLinkFs because then we easily know that the current
-                // and last link are within the window ;)
-                if (prevLinkFs != null) {
-                    String bratLabelText = null;
-                    
-                    if (linkedListBehavior && arcLabelFeature != null) {
-                        // Render arc label
-                        bratLabelText = TypeUtil.getBratLabelText(this, prevLinkFs,
-                                asList(arcLabelFeature));
-                    }
-                    else {
-                        // Render only chain type
-                        bratLabelText = TypeUtil.getBratLabelText(this, prevLinkFs,
-                                Collections.EMPTY_LIST);
-                    }
-                    
-                    List<Argument> argumentList = asList(
-                            new Argument("Arg1", BratAjaxCasUtil.getAddr(prevLinkFs)), 
-                            new Argument("Arg2", BratAjaxCasUtil.getAddr(linkFs)));
-
-                    aResponse.addRelation(new Relation(BratAjaxCasUtil.getAddr(prevLinkFs),
-                            bratTypeName, argumentList, bratLabelText, color));
+                else {
+                    // Render only chain type
+                    bratLabelText = TypeUtil.getBratLabelText(this, prevLinkFs,
+                            Collections.EMPTY_LIST);
                 }
+                
+                List<Argument> argumentList = asList(
+                        new Argument("Arg1", BratAjaxCasUtil.getAddr(prevLinkFs)), 
+                        new Argument("Arg2", BratAjaxCasUtil.getAddr(linkFs)));
 
-//                if (BratAjaxCasUtil.isSame(linkFs, nextLinkFs)) {
-//                    log.error("Loop in CAS detected, aborting rendering of chains");
-//                    break;
-//                }
-
-                prevLinkFs = linkFs;
-                linkFs = nextLinkFs;
+                aResponse.addRelation(new Relation(BratAjaxCasUtil.getAddr(prevLinkFs),
+                        bratTypeName, argumentList, bratLabelText, color));
             }
-        }        
+        }
     }
             
     public int addSpan( JCas aJCas, int aBegin, int aEnd,
@@ -237,9 +221,11 @@ public class ChainAdapter
         
         // Add the link annotation on the span
         AnnotationFS newLink = newLink(aJCas, begin, end, aFeature, aLabelValue);
+        ChainIndex index = getChainIndex(aJCas);
+        index.linkAdded();
         
         // The added link is a new chain on its own - add the chain head FS
-        newChain(aJCas, newLink);
+        index.update(newChain(aJCas, newLink));
         
         return BratAjaxCasUtil.getAddr(newLink);
     }
@@ -267,10 +253,11 @@ public class ChainAdapter
         }
         // if origin and target are not adjacent
         else {
-            FeatureStructure originChain = getChainForLink(aJCas, aOriginFs);
-            FeatureStructure targetChain = getChainForLink(aJCas, aTargetFs);
+            ChainIndex index = getChainIndex(aJCas);
+            FeatureStructure originChain = getChainForLink(aJCas, index, aOriginFs);
+            FeatureStructure targetChain = getChainForLink(aJCas, index, aTargetFs);
             
-            AnnotationFS targetPrev = getPrevLink(targetChain, aTargetFs);
+            AnnotationFS targetPrev = index.getPrev(aJCas.getCas(), aTargetFs);
 
             if (!BratAjaxCasUtil.isSame(originChain, targetChain)) {
                 if (linkedListBehavior) {
@@ -281,7 +268,7 @@ public class ChainAdapter
                     // if originFs has a next, then split of the origin chain up
                     // the rest becomes its own chain
                     if (originNext != null) {
-                        newChain(aJCas, originNext);
+                        index.update(newChain(aJCas, originNext));
                         // we set originNext below
                         // we set the arc label below
                     }
@@ -299,6 +286,7 @@ public class ChainAdapter
                     // connect the rest of the target chain to the origin chain
                     setNextLink(aOriginFs, aTargetFs);
                     BratAjaxCasUtil.setFeature(aOriginFs, aFeature, aValue);
+                    index.update(originChain);
                 }
                 else {
                   // collect all the links
@@ -329,6 +317,7 @@ public class ChainAdapter
                   
                   // we don't need the second chain head anymore
                   aJCas.removeFsFromIndexes(targetChain);
+                  index.update(originChain);
                 }
             }
             else {
@@ -364,7 +353,7 @@ public class ChainAdapter
         
         // Create the tail chain
         // We know that there must be a next link, otherwise no arc would have been rendered!
-        newChain(aJCas, getNextLink(linkToDelete));
+        getChainIndex(aJCas).update(newChain(aJCas, getNextLink(linkToDelete)));
         
         // Disconnect the tail from the head
         setNextLink(linkToDelete, null);
@@ -372,8 +361,6 @@ public class ChainAdapter
     
     public void deleteSpan(JCas aJCas, int aAddress)
     {
-        Type chainType = getAnnotationType(aJCas.getCas());
-
         AnnotationFS linkToDelete = BratAjaxCasUtil.selectByAddr(aJCas, AnnotationFS.class,
                 aAddress);
         
@@ -388,22 +375,9 @@ public class ChainAdapter
         
         // To know which case we have, we first need to find the chain containing the element to
         // be deleted.
-        FeatureStructure oldChainFs = null;
-        AnnotationFS prevLinkFs = null;
-        chainLoop: for (FeatureStructure chainFs : selectFS(aJCas.getCas(), chainType)) {
-            AnnotationFS linkFs = getFirstLink(chainFs);
-            prevLinkFs = null; // Reset when entering new chain!
-            
-            // Now we seek the link within the current chain
-            while (linkFs != null) {
-                if (BratAjaxCasUtil.isSame(linkFs, linkToDelete)) {
-                    oldChainFs = chainFs;
-                    break chainLoop;
-                }
-                prevLinkFs = linkFs;
-                linkFs = getNextLink(linkFs);
-            }
-        }
+        ChainIndex index = getChainIndex(aJCas);
+        FeatureStructure oldChainFs = index.getChain(aJCas.getCas(), linkToDelete);
+        AnnotationFS prevLinkFs = index.getPrev(aJCas.getCas(), linkToDelete);
         
         // Did we find the chain?!
         if (oldChainFs == null) {
@@ -417,25 +391,31 @@ public class ChainAdapter
             // case 1: first element removed
             setFirstLink(oldChainFs, followingLinkToDelete);
             aJCas.removeFsFromIndexes(linkToDelete);
+            index.linkRemoved(linkToDelete, true);
             
             // removed last element form chain?
             if (followingLinkToDelete == null) {
                 aJCas.removeFsFromIndexes(oldChainFs);
             }
+            else {
+                index.update(oldChainFs);
+            }
         }
         else if (followingLinkToDelete == null) {
             // case 3: removing the last link (but not leaving the chain empty)
             setNextLink(prevLinkFs, null);
             aJCas.removeFsFromIndexes(linkToDelete);
+            index.linkRemoved(linkToDelete, true);
         }
         else if (prevLinkFs != null && followingLinkToDelete != null) {
             // case 2: removing a middle link
             
             // Set up new chain for rest
-            newChain(aJCas, followingLinkToDelete);
+            index.update(newChain(aJCas, followingLinkToDelete));
             
             // Cut off from old chain
             setNextLink(prevLinkFs, null);
+            index.linkRemoved(linkToDelete, false);
         }
         else {
             throw new IllegalStateException(
@@ -525,28 +505,32 @@ public class ChainAdapter
     /**
      * Find the chain head for the given link.
      * 
-     * @param aJCas the CAS.
+     * @param aJCas the JCas.
+     * @param aIndex the chain index.
      * @param aLink the link to search the chain for.
      * @return the chain.
      */
-    private FeatureStructure getChainForLink(JCas aJCas, AnnotationFS aLink)
+    private FeatureStructure getChainForLink(JCas aJCas, ChainIndex aIndex, AnnotationFS aLink)
     {
-        Type chainType = getAnnotationType(aJCas.getCas());
-        
-        for (FeatureStructure chainFs : selectFS(aJCas.getCas(), chainType)) {
-            AnnotationFS linkFs = getFirstLink(chainFs);
-            
-            // Now we seek the link within the current chain
-            while (linkFs != null) {
-                if (BratAjaxCasUtil.isSame(linkFs, aLink)) {
-                    return chainFs;
-                }
-                linkFs = getNextLink(linkFs);
-            }
+        FeatureStructure chain = aIndex.getChain(aJCas.getCas(), aLink);
+        if (chain == null) {
+            // This should never happen unless the data in the CAS has been created erratically
+            throw new IllegalArgumentException("Link not part of any chain");
         }
-        
-        // This should never happen unless the data in the CAS has been created erratically
-        throw new IllegalArgumentException("Link not part of any chain");
+        return chain;
+    }
+
+    private ChainIndex getChainIndex(JCas aJCas)
+    {
+        CAS cas = aJCas.getCas();
+        return ChainIndex.get(cas, getAnnotationType(cas), getLinkType(cas),
+                chainFirstFeatureName, linkNextFeatureName);
+    }
+
+    private Type getLinkType(CAS aCas)
+    {
+        return CasUtil.getType(aCas,
+                StringUtils.substringBeforeLast(getAnnotationTypeName(), CHAIN) + LINK);
     }
     
     private List<AnnotationFS> collectLinks(FeatureStructure aChain) 
@@ -602,8 +586,7 @@ public class ChainAdapter
     private AnnotationFS newLink(JCas aJCas, int aBegin, int aEnd, AnnotationFeature aFeature,
             String aLabelValue)
     {
-        String baseName = StringUtils.substringBeforeLast(getAnnotationTypeName(), CHAIN) + LINK;
-        Type linkType = CasUtil.getType(aJCas.getCas(), baseName);
+        Type linkType = getLinkType(aJCas.getCas());
         AnnotationFS newLink = aJCas.getCas().createAnnotation(linkType, aBegin, aEnd);
         BratAjaxCasUtil.setFeature(newLink, aFeature, aLabelValue);
         aJCas.getCas().addFsToIndexes(newLink);
@@ -617,40 +600,6 @@ public class ChainAdapter
     {
         aChain.setFeatureValue(aChain.getType().getFeatureByBaseName(chainFirstFeatureName), aLink);
     }
-    
-    /**
-     * Get the first link of a chain from the chain head feature structure.
-     */
-    private AnnotationFS getFirstLink(FeatureStructure aChain)
-    {
-        return (AnnotationFS) aChain.getFeatureValue(aChain.getType().getFeatureByBaseName(
-                chainFirstFeatureName));
-    }
-
-    /**
-     * Get the chain link before the given link within the given chain. The given link must be part
-     * of the given chain.
-     * 
-     * @param aChain
-     *            a chain head feature structure.
-     * @param aLink
-     *            a link.
-     * @return the link before the given link or null if the given link is the first link of the
-     *         chain.
-     */
-    private AnnotationFS getPrevLink(FeatureStructure aChain, AnnotationFS aLink)
-    {
-        AnnotationFS prevLink = null;
-        AnnotationFS curLink = getFirstLink(aChain);
-        while (curLink != null) {
-            if (BratAjaxCasUtil.isSame(curLink, aLink)) {
-                break;
-            }
-            prevLink = curLink;
-            curLink = getNextLink(curLink);
-        }
-        return prevLink;
-    }
 
     /**
      * Set the link following the current link.
@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
+
+import static org.apache.uima.fit.util.CasUtil.selectFS;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasGeneration;
+
+/**
+ * Maps the links of the chains of one chain layer to the chain containing them and to the link
+ * before them, so that these can be looked up without walking all chains.
+ * <p>
+ * The index of a CAS is built on first use. {@link ChainAdapter} updates it whenever it changes
+ * the chains - only the chains affected by a change are walked again. If the CAS has been reset
+ * or loaded again (see {@link CasGeneration}), or links have been added or removed by other code,
+ * the index is rebuilt.
+ * <p>
+ * The index only holds addresses and does not refer to the CAS, so it does not keep the CAS from
+ * being collected.
+ */
+final class ChainIndex
+{
+    private static final Map<CAS, Map<String, ChainIndex>> INDEXES = Collections
+            .synchronizedMap(new WeakHashMap<CAS, Map<String, ChainIndex>>());
+
+    private final long generation;
+    private final String text;
+    private final Type linkType;
+    private final Feature chainFirst;
+    private final Feature linkNext;
+
+    /**
+     * The number of link annotations in the CAS as known to the index.
+     */
+    private int linkCount;
+
+    /**
+     * Chain address by link address.
+     */
+    private final Map<Integer, Integer> chains = new HashMap<Integer, Integer>();
+
+    /**
+     * Address of the previous link by link address. Not present for the first link of a chain.
+     */
+    private final Map<Integer, Integer> prevs = new HashMap<Integer, Integer>();
+
+    private ChainIndex(CAS aCas, Type aChainType, Type aLinkType, Feature aChainFirst,
+            Feature aLinkNext)
+    {
+        generation = CasGeneration.get(aCas);
+        text = aCas.getDocumentText();
+        linkType = aLinkType;
+        chainFirst = aChainFirst;
+        linkNext = aLinkNext;
+        linkCount = aCas.getAnnotationIndex(aLinkType).size();
+
+        for (FeatureStructure chain : selectFS(aCas, aChainType)) {
+            update(chain);
+        }
+    }
+
+    /**
+     * Get the chain index for the given chain type, building it if necessary.
+     *
+     * @param aCas
+     *            the CAS.
+     * @param aChainType
+     *            the chain head type.
+     * @param aLinkType
+     *            the link type.
+     * @param aFirstFeatureName
+     *            the feature of the chain head pointing to the first link.
+     * @param aNextFeatureName
+     *            the feature of a link pointing to the next link.
+     * @return the index.
+     */
+    public static ChainIndex get(CAS aCas, Type aChainType, Type aLinkType,
+            String aFirstFeatureName, String aNextFeatureName)
+    {
+        synchronized (INDEXES) {
+            Map<String, ChainIndex> indexes = INDEXES.get(aCas);
+            if (indexes == null) {
+                indexes = new HashMap<String, ChainIndex>();
+                INDEXES.put(aCas, indexes);
+            }
+
+            ChainIndex index = indexes.get(aChainType.getName());
+            if (index == null || !index.isValid(aCas)) {
+                index = new ChainIndex(aCas, aChainType, aLinkType,
+                        aChainType.getFeatureByBaseName(aFirstFeatureName),
+                        aLinkType.getFeatureByBaseName(aNextFeatureName));
+                indexes.put(aChainType.getName(), index);
+            }
+            return index;
+        }
+    }
+
+    private boolean isValid(CAS aCas)
+    {
+        // A pooled CAS loaded again from the same snapshot may share the document text instance
+        // and the number of links, so these alone do not show that the chains are the same
+        return generation == CasGeneration.get(aCas) && text == aCas.getDocumentText()
+                && linkCount == aCas.getAnnotationIndex(linkType).size();
+    }
+
+    /**
+     * @param aCas
+     *            the CAS the index has been obtained for.
+     * @param aLink
+     *            a link.
+     * @return the chain containing the link or {@code null} if the link is not part of any chain.
+     */
+    public FeatureStructure getChain(CAS aCas, AnnotationFS aLink)
+    {
+        Integer chain = chains.get(BratAjaxCasUtil.getAddr(aLink));
+        return chain != null ? aCas.getLowLevelCAS().ll_getFSForRef(chain) : null;
+    }
+
+    /**
+     * @param aCas
+     *            the CAS the index has been obtained for.
+     * @param aLink
+     *            a link.
+     * @return the link before the given link in its chain or {@code null} if it is the first link
+     *         or not part of any chain.
+     */
+    public AnnotationFS getPrev(CAS aCas, AnnotationFS aLink)
+    {
+        Integer prev = prevs.get(BratAjaxCasUtil.getAddr(aLink));
+        return prev != null ? aCas.getLowLevelCAS().<AnnotationFS> ll_getFSForRef(prev) : null;
+    }
+
+    /**
+     * Record the current links of the given chain. Must be called for every chain whose links
+     * have changed and for every new chain.
+     *
+     * @param aChain
+     *            the chain head.
+     */
+    public void update(FeatureStructure aChain)
+    {
+        int chain = BratAjaxCasUtil.getAddr(aChain);
+        AnnotationFS link = (AnnotationFS) aChain.getFeatureValue(chainFirst);
+        Integer prev = null;
+        while (link != null) {
+            int addr = BratAjaxCasUtil.getAddr(link);
+            chains.put(addr, chain);
+            if (prev != null) {
+                prevs.put(addr, prev);
+            }
+            else {
+                prevs.remove(addr);
+            }
+            prev = addr;
+            link = (AnnotationFS) link.getFeatureValue(linkNext);
+        }
+    }
+
+    /**
+     * Record that a link has been added to the CAS indexes.
+     */
+    public void linkAdded()
+    {
+        linkCount++;
+    }
+
+    /**
+     * Record that a link is no longer part of any chain.
+     *
+     * @param aLink
+     *            the link.
+     * @param aRemovedFromIndexes
+     *            whether the link has also been removed from the CAS indexes.
+     */
+    public void linkRemoved(AnnotationFS aLink, boolean aRemovedFromIndexes)
+    {
+        int addr = BratAjaxCasUtil.getAddr(aLink);
+        chains.remove(addr);
+        prevs.remove(addr);
+        if (aRemovedFromIndexes) {
+            linkCount--;
+        }
+    }
+}
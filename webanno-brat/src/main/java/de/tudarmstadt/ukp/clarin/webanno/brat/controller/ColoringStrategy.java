@@ -17,8 +17,12 @@
  ******************************************************************************/
 package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
 
+import static java.util.Arrays.asList;
+
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.uima.cas.FeatureStructure;
 
@@ -78,7 +82,7 @@ public abstract class ColoringStrategy
                 palette = PALETTE_PASTEL_FILTERED;
             }
             
-            coloringStrategy = staticColor(palette[aLayerIndex % palette.length]);
+            coloringStrategy = STATIC_COLORS.get(palette)[aLayerIndex % palette.length];
         }
         else {
             String[] palette;
@@ -93,7 +97,7 @@ public abstract class ColoringStrategy
                 palette = PALETTE_NORMAL_FILTERED;
             }
             
-            coloringStrategy = labelHashBasedColor(palette);
+            coloringStrategy = LABEL_HASH_COLORS.get(palette);
         }
         return coloringStrategy;
     }
@@ -141,5 +145,26 @@ public abstract class ColoringStrategy
     public final static String[] PALETTE_NORMAL_FILTERED = filterLightColors(PALETTE_NORMAL,
             LIGHTNESS_FILTER_THRESHOLD);
 
+    /**
+     * The strategies do not keep any state, so the same instances are used for all layers.
+     */
+    private final static Map<String[], ColoringStrategy[]> STATIC_COLORS =
+            new HashMap<String[], ColoringStrategy[]>();
+
+    private final static Map<String[], ColoringStrategy> LABEL_HASH_COLORS =
+            new HashMap<String[], ColoringStrategy>();
+
+    static {
+        for (String[] palette : asList(PALETTE_PASTEL, PALETTE_PASTEL_FILTERED, PALETTE_NORMAL,
+                PALETTE_NORMAL_FILTERED)) {
+            ColoringStrategy[] staticColors = new ColoringStrategy[palette.length];
+            for (int i = 0; i < palette.length; i++) {
+                staticColors[i] = staticColor(palette[i]);
+            }
+            STATIC_COLORS.put(palette, staticColors);
+            LABEL_HASH_COLORS.put(palette, labelHashBasedColor(palette));
+        }
+    }
+
     public abstract String getColor(FeatureStructure aFS, String aLabel);
 }
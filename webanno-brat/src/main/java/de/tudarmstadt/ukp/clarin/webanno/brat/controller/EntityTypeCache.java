@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.EntityType;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+/**
+ * Caches the brat type definitions built from a set of layers of a project, so they need not be
+ * rebuilt every time a document is opened or layers are shown or hidden. Entries are identified by
+ * the project, the version of its layer configuration (see
+ * {@link AnnotationService#getLayerVersion}) and the selected layers. The identifier also serves
+ * as ETag, allowing the brat front end to skip downloading type definitions it already has.
+ */
+public final class EntityTypeCache
+{
+    private static final int MAX_ENTRIES = 100;
+
+    /**
+     * Distinguishes ETags issued before and after a restart, when the layer versions start over.
+     */
+    private static final String INSTANCE = Long.toString(System.currentTimeMillis(), 36);
+
+    private static final Map<String, CachedEntityTypes> CACHE =
+            new LinkedHashMap<String, CachedEntityTypes>(16, 0.75f, true)
+    {
+        private static final long serialVersionUID = 2590425591786262520L;
+
+        @Override
+        protected boolean removeEldestEntry(Entry<String, CachedEntityTypes> aEldest)
+        {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private EntityTypeCache()
+    {
+        // No instances
+    }
+
+    /**
+     * Get the brat type definitions for the given layers, building them if necessary.
+     *
+     * @param aAnnotationLayers
+     *            the layers.
+     * @param aAnnotationService
+     *            the annotation service.
+     * @return the type definitions.
+     */
+    public static CachedEntityTypes get(List<AnnotationLayer> aAnnotationLayers,
+            AnnotationService aAnnotationService)
+    {
+        String key = getKey(aAnnotationLayers, aAnnotationService);
+        if (key == null) {
+            return new CachedEntityTypes(null, BratAjaxCasController.createEntityTypes(
+                    aAnnotationLayers, aAnnotationService));
+        }
+
+        synchronized (CACHE) {
+            CachedEntityTypes types = CACHE.get(key);
+            if (types != null) {
+                return types;
+            }
+        }
+
+        // Build outside the lock. If the layers change in the meantime, the entry is stored under
+        // the previous version and never requested again.
+        CachedEntityTypes types = new CachedEntityTypes(key, Collections
+                .unmodifiableSet(BratAjaxCasController.createEntityTypes(aAnnotationLayers,
+                        aAnnotationService)));
+        synchronized (CACHE) {
+            CACHE.put(key, types);
+        }
+        return types;
+    }
+
+    /**
+     * @return the key or {@code null} if the layers cannot be cached because they are not all
+     *         persisted layers of the same project.
+     */
+    private static String getKey(List<AnnotationLayer> aAnnotationLayers,
+            AnnotationService aAnnotationService)
+    {
+        if (aAnnotationLayers.isEmpty()) {
+            return null;
+        }
+
+        Project project = aAnnotationLayers.get(0).getProject();
+        if (project == null || project.getId() == 0) {
+            return null;
+        }
+
+        List<Long> ids = new ArrayList<Long>(aAnnotationLayers.size());
+        for (AnnotationLayer layer : aAnnotationLayers) {
+            if (layer.getId() == 0 || layer.getProject() == null
+                    || layer.getProject().getId() != project.getId()) {
+                return null;
+            }
+            ids.add(layer.getId());
+        }
+        Collections.sort(ids);
+
+        StringBuilder key = new StringBuilder();
+        key.append(INSTANCE).append('-').append(project.getId()).append('-')
+                .append(aAnnotationService.getLayerVersion(project));
+        for (Long id : ids) {
+            key.append('-').append(id);
+        }
+        return key.toString();
+    }
+
+    /**
+     * The brat type definitions for a set of layers.
+     */
+    public static class CachedEntityTypes
+    {
+        private final String etag;
+        private final Set<EntityType> entityTypes;
+
+        public CachedEntityTypes(String aEtag, Set<EntityType> aEntityTypes)
+        {
+            etag = aEtag;
+            entityTypes = aEntityTypes;
+        }
+
+        /**
+         * @return the identifier of this version of the type definitions or {@code null} if they
+         *         have not been cached.
+         */
+        public String getEtag()
+        {
+            return etag;
+        }
+
+        public Set<EntityType> getEntityTypes()
+        {
+            return entityTypes;
+        }
+    }
+}
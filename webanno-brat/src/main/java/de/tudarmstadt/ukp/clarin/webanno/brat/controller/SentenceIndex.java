@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FSIterator;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.cas.text.AnnotationIndex;
+import org.apache.uima.jcas.JCas;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasGeneration;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+/**
+ * Offsets and addresses of all sentences of a CAS in document order, so that sentences can be
+ * looked up by ordinal number, address or offset using binary search instead of iterating over
+ * all sentences.
+ * <p>
+ * The index of a CAS is built on first use and kept until the CAS is reset or loaded again (see
+ * {@link CasGeneration}), or the document text or the number of sentences changes. Annotating
+ * does not change the sentences, so the index remains valid while the user is working.
+ *
+ * @see BratAjaxCasUtil
+ */
+public final class SentenceIndex
+{
+    private static final Map<CAS, SentenceIndex> INDEXES = Collections
+            .synchronizedMap(new WeakHashMap<CAS, SentenceIndex>());
+
+    private final long generation;
+    private final String text;
+
+    private final int[] begins;
+    private final int[] ends;
+    private final int[] addresses;
+
+    /**
+     * Sentence addresses in ascending order with the ordinal number of each sentence, used to look
+     * up sentences by address.
+     */
+    private final int[] sortedAddresses;
+    private final int[] sortedOrdinals;
+
+    private SentenceIndex(JCas aJCas)
+    {
+        generation = CasGeneration.get(aJCas.getCas());
+        text = aJCas.getDocumentText();
+
+        AnnotationIndex<AnnotationFS> index = aJCas.getCas().getAnnotationIndex(
+                aJCas.getCasType(Sentence.type));
+        int size = index.size();
+        begins = new int[size];
+        ends = new int[size];
+        addresses = new int[size];
+        long[] byAddress = new long[size];
+
+        int i = 0;
+        for (FSIterator<AnnotationFS> it = index.iterator(); it.hasNext(); i++) {
+            AnnotationFS sentence = it.next();
+            begins[i] = sentence.getBegin();
+            ends[i] = sentence.getEnd();
+            addresses[i] = BratAjaxCasUtil.getAddr(sentence);
+            byAddress[i] = ((long) addresses[i] << 32) | i;
+        }
+
+        Arrays.sort(byAddress);
+        sortedAddresses = new int[size];
+        sortedOrdinals = new int[size];
+        for (i = 0; i < size; i++) {
+            sortedAddresses[i] = (int) (byAddress[i] >>> 32);
+            sortedOrdinals[i] = (int) byAddress[i];
+        }
+    }
+
+    /**
+     * Get the sentence index of the given CAS, building it if necessary.
+     *
+     * @param aJCas
+     *            the JCas.
+     * @return the sentence index.
+     */
+    public static SentenceIndex get(JCas aJCas)
+    {
+        CAS cas = aJCas.getCas();
+        SentenceIndex index = INDEXES.get(cas);
+        if (index == null || !index.isValid(aJCas)) {
+            index = new SentenceIndex(aJCas);
+            INDEXES.put(cas, index);
+        }
+        return index;
+    }
+
+    private boolean isValid(JCas aJCas)
+    {
+        // A pooled CAS loaded again from the same snapshot may share the document text instance,
+        // so the text alone does not show that the sentences are the same
+        return generation == CasGeneration.get(aJCas.getCas())
+                && text == aJCas.getDocumentText()
+                && addresses.length == aJCas.getAnnotationIndex(Sentence.type).size();
+    }
+
+    /**
+     * @return the number of sentences.
+     */
+    public int size()
+    {
+        return addresses.length;
+    }
+
+    /**
+     * @param aIndex
+     *            the ordinal number of the sentence (starting at 0).
+     * @return the address of the sentence.
+     */
+    public int getAddress(int aIndex)
+    {
+        return addresses[aIndex];
+    }
+
+    /**
+     * @param aIndex
+     *            the ordinal number of the sentence (starting at 0).
+     * @return the begin offset of the sentence.
+     */
+    public int getBegin(int aIndex)
+    {
+        return begins[aIndex];
+    }
+
+    /**
+     * @param aIndex
+     *            the ordinal number of the sentence (starting at 0).
+     * @return the end offset of the sentence.
+     */
+    public int getEnd(int aIndex)
+    {
+        return ends[aIndex];
+    }
+
+    /**
+     * @param aAddress
+     *            a sentence address.
+     * @return the ordinal number of the sentence (starting at 0) or -1 if there is no sentence at
+     *         this address.
+     */
+    public int indexOfAddress(int aAddress)
+    {
+        int i = Arrays.binarySearch(sortedAddresses, aAddress);
+        return i >= 0 ? sortedOrdinals[i] : -1;
+    }
+
+    /**
+     * Find the first sentence covering the given offsets.
+     *
+     * @param aBegin
+     *            the begin offset.
+     * @param aEnd
+     *            the end offset.
+     * @return the ordinal number of the sentence (starting at 0) or -1 if there is no such
+     *         sentence.
+     */
+    public int indexOf(int aBegin, int aEnd)
+    {
+        // Sentences do not overlap, so only the last sentence starting at or before the begin
+        // offset and sentences ending exactly there can cover the offsets
+        int found = -1;
+        for (int i = floor(aBegin); i >= 0 && ends[i] >= aEnd; i--) {
+            found = i;
+        }
+        return found;
+    }
+
+    /**
+     * Check if there is a sentence containing the begin offset (excluding the sentence end) and
+     * the end offset (including the sentence end).
+     *
+     * @param aBegin
+     *            the begin offset.
+     * @param aEnd
+     *            the end offset.
+     * @return whether the offsets are within the same sentence.
+     */
+    public boolean isSameSentence(int aBegin, int aEnd)
+    {
+        for (int i = floor(aBegin); i >= 0 && ends[i] > aBegin; i--) {
+            if (aEnd <= ends[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the ordinal number of the last sentence beginning at or before the given offset or
+     *         -1 if there is none.
+     */
+    private int floor(int aOffset)
+    {
+        int low = 0;
+        int high = begins.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (begins[mid] <= aOffset) {
+                low = mid + 1;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+}
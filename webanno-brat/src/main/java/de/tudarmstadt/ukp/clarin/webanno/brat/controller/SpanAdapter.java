@@ -38,6 +38,7 @@ import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.jcas.JCas;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.TextLayout;
 import de.tudarmstadt.ukp.clarin.webanno.brat.annotation.BratAnnotatorModel;
 import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Entity;
 import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Offsets;
@@ -177,36 +178,28 @@ public class SpanAdapter
                     FeatureStructure.class, lastAddressInPage);
         }
 
-        Type type = getType(aJcas.getCas(), getAnnotationTypeName());
+        CAS cas = aJcas.getCas();
+        Type type = getType(cas, getAnnotationTypeName());
         int aFirstSentenceOffset = firstSentence.getBegin();
+        int windowEnd = lastSentenceInPage.getEnd();
+
+        AnnotationIntervalIndex sentenceIndex = AnnotationIntervalIndex.get(cas,
+                getType(cas, Sentence.class));
 
-        for (AnnotationFS fs : selectCovered(aJcas.getCas(), type, firstSentence.getBegin(),
-                lastSentenceInPage.getEnd())) {
+        for (AnnotationFS fs : AnnotationIntervalIndex.get(cas, type).selectCovered(
+                aFirstSentenceOffset, windowEnd)) {
             String bratTypeName = TypeUtil.getBratTypeName(this);
             String bratLabelText = TypeUtil.getBratLabelText(this, fs, aFeatures);
             String color = aColoringStrategy.getColor(fs, bratLabelText);
 
-            Sentence beginSent = null, endSent = null;
             // check if annotation spans multiple sentence
-            for (Sentence sentence : selectCovered(aJcas, Sentence.class, firstSentence.getBegin(),
-                    lastSentenceInPage.getEnd())) {
-                if (sentence.getBegin() <= fs.getBegin() && fs.getBegin() <= sentence.getEnd()) {
-                    beginSent = sentence;
-                    break;
-                }
-            }
-            for (Sentence sentence : selectCovered(aJcas, Sentence.class, firstSentence.getBegin(),
-                    lastSentenceInPage.getEnd())) {
-                if (sentence.getBegin() <= fs.getEnd() && fs.getEnd() <= sentence.getEnd()) {
-                    endSent = sentence;
-                    break;
-                }
-            }
-            List<Sentence> sentences = selectCovered(aJcas, Sentence.class, beginSent.getBegin(),
-                    endSent.getEnd());
+            int beginSent = sentenceIndex.indexOfContaining(fs.getBegin());
+            int endSent = sentenceIndex.indexOfContaining(fs.getEnd());
+            List<AnnotationFS> sentences = sentenceIndex.selectCovered(
+                    sentenceIndex.getBegin(beginSent), sentenceIndex.getEnd(endSent));
             List<Offsets> offsets = new ArrayList<Offsets>();
             if (sentences.size() > 1) {
-                for (Sentence sentence : sentences) {
+                for (AnnotationFS sentence : sentences) {
                     if (sentence.getBegin() <= fs.getBegin() && fs.getBegin() <= sentence.getEnd()) {
                         offsets.add(new Offsets(fs.getBegin() - aFirstSentenceOffset, sentence
                                 .getEnd() - aFirstSentenceOffset));
@@ -257,21 +250,29 @@ public class SpanAdapter
         aResponse.setSentenceNumberOffset(sentenceNumber);
 
         int aFirstSentenceOffset = firstSentence.getBegin();
+        int windowEnd = lastSentenceInPage.getEnd();
+
+        // The offsets do not change after import, so they are taken from the text layout instead
+        // of the CAS
+        TextLayout layout = TextLayout.get(aJcas.getCas());
 
         // Render token + texts
-        for (AnnotationFS fs : selectCovered(aJcas, Token.class, firstSentence.getBegin(),
-                lastSentenceInPage.getEnd())) {
-            aResponse.addToken(fs.getBegin() - aFirstSentenceOffset, fs.getEnd()
-                    - aFirstSentenceOffset);
+        for (int i = layout.getFirstTokenStartingAt(aFirstSentenceOffset); i < layout
+                .getTokenCount() && layout.getTokenBegin(i) <= windowEnd; i++) {
+            if (layout.getTokenEnd(i) <= windowEnd) {
+                aResponse.addToken(layout.getTokenBegin(i) - aFirstSentenceOffset,
+                        layout.getTokenEnd(i) - aFirstSentenceOffset);
+            }
         }
-        aResponse.setText(aJcas.getDocumentText().substring(aFirstSentenceOffset,
-                lastSentenceInPage.getEnd()));
+        aResponse.setText(aJcas.getDocumentText().substring(aFirstSentenceOffset, windowEnd));
 
         // Render Sentence
-        for (AnnotationFS fs : selectCovered(aJcas, Sentence.class, firstSentence.getBegin(),
-                lastSentenceInPage.getEnd())) {
-            aResponse.addSentence(fs.getBegin() - aFirstSentenceOffset, fs.getEnd()
-                    - aFirstSentenceOffset);
+        for (int i = layout.getFirstSentenceStartingAt(aFirstSentenceOffset); i < layout
+                .getSentenceCount() && layout.getSentenceBegin(i) <= windowEnd; i++) {
+            if (layout.getSentenceEnd(i) <= windowEnd) {
+                aResponse.addSentence(layout.getSentenceBegin(i) - aFirstSentenceOffset,
+                        layout.getSentenceEnd(i) - aFirstSentenceOffset);
+            }
         }
     }
 
@@ -332,12 +333,11 @@ public class SpanAdapter
             String aValue)
     {
         Type type = CasUtil.getType(aCas, getAnnotationTypeName());
-        for (AnnotationFS fs : CasUtil.selectCovered(aCas, type, aBegin, aEnd)) {
-            if (fs.getBegin() == aBegin && fs.getEnd() == aEnd) {
-                if (!allowStacking) {
-                    BratAjaxCasUtil.setFeature(fs, aFeature, aValue);
-                    return ((FeatureStructureImpl) fs).getAddress();
-                }
+        if (!allowStacking) {
+            for (AnnotationFS fs : AnnotationIntervalIndex.get(aCas, type).selectAt(aBegin,
+                    aEnd)) {
+                BratAjaxCasUtil.setFeature(fs, aFeature, aValue);
+                return ((FeatureStructureImpl) fs).getAddress();
             }
         }
         AnnotationFS newAnnotation = aCas.createAnnotation(type, aBegin, aEnd);
@@ -348,15 +348,21 @@ public class SpanAdapter
             Feature attachFeature = theType.getFeatureByBaseName(getAttachFeatureName());
             // if the attache type feature structure is not in place
             // (for custom annotation), create it
-            if (CasUtil.selectCovered(aCas, theType, aBegin, aEnd).size() == 0) {
-                AnnotationFS attachTypeAnnotation = aCas.createAnnotation(theType, aBegin, aEnd);
+            List<AnnotationFS> attached = AnnotationIntervalIndex.get(aCas, theType)
+                    .selectCovered(aBegin, aEnd);
+            AnnotationFS attachTypeAnnotation;
+            if (attached.size() == 0) {
+                attachTypeAnnotation = aCas.createAnnotation(theType, aBegin, aEnd);
                 aCas.addFsToIndexes(attachTypeAnnotation);
-
+                AnnotationIntervalIndex.invalidate(aCas, theType);
+            }
+            else {
+                attachTypeAnnotation = attached.get(0);
             }
-            CasUtil.selectCovered(aCas, theType, aBegin, aEnd).get(0)
-                    .setFeatureValue(attachFeature, newAnnotation);
+            attachTypeAnnotation.setFeatureValue(attachFeature, newAnnotation);
         }
         aCas.addFsToIndexes(newAnnotation);
+        AnnotationIntervalIndex.invalidate(aCas, type);
         return ((FeatureStructureImpl) newAnnotation).getAddress();
     }
 
@@ -365,6 +371,7 @@ public class SpanAdapter
     {
         FeatureStructure fs = BratAjaxCasUtil.selectByAddr(aJCas, FeatureStructure.class, aAddress);
         aJCas.removeFsFromIndexes(fs);
+        AnnotationIntervalIndex.invalidate(aJCas.getCas(), fs.getType());
 
         // delete associated attachFeature
         if (getAttachTypeName() == null) {
@@ -375,8 +382,9 @@ public class SpanAdapter
         if (attachFeature == null) {
             return;
         }
-        CasUtil.selectCovered(aJCas.getCas(), theType, ((AnnotationFS) fs).getBegin(),
-                ((AnnotationFS) fs).getEnd()).get(0).setFeatureValue(attachFeature, null);
+        AnnotationIntervalIndex attached = AnnotationIntervalIndex.get(aJCas.getCas(), theType);
+        attached.get(attached.indexOfFirstCovered(((AnnotationFS) fs).getBegin(),
+                ((AnnotationFS) fs).getEnd())).setFeatureValue(attachFeature, null);
 
     }
 
@@ -385,13 +393,10 @@ public class SpanAdapter
     {
         Type type = CasUtil.getType(aJCas.getCas(), getAnnotationTypeName());
         Feature feature = type.getFeatureByBaseName(aFeature.getName());
-        for (AnnotationFS fs : CasUtil.selectCovered(aJCas.getCas(), type, aBegin, aEnd)) {
-
-            if (fs.getBegin() == aBegin && fs.getEnd() == aEnd) {
-                if (fs.getFeatureValueAsString(feature).equals(aValue)) {
-                    delete(aJCas, ((FeatureStructureImpl) fs).getAddress());
-
-                }
+        for (AnnotationFS fs : AnnotationIntervalIndex.get(aJCas.getCas(), type).selectAt(aBegin,
+                aEnd)) {
+            if (fs.getFeatureValueAsString(feature).equals(aValue)) {
+                delete(aJCas, ((FeatureStructureImpl) fs).getAddress());
             }
         }
     }
@@ -446,10 +451,11 @@ public class SpanAdapter
         Type type = getType(aJcas.getCas(), getAnnotationTypeName());
         List<String> annotations = new ArrayList<String>();
 
+        AnnotationIntervalIndex index = AnnotationIntervalIndex.get(aJcas.getCas(), type);
         for (Token token : selectCovered(aJcas, Token.class, begin, end)) {
-            if (selectCovered(aJcas.getCas(), type, token.getBegin(), token.getEnd()).size() > 0) {
-                AnnotationFS anno = selectCovered(aJcas.getCas(), type, token.getBegin(),
-                        token.getEnd()).get(0);
+            int i = index.indexOfFirstCovered(token.getBegin(), token.getEnd());
+            if (i >= 0) {
+                AnnotationFS anno = index.get(i);
                 Feature labelFeature = anno.getType().getFeatureByBaseName(aFeature.getName());
                 annotations.add(anno.getFeatureValueAsString(labelFeature));
             }
@@ -464,22 +470,22 @@ public class SpanAdapter
         throws CASException
     {
         Map<Integer, String> multAnno = new HashMap<Integer, String>();
-        Type type = getType(sentence.getCAS(), getAnnotationTypeName());
-        for (AnnotationFS fs : selectCovered(sentence.getCAS(), type, sentence.getBegin(),
-                sentence.getEnd())) {
+        CAS cas = sentence.getCAS();
+        Type type = getType(cas, getAnnotationTypeName());
+        AnnotationIntervalIndex tokens = AnnotationIntervalIndex.get(cas,
+                getType(cas, Token.class));
+        for (AnnotationFS fs : selectCovered(cas, type, sentence.getBegin(), sentence.getEnd())) {
             boolean isBegin = true;
             Feature labelFeature = fs.getType().getFeatureByBaseName(aFeature.getName());
-            for (Token token : selectCovered(sentence.getCAS().getJCas(), Token.class,
-                    fs.getBegin(), fs.getEnd())) {
-                if (multAnno.get(token.getAddress()) == null) {
+            for (AnnotationFS token : tokens.selectCovered(fs.getBegin(), fs.getEnd())) {
+                int address = BratAjaxCasUtil.getAddr(token);
+                if (multAnno.get(address) == null) {
                     if (isBegin) {
-                        multAnno.put(token.getAddress(),
-                                "B-" + fs.getFeatureValueAsString(labelFeature));
+                        multAnno.put(address, "B-" + fs.getFeatureValueAsString(labelFeature));
                         isBegin = false;
                     }
                     else {
-                        multAnno.put(token.getAddress(),
-                                "I-" + fs.getFeatureValueAsString(labelFeature));
+                        multAnno.put(address, "I-" + fs.getFeatureValueAsString(labelFeature));
                     }
                 }
             }
@@ -579,6 +585,7 @@ public class SpanAdapter
                 aJcas.getCas().addFsToIndexes(newAnnotation);
             }
         }
+        AnnotationIntervalIndex.invalidate(aJcas.getCas(), type);
     }
 
     /**
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation;
+
+import static java.util.Collections.singletonMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.uima.cas.Type;
+import org.apache.uima.jcas.JCas;
+
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiff.DiffEntry;
+
+/**
+ * The annotations of one user within a range of a document, reduced to what is needed to diff
+ * them: their offsets, type, {@link StructuralHash} and address. A digest does not refer to the
+ * CAS it was taken from, so the CAS can be released right away. This allows diffing the documents
+ * of many users while only holding the CAS of one user in memory at a time.
+ *
+ * @see CasDiff#doDiff(Map, Map)
+ */
+public class AnnotationDigest
+{
+    private final String username;
+    private final int begin;
+    private final int end;
+    private final List<DiffEntry> entries;
+
+    private AnnotationDigest(String aUsername, int aBegin, int aEnd, List<DiffEntry> aEntries)
+    {
+        username = aUsername;
+        begin = aBegin;
+        end = aEnd;
+        entries = aEntries;
+    }
+
+    /**
+     * Take a digest of the annotations of the given types covered by the given range.
+     *
+     * @param aUsername
+     *            the user the CAS belongs to.
+     * @param aJCas
+     *            the CAS.
+     * @param aEntryTypes
+     *            the types.
+     * @param aBegin
+     *            the begin offset of the range.
+     * @param aEnd
+     *            the end offset of the range.
+     * @return the digest.
+     * @throws RangeNameNotCheckedException
+     *             if a feature has a range which cannot be hashed.
+     */
+    public static AnnotationDigest of(String aUsername, JCas aJCas, List<Type> aEntryTypes,
+            int aBegin, int aEnd)
+        throws RangeNameNotCheckedException
+    {
+        List<DiffEntry> entries = new ArrayList<DiffEntry>();
+        for (Type entryType : aEntryTypes) {
+            for (DiffEntry entry : CasDiff.collect(entryType, singletonMap(aUsername, aJCas),
+                    aBegin, aEnd)) {
+                entries.add(entry.detach());
+            }
+        }
+        Collections.sort(entries);
+        return new AnnotationDigest(aUsername, aBegin, aEnd, entries);
+    }
+
+    public String getUsername()
+    {
+        return username;
+    }
+
+    public int getBegin()
+    {
+        return begin;
+    }
+
+    public int getEnd()
+    {
+        return end;
+    }
+
+    /**
+     * @return the number of annotations in the digest.
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    List<DiffEntry> getEntries()
+    {
+        return entries;
+    }
+
+    /**
+     * Hash the annotations in each of the given segments. The hash of a segment does not depend
+     * on the order of its annotations.
+     *
+     * @param aSegments
+     *            the segments as a map of begin offsets to end offsets. The segments must not
+     *            overlap.
+     * @return the hashes by begin offset of the segments.
+     */
+    public Map<Integer, StructuralHash> getSegmentHashes(Map<Integer, Integer> aSegments)
+    {
+        int[] begins = CasDiff.getBegins(aSegments);
+        int[] ends = CasDiff.getEnds(aSegments, begins);
+        StructuralHash[] hashes = new StructuralHash[begins.length];
+        Arrays.fill(hashes, StructuralHash.ZERO);
+
+        // Entries and segments are both sorted by begin offset
+        int segment = 0;
+        for (DiffEntry entry : entries) {
+            while (segment < begins.length && ends[segment] < entry.getBegin()) {
+                segment++;
+            }
+            if (segment == begins.length) {
+                break;
+            }
+            if (begins[segment] <= entry.getBegin() && entry.getEnd() <= ends[segment]) {
+                try {
+                    hashes[segment] = hashes[segment].plus(entry.getHash());
+                }
+                catch (RangeNameNotCheckedException e) {
+                    // Entries are hashed when the digest is taken
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+
+        Map<Integer, StructuralHash> result = new HashMap<Integer, StructuralHash>();
+        for (int i = 0; i < begins.length; i++) {
+            result.put(begins[i], hashes[i]);
+        }
+        return result;
+    }
+}
@@ -21,8 +21,6 @@ import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 
-import org.apache.uima.cas.FeatureStructure;
-
 /**
  * This class comprises usernames, which agree on a specific annotation (same annotation type, same
  * annotation value, same position).
@@ -35,7 +33,6 @@ public class AnnotationSelection
 
     private static final long serialVersionUID = -8839941493657969753L;
     private Map<String, Integer> addressByUsername = new HashMap<String, Integer>();
-    private transient Map<String, FeatureStructure> fsStringByUsername = new HashMap<String, FeatureStructure>();
     private AnnotationOption annotationOption = null;
 
     public Map<String, Integer> getAddressByUsername()
@@ -78,7 +75,7 @@ public class AnnotationSelection
     @Override
     public String toString()
     {
-        return fsStringByUsername.toString();
+        return addressByUsername.toString();
     }
 
     @Override
@@ -96,14 +93,4 @@ public class AnnotationSelection
     {
         return addressByUsername.hashCode();
     }
-
-    public Map<String, FeatureStructure> getFsStringByUsername()
-    {
-        return fsStringByUsername;
-    }
-
-    public void setFsStringByUsername(Map<String, FeatureStructure> fsStringByUsername)
-    {
-        this.fsStringByUsername = fsStringByUsername;
-    }
 }
@@ -20,12 +20,16 @@ package de.tudarmstadt.ukp.clarin.webanno.brat.curation;
 import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
 import org.apache.uima.cas.CAS;
@@ -36,6 +40,8 @@ import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.fit.util.CasUtil;
 
+import de.tudarmstadt.ukp.clarin.webanno.brat.controller.AnnotationIntervalIndex;
+
 
 /**
  * Class for finding clusters of equal annotations. Equal annotations are grouped into
@@ -100,57 +106,14 @@ public class CasDiff {
             }
             for (Map<Integer, Set<AnnotationFS>> annotationFSsByEnd : annotationFSsByBeginEnd
                     .values()) {
-                Map<FeatureStructure, AnnotationSelection> annotationSelectionByFeatureStructure = new HashMap<FeatureStructure, AnnotationSelection>();
-
                 for (Set<AnnotationFS> annotationFSs : annotationFSsByEnd.values()) {
-                    Map<String, AnnotationOption> annotationOptionPerType = new HashMap<String, AnnotationOption>();
-                    for (FeatureStructure fsNew : annotationFSs) {
-                        String usernameFSNew = usernameByFeatureStructure
-                                .get(fsNew);
-                        // diffFS1 contains all feature structures of fs1, which do not occur in other cases
-                        Set<FeatureStructure> diffFSNew = traverseFS(fsNew);
-
-                        Map<FeatureStructure, AnnotationSelection> annotationSelectionByFeatureStructureNew = new HashMap<FeatureStructure, AnnotationSelection>(annotationSelectionByFeatureStructure);
-
-                        for (FeatureStructure fsOld : annotationSelectionByFeatureStructure.keySet()) {
-                            if (fsNew != fsOld && fsNew.getType().toString().equals(fsOld.getType().toString())) {
-                                CompareResult compareResult = compareFeatureFS(fsNew.getType(),
-                                        fsNew, fsOld, diffFSNew);
-                                for (FeatureStructure compareResultFSNew : compareResult.getAgreements().keySet()) {
-                                    FeatureStructure compareResultFSOld = compareResult.getAgreements().get(compareResultFSNew);
-                                    int addressNew = aCasMap.get(usernameFSNew).getLowLevelCas().ll_getFSRef(compareResultFSNew);
-                                    AnnotationSelection annotationSelection = annotationSelectionByFeatureStructure.get(compareResultFSOld);
-                                    annotationSelection.getAddressByUsername().put(usernameFSNew, addressNew);
-                                    annotationSelectionByFeatureStructureNew.put(compareResultFSNew, annotationSelection);
-                                    // Add Debug information
-                                    annotationSelection.getFsStringByUsername().put(usernameFSNew, compareResultFSNew);
-
-                                }
-                            }
-                        }
-                        annotationSelectionByFeatureStructure = annotationSelectionByFeatureStructureNew;
-
-                        // add featureStructures, that have not been found in existing annotationSelections
-                        for (FeatureStructure subFS1 : diffFSNew) {
-                            if(subFS1.getType().toString().equals(fsNew.getType().toString())){
-                            AnnotationSelection annotationSelection = new AnnotationSelection();
-                            int addressSubFS1 = aCasMap.get(usernameFSNew).getLowLevelCas().ll_getFSRef(subFS1);
-                            annotationSelection.getAddressByUsername().put(usernameFSNew, addressSubFS1);
-                            annotationSelectionByFeatureStructure.put(subFS1, annotationSelection);
-                            String type = subFS1.getType().toString();
-                            if(!annotationOptionPerType.containsKey(type)) {
-                                annotationOptionPerType.put(type, new AnnotationOption());
-                            }
-                            AnnotationOption annotationOption = annotationOptionPerType.get(type);
-                            // link annotationOption and annotationSelection
-                            annotationSelection.setAnnotationOption(annotationOption);
-                            annotationOption.getAnnotationSelections().add(annotationSelection);
-                            // Add Debug information
-                            annotationSelection.getFsStringByUsername().put(usernameFSNew, subFS1);
-                        }
-                        }
+                    List<DiffEntry> group = new ArrayList<DiffEntry>();
+                    for (AnnotationFS annotationFS : annotationFSs) {
+                        String username = usernameByFeatureStructure.get(annotationFS);
+                        group.add(new DiffEntry(annotationFS, username, aCasMap.get(username)
+                                .getLowLevelCas().ll_getFSRef(annotationFS)));
                     }
-                    annotationOptions.addAll(annotationOptionPerType.values());
+                    annotationOptions.addAll(cluster(group));
                 }
             }
         }
@@ -158,6 +121,261 @@ public class CasDiff {
         return annotationOptions;
     }
 
+    /**
+     * Spot differing annotations in several segments of the documents at once, e.g. in all
+     * sentences shown on a curation page. Instead of collecting and grouping the annotations
+     * separately for every segment, the annotations of all users within the segments are collected
+     * in one pass per type and user, sorted by begin offset, end offset and type and then merged in
+     * a single sweep. Each group of annotations with the same offsets and type is clustered as in
+     * {@link #doDiff(List, Map, int, int)} and assigned to the segment covering it.
+     * <p>
+     * Unlike calling {@link #doDiff(List, Map, int, int)} per segment, the options of a type are
+     * not repeated for each of the types following it in the list of entry types.
+     *
+     * @param aEntryTypes
+     *            the entry types.
+     * @param aCasMap
+     *            Map of (username, cas)
+     * @param aSegments
+     *            the segments as a map of begin offsets to end offsets. The segments must not
+     *            overlap.
+     * @return the {@link AnnotationOption}s of each segment by its begin offset. Every segment has
+     *         an entry.
+     * @throws RangeNameNotCheckedException
+     *             if a feature has a range which cannot be compared.
+     */
+    public static Map<Integer, List<AnnotationOption>> doDiff(List<Type> aEntryTypes,
+            Map<String, JCas> aCasMap, Map<Integer, Integer> aSegments)
+        throws RangeNameNotCheckedException
+    {
+        int[] begins = getBegins(aSegments);
+        int[] ends = getEnds(aSegments, begins);
+        if (begins.length == 0) {
+            return new HashMap<Integer, List<AnnotationOption>>();
+        }
+
+        // Collect the annotations of all users within the segments in one pass per type and user
+        List<DiffEntry> entries = new ArrayList<DiffEntry>();
+        for (Type entryType : aEntryTypes) {
+            entries.addAll(collect(entryType, aCasMap, begins[0], getMax(ends)));
+        }
+        Collections.sort(entries);
+
+        return sweep(entries, begins, ends, 0, begins.length);
+    }
+
+    /**
+     * Spot differing annotations in several segments of the documents at once like
+     * {@link #doDiff(List, Map, Map)}, but using digests of the annotations of the users instead of
+     * their CASes. The CASes can be released as soon as their digests have been taken, so the
+     * annotations of all users need not be in memory at the same time.
+     *
+     * @param aDigests
+     *            Map of (username, digest). The digests must cover the segments.
+     * @param aSegments
+     *            the segments as a map of begin offsets to end offsets. The segments must not
+     *            overlap.
+     * @return the {@link AnnotationOption}s of each segment by its begin offset. Every segment has
+     *         an entry. The selections do not carry feature structures.
+     */
+    public static Map<Integer, List<AnnotationOption>> doDiff(
+            Map<String, AnnotationDigest> aDigests, Map<Integer, Integer> aSegments)
+    {
+        int[] begins = getBegins(aSegments);
+        int[] ends = getEnds(aSegments, begins);
+        if (begins.length == 0) {
+            return new HashMap<Integer, List<AnnotationOption>>();
+        }
+
+        try {
+            return sweep(getEntries(aDigests), begins, ends, 0, begins.length);
+        }
+        catch (RangeNameNotCheckedException e) {
+            // Digests are hashed when they are taken
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the annotations of all digests sorted by begin offset, end offset and type.
+     */
+    static List<DiffEntry> getEntries(Map<String, AnnotationDigest> aDigests)
+    {
+        List<DiffEntry> entries = new ArrayList<DiffEntry>();
+        for (AnnotationDigest digest : aDigests.values()) {
+            entries.addAll(digest.getEntries());
+        }
+        Collections.sort(entries);
+        return entries;
+    }
+
+    /**
+     * @return the begin offsets of the segments in ascending order.
+     */
+    static int[] getBegins(Map<Integer, Integer> aSegments)
+    {
+        int[] begins = new int[aSegments.size()];
+        int i = 0;
+        for (Integer begin : aSegments.keySet()) {
+            begins[i++] = begin;
+        }
+        Arrays.sort(begins);
+        return begins;
+    }
+
+    /**
+     * @return the end offsets of the segments in the order of the given begin offsets.
+     */
+    static int[] getEnds(Map<Integer, Integer> aSegments, int[] aBegins)
+    {
+        int[] ends = new int[aBegins.length];
+        for (int i = 0; i < aBegins.length; i++) {
+            ends[i] = aSegments.get(aBegins[i]);
+        }
+        return ends;
+    }
+
+    static int getMax(int[] aValues)
+    {
+        int max = Integer.MIN_VALUE;
+        for (int value : aValues) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+    /**
+     * Collect the annotations of the given type of all users covered by the given range. The CASes
+     * are only read.
+     *
+     * @return the annotations in no particular order.
+     */
+    static List<DiffEntry> collect(Type aEntryType, Map<String, JCas> aCasMap, int aBegin,
+            int aEnd)
+    {
+        List<DiffEntry> entries = new ArrayList<DiffEntry>();
+        for (Entry<String, JCas> cas : aCasMap.entrySet()) {
+            // #610 - fetch type by name as type instance may be bound to a different CAS
+            Type localType = CasUtil.getType(cas.getValue().getCas(), aEntryType.getName());
+            AnnotationIntervalIndex index = AnnotationIntervalIndex.get(cas.getValue().getCas(),
+                    localType);
+            for (int n = index.indexOfFirstCovered(aBegin, aEnd); n >= 0 && n < index.size()
+                    && index.getBegin(n) <= aEnd; n++) {
+                if (index.getEnd(n) <= aEnd) {
+                    entries.add(new DiffEntry(index.get(n), cas.getKey(), index.getAddress(n)));
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Cluster the sorted annotations covered by the segments in the given range of segments. The
+     * CASes are only read, so several ranges can be swept concurrently.
+     *
+     * @param aEntries
+     *            the annotations sorted by begin offset, end offset and type.
+     * @param aBegins
+     *            the begin offsets of the segments in ascending order.
+     * @param aEnds
+     *            the end offsets of the segments.
+     * @param aFrom
+     *            the first segment (inclusive).
+     * @param aTo
+     *            the last segment (exclusive).
+     * @return the {@link AnnotationOption}s of each segment in the range by its begin offset.
+     */
+    static Map<Integer, List<AnnotationOption>> sweep(List<DiffEntry> aEntries, int[] aBegins,
+            int[] aEnds, int aFrom, int aTo)
+        throws RangeNameNotCheckedException
+    {
+        Map<Integer, List<AnnotationOption>> annotationOptionsBySegment =
+                new HashMap<Integer, List<AnnotationOption>>();
+        for (int segment = aFrom; segment < aTo; segment++) {
+            annotationOptionsBySegment.put(aBegins[segment], new ArrayList<AnnotationOption>());
+        }
+
+        // Segments and groups are both sorted by begin offset, so a single sweep assigns the
+        // groups to the segments
+        int segment = aFrom;
+        int i = lowerBound(aEntries, aBegins[aFrom]);
+        while (i < aEntries.size()) {
+            DiffEntry first = aEntries.get(i);
+            int groupBegin = i;
+            while (i < aEntries.size() && aEntries.get(i).compareTo(first) == 0) {
+                i++;
+            }
+
+            while (segment < aTo && aEnds[segment] < first.begin) {
+                segment++;
+            }
+            if (segment == aTo) {
+                break;
+            }
+            if (aBegins[segment] <= first.begin && first.end <= aEnds[segment]) {
+                annotationOptionsBySegment.get(aBegins[segment]).addAll(
+                        cluster(aEntries.subList(groupBegin, i)));
+            }
+        }
+
+        return annotationOptionsBySegment;
+    }
+
+    /**
+     * @return the position of the first entry starting at or after the given offset.
+     */
+    private static int lowerBound(List<DiffEntry> aEntries, int aOffset)
+    {
+        int low = 0;
+        int high = aEntries.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (aEntries.get(mid).begin < aOffset) {
+                low = mid + 1;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Cluster annotations at the same offsets into {@link AnnotationSelection}s of equal
+     * annotations and group these into one {@link AnnotationOption} per type. Equal annotations
+     * have the same {@link StructuralHash}, so each annotation is hashed once and put into the
+     * selection of its hash instead of being compared to the annotations of all other users.
+     *
+     * @param aEntries
+     *            the annotations of all users at the same offsets.
+     * @return the options.
+     */
+    private static Collection<AnnotationOption> cluster(List<DiffEntry> aEntries)
+        throws RangeNameNotCheckedException
+    {
+        Map<String, AnnotationOption> annotationOptionPerType =
+                new HashMap<String, AnnotationOption>();
+        Map<StructuralHash, AnnotationSelection> annotationSelectionByHash =
+                new HashMap<StructuralHash, AnnotationSelection>();
+        for (DiffEntry entry : aEntries) {
+            AnnotationSelection annotationSelection = annotationSelectionByHash.get(entry
+                    .getHash());
+            if (annotationSelection == null) {
+                annotationSelection = new AnnotationSelection();
+                annotationSelectionByHash.put(entry.getHash(), annotationSelection);
+                if (!annotationOptionPerType.containsKey(entry.type)) {
+                    annotationOptionPerType.put(entry.type, new AnnotationOption());
+                }
+                AnnotationOption annotationOption = annotationOptionPerType.get(entry.type);
+                // link annotationOption and annotationSelection
+                annotationSelection.setAnnotationOption(annotationOption);
+                annotationOption.getAnnotationSelections().add(annotationSelection);
+            }
+            annotationSelection.getAddressByUsername().put(entry.username, entry.address);
+        }
+        return annotationOptionPerType.values();
+    }
+
     private static List<AnnotationFS> select(CAS cas, Type localType)
     {
         List<AnnotationFS> annotationFSs = new ArrayList<AnnotationFS>();
@@ -185,153 +403,82 @@ public class CasDiff {
         return nodePlusChildren;
     }
 
-    private static CompareResult compareFeatureFS(Type aType,
-            FeatureStructure fsNew, FeatureStructure fsOld, Set<FeatureStructure> diffFSNew)
-                    throws RangeNameNotCheckedException {
-        CompareResult compareResult = new CompareResult();
-
-        // check if types are equal
-        Type type = fsNew.getType();
-        Type oldType = CasUtil.getType(fsOld.getCAS(), aType.getName());
-        if (!(fsOld.getType().toString().equals(type.toString()))) {
-            // if types differ add feature structure to diff
-            compareResult.getDiffs().put(fsNew, fsOld);
-            return compareResult;
+    /**
+     * An annotation of a user, ordered by begin offset, end offset and type name. The structural
+     * hash of the annotation is computed on first use. Entries without a feature structure only
+     * carry the hash.
+     */
+    static final class DiffEntry
+        implements Comparable<DiffEntry>
+    {
+        private final int begin;
+        private final int end;
+        private final String type;
+        private final String username;
+        private final int address;
+        private final AnnotationFS fs;
+        private StructuralHash hash;
+
+        public DiffEntry(AnnotationFS aFS, String aUsername, int aAddress)
+        {
+            begin = aFS.getBegin();
+            end = aFS.getEnd();
+            type = aFS.getType().getName();
+            username = aUsername;
+            address = aAddress;
+            fs = aFS;
         }
 
-        boolean agreeOnSubfeatures = true;
-        List<Feature> fsNewFeatures = type.getFeatures();
-        List<Feature> fsOldFeatures = oldType.getFeatures();
-       for(int i =0; i<fsNewFeatures.size();i++){
-           Feature feature = fsNewFeatures.get(i);
-           Feature olFeature = fsOldFeatures.get(i);
-            // features are present in both feature structures, fs1 and fs2
-            // compare primitive values
-            if (feature.getRange().isPrimitive()) {
+        private DiffEntry(DiffEntry aEntry)
+            throws RangeNameNotCheckedException
+        {
+            begin = aEntry.begin;
+            end = aEntry.end;
+            type = aEntry.type;
+            username = aEntry.username;
+            address = aEntry.address;
+            fs = null;
+            hash = aEntry.getHash();
+        }
 
-                // check int Values
-                if (feature.getRange().getName().equals(CAS.TYPE_NAME_INTEGER)) {
-                    if (!(fsNew.getIntValue(feature) == fsOld.getIntValue(olFeature))) {
-                        // disagree
-                        agreeOnSubfeatures = false;
-                    }
-                    else {
-                        // agree
-                    }
-                }
-                else if (feature.getRange().getName().equals(CAS.TYPE_NAME_LONG)) {
-                    if (!(fsNew.getLongValue(feature) == fsOld.getLongValue(olFeature))) {
-                        // disagree
-                        agreeOnSubfeatures = false;
-                    }
-                    else {
-                        // agree
-                    }
-                }
-                else if (feature.getRange().getName().equals(CAS.TYPE_NAME_BYTE)) {
-                    if (!(fsNew.getByteValue(feature) == fsOld.getByteValue(olFeature))) {
-                        // disagree
-                        agreeOnSubfeatures = false;
-                    }
-                    else {
-                        // agree
-                    }
-                }
-                else if (feature.getRange().getName().equals(CAS.TYPE_NAME_FLOAT)) {
-                    if (!(fsNew.getFloatValue(feature) == fsOld.getFloatValue(olFeature))) {
-                        // disagree
-                        agreeOnSubfeatures = false;
-                    }
-                    else {
-                        // agree
-                    }
-                }
-                else if (feature.getRange().getName().equals(CAS.TYPE_NAME_DOUBLE)) {
-                    if (!(fsNew.getDoubleValue(feature) == fsOld.getDoubleValue(olFeature))) {
-                        // disagree
-                        agreeOnSubfeatures = false;
-                    }
-                    else {
-                        // agree
-                    }
-                }
-                else if (feature.getRange().getName().equals(CAS.TYPE_NAME_BOOLEAN)) {
-                    if (!(fsNew.getBooleanValue(feature) == fsOld.getBooleanValue(olFeature))) {
-                        // disagree
-                        agreeOnSubfeatures = false;
-                    }
-                    else {
-                        // agree
-                    }
-                }
-                else if (feature.getRange().getName().equals(CAS.TYPE_NAME_STRING)) {
-                    String stringValue1 = fsNew.getStringValue(feature);
-                    String stringValue2 = fsNew.getStringValue(feature);
-                    if (stringValue1 == null && stringValue2 == null) {
-                        // agree
-                        // Do nothing, null == null
-                    }
-                    else if (stringValue1 == null
-                            || stringValue2 == null
-                            || !(fsNew.getStringValue(feature).equals(fsOld
-                                    .getStringValue(olFeature)))) {
-                        // stringValue1 differs from stringValue2
-
-                        // disagree
-                        agreeOnSubfeatures = false;
-                        // compareResult.getDiffs().put(fs1, fs2);
-                    }
-                    else {
-                        // agree
-                        // compareResult.getAgreements().put(fs1, fs2);
-                        // diffFS1.remove(fs1);
-                    }
-                }
-                else {
-                    throw new RangeNameNotCheckedException(feature.getRange().getName()
-                            + " not yet supported!");
-                }
+        /**
+         * @return a copy of this entry which does not refer to the CAS anymore.
+         */
+        public DiffEntry detach()
+            throws RangeNameNotCheckedException
+        {
+            return new DiffEntry(this);
+        }
 
-                // check other Values
-            }
-            else if (feature.toString().equals("uima.cas.AnnotationBase:sofa")) {
-                continue;
-            }
-            else {
-                // compare composite types
-                // assumption: if feature is not primitive, it is a composite feature
-                FeatureStructure featureValue1 = fsNew.getFeatureValue(feature);
-                FeatureStructure featureValue2 = fsOld.getFeatureValue(olFeature);
-                if(((AnnotationFS)featureValue1).getBegin()!=((AnnotationFS)featureValue2).getBegin()
-                        ||((AnnotationFS)featureValue1).getEnd()!=((AnnotationFS)featureValue2).getEnd()){
-                    agreeOnSubfeatures = false;
-                }
-                if (featureValue1 != null && featureValue2 != null &&
-                        (aType.toString().equals(featureValue1.getType().toString()))) {
-                    CompareResult compareResultSubfeatures = compareFeatureFS(aType,
-                            featureValue1, featureValue2, diffFSNew);
-                    compareResult.getDiffs().putAll(compareResultSubfeatures.getDiffs());
-                    compareResult.getAgreements().putAll(compareResultSubfeatures.getAgreements());
-                    if(!compareResult.getDiffs().isEmpty()) {
-                        agreeOnSubfeatures = false;
-                    }
-                }
-            }
+        public int getBegin()
+        {
+            return begin;
         }
-        if(agreeOnSubfeatures) {
-            compareResult.getAgreements().put(fsNew, fsOld);
-            diffFSNew.remove(fsNew);
-        } else {
-            compareResult.getDiffs().put(fsNew, fsOld);
+
+        public int getEnd()
+        {
+            return end;
         }
 
-        // if no diffs, agree (here or elsewhere)?
-        if(compareResult.getDiffs().isEmpty()) {
-            compareResult.getAgreements().put(fsNew, fsOld);
-            diffFSNew.remove(fsNew);
+        public StructuralHash getHash()
+            throws RangeNameNotCheckedException
+        {
+            if (hash == null) {
+                hash = StructuralHash.of(fs);
+            }
+            return hash;
         }
 
-        return compareResult;
+        @Override
+        public int compareTo(DiffEntry aOther)
+        {
+            if (begin != aOther.begin) {
+                return begin < aOther.begin ? -1 : 1;
+            }
+            if (end != aOther.end) {
+                return end < aOther.end ? -1 : 1;
+            }
+            return type.compareTo(aOther.type);
+        }
     }
-
 }
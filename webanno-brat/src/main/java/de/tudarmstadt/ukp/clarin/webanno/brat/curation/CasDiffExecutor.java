@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.cas.Type;
+import org.apache.uima.jcas.JCas;
+import org.springframework.beans.factory.annotation.Value;
+
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiff.DiffEntry;
+
+/**
+ * Runs {@link CasDiff#doDiff(List, Map, Map)} and {@link CasDiff#doDiff(Map, Map)} on a fork-join
+ * pool. The annotations are collected in the calling thread. Then each type and each block of
+ * segments is clustered by a separate task which only reads the CASes. The results are merged in
+ * the order of the types, so they are the same as when diffing in the calling thread.
+ * <p>
+ * The pool is shared by all requests and bounded by the configured parallelism. If the
+ * parallelism is 1 (the default), the diff runs in the calling thread.
+ */
+public class CasDiffExecutor
+{
+    /**
+     * Number of segments clustered by one task.
+     */
+    static final int SEGMENTS_PER_TASK = 8;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    @Value(value = "${curation.diff.parallelism}")
+    private int parallelism = 1;
+
+    private ForkJoinPool pool;
+
+    public synchronized void start()
+    {
+        if (pool == null && parallelism > 1) {
+            pool = new ForkJoinPool(parallelism);
+            log.info("Diffing curation segments using [" + parallelism + "] threads");
+        }
+    }
+
+    public synchronized void stop()
+    {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+    /**
+     * Spot differing annotations in several segments of the documents at once.
+     *
+     * @param aEntryTypes
+     *            the entry types.
+     * @param aCasMap
+     *            Map of (username, cas)
+     * @param aSegments
+     *            the segments as a map of begin offsets to end offsets. The segments must not
+     *            overlap.
+     * @return the {@link AnnotationOption}s of each segment by its begin offset. Every segment has
+     *         an entry.
+     * @throws RangeNameNotCheckedException
+     *             if a feature has a range which cannot be compared.
+     * @see CasDiff#doDiff(List, Map, Map)
+     */
+    public Map<Integer, List<AnnotationOption>> doDiff(List<Type> aEntryTypes,
+            Map<String, JCas> aCasMap, Map<Integer, Integer> aSegments)
+        throws RangeNameNotCheckedException
+    {
+        ForkJoinPool executor = getPool();
+        if (executor == null || aEntryTypes.size() * aSegments.size() <= SEGMENTS_PER_TASK) {
+            return CasDiff.doDiff(aEntryTypes, aCasMap, aSegments);
+        }
+
+        int[] begins = CasDiff.getBegins(aSegments);
+        int[] ends = CasDiff.getEnds(aSegments, begins);
+
+        List<List<DiffEntry>> entriesByType = new ArrayList<List<DiffEntry>>();
+        for (Type entryType : aEntryTypes) {
+            List<DiffEntry> entries = CasDiff.collect(entryType, aCasMap, begins[0],
+                    CasDiff.getMax(ends));
+            Collections.sort(entries);
+            entriesByType.add(entries);
+        }
+        return sweep(executor, entriesByType, begins, ends);
+    }
+
+    /**
+     * Spot differing annotations in several segments of the documents at once using digests of
+     * the annotations of the users. Blocks of segments are clustered by separate tasks.
+     *
+     * @param aDigests
+     *            Map of (username, digest). The digests must cover the segments.
+     * @param aSegments
+     *            the segments as a map of begin offsets to end offsets. The segments must not
+     *            overlap.
+     * @return the {@link AnnotationOption}s of each segment by its begin offset. Every segment has
+     *         an entry.
+     * @see CasDiff#doDiff(Map, Map)
+     */
+    public Map<Integer, List<AnnotationOption>> doDiff(Map<String, AnnotationDigest> aDigests,
+            Map<Integer, Integer> aSegments)
+    {
+        ForkJoinPool executor = getPool();
+        if (executor == null || aSegments.size() <= SEGMENTS_PER_TASK) {
+            return CasDiff.doDiff(aDigests, aSegments);
+        }
+
+        int[] begins = CasDiff.getBegins(aSegments);
+        int[] ends = CasDiff.getEnds(aSegments, begins);
+        try {
+            return sweep(executor, Collections.singletonList(CasDiff.getEntries(aDigests)),
+                    begins, ends);
+        }
+        catch (RangeNameNotCheckedException e) {
+            // Digests are hashed when they are taken
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Sweep each list of entries in blocks of segments on the pool and merge the results in the
+     * order of the lists.
+     */
+    private Map<Integer, List<AnnotationOption>> sweep(ForkJoinPool aExecutor,
+            List<List<DiffEntry>> aEntryLists, final int[] aBegins, final int[] aEnds)
+        throws RangeNameNotCheckedException
+    {
+        List<Callable<Map<Integer, List<AnnotationOption>>>> tasks =
+                new ArrayList<Callable<Map<Integer, List<AnnotationOption>>>>();
+        for (final List<DiffEntry> entries : aEntryLists) {
+            for (int from = 0; from < aBegins.length; from += SEGMENTS_PER_TASK) {
+                final int segmentsFrom = from;
+                final int segmentsTo = Math.min(from + SEGMENTS_PER_TASK, aBegins.length);
+                tasks.add(new Callable<Map<Integer, List<AnnotationOption>>>()
+                {
+                    @Override
+                    public Map<Integer, List<AnnotationOption>> call()
+                        throws RangeNameNotCheckedException
+                    {
+                        return CasDiff.sweep(entries, aBegins, aEnds, segmentsFrom, segmentsTo);
+                    }
+                });
+            }
+        }
+
+        Map<Integer, List<AnnotationOption>> annotationOptionsBySegment =
+                new HashMap<Integer, List<AnnotationOption>>();
+        for (int begin : aBegins) {
+            annotationOptionsBySegment.put(begin, new ArrayList<AnnotationOption>());
+        }
+        try {
+            for (Future<Map<Integer, List<AnnotationOption>>> result : aExecutor
+                    .invokeAll(tasks)) {
+                for (Entry<Integer, List<AnnotationOption>> e : result.get().entrySet()) {
+                    annotationOptionsBySegment.get(e.getKey()).addAll(e.getValue());
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while diffing segments", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RangeNameNotCheckedException) {
+                throw (RangeNameNotCheckedException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        return annotationOptionsBySegment;
+    }
+
+    private synchronized ForkJoinPool getPool()
+    {
+        return pool;
+    }
+
+    public int getParallelism()
+    {
+        return parallelism;
+    }
+
+    public void setParallelism(int aParallelism)
+    {
+        parallelism = aParallelism;
+    }
+}
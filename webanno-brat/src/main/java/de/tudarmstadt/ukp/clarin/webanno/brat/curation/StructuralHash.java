@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation;
+
+import static java.util.Arrays.asList;
+
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+
+/**
+ * Canonical hash of the structure of a feature structure. Feature structures of different users
+ * which are equal for the purpose of curation have the same hash, so they can be grouped without
+ * comparing them pairwise.
+ * <p>
+ * The hash covers the type name and the values of all primitive features, including the offsets
+ * of annotations. An annotation referenced by a feature contributes its type name and offsets,
+ * since it is a unit of its own, e.g. a token connected by a dependency relation. Annotations of
+ * the same type as the hashed feature structure and feature structures which are not annotations
+ * are hashed recursively.
+ * <p>
+ * Grouping relies on different structures never having the same hash, so the hash is not built
+ * from {@link String#hashCode()}: the values are encoded unambiguously (length-prefixed and
+ * tagged by kind) and the encoding is digested with SHA-1, of which 128 bits are kept.
+ */
+public final class StructuralHash
+    implements Serializable
+{
+    private static final long serialVersionUID = 4541526286004834914L;
+
+    /**
+     * The neutral element of {@link #plus(StructuralHash)}.
+     */
+    public static final StructuralHash ZERO = new StructuralHash(0, 0);
+
+    private static final Set<String> SUPPORTED_RANGES = new HashSet<String>(asList(
+            CAS.TYPE_NAME_INTEGER, CAS.TYPE_NAME_LONG, CAS.TYPE_NAME_BYTE, CAS.TYPE_NAME_FLOAT,
+            CAS.TYPE_NAME_DOUBLE, CAS.TYPE_NAME_BOOLEAN, CAS.TYPE_NAME_STRING));
+
+    private static final byte NULL = 0;
+    private static final byte VALUE = 1;
+    private static final byte REFERENCE = 2;
+    private static final byte NESTED = 3;
+    private static final byte CYCLE = 4;
+
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>()
+    {
+        @Override
+        protected MessageDigest initialValue()
+        {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            }
+            catch (NoSuchAlgorithmException e) {
+                // Every Java platform supports SHA-1
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final long high;
+    private final long low;
+
+    private StructuralHash(long aHigh, long aLow)
+    {
+        high = aHigh;
+        low = aLow;
+    }
+
+    /**
+     * @param aFS
+     *            a feature structure.
+     * @return the hash of the feature structure.
+     * @throws RangeNameNotCheckedException
+     *             if a primitive feature has a range which is not supported.
+     */
+    public static StructuralHash of(FeatureStructure aFS)
+        throws RangeNameNotCheckedException
+    {
+        MessageDigest digest = DIGEST.get();
+        digest.reset();
+        update(digest, aFS, aFS.getType().getName(), new HashSet<FeatureStructure>());
+        byte[] bytes = digest.digest();
+        return new StructuralHash(toLong(bytes, 0), toLong(bytes, 8));
+    }
+
+    private static void update(MessageDigest aDigest, FeatureStructure aFS, String aRootType,
+            Set<FeatureStructure> aVisited)
+        throws RangeNameNotCheckedException
+    {
+        Type type = aFS.getType();
+        if (!aVisited.add(aFS)) {
+            aDigest.update(CYCLE);
+            update(aDigest, type.getName());
+            return;
+        }
+
+        update(aDigest, type.getName());
+        for (Feature feature : type.getFeatures()) {
+            if (feature.getRange().isPrimitive()) {
+                if (!SUPPORTED_RANGES.contains(feature.getRange().getName())) {
+                    throw new RangeNameNotCheckedException(feature.getRange().getName()
+                            + " not yet supported!");
+                }
+                String value = aFS.getFeatureValueAsString(feature);
+                if (value == null) {
+                    aDigest.update(NULL);
+                }
+                else {
+                    aDigest.update(VALUE);
+                    update(aDigest, value);
+                }
+            }
+            else if (!feature.getName().equals(CAS.FEATURE_FULL_NAME_SOFA)) {
+                FeatureStructure value = aFS.getFeatureValue(feature);
+                if (value == null) {
+                    aDigest.update(NULL);
+                }
+                else if (value instanceof AnnotationFS
+                        && !value.getType().getName().equals(aRootType)) {
+                    aDigest.update(REFERENCE);
+                    update(aDigest, value.getType().getName());
+                    update(aDigest, ((AnnotationFS) value).getBegin());
+                    update(aDigest, ((AnnotationFS) value).getEnd());
+                }
+                else {
+                    aDigest.update(NESTED);
+                    update(aDigest, value, aRootType, aVisited);
+                }
+            }
+        }
+    }
+
+    private static void update(MessageDigest aDigest, String aValue)
+    {
+        update(aDigest, aValue.length());
+        for (int i = 0; i < aValue.length(); i++) {
+            char c = aValue.charAt(i);
+            aDigest.update((byte) (c >>> 8));
+            aDigest.update((byte) c);
+        }
+    }
+
+    private static void update(MessageDigest aDigest, int aValue)
+    {
+        aDigest.update((byte) (aValue >>> 24));
+        aDigest.update((byte) (aValue >>> 16));
+        aDigest.update((byte) (aValue >>> 8));
+        aDigest.update((byte) aValue);
+    }
+
+    private static long toLong(byte[] aBytes, int aOffset)
+    {
+        long value = 0;
+        for (int i = aOffset; i < aOffset + 8; i++) {
+            value = (value << 8) | (aBytes[i] & 0xff);
+        }
+        return value;
+    }
+
+    /**
+     * Combine two hashes. The result does not depend on the order in which hashes are combined,
+     * so the hashes of the annotations in a range can be added up.
+     *
+     * @param aOther
+     *            another hash.
+     * @return the combined hash.
+     */
+    public StructuralHash plus(StructuralHash aOther)
+    {
+        return new StructuralHash(high + aOther.high, low + aOther.low);
+    }
+
+    @Override
+    public boolean equals(Object aObj)
+    {
+        if (this == aObj) {
+            return true;
+        }
+        if (!(aObj instanceof StructuralHash)) {
+            return false;
+        }
+        StructuralHash other = (StructuralHash) aObj;
+        return high == other.high && low == other.low;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        // The bits are uniformly distributed already
+        return (int) low;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%016x%016x", high, low);
+    }
+}
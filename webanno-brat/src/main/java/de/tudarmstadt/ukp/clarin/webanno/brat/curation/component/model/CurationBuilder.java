@@ -27,6 +27,7 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Resource;
 
@@ -34,6 +35,7 @@ import org.apache.uima.UIMAException;
 import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
 import org.apache.uima.jcas.JCas;
+import org.springframework.context.ApplicationContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
@@ -42,17 +44,22 @@ import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
 import de.tudarmstadt.ukp.clarin.webanno.brat.annotation.BratAnnotatorModel;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAnnotationException;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.AnnotationDigest;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.AnnotationOption;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.AnnotationSelection;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiff;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiffExecutor;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.RangeNameNotCheckedException;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.CurationPanel;
 import de.tudarmstadt.ukp.clarin.webanno.brat.util.CasDiffException;
+import de.tudarmstadt.ukp.clarin.webanno.brat.util.CuratorUtil;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.User;
+import de.tudarmstadt.ukp.clarin.webanno.model.support.spring.ApplicationContextProvider;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
 
@@ -108,33 +115,49 @@ public class CurationBuilder
 
         AnnotationDocument randomAnnotationDocument = null;
 
+        boolean isCurationMode = aBratAnnotatorModel.getMode().equals(Mode.CURATION);
+
+        // In curation mode, only digests of the annotations on the page are kept for each user
+        Map<String, AnnotationDigest> digests = new HashMap<String, AnnotationDigest>();
+
+        JCas mergeJCas;
+        List<Type> entryTypes;
+
         // get the correction/automation JCas for the logged in user
-        if (aBratAnnotatorModel.getMode().equals(Mode.AUTOMATION)
-                || aBratAnnotatorModel.getMode().equals(Mode.CORRECTION)) {
+        if (!isCurationMode) {
             jCases = listJcasesforCorrection(randomAnnotationDocument, sourceDocument,
                     aBratAnnotatorModel.getMode());
             String username = jCases.keySet().iterator().next();
             updateSegment(aBratAnnotatorModel, segmentBeginEnd, segmentNumber, segmentText,
                     segmentAdress, jCases.get(username), username);
 
+            mergeJCas = getMergeCas(aBratAnnotatorModel, sourceDocument, jCases,
+                    randomAnnotationDocument);
+            entryTypes = getEntryTypes(mergeJCas, aBratAnnotatorModel.getAnnotationLayers());
         }
         else {
-
-            jCases = listJcasesforCuration(finishedAnnotationDocuments, randomAnnotationDocument,
-                    aBratAnnotatorModel.getMode());
-            for (String username : jCases.keySet()) {
-                JCas jCas = jCases.get(username);
-                updateSegment(aBratAnnotatorModel, segmentBeginEnd, segmentNumber, segmentText,
-                        segmentAdress, jCas, username);
+            try {
+                mergeJCas = repository.getCurationDocumentContent(sourceDocument);
             }
-        }
-
-        JCas mergeJCas = getMergeCas(aBratAnnotatorModel, sourceDocument, jCases,
-                randomAnnotationDocument);
+            catch (Exception e) {
+                // Creating the curation CAS needs the CASes of all annotators at once
+                Map<String, JCas> annotatorJCases = listJcasesforCuration(
+                        finishedAnnotationDocuments, randomAnnotationDocument,
+                        aBratAnnotatorModel.getMode());
+                mergeJCas = getMergeCas(aBratAnnotatorModel, sourceDocument, annotatorJCases,
+                        randomAnnotationDocument);
+                CuratorUtil.releaseJCases(repository, sourceDocument.getProject(),
+                        annotatorJCases.values(), mergeJCas);
+            }
+            entryTypes = getEntryTypes(mergeJCas, aBratAnnotatorModel.getAnnotationLayers());
 
-        int numUsers = jCases.size();
+            // All users share the text and the sentences, so the page is located in the CAS of
+            // the curator
+            updateSegment(aBratAnnotatorModel, segmentBeginEnd, segmentNumber, segmentText,
+                    segmentAdress, mergeJCas, CurationPanel.CURATION_USER);
+        }
 
-        List<Type> entryTypes = null;
+        int numUsers = isCurationMode ? finishedAnnotationDocuments.size() : jCases.size();
 
         segmentAdress.put(CurationPanel.CURATION_USER, new HashMap<Integer, Integer>());
         for (Sentence sentence : selectCovered(mergeJCas, Sentence.class, begin, end)) {
@@ -142,23 +165,63 @@ public class CurationBuilder
                     sentence.getAddress());
         }
 
-        if (entryTypes == null) {
-            entryTypes = getEntryTypes(mergeJCas, aBratAnnotatorModel.getAnnotationLayers());
+        // Sentences whose annotations did not change since they were last diffed keep their state.
+        // The versions of the annotation documents are known without loading them, so only the
+        // documents of annotators who saved since are loaded - and all others only if a sentence
+        // actually has to be diffed again.
+        CurationDiffStore curationDiffStore = null;
+        Map<String, String> versions = new HashMap<String, String>();
+        Map<Integer, SentenceState> sentenceStates = new HashMap<Integer, SentenceState>();
+        Map<Integer, Integer> changedSegments = new HashMap<Integer, Integer>(segmentBeginEnd);
+        if (isCurationMode) {
+            curationDiffStore = getBean("curationDiffStore", CurationDiffStore.class);
+        }
+        if (curationDiffStore != null) {
+            for (AnnotationDocument annotationDocument : finishedAnnotationDocuments) {
+                versions.put(annotationDocument.getUser(),
+                        repository.getAnnotationDocumentVersion(annotationDocument));
+            }
+            sentenceStates.putAll(curationDiffStore.getSentenceStates(sourceDocument,
+                    entryTypes, versions, digests, changedSegments));
+            changedSegments.keySet().removeAll(sentenceStates.keySet());
+        }
+        if (curationDiffStore != null && !changedSegments.isEmpty()) {
+            addDigests(finishedAnnotationDocuments, curationDiffStore.getChangedUsers(
+                    sourceDocument, entryTypes, versions, changedSegments), entryTypes, digests);
+            sentenceStates.putAll(curationDiffStore.getSentenceStates(sourceDocument,
+                    entryTypes, versions, digests, changedSegments));
+            changedSegments.keySet().removeAll(sentenceStates.keySet());
+        }
+        if (isCurationMode && !changedSegments.isEmpty()) {
+            addDigests(finishedAnnotationDocuments, null, entryTypes, digests);
         }
 
-        for (Integer begin : segmentBeginEnd.keySet()) {
-            Integer end = segmentBeginEnd.get(begin);
-
-            List<AnnotationOption> annotationOptions = null;
-            try {
-                annotationOptions = CasDiff.doDiff(entryTypes, jCases, begin, end);
+        // Diff all changed segments of the page in a single sweep over the annotations
+        Map<Integer, List<AnnotationOption>> annotationOptionsBySegment = null;
+        try {
+            CasDiffExecutor casDiffExecutor = getBean("casDiffExecutor", CasDiffExecutor.class);
+            if (isCurationMode && casDiffExecutor != null) {
+                annotationOptionsBySegment = casDiffExecutor.doDiff(digests, changedSegments);
             }
-            catch (Exception e) {
-                throw new CasDiffException(e.getMessage(), e);
+            else if (isCurationMode) {
+                annotationOptionsBySegment = CasDiff.doDiff(digests, changedSegments);
+            }
+            else if (casDiffExecutor != null) {
+                annotationOptionsBySegment = casDiffExecutor.doDiff(entryTypes, jCases,
+                        changedSegments);
+            }
+            else {
+                annotationOptionsBySegment = CasDiff.doDiff(entryTypes, jCases, changedSegments);
             }
+        }
+        catch (Exception e) {
+            throw new CasDiffException(e.getMessage(), e);
+        }
 
+        Map<Integer, SentenceState> changedStates = new HashMap<Integer, SentenceState>();
+        for (Integer begin : changedSegments.keySet()) {
             Boolean hasDiff = false;
-            for (AnnotationOption annotationOption : annotationOptions) {
+            for (AnnotationOption annotationOption : annotationOptionsBySegment.get(begin)) {
                 List<AnnotationSelection> annotationSelections = annotationOption
                         .getAnnotationSelections();
                 if (annotationSelections.size() > 1) {
@@ -171,16 +234,22 @@ public class CurationBuilder
                     }
                 }
             }
+            changedStates.put(begin, hasDiff ? SentenceState.DISAGREE : SentenceState.AGREE);
+        }
+        sentenceStates.putAll(changedStates);
+        if (curationDiffStore != null && !digests.isEmpty()) {
+            // Also remember the new versions of the unchanged sentences
+            curationDiffStore.putSentenceStates(sourceDocument, entryTypes, versions, digests,
+                    segmentBeginEnd, sentenceStates);
+        }
+
+        for (Integer begin : segmentBeginEnd.keySet()) {
+            Integer end = segmentBeginEnd.get(begin);
 
             CurationViewForSourceDocument curationSegment = new CurationViewForSourceDocument();
             curationSegment.setBegin(begin);
             curationSegment.setEnd(end);
-            if (hasDiff) {
-                curationSegment.setSentenceState(SentenceState.DISAGREE);
-            }
-            else {
-                curationSegment.setSentenceState(SentenceState.AGREE);
-            }
+            curationSegment.setSentenceState(sentenceStates.get(begin));
             curationSegment.setText(segmentText.get(begin));
             curationSegment.setSentenceNumber(segmentNumber.get(begin));
 
@@ -190,9 +259,60 @@ public class CurationBuilder
             }
             curationContainer.getCurationViewByBegin().put(begin, curationSegment);
         }
+
+        // The container only holds offsets and addresses, so the CASes can be reused
+        List<JCas> usedJCases = new ArrayList<JCas>(jCases.values());
+        usedJCases.add(mergeJCas);
+        CuratorUtil.releaseJCases(repository, sourceDocument.getProject(), usedJCases);
+
         return curationContainer;
     }
 
+    /**
+     * Load the annotation documents of the given users one after the other and take a digest of
+     * the annotations on the page. Each CAS is released as soon as the digest has been taken.
+     *
+     * @param aUsers
+     *            the users to load or {@code null} for all users without a digest yet.
+     */
+    private void addDigests(List<AnnotationDocument> aAnnotationDocuments, Set<String> aUsers,
+            List<Type> aEntryTypes, Map<String, AnnotationDigest> aDigests)
+        throws UIMAException, ClassNotFoundException, IOException
+    {
+        for (AnnotationDocument annotationDocument : aAnnotationDocuments) {
+            String username = annotationDocument.getUser();
+            if ((aUsers != null && !aUsers.contains(username)) || aDigests.containsKey(username)) {
+                continue;
+            }
+
+            JCas jCas = repository.getAnnotationDocumentContent(annotationDocument);
+            try {
+                aDigests.put(username,
+                        AnnotationDigest.of(username, jCas, aEntryTypes, begin, end));
+            }
+            catch (RangeNameNotCheckedException e) {
+                throw new CasDiffException(e.getMessage(), e);
+            }
+            finally {
+                repository.releaseJCas(annotationDocument.getProject(), jCas);
+            }
+        }
+    }
+
+    /**
+     * The builder is not a Spring bean, so optional services are looked up in the application
+     * context. Without them (e.g. in tests), segments are diffed in the calling thread and
+     * sentence states are not stored.
+     */
+    private static <T> T getBean(String aName, Class<T> aType)
+    {
+        ApplicationContext context = ApplicationContextProvider.getApplicationContext();
+        if (context == null || !context.containsBean(aName)) {
+            return null;
+        }
+        return context.getBean(aName, aType);
+    }
+
     public Map<String, JCas> listJcasesforCorrection(AnnotationDocument randomAnnotationDocument,
             SourceDocument aDocument, Mode aMode)
         throws UIMAException, ClassNotFoundException, IOException
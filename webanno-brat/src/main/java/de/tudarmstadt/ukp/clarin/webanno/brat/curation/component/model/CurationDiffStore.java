@@ -0,0 +1,488 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model;
+
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.cas.Type;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.AnnotationDigest;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.StructuralHash;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Keeps the {@link SentenceState}s computed by the {@link CurationBuilder} for each source document
+ * ({@code project/<id>/document/<id>/curation-diff} in the repository), so that opening the
+ * curation page or moving to another page does not diff the same sentences again.
+ * <p>
+ * With each state, the store keeps the version of the annotation document of every user (see
+ * {@link RepositoryService#getAnnotationDocumentVersion}) and the hash of the annotations of the
+ * user in the sentence, as provided by the {@link AnnotationDigest} of the user. A stored state is
+ * used without loading any annotation document if the documents of all users still have the same
+ * version. Only the documents of users who saved since are loaded, and if their annotations in the
+ * sentence still have the same hash, the state is used as well. So after a user has edited a
+ * document, only the sentences actually changed are diffed again.
+ * <p>
+ * If the layers of the project or the set of users change, all stored states are discarded.
+ * <p>
+ * The states of the most recently used documents ({@code maxDocuments}) are kept in memory. Changed
+ * states are written to disk in the background every {@code writeDelay} seconds.
+ */
+public class CurationDiffStore
+{
+    private static final String PROJECT = "/project/";
+    private static final String DOCUMENT = "/document/";
+    private static final String CURATION_DIFF = "/curation-diff";
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private File dir;
+
+    private int maxDocuments = 100;
+
+    private long writeDelay = 10;
+
+    /**
+     * The states of the most recently used documents by file. Entries are never modified, a
+     * changed copy replaces them.
+     */
+    private final Map<File, DocumentDiff> diffs = new LinkedHashMap<File, DocumentDiff>(16, 0.75f,
+            true)
+    {
+        private static final long serialVersionUID = -2207931307496766123L;
+
+        @Override
+        protected boolean removeEldestEntry(Entry<File, DocumentDiff> aEldest)
+        {
+            return size() > maxDocuments;
+        }
+    };
+
+    /**
+     * The states which still have to be written by file.
+     */
+    private final Map<File, DocumentDiff> pendingWrites = new LinkedHashMap<File, DocumentDiff>();
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Start writing in the background.
+     */
+    public synchronized void start()
+    {
+        if (scheduler != null || writeDelay <= 0) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable aRunnable)
+            {
+                Thread thread = new Thread(aRunnable, "Curation diff writer");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    flush();
+                }
+                catch (RuntimeException e) {
+                    // Keep the task scheduled
+                    log.error("Unable to write curation diffs", e);
+                }
+            }
+        }, writeDelay, writeDelay, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop writing in the background and write all pending states.
+     */
+    public void stop()
+    {
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Write all pending states to disk.
+     */
+    public void flush()
+    {
+        Map<File, DocumentDiff> writes;
+        synchronized (this) {
+            writes = new LinkedHashMap<File, DocumentDiff>(pendingWrites);
+            pendingWrites.clear();
+        }
+        for (Entry<File, DocumentDiff> e : writes.entrySet()) {
+            write(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Get the stored states of the sentences whose annotations did not change since they were
+     * stored.
+     *
+     * @param aDocument
+     *            the source document.
+     * @param aEntryTypes
+     *            the types which are diffed.
+     * @param aVersions
+     *            Map of (username, version of the annotation document).
+     * @param aDigests
+     *            Map of (username, digest) of the users whose annotation documents have been
+     *            loaded. The digests must cover the sentences. May be empty.
+     * @param aSegments
+     *            the sentences as a map of begin offsets to end offsets.
+     * @return the states of the unchanged sentences by begin offset.
+     */
+    public Map<Integer, SentenceState> getSentenceStates(SourceDocument aDocument,
+            List<Type> aEntryTypes, Map<String, String> aVersions,
+            Map<String, AnnotationDigest> aDigests, Map<Integer, Integer> aSegments)
+    {
+        Map<Integer, SentenceState> states = new HashMap<Integer, SentenceState>();
+        DocumentDiff diff = get(aDocument);
+        if (diff == null || !diff.matches(aEntryTypes, aVersions.keySet())) {
+            return states;
+        }
+
+        Map<String, Map<Integer, StructuralHash>> hashes = getHashes(aDigests, aSegments);
+        for (Integer begin : aSegments.keySet()) {
+            SentenceState state = diff.states.get(begin);
+            if (state != null && diff.isUnchanged(aVersions, hashes, begin)) {
+                states.put(begin, state);
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Get the users whose annotations in the given sentences may have changed since the states of
+     * the sentences were stored. Sentences without a stored state are ignored.
+     *
+     * @param aDocument
+     *            the source document.
+     * @param aEntryTypes
+     *            the types which are diffed.
+     * @param aVersions
+     *            Map of (username, version of the annotation document).
+     * @param aSegments
+     *            the sentences as a map of begin offsets to end offsets.
+     * @return the users.
+     */
+    public Set<String> getChangedUsers(SourceDocument aDocument, List<Type> aEntryTypes,
+            Map<String, String> aVersions, Map<Integer, Integer> aSegments)
+    {
+        Set<String> users = new HashSet<String>();
+        DocumentDiff diff = get(aDocument);
+        if (diff == null || !diff.matches(aEntryTypes, aVersions.keySet())) {
+            return users;
+        }
+
+        for (Integer begin : aSegments.keySet()) {
+            if (!diff.states.containsKey(begin)) {
+                continue;
+            }
+            for (Entry<String, String> e : aVersions.entrySet()) {
+                if (!diff.hasVersion(e.getKey(), begin, e.getValue())) {
+                    users.add(e.getKey());
+                }
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Store the states of the given sentences. For each user with a digest, the version and hash
+     * of the annotations of the user are updated in all of the sentences.
+     *
+     * @param aDocument
+     *            the source document.
+     * @param aEntryTypes
+     *            the types which are diffed.
+     * @param aVersions
+     *            Map of (username, version of the annotation document) at the time the digests
+     *            were taken.
+     * @param aDigests
+     *            Map of (username, digest). The digests must cover the sentences. Sentences which
+     *            were not stored before must be covered by the digests of all users.
+     * @param aStates
+     *            the states of the sentences by begin offset.
+     * @param aSegments
+     *            the sentences as a map of begin offsets to end offsets.
+     */
+    public void putSentenceStates(SourceDocument aDocument, List<Type> aEntryTypes,
+            Map<String, String> aVersions, Map<String, AnnotationDigest> aDigests,
+            Map<Integer, Integer> aSegments, Map<Integer, SentenceState> aStates)
+    {
+        DocumentDiff diff = get(aDocument);
+        if (diff == null || !diff.matches(aEntryTypes, aVersions.keySet())) {
+            diff = new DocumentDiff(aEntryTypes, aVersions.keySet());
+        }
+        else {
+            diff = new DocumentDiff(diff);
+        }
+
+        Map<String, Map<Integer, StructuralHash>> hashes = getHashes(aDigests, aSegments);
+        for (Entry<Integer, SentenceState> state : aStates.entrySet()) {
+            for (Entry<String, Map<Integer, StructuralHash>> e : hashes.entrySet()) {
+                diff.stateHashes.get(e.getKey()).put(state.getKey(),
+                        e.getValue().get(state.getKey()));
+                diff.stateVersions.get(e.getKey()).put(state.getKey(),
+                        aVersions.get(e.getKey()));
+            }
+            diff.states.put(state.getKey(), state.getValue());
+        }
+
+        File file = getFile(aDocument);
+        boolean writeNow;
+        synchronized (this) {
+            diffs.put(file, diff);
+            pendingWrites.put(file, diff);
+            writeNow = scheduler == null;
+        }
+        if (writeNow) {
+            flush();
+        }
+    }
+
+    private static Map<String, Map<Integer, StructuralHash>> getHashes(
+            Map<String, AnnotationDigest> aDigests, Map<Integer, Integer> aSegments)
+    {
+        Map<String, Map<Integer, StructuralHash>> hashes =
+                new HashMap<String, Map<Integer, StructuralHash>>();
+        for (Entry<String, AnnotationDigest> e : aDigests.entrySet()) {
+            hashes.put(e.getKey(), e.getValue().getSegmentHashes(aSegments));
+        }
+        return hashes;
+    }
+
+    private DocumentDiff get(SourceDocument aDocument)
+    {
+        File file = getFile(aDocument);
+        synchronized (this) {
+            DocumentDiff diff = diffs.get(file);
+            if (diff == null) {
+                diff = pendingWrites.get(file);
+            }
+            if (diff != null) {
+                return diff;
+            }
+        }
+
+        // Stored states are never wrong, only possibly outdated, so a concurrent put may win
+        DocumentDiff diff = read(file);
+        if (diff != null) {
+            synchronized (this) {
+                if (!diffs.containsKey(file)) {
+                    diffs.put(file, diff);
+                }
+            }
+        }
+        return diff;
+    }
+
+    private DocumentDiff read(File aFile)
+    {
+        if (!aFile.exists()) {
+            return null;
+        }
+
+        ObjectInputStream is = null;
+        try {
+            is = new ObjectInputStream(new BufferedInputStream(new FileInputStream(aFile)));
+            return (DocumentDiff) is.readObject();
+        }
+        catch (Exception e) {
+            // The states can always be computed again
+            log.warn("Unable to read curation diff [" + aFile + "] - discarding it", e);
+            return null;
+        }
+        finally {
+            closeQuietly(is);
+        }
+    }
+
+    private void write(File aFile, DocumentDiff aDiff)
+    {
+        File tmpFile = new File(aFile.getPath() + ".tmp");
+        ObjectOutputStream os = null;
+        try {
+            FileUtils.forceMkdir(aFile.getParentFile());
+            os = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            os.writeObject(aDiff);
+            os.close();
+            os = null;
+            FileUtils.deleteQuietly(aFile);
+            if (!tmpFile.renameTo(aFile)) {
+                throw new IOException("Cannot rename file [" + tmpFile + "] to [" + aFile + "]");
+            }
+        }
+        catch (IOException e) {
+            log.warn("Unable to write curation diff [" + aFile + "]", e);
+        }
+        finally {
+            closeQuietly(os);
+            FileUtils.deleteQuietly(tmpFile);
+        }
+    }
+
+    private File getFile(SourceDocument aDocument)
+    {
+        return new File(dir.getAbsolutePath() + PROJECT + aDocument.getProject().getId()
+                + DOCUMENT + aDocument.getId() + CURATION_DIFF);
+    }
+
+    public File getDir()
+    {
+        return dir;
+    }
+
+    public void setDir(File aDir)
+    {
+        dir = aDir;
+    }
+
+    public void setMaxDocuments(int aMaxDocuments)
+    {
+        maxDocuments = aMaxDocuments;
+    }
+
+    public void setWriteDelay(long aWriteDelay)
+    {
+        writeDelay = aWriteDelay;
+    }
+
+    /**
+     * The stored states of a source document.
+     */
+    private static class DocumentDiff
+        implements Serializable
+    {
+        private static final long serialVersionUID = -3516498425318095472L;
+
+        private final String types;
+
+        /**
+         * Hashes of the annotations of each user at the time the state of a sentence was computed.
+         */
+        private final Map<String, Map<Integer, StructuralHash>> stateHashes =
+                new HashMap<String, Map<Integer, StructuralHash>>();
+
+        /**
+         * Versions of the annotation document of each user at the time the hashes were taken.
+         */
+        private final Map<String, Map<Integer, String>> stateVersions =
+                new HashMap<String, Map<Integer, String>>();
+
+        private final Map<Integer, SentenceState> states = new HashMap<Integer, SentenceState>();
+
+        public DocumentDiff(List<Type> aEntryTypes, Set<String> aUsers)
+        {
+            types = getTypeNames(aEntryTypes);
+            for (String user : aUsers) {
+                stateHashes.put(user, new HashMap<Integer, StructuralHash>());
+                stateVersions.put(user, new HashMap<Integer, String>());
+            }
+        }
+
+        public DocumentDiff(DocumentDiff aOther)
+        {
+            types = aOther.types;
+            for (String user : aOther.stateHashes.keySet()) {
+                stateHashes.put(user, new HashMap<Integer, StructuralHash>(
+                        aOther.stateHashes.get(user)));
+                stateVersions.put(user, new HashMap<Integer, String>(
+                        aOther.stateVersions.get(user)));
+            }
+            states.putAll(aOther.states);
+        }
+
+        public boolean matches(List<Type> aEntryTypes, Set<String> aUsers)
+        {
+            return types.equals(getTypeNames(aEntryTypes))
+                    && stateHashes.keySet().equals(aUsers);
+        }
+
+        public boolean hasVersion(String aUser, Integer aBegin, String aVersion)
+        {
+            return aVersion != null && aVersion.equals(stateVersions.get(aUser).get(aBegin));
+        }
+
+        public boolean isUnchanged(Map<String, String> aVersions,
+                Map<String, Map<Integer, StructuralHash>> aHashes, Integer aBegin)
+        {
+            for (Entry<String, String> e : aVersions.entrySet()) {
+                if (hasVersion(e.getKey(), aBegin, e.getValue())) {
+                    continue;
+                }
+                Map<Integer, StructuralHash> hashes = aHashes.get(e.getKey());
+                if (hashes == null || !hashes.get(aBegin).equals(
+                        stateHashes.get(e.getKey()).get(aBegin))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static String getTypeNames(List<Type> aEntryTypes)
+        {
+            StringBuilder sb = new StringBuilder();
+            for (Type entryType : aEntryTypes) {
+                sb.append(entryType.getName()).append(' ');
+            }
+            return sb.toString();
+        }
+    }
+}
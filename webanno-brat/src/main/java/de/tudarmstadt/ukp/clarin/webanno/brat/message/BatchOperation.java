@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.message;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.OffsetsList;
+
+/**
+ * A single operation of a {@code batch} request (see {@link BatchResponse}).
+ * <p>
+ * Annotations are referred to by their address ({@code id}, {@code origin}, {@code target}) or by
+ * the position of an earlier operation of the same batch which created or changed the annotation
+ * ({@code ref}, {@code originRef}, {@code targetRef}). The latter allows e.g. creating two spans
+ * and an arc between them in one batch.
+ */
+public class BatchOperation
+{
+    public static final String CREATE_SPAN = "createSpan";
+    public static final String CREATE_ARC = "createArc";
+    public static final String SET_FEATURES = "setFeatures";
+    public static final String DELETE = "delete";
+
+    private String action;
+
+    /**
+     * The ID of the layer. Required for all operations.
+     */
+    private Long layer;
+
+    private Integer id;
+    private Integer ref;
+
+    private Integer origin;
+    private Integer originRef;
+    private Integer target;
+    private Integer targetRef;
+
+    /**
+     * The offsets of a new span relative to the display window, as sent with
+     * {@code spanOpenDialog}.
+     */
+    private OffsetsList offsets;
+
+    /**
+     * Feature values by feature name.
+     */
+    private Map<String, String> features = new LinkedHashMap<String, String>();
+
+    public String getAction()
+    {
+        return action;
+    }
+
+    public void setAction(String aAction)
+    {
+        action = aAction;
+    }
+
+    public Long getLayer()
+    {
+        return layer;
+    }
+
+    public void setLayer(Long aLayer)
+    {
+        layer = aLayer;
+    }
+
+    public Integer getId()
+    {
+        return id;
+    }
+
+    public void setId(Integer aId)
+    {
+        id = aId;
+    }
+
+    public Integer getRef()
+    {
+        return ref;
+    }
+
+    public void setRef(Integer aRef)
+    {
+        ref = aRef;
+    }
+
+    public Integer getOrigin()
+    {
+        return origin;
+    }
+
+    public void setOrigin(Integer aOrigin)
+    {
+        origin = aOrigin;
+    }
+
+    public Integer getOriginRef()
+    {
+        return originRef;
+    }
+
+    public void setOriginRef(Integer aOriginRef)
+    {
+        originRef = aOriginRef;
+    }
+
+    public Integer getTarget()
+    {
+        return target;
+    }
+
+    public void setTarget(Integer aTarget)
+    {
+        target = aTarget;
+    }
+
+    public Integer getTargetRef()
+    {
+        return targetRef;
+    }
+
+    public void setTargetRef(Integer aTargetRef)
+    {
+        targetRef = aTargetRef;
+    }
+
+    public OffsetsList getOffsets()
+    {
+        return offsets;
+    }
+
+    public void setOffsets(OffsetsList aOffsets)
+    {
+        offsets = aOffsets;
+    }
+
+    public Map<String, String> getFeatures()
+    {
+        return features;
+    }
+
+    public void setFeatures(Map<String, String> aFeatures)
+    {
+        features = aFeatures;
+    }
+}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.jackson.annotate.JsonIgnore;
+
+/**
+ * Response for the {@code batch} command. The command runs a list of {@link BatchOperation}s
+ * against the document, which is loaded, saved and rendered only once for the whole batch.
+ * <p>
+ * The operations either all take effect or none. If an operation fails, the remaining operations
+ * are skipped, the document is not saved and {@link #getFailed()} holds the position of the
+ * failed operation.
+ */
+public class BatchResponse
+    extends AjaxResponse
+{
+    public static final String COMMAND = "batch";
+
+    /**
+     * The addresses of the annotations created or changed by the operations, in the order of the
+     * operations. For deletions, the address of the deleted annotation.
+     */
+    private List<Integer> ids = new ArrayList<Integer>();
+
+    private int failed = -1;
+
+    private String error;
+
+    public BatchResponse()
+    {
+        super(COMMAND);
+    }
+
+    public List<Integer> getIds()
+    {
+        return ids;
+    }
+
+    public void setIds(List<Integer> aIds)
+    {
+        ids = aIds;
+    }
+
+    public int getFailed()
+    {
+        return failed;
+    }
+
+    public void setFailed(int aFailed)
+    {
+        failed = aFailed;
+    }
+
+    public String getError()
+    {
+        return error;
+    }
+
+    public void setError(String aError)
+    {
+        error = aError;
+    }
+
+    @JsonIgnore
+    public boolean isSuccessful()
+    {
+        return failed == -1;
+    }
+}
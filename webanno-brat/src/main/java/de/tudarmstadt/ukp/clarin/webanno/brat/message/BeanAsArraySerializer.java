@@ -20,6 +20,8 @@ package de.tudarmstadt.ukp.clarin.webanno.brat.message;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.codehaus.jackson.JsonGenerationException;
 import org.codehaus.jackson.JsonGenerator;
@@ -41,6 +43,13 @@ import org.springframework.util.ReflectionUtils;
 public class BeanAsArraySerializer
     extends AsArraySerializerBase<Object>
 {
+    /**
+     * The fields of each bean class in property order. Looking up fields by name copies them every
+     * time, which adds up when serializing thousands of entities.
+     */
+    private static final ConcurrentMap<Class<?>, Field[]> FIELDS =
+            new ConcurrentHashMap<Class<?>, Field[]>();
+
     public BeanAsArraySerializer()
     {
         this(null, false, null, null, null);
@@ -63,23 +72,16 @@ public class BeanAsArraySerializer
     public void serializeContents(Object value, JsonGenerator jgen, SerializerProvider provider)
         throws IOException, JsonGenerationException
     {
-        JsonPropertyOrder order = value.getClass().getAnnotation(JsonPropertyOrder.class);
-        String[] propOrder = (order == null) ? null : order.value();
-
-        if (propOrder == null) {
-            throw new IllegalStateException("Bean must declare JsonPropertyOrder!");
-        }
+        Field[] fields = getFields(value.getClass());
 
-        if (propOrder.length == 0) {
+        if (fields.length == 0) {
             return;
         }
 
         int i = 0;
         try {
             do {
-                Field field = value.getClass().getDeclaredField(propOrder[i]);
-                ReflectionUtils.makeAccessible(field);
-                Object elem = field.get(value);
+                Object elem = fields[i].get(value);
                 if (elem == null) {
                     provider.defaultSerializeNull(jgen);
                 }
@@ -90,11 +92,37 @@ public class BeanAsArraySerializer
                 }
                 ++i;
             }
-            while (i < propOrder.length);
+            while (i < fields.length);
         }
         catch (Exception e) {
             // [JACKSON-55] Need to add reference information
             wrapAndThrow(provider, e, value, i);
         }
     }
+
+    private static Field[] getFields(Class<?> aClass)
+    {
+        Field[] fields = FIELDS.get(aClass);
+        if (fields == null) {
+            JsonPropertyOrder order = aClass.getAnnotation(JsonPropertyOrder.class);
+            String[] propOrder = (order == null) ? null : order.value();
+
+            if (propOrder == null) {
+                throw new IllegalStateException("Bean must declare JsonPropertyOrder!");
+            }
+
+            fields = new Field[propOrder.length];
+            for (int i = 0; i < propOrder.length; i++) {
+                Field field = ReflectionUtils.findField(aClass, propOrder[i]);
+                if (field == null) {
+                    throw new IllegalStateException("Bean [" + aClass.getName()
+                            + "] has no field [" + propOrder[i] + "]");
+                }
+                ReflectionUtils.makeAccessible(field);
+                fields[i] = field;
+            }
+            FIELDS.putIfAbsent(aClass, fields);
+        }
+        return fields;
+    }
 }
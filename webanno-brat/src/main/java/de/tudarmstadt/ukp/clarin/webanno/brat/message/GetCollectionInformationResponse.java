@@ -65,6 +65,17 @@ public class GetCollectionInformationResponse
     @JsonProperty("entity_types")
     private Set<EntityType> entityTypes = new HashSet<EntityType>();
 
+    /**
+     * Identifies the version of the type definitions, see {@code EntityTypeCache}.
+     */
+    private String etag;
+
+    /**
+     * Set instead of sending the type definitions if the client already has this version.
+     */
+    @JsonProperty("not_modified")
+    private boolean notModified;
+
     public GetCollectionInformationResponse()
     {
         super(COMMAND);
@@ -176,4 +187,24 @@ public class GetCollectionInformationResponse
     {
         entityTypes = aEntityTypes;
     }
+
+    public String getEtag()
+    {
+        return etag;
+    }
+
+    public void setEtag(String aEtag)
+    {
+        etag = aEtag;
+    }
+
+    public boolean isNotModified()
+    {
+        return notModified;
+    }
+
+    public void setNotModified(boolean aNotModified)
+    {
+        notModified = aNotModified;
+    }
 }
@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.message;
+
+/**
+ * Response for the {@code getDocumentBlock} command, which renders the display window before or
+ * after the current one while the user scrolls. If the display window is not moved, the block is
+ * rendered in advance so the client can show it as soon as the user scrolls on. Otherwise, the
+ * document data is only included if the client does not already have the block.
+ */
+public class GetDocumentBlockResponse
+    extends GetDocumentResponse
+{
+    public static final String COMMAND = "getDocumentBlock";
+
+    private int direction;
+
+    /**
+     * Whether there is a block in the requested direction.
+     */
+    private boolean available;
+
+    /**
+     * Whether the display window has been moved to the block.
+     */
+    private boolean moved;
+
+    /**
+     * The address of the first sentence of the block.
+     */
+    private int address = -1;
+
+    public GetDocumentBlockResponse()
+    {
+        super(COMMAND);
+    }
+
+    public GetDocumentBlockResponse(int aDirection)
+    {
+        this();
+        direction = aDirection;
+    }
+
+    public int getDirection()
+    {
+        return direction;
+    }
+
+    public void setDirection(int aDirection)
+    {
+        direction = aDirection;
+    }
+
+    public boolean isAvailable()
+    {
+        return available;
+    }
+
+    public void setAvailable(boolean aAvailable)
+    {
+        available = aAvailable;
+    }
+
+    public boolean isMoved()
+    {
+        return moved;
+    }
+
+    public void setMoved(boolean aMoved)
+    {
+        moved = aMoved;
+    }
+
+    public int getAddress()
+    {
+        return address;
+    }
+
+    public void setAddress(int aAddress)
+    {
+        address = aAddress;
+    }
+}
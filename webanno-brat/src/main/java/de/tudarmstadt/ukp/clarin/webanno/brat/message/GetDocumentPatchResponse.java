@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.jackson.annotate.JsonIgnore;
+import org.codehaus.jackson.annotate.JsonProperty;
+
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Entity;
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Relation;
+
+/**
+ * Changes to the entities and relations of the currently displayed document since the last time
+ * it was rendered. Sent instead of a complete {@link GetDocumentResponse} after an annotation has
+ * been created or deleted and applied to the data of the last rendering by the visualizer (see
+ * {@code renderPatch} in {@code visualizer.js}).
+ */
+public class GetDocumentPatchResponse
+{
+    /**
+     * Added or changed entities. Changed entities replace the entity with the same ID.
+     */
+    private List<Entity> entities = new ArrayList<Entity>();
+
+    /**
+     * Added or changed relations. Changed relations replace the relation with the same ID.
+     */
+    private List<Relation> relations = new ArrayList<Relation>();
+
+    @JsonProperty("removed_entities")
+    private List<Integer> removedEntities = new ArrayList<Integer>();
+
+    @JsonProperty("removed_relations")
+    private List<Integer> removedRelations = new ArrayList<Integer>();
+
+    public List<Entity> getEntities()
+    {
+        return entities;
+    }
+
+    public void setEntities(List<Entity> aEntities)
+    {
+        entities = aEntities;
+    }
+
+    public List<Relation> getRelations()
+    {
+        return relations;
+    }
+
+    public void setRelations(List<Relation> aRelations)
+    {
+        relations = aRelations;
+    }
+
+    public List<Integer> getRemovedEntities()
+    {
+        return removedEntities;
+    }
+
+    public void setRemovedEntities(List<Integer> aRemovedEntities)
+    {
+        removedEntities = aRemovedEntities;
+    }
+
+    public List<Integer> getRemovedRelations()
+    {
+        return removedRelations;
+    }
+
+    public void setRemovedRelations(List<Integer> aRemovedRelations)
+    {
+        removedRelations = aRemovedRelations;
+    }
+
+    /**
+     * @return whether the patch does not change anything.
+     */
+    @JsonIgnore
+    public boolean isEmpty()
+    {
+        return entities.isEmpty() && relations.isEmpty() && removedEntities.isEmpty()
+                && removedRelations.isEmpty();
+    }
+}
@@ -87,11 +87,22 @@ public class GetDocumentResponse
     private List<String> equivs = new ArrayList<String>();
     private List<String[]> comments = new ArrayList<String[]>();
 
+    /**
+     * Whether the client should load the neighbouring display windows while the user scrolls.
+     */
+    @JsonProperty("virtual_scrolling")
+    private boolean virtualScrolling;
+
     public GetDocumentResponse()
     {
         super(COMMAND);
     }
 
+    protected GetDocumentResponse(String aAction)
+    {
+        super(aAction);
+    }
+
     public void addToken(int aBegin, int aEnd)
     {
         tokenOffsets.add(new Offsets(aBegin, aEnd));
@@ -281,6 +292,13 @@ public class GetDocumentResponse
         sentenceNumberOffset = aSentenceNumberOffset;
     }
 
+    public boolean isVirtualScrolling()
+    {
+        return virtualScrolling;
+    }
 
-
+    public void setVirtualScrolling(boolean aVirtualScrolling)
+    {
+        virtualScrolling = aVirtualScrolling;
+    }
 }
@@ -102,6 +102,7 @@ public class PreferencesUtil
             }
             aBModel.setWindowSize(preference.getWindowSize());
             aBModel.setScrollPage(preference.isScrollPage());
+            aBModel.setVirtualScrolling(preference.isVirtualScrolling());
             aBModel.setStaticColor(preference.isStaticColor());
 
             // Get tagset using the id, from the properties file
@@ -145,6 +146,7 @@ public class PreferencesUtil
     {
         AnnotationPreference preference = new AnnotationPreference();
         preference.setScrollPage(aBModel.isScrollPage());
+        preference.setVirtualScrolling(aBModel.isVirtualScrolling());
         preference.setWindowSize(aBModel.getWindowSize());
         preference.setStaticColor(aBModel.isStaticColor());
         ArrayList<Long> layers = new ArrayList<Long>();
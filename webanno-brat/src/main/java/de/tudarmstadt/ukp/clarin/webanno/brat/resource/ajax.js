@@ -28,6 +28,11 @@ var Ajax = (function($, window, undefined) {
       var pending = 0;
       var count = 0;
       var pendingList = {};
+// WEBANNO EXTENSION BEGIN - Skip type definitions which have not changed
+      // The last collection information received, sent again to the callbacks if the server
+      // reports that the type definitions have not changed
+      var collectionInformation = null;
+// WEBANNO EXTENSION END
 
       // merge data will get merged into the response data
       // before calling the callback
@@ -48,6 +53,10 @@ var Ajax = (function($, window, undefined) {
         }
 
 // WEBANNO EXTENSION BEGIN
+        if (data.action == 'getCollectionInformation' && collectionInformation) {
+          data.etag = collectionInformation.etag;
+        }
+
         Wicket.Ajax.ajax({
           "m" : "POST",
           "c" : dispatcher.wicketId,
@@ -66,6 +75,14 @@ var Ajax = (function($, window, undefined) {
             	// We simply ignore this.
                 return;
             }
+            if (data.action == 'getCollectionInformation' && response.exception == undefined) {
+              if (response.not_modified && collectionInformation &&
+                  response.etag == collectionInformation.etag) {
+                response = $.extend(true, {}, collectionInformation);
+              } else if (response.etag) {
+                collectionInformation = $.extend(true, {}, response);
+              }
+            }
 // WEBANNO EXTENSION END
             pending--;
             // If no exception is set, verify the server results
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/*
+ * Automatic paging: when the user scrolls beyond the end (or beginning) of the display window,
+ * the display window moves to the next (or previous) block of sentences. This is not virtual
+ * scrolling: brat draws one SVG per display window, so only one block is shown at a time and it
+ * replaces the previous one. Only the next block is requested from the server in advance as the
+ * user approaches the end of the window; moving back always waits for the server.
+ * Only active if the server enables it in the document data (virtual_scrolling).
+ */
+var BlockScroller = (function($, window, undefined) {
+    var BlockScroller = function(dispatcher, visId) {
+      var enabled = false;
+
+      // The next block rendered in advance by the server
+      var prefetched = null;
+      var prefetching = false;
+      var moving = false;
+      var renderingOwnBlock = false;
+
+      // Incremented whenever the display window changes so that responses for an outdated
+      // window are ignored
+      var generation = 0;
+
+      // Where to scroll once the new block has been rendered
+      var scrollTo = null;
+      var quietUntil = 0;
+
+      var invalidate = function() {
+        generation++;
+        prefetched = null;
+      };
+
+      var isNearEnd = function() {
+        var $window = $(window);
+        return $window.scrollTop() + 2 * $window.height() >= $(document).height();
+      };
+
+      var isAtEnd = function() {
+        var $window = $(window);
+        return $window.scrollTop() + $window.height() >= $(document).height() - 2;
+      };
+
+      var isAtBeginning = function() {
+        return $(window).scrollTop() <= 0;
+      };
+
+      var prefetch = function() {
+        if (prefetched || prefetching || moving) {
+          return;
+        }
+        prefetching = true;
+        dispatcher.post('ajax', [{
+            action: 'getDocumentBlock',
+            direction: 1,
+            move: false
+          }, 'blockPrefetched', { generation: generation }]);
+      };
+
+      var blockPrefetched = function(response) {
+        prefetching = false;
+        if (response.exception || response.generation != generation || !response.available) {
+          return;
+        }
+        prefetched = response;
+      };
+
+      var move = function(direction) {
+        if (moving) {
+          return;
+        }
+        moving = true;
+
+        var block = direction > 0 ? prefetched : null;
+        invalidate();
+        scrollTo = direction > 0 ? 'top' : 'bottom';
+        if (block) {
+          renderingOwnBlock = true;
+          dispatcher.post('renderData', [block]);
+          renderingOwnBlock = false;
+        }
+
+        dispatcher.post('ajax', [{
+            action: 'getDocumentBlock',
+            direction: direction,
+            move: true,
+            address: block ? block.address : -1
+          }, 'blockMoved', { generation: generation }]);
+      };
+
+      var blockMoved = function(response) {
+        moving = false;
+        if (response.exception || response.generation != generation) {
+          return;
+        }
+        if (!response.available) {
+          scrollTo = null;
+          return;
+        }
+        // The server only sends the block if we did not already have it
+        if (response.text !== undefined && response.text !== null) {
+          renderingOwnBlock = true;
+          dispatcher.post('renderData', [response]);
+          renderingOwnBlock = false;
+        }
+      };
+
+      var onRenderData = function(sourceData) {
+        if (!sourceData) {
+          return;
+        }
+        enabled = !!sourceData.virtual_scrolling;
+        if (!renderingOwnBlock) {
+          invalidate();
+        }
+      };
+
+      var onDoneRendering = function() {
+        if (!scrollTo) {
+          return;
+        }
+        var $vis = $('#' + visId);
+        if (scrollTo == 'top') {
+          $(window).scrollTop($vis.offset().top);
+        } else {
+          $(window).scrollTop($vis.offset().top + $vis.height() - $(window).height());
+        }
+        scrollTo = null;
+        // Do not move on right away if the user is still turning the wheel
+        quietUntil = new Date().getTime() + 500;
+      };
+
+      var onWheel = function(evt) {
+        if (!enabled || moving || new Date().getTime() < quietUntil) {
+          return;
+        }
+        var original = evt.originalEvent;
+        var delta = original.deltaY !== undefined ? original.deltaY : -original.wheelDelta;
+        if (delta > 0 && isAtEnd()) {
+          move(1);
+        } else if (delta < 0 && isAtBeginning()) {
+          move(-1);
+        }
+      };
+
+      var onScroll = function() {
+        if (enabled && isNearEnd()) {
+          prefetch();
+        }
+      };
+
+      $(window).on('wheel mousewheel', onWheel);
+      $(window).on('scroll', onScroll);
+
+      dispatcher.
+          on('renderData', onRenderData).
+          on('renderPatch', invalidate).
+          on('doneRendering', onDoneRendering).
+          on('blockPrefetched', blockPrefetched).
+          on('blockMoved', blockMoved);
+    };
+
+    return BlockScroller;
+})(jQuery, window);
@@ -3012,6 +3012,55 @@ Util.profileReport();
         }
       };
 
+// WEBANNO EXTENSION BEGIN - Incremental rendering
+      // Replace the items (entities or relations) which have been changed, drop those which have
+      // been removed and append new ones. Items are arrays starting with their ID.
+      var patchItems = function(items, changed, removed) {
+        var removedIds = {};
+        $.each(removed, function(itemNo, id) {
+          removedIds[id] = true;
+        });
+        var changedById = {};
+        $.each(changed, function(itemNo, item) {
+          changedById[item[0]] = item;
+        });
+        var result = [];
+        $.each(items, function(itemNo, item) {
+          var id = item[0];
+          if (removedIds[id]) {
+            return;
+          }
+          if (changedById[id]) {
+            result.push(changedById[id]);
+            delete changedById[id];
+          } else {
+            result.push(item);
+          }
+        });
+        $.each(changed, function(itemNo, item) {
+          if (changedById[item[0]]) {
+            result.push(item);
+          }
+        });
+        return result;
+      };
+
+      // Apply a patch to the data of the last rendering. Only the changes are transferred and
+      // parsed, but the display window is still laid out and drawn completely by renderData.
+      var renderPatch = function(patch) {
+        if (!sourceData) {
+          // Nothing to patch - fetch the whole document instead
+          renderDocument();
+          return;
+        }
+        sourceData.entities = patchItems(sourceData.entities, patch.entities,
+            patch.removed_entities);
+        sourceData.relations = patchItems(sourceData.relations, patch.relations,
+            patch.removed_relations);
+        renderData(sourceData);
+      };
+// WEBANNO EXTENSION END
+
       var renderDocument = function() {
         Util.profileStart('invoke getDocument');
         dispatcher.post('ajax', [{
@@ -3447,6 +3496,9 @@ Util.profileStart('before render');
           on('collectionChanged', collectionChanged).
           on('collectionLoaded', collectionLoaded).
           on('renderData', renderData).
+// WEBANNO EXTENSION BEGIN - Incremental rendering
+          on('renderPatch', renderPatch).
+// WEBANNO EXTENSION END
           on('triggerRender', triggerRender).
           on('requestRenderData', requestRenderData).
           on('isReloadOkay', isReloadOkay).
@@ -23,11 +23,15 @@ import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.TypeUtil.getAdap
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -53,15 +57,19 @@ import de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAnnotationException
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.ColoringStrategy;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.SpanAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.TypeAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.AnnotationDigest;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.AnnotationOption;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.AnnotationSelection;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiff;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.RangeNameNotCheckedException;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.CurationViewPanel;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.AnnotationState;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.CurationBuilder;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.CurationContainer;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.CurationUserSegmentForAnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model.CurationViewForSourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Entity;
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Relation;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetCollectionInformationResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.project.PreferencesUtil;
@@ -70,6 +78,7 @@ import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
 import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.User;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
@@ -188,129 +197,93 @@ public class CuratorUtil
         }
     }
 
-    public static void populateCurationSentences(
-            Map<String, JCas> aJCases,
-            List<CurationUserSegmentForAnnotationDocument> aSentences,
-            BratAnnotatorModel aBratAnnotatorModel,
-            final List<AnnotationOption> aAnnotationOptions,
-            Map<String, Map<Integer, AnnotationSelection>> aAnnotationSelectionByUsernameAndAddress,
-            MappingJacksonHttpMessageConverter aJsonConverter,
-            AnnotationService aAnnotationService, CurationContainer aCurationContainer)
-        throws IOException
+    /**
+     * Render the display window of the given user with all annotations left uncolored. The colors
+     * depend on the diff of all users and are set by {@link #colorAnnotations} afterwards, so the
+     * CAS of the user can be released before the other users have been diffed.
+     *
+     * @param aJCas
+     *            the CAS of the user.
+     * @param aReferenceJCas
+     *            the CAS the display window of the model refers to.
+     * @return the rendered window.
+     */
+    private static GetDocumentResponse renderUncolored(JCas aJCas, JCas aReferenceJCas,
+            BratAnnotatorModel aBratAnnotatorModel, AnnotationService aAnnotationService)
     {
-        List<String> usernamesSorted = new ArrayList<String>(aJCases.keySet());
-        Collections.sort(usernamesSorted);
-        final int numUsers = usernamesSorted.size();
+        // Save window location (WTF?!)
+        int sentenceAddress = aBratAnnotatorModel.getSentenceAddress();
+        int lastSentenceAddress = aBratAnnotatorModel.getLastSentenceAddress();
 
-        final Mode mode = aBratAnnotatorModel.getMode();
-        boolean isAutomationMode = mode.equals(Mode.AUTOMATION);
-        boolean isCorrectionMode = mode.equals(Mode.CORRECTION);
-        boolean isCurationMode = mode.equals(Mode.CURATION);
+        // Override window location
+        aBratAnnotatorModel.setSentenceAddress(getSentenceAddress(aBratAnnotatorModel, aJCas,
+                aReferenceJCas));
+        aBratAnnotatorModel.setLastSentenceAddress(getLastSentenceAddress(aBratAnnotatorModel,
+                aJCas, aReferenceJCas));
 
-        String annotatorCasUser;
-        switch (mode) {
-        case AUTOMATION: // fall-through
-        case CORRECTION:
-            annotatorCasUser = SecurityContextHolder.getContext().getAuthentication().getName();
-            break;
-        case CURATION:
-            annotatorCasUser = CURATION_USER;
-            break;
-        default:
-            throw new IllegalStateException("Illegal mode [" + mode + "]");
+        LOG.debug("Temporarily reconfigured BratAnnotatorModel f:["
+                + aBratAnnotatorModel.getFirstSentenceAddress() + "] l:["
+                + aBratAnnotatorModel.getLastSentenceAddress() + "] s:["
+                + aBratAnnotatorModel.getSentenceAddress() + "]");
+
+        try {
+            return render(aJCas, aAnnotationService, aBratAnnotatorModel, UNCOLORED);
         }
-        
-        LOG.debug("mode = ["+mode+"]");
-        LOG.debug("all users is  " + usernamesSorted);
-        LOG.debug("annotator CAS is for user ["+annotatorCasUser+"]");
-        
-        for (String username : usernamesSorted) {
-            if (
-                    (!username.equals(CURATION_USER) && isCurationMode) ||
-                    (username.equals(CURATION_USER) && (isAutomationMode || isCorrectionMode))
-            ) {
-                // WTF?
-                final Map<Integer, AnnotationSelection> annotationSelectionByAddress = new HashMap<Integer, AnnotationSelection>();
-                for (AnnotationOption annotationOption : aAnnotationOptions) {
-                    for (AnnotationSelection annotationSelection : annotationOption
-                            .getAnnotationSelections()) {
-                        if (annotationSelection.getAddressByUsername().containsKey(username)) {
-                            Integer address = annotationSelection.getAddressByUsername().get(
-                                    username);
-                            annotationSelectionByAddress.put(address, annotationSelection);
-                        }
-                    }
-                }
+        finally {
+            // Restore window location
+            aBratAnnotatorModel.setSentenceAddress(sentenceAddress);
+            aBratAnnotatorModel.setLastSentenceAddress(lastSentenceAddress);
+        }
+    }
 
-                LOG.debug("suggestion CAS is for user ["+username+"]");
-                JCas jCas = aJCases.get(username);
-                JCas userJCas = aJCases.get(annotatorCasUser);
-
-                // Save window location (WTF?!)
-                int sentenceAddress = aBratAnnotatorModel.getSentenceAddress();
-                int lastSentenceAddress = aBratAnnotatorModel.getLastSentenceAddress();
-
-                // Override window location
-                LOG.debug("Temporarily reconfiguring BratAnnotatorModel for user [" + username + "] currently is still f:["
-                        + aBratAnnotatorModel.getFirstSentenceAddress() + "] l:["
-                        + aBratAnnotatorModel.getLastSentenceAddress() + "] s:["
-                        + aBratAnnotatorModel.getSentenceAddress() + "]");
-                
-                aBratAnnotatorModel.setSentenceAddress(getSentenceAddress(aBratAnnotatorModel,
-                        jCas, userJCas));
-                aBratAnnotatorModel.setLastSentenceAddress(getLastSentenceAddress(
-                        aBratAnnotatorModel, jCas, userJCas));
-
-                LOG.debug("Temporarily reconfigured BratAnnotatorModel as user [" + username + "] f:["
-                        + aBratAnnotatorModel.getFirstSentenceAddress() + "] l:["
-                        + aBratAnnotatorModel.getLastSentenceAddress() + "] s:["
-                        + aBratAnnotatorModel.getSentenceAddress() + "]");
-
-                // Set up coloring strategy
-                ColoringStrategy curationColoringStrategy = new ColoringStrategy()
-                {
-                    @Override
-                    public String getColor(FeatureStructure aFS, String aLabel)
-                    {
-                          int address = BratAjaxCasUtil.getAddr(aFS);
-                          AnnotationSelection annotationSelection = annotationSelectionByAddress.get(address);
-                          AnnotationState newState = null;
-                          if (mode.equals(Mode.AUTOMATION) || mode.equals(Mode.CORRECTION)) {
-                              newState = getCorrectionState(annotationSelection, aAnnotationOptions, numUsers,
-                                      address);
-                          }
-                          else {
-                              newState = getCurationState(numUsers, annotationSelection);
-                          }
-
-                        return newState.getColorCode();
-                    }
-                };
-
-                // Create curation view for the current user
-                CurationUserSegmentForAnnotationDocument curationUserSegment2 = new CurationUserSegmentForAnnotationDocument();
-                curationUserSegment2.setCollectionData(getCollectionInformation(aJsonConverter,
-                        aAnnotationService, aCurationContainer));
-                curationUserSegment2.setDocumentResponse(render(jCas, aAnnotationService,
-                        aBratAnnotatorModel, aJsonConverter, curationColoringStrategy));
-                curationUserSegment2.setUsername(username);
-                curationUserSegment2.setBratAnnotatorModel(aBratAnnotatorModel);
-                curationUserSegment2
-                        .setAnnotationSelectionByUsernameAndAddress(aAnnotationSelectionByUsernameAndAddress);
-                aSentences.add(curationUserSegment2);
-
-                // Restore window location
-                aBratAnnotatorModel.setSentenceAddress(sentenceAddress);
-                aBratAnnotatorModel.setLastSentenceAddress(lastSentenceAddress);
-                
-                LOG.debug("Restoring BratAnnotatorModel for user [??? maybe " + annotatorCasUser + "] f:["
-                        + aBratAnnotatorModel.getFirstSentenceAddress() + "] l:["
-                        + aBratAnnotatorModel.getLastSentenceAddress() + "] s:["
-                        + aBratAnnotatorModel.getSentenceAddress() + "]");
+    /**
+     * Color the annotations of a user rendered by {@link #renderUncolored} by their curation or
+     * correction state.
+     */
+    private static void colorAnnotations(GetDocumentResponse aResponse, Mode aMode,
+            Map<Integer, AnnotationSelection> aAnnotationSelectionByAddress,
+            List<AnnotationOption> aAnnotationOptions, int aNumUsers)
+    {
+        for (Entity entity : aResponse.getEntities()) {
+            if (entity.getColor() == null) {
+                entity.setColor(getState(aMode, aAnnotationSelectionByAddress,
+                        aAnnotationOptions, aNumUsers, entity.getId()).getColorCode());
+            }
+        }
+        for (Relation relation : aResponse.getRelations()) {
+            if (relation.getColor() == null) {
+                relation.setColor(getState(aMode, aAnnotationSelectionByAddress,
+                        aAnnotationOptions, aNumUsers, relation.getId()).getColorCode());
             }
         }
     }
 
+    private static AnnotationState getState(Mode aMode,
+            Map<Integer, AnnotationSelection> aAnnotationSelectionByAddress,
+            List<AnnotationOption> aAnnotationOptions, int aNumUsers, int aAddress)
+    {
+        AnnotationSelection annotationSelection = aAnnotationSelectionByAddress.get(aAddress);
+        if (aMode.equals(Mode.AUTOMATION) || aMode.equals(Mode.CORRECTION)) {
+            return getCorrectionState(annotationSelection, aAnnotationOptions, aNumUsers,
+                    aAddress);
+        }
+        else {
+            return getCurationState(aNumUsers, annotationSelection);
+        }
+    }
+
+    /**
+     * Leaves the color to {@link #colorAnnotations}.
+     */
+    private static final ColoringStrategy UNCOLORED = new ColoringStrategy()
+    {
+        @Override
+        public String getColor(FeatureStructure aFS, String aLabel)
+        {
+            return null;
+        }
+    };
+
     /**
      * Get the sentence address for jCas from userJCas.
      */
@@ -336,12 +309,10 @@ public class CuratorUtil
         return sentences.get(0).getAddress();
     }
 
-    private static String render(JCas aJcas,
+    private static GetDocumentResponse render(JCas aJcas,
             AnnotationService aAnnotationService,
             BratAnnotatorModel aBratAnnotatorModel,
-            MappingJacksonHttpMessageConverter aJsonConverter,
             ColoringStrategy aCurationColoringStrategy)
-        throws IOException
     {
         GetDocumentResponse response = new GetDocumentResponse();
 
@@ -370,11 +341,17 @@ public class CuratorUtil
             adapter.render(aJcas, features, response, aBratAnnotatorModel,
                     aCurationColoringStrategy);
         }
+        return response;
+    }
 
+    private static String toJson(MappingJacksonHttpMessageConverter aJsonConverter,
+            Object aResponse)
+        throws IOException
+    {
         StringWriter out = new StringWriter();
         JsonGenerator jsonGenerator = aJsonConverter.getObjectMapper().getJsonFactory()
                 .createJsonGenerator(out);
-        jsonGenerator.writeObject(response);
+        jsonGenerator.writeObject(aResponse);
         return out.toString();
     }
 
@@ -386,12 +363,7 @@ public class CuratorUtil
         GetCollectionInformationResponse info = new GetCollectionInformationResponse();
         info.setEntityTypes(BratAjaxCasController.buildEntityTypes(aCurationContainer
                 .getBratAnnotatorModel().getAnnotationLayers(), aAnnotationService));
-
-        StringWriter out = new StringWriter();
-        JsonGenerator jsonGenerator = aJsonConverter.getObjectMapper().getJsonFactory()
-                .createJsonGenerator(out);
-        jsonGenerator.writeObject(info);
-        return out.toString();
+        return toJson(aJsonConverter, info);
     }
 
     private static AnnotationState getCurationState(int numUsers,
@@ -465,6 +437,9 @@ public class CuratorUtil
     }
 
     /**
+     * Diff and render the given segment for all users. Besides the CAS the user edits and the CAS
+     * the window is located through, only one annotator CAS is loaded at a time.
+     *
      * @param aTarget the AJAX target.
      * @param aParent the parent.
      * @param aCurationContainer the container. 
@@ -493,99 +468,191 @@ public class CuratorUtil
         throws UIMAException, ClassNotFoundException, IOException, BratAnnotationException
     {
         SourceDocument sourceDocument = aCurationContainer.getBratAnnotatorModel().getDocument();
-        Map<String, JCas> jCases = new HashMap<String, JCas>();
-        
+        Mode mode = aCurationContainer.getBratAnnotatorModel().getMode();
+        boolean isCurationMode = mode.equals(Mode.CURATION);
+
+        // The annotation documents of the users whose annotations are compared
+        Map<String, AnnotationDocument> annotationDocuments =
+                new HashMap<String, AnnotationDocument>();
+
         // This is the CAS that the user can actively edit
         JCas annotatorCas = null;
-        
-        if (aCurationContainer.getBratAnnotatorModel().getMode().equals(Mode.AUTOMATION)
-                || aCurationContainer.getBratAnnotatorModel().getMode().equals(Mode.CORRECTION)) {
+
+        // The user whose CAS the window location of the model refers to
+        String referenceUser;
+
+        if (!isCurationMode) {
             // If this is a CORRECTION or AUTOMATION project, then we get the CORRECTION document
             // and put it in as the single document to compare with. Basically what we do is that
             // we treat consider this scenario as a curation scenario where the CORRECTION document
             // is the only document we compare with.
-            
+
             // The CAS the user can edit is the one from the virtual CORRECTION USER
             annotatorCas = aRepository.getCorrectionDocumentContent(sourceDocument);
 
             User user = aRepository.getUser(SecurityContextHolder.getContext().getAuthentication()
                     .getName());
-            AnnotationDocument annotationDocument = aRepository.getAnnotationDocument(
-                    sourceDocument, user);
-            jCases.put(user.getUsername(),
-                    aRepository.getAnnotationDocumentContent(annotationDocument));
+            annotationDocuments.put(user.getUsername(),
+                    aRepository.getAnnotationDocument(sourceDocument, user));
             aAnnotationSelectionByUsernameAndAddress.put(CURATION_USER,
                     new HashMap<Integer, AnnotationSelection>());
+            referenceUser = user.getUsername();
         }
         else {
-            // If this is a true CURATION then we get all the annotation documents from all the
-            // active users.
-            
+            // If this is a true CURATION then we compare with the annotation documents of all
+            // the active users.
+
             // The CAS the user can edit is the one from the virtual CURATION USER
             annotatorCas = aRepository.getCurationDocumentContent(sourceDocument);
-            
-            // Now we get all the other CASes from the repository
-            List<AnnotationDocument> annotationDocuments = aRepository
-                    .listAnnotationDocuments(sourceDocument);
-            for (AnnotationDocument annotationDocument : annotationDocuments) {
+
+            for (AnnotationDocument annotationDocument : aRepository
+                    .listAnnotationDocuments(sourceDocument)) {
                 String username = annotationDocument.getUser();
                 if (annotationDocument.getState().equals(AnnotationDocumentState.FINISHED)
                         || username.equals(CuratorUtil.CURATION_USER)) {
-                    JCas jCas = aRepository.getAnnotationDocumentContent(annotationDocument);
-                    jCases.put(username, jCas);
+                    if (!username.equals(CURATION_USER)) {
+                        annotationDocuments.put(username, annotationDocument);
+                    }
 
                     // cleanup annotationSelections
                     aAnnotationSelectionByUsernameAndAddress.put(username,
                             new HashMap<Integer, AnnotationSelection>());
                 }
             }
+            referenceUser = CURATION_USER;
         }
-        
-        // We store the CAS that the user will edit as the "CURATION USER"
-        jCases.put(CURATION_USER, annotatorCas);
 
-        // get differing feature structures
+        BratAnnotatorModel bratAnnotatorModel = null;
+        if (isCurationMode) {
+            // update sentence address, offsets,... per sentence/per user in the curation view
+            bratAnnotatorModel = CuratorUtil.setBratAnnotatorModel(sourceDocument,
+                    aRepository, aCurationSegment, aAnnotationService);
+        }
+        else {
+            bratAnnotatorModel = aCurationContainer.getBratAnnotatorModel();
+        }
+
+        // We compare the CAS that the user will edit as the "CURATION USER"
+        List<String> usernamesSorted = new ArrayList<String>(annotationDocuments.keySet());
+        usernamesSorted.add(CURATION_USER);
+        Collections.sort(usernamesSorted);
+
         List<Type> entryTypes = CurationBuilder.getEntryTypes(annotatorCas, aCurationContainer
                 .getBratAnnotatorModel().getAnnotationLayers());
-        List<AnnotationOption> annotationOptions = null;
+
+        // Load the CASes of the users one after the other. Each CAS is released as soon as its
+        // window has been rendered and a digest of its annotations has been taken. Only the
+        // reference CAS is kept until the end because the windows of all users are located
+        // through it.
+        JCas referenceCas = isCurationMode ? annotatorCas : aRepository
+                .getAnnotationDocumentContent(annotationDocuments.get(referenceUser));
+        Map<String, AnnotationDigest> digests = new HashMap<String, AnnotationDigest>();
+        Map<String, GetDocumentResponse> responses = new HashMap<String, GetDocumentResponse>();
         try {
-            annotationOptions = CasDiff.doDiff(entryTypes, jCases, aCurationSegment.getBegin(),
-                    aCurationSegment.getEnd());
+            for (String username : usernamesSorted) {
+                JCas jCas;
+                if (username.equals(CURATION_USER)) {
+                    jCas = annotatorCas;
+                }
+                else if (username.equals(referenceUser)) {
+                    jCas = referenceCas;
+                }
+                else {
+                    jCas = aRepository.getAnnotationDocumentContent(annotationDocuments
+                            .get(username));
+                }
+
+                try {
+                    digests.put(username, AnnotationDigest.of(username, jCas, entryTypes,
+                            aCurationSegment.getBegin(), aCurationSegment.getEnd()));
+                    if (isCurationMode != username.equals(CURATION_USER)) {
+                        LOG.debug("suggestion CAS is for user [" + username + "]");
+                        responses.put(username, renderUncolored(jCas, referenceCas,
+                                bratAnnotatorModel, aAnnotationService));
+                    }
+                }
+                catch (RangeNameNotCheckedException e) {
+                    throw new CasDiffException(e.getMessage(), e);
+                }
+                finally {
+                    if (jCas != annotatorCas && jCas != referenceCas) {
+                        aRepository.releaseJCas(sourceDocument.getProject(), jCas);
+                    }
+                }
+            }
         }
-        catch (Exception e) {
-            throw new CasDiffException(e.getMessage());
+        finally {
+            if (referenceCas != annotatorCas) {
+                aRepository.releaseJCas(sourceDocument.getProject(), referenceCas);
+            }
         }
 
+        // get differing feature structures
+        List<AnnotationOption> annotationOptions = CasDiff.doDiff(digests,
+                Collections.singletonMap(aCurationSegment.getBegin(), aCurationSegment.getEnd()))
+                .get(aCurationSegment.getBegin());
+
         // fill lookup variable for annotation selections
         CuratorUtil.fillLookupVariables(annotationOptions,
                 aAnnotationSelectionByUsernameAndAddress,
                 aCurationContainer.getBratAnnotatorModel());
 
         LinkedList<CurationUserSegmentForAnnotationDocument> sentences = new LinkedList<CurationUserSegmentForAnnotationDocument>();
-
-        BratAnnotatorModel bratAnnotatorModel = null;
-        if (!(aCurationContainer.getBratAnnotatorModel().getMode().equals(Mode.AUTOMATION) || aCurationContainer
-                .getBratAnnotatorModel().getMode().equals(Mode.CORRECTION))) {
-            // update sentence address, offsets,... per sentence/per user in the curation view
-            bratAnnotatorModel = CuratorUtil.setBratAnnotatorModel(sourceDocument,
-                    aRepository, aCurationSegment, aAnnotationService);
-        }
-        else {
-            bratAnnotatorModel = aCurationContainer.getBratAnnotatorModel();
+        String collectionData = getCollectionInformation(aJsonConverter, aAnnotationService,
+                aCurationContainer);
+        for (String username : usernamesSorted) {
+            GetDocumentResponse response = responses.get(username);
+            if (response == null) {
+                continue;
+            }
+            colorAnnotations(response, mode,
+                    aAnnotationSelectionByUsernameAndAddress.get(username), annotationOptions,
+                    usernamesSorted.size());
+
+            // Create curation view for the current user
+            CurationUserSegmentForAnnotationDocument curationUserSegment2 = new CurationUserSegmentForAnnotationDocument();
+            curationUserSegment2.setCollectionData(collectionData);
+            curationUserSegment2.setDocumentResponse(toJson(aJsonConverter, response));
+            curationUserSegment2.setUsername(username);
+            curationUserSegment2.setBratAnnotatorModel(bratAnnotatorModel);
+            curationUserSegment2
+                    .setAnnotationSelectionByUsernameAndAddress(aAnnotationSelectionByUsernameAndAddress);
+            sentences.add(curationUserSegment2);
         }
 
-        CuratorUtil.populateCurationSentences(jCases, sentences, bratAnnotatorModel,
-                annotationOptions, aAnnotationSelectionByUsernameAndAddress, aJsonConverter,
-                aAnnotationService, aCurationContainer);
-        
         // update sentence list on the right side
         aParent.setModelObject(sentences);
-        if (aCurationContainer.getBratAnnotatorModel().getMode().equals(Mode.CURATION)) {
+        if (isCurationMode) {
             aMergeVisualizer.setModelObject(bratAnnotatorModel);
             aMergeVisualizer.bratRenderLater(aTarget);
         }
         aTarget.add(aParent);
-        
+
         return annotatorCas;
     }
+
+    /**
+     * Hand the given CASes back to the repository for reuse.
+     *
+     * @param aRepository
+     *            the repository.
+     * @param aProject
+     *            the project the CASes belong to.
+     * @param aJCases
+     *            the CASes to release. The same CAS may occur multiple times but is released only
+     *            once.
+     * @param aKeep
+     *            CASes which are still in use and must not be released.
+     */
+    public static void releaseJCases(RepositoryService aRepository, Project aProject,
+            Collection<JCas> aJCases, JCas... aKeep)
+    {
+        Set<JCas> released = Collections.newSetFromMap(new IdentityHashMap<JCas, Boolean>());
+        released.addAll(Arrays.asList(aKeep));
+        for (JCas jCas : aJCases) {
+            if (jCas != null && released.add(jCas)) {
+                aRepository.releaseJCas(aProject, jCas);
+            }
+        }
+    }
 }
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.annotation;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+import org.springframework.http.converter.json.MappingJacksonHttpMessageConverter;
+
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Argument;
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Entity;
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Offsets;
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Relation;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentPatchResponse;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
+
+public class RenderedDocumentTest
+{
+    private final ObjectMapper mapper = new MappingJacksonHttpMessageConverter().getObjectMapper();
+
+    @Test
+    public void testUnchanged()
+        throws IOException
+    {
+        GetDocumentResponse response = createResponse("This is a test .");
+        response.addEntity(new Entity(1, "NE", new Offsets(0, 4), "PER", "blue"));
+
+        GetDocumentPatchResponse patch = render(response).diff(render(response), response);
+        assertNotNull(patch);
+        assertTrue(patch.isEmpty());
+    }
+
+    @Test
+    public void testAddedChangedAndRemoved()
+        throws IOException
+    {
+        GetDocumentResponse previous = createResponse("This is a test .");
+        previous.addEntity(new Entity(1, "NE", new Offsets(0, 4), "PER", "blue"));
+        previous.addEntity(new Entity(2, "NE", new Offsets(5, 7), "LOC", "blue"));
+        previous.addEntity(new Entity(3, "NE", new Offsets(8, 9), "ORG", "blue"));
+        previous.addRelation(new Relation(10, "Dep", asList(new Argument("Arg1", 1),
+                new Argument("Arg2", 2)), "SUBJ", "green"));
+        previous.addRelation(new Relation(11, "Dep", asList(new Argument("Arg1", 2),
+                new Argument("Arg2", 3)), "OBJ", "green"));
+
+        GetDocumentResponse current = createResponse("This is a test .");
+        current.addEntity(new Entity(1, "NE", new Offsets(0, 4), "PER", "blue"));
+        current.addEntity(new Entity(2, "NE", new Offsets(5, 7), "ORG", "blue"));
+        current.addEntity(new Entity(4, "NE", new Offsets(10, 14), "LOC", "blue"));
+        current.addRelation(new Relation(10, "Dep", asList(new Argument("Arg1", 1),
+                new Argument("Arg2", 2)), "SUBJ", "green"));
+        current.addRelation(new Relation(12, "Dep", asList(new Argument("Arg1", 1),
+                new Argument("Arg2", 4)), "OBJ", "green"));
+
+        GetDocumentPatchResponse patch = render(current).diff(render(previous), current);
+        assertNotNull(patch);
+        assertEquals(asList(2, 4), getEntityIds(patch));
+        assertEquals(asList(3), patch.getRemovedEntities());
+        assertEquals(1, patch.getRelations().size());
+        assertEquals(12, patch.getRelations().get(0).getId());
+        assertEquals(asList(11), patch.getRemovedRelations());
+    }
+
+    @Test
+    public void testFullRenderingIfBaseDiffers()
+        throws IOException
+    {
+        GetDocumentResponse previous = createResponse("This is a test .");
+        previous.addEntity(new Entity(1, "NE", new Offsets(0, 4), "PER", "blue"));
+
+        GetDocumentResponse current = createResponse("This is another test .");
+        current.addEntity(new Entity(1, "NE", new Offsets(0, 4), "PER", "blue"));
+
+        assertNull(render(current).diff(render(previous), current));
+
+        current = createResponse("This is a test .");
+        current.setComments(Collections.singletonList(new String[] { "1", "AnnotatorNotes",
+                "note" }));
+        current.addEntity(new Entity(1, "NE", new Offsets(0, 4), "PER", "blue"));
+
+        assertNull(render(current).diff(render(previous), current));
+    }
+
+    @Test
+    public void testFullRenderingIfIdsAreDuplicated()
+        throws IOException
+    {
+        GetDocumentResponse previous = createResponse("This is a test .");
+        previous.addEntity(new Entity(1, "NE", new Offsets(0, 4), "PER", "blue"));
+
+        GetDocumentResponse current = createResponse("This is a test .");
+        current.addEntity(new Entity(1, "NE", new Offsets(0, 4), "PER", "blue"));
+        current.addEntity(new Entity(1, "NE", new Offsets(5, 7), "LOC", "blue"));
+
+        assertNull(render(current).diff(render(previous), current));
+        assertNull(render(previous).diff(render(current), previous));
+
+        current = createResponse("This is a test .");
+        current.addRelation(new Relation(10, "Dep", asList(new Argument("Arg1", 1),
+                new Argument("Arg2", 2)), "SUBJ", "green"));
+        current.addRelation(new Relation(10, "Dep", asList(new Argument("Arg1", 2),
+                new Argument("Arg2", 1)), "OBJ", "green"));
+
+        assertNull(render(current).diff(render(previous), current));
+    }
+
+    private GetDocumentResponse createResponse(String aText)
+    {
+        GetDocumentResponse response = new GetDocumentResponse();
+        response.setText(aText);
+        response.addSentence(0, aText.length());
+        int begin = 0;
+        for (String token : aText.split(" ")) {
+            response.addToken(begin, begin + token.length());
+            begin += token.length() + 1;
+        }
+        return response;
+    }
+
+    private RenderedDocument render(GetDocumentResponse aResponse)
+        throws IOException
+    {
+        return new RenderedDocument(aResponse, mapper);
+    }
+
+    private static List<Integer> getEntityIds(GetDocumentPatchResponse aPatch)
+    {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Entity entity : aPatch.getEntities()) {
+            ids.add(entity.getId());
+        }
+        return ids;
+    }
+}
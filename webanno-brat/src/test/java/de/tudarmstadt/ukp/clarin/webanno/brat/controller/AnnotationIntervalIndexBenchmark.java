@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
+
+import static org.apache.uima.fit.util.CasUtil.getType;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.jcas.JCas;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkRunner;
+import de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkRunner.Operation;
+import de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkRunner.Result;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+/**
+ * Compares looking up the tokens of each sentence in a display window using
+ * {@code CasUtil.selectCovered} with using an {@link AnnotationIntervalIndex}, as done when
+ * rendering a layer.
+ *
+ * @see BenchmarkRunner
+ */
+public class AnnotationIntervalIndexBenchmark
+{
+    private static final int SENTENCES = 20000;
+    private static final int TOKENS_PER_SENTENCE = 20;
+    private static final int WINDOW = 10;
+    private static final int WINDOWS = 200;
+
+    private static final int SENTENCE_LENGTH = TOKENS_PER_SENTENCE * 4;
+
+    @Test
+    public void benchmarkWindowLookup()
+        throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText(StringUtils.repeat("tok ", SENTENCES * TOKENS_PER_SENTENCE));
+        final CAS cas = jcas.getCas();
+        final Type tokenType = getType(cas, Token.class);
+        final Type sentenceType = getType(cas, Sentence.class);
+
+        int offset = 0;
+        for (int s = 0; s < SENTENCES; s++) {
+            int begin = offset;
+            for (int t = 0; t < TOKENS_PER_SENTENCE; t++) {
+                cas.addFsToIndexes(cas.createAnnotation(tokenType, offset, offset + 3));
+                offset += 4;
+            }
+            cas.addFsToIndexes(cas.createAnnotation(sentenceType, begin, offset - 1));
+        }
+
+        // Windows spread over the document, e.g. a user paging through it
+        Result selectCovered = BenchmarkRunner.measure("selectCovered", 1, new Operation()
+        {
+            @Override
+            public long run()
+            {
+                long count = 0;
+                for (int i = 0; i < WINDOWS; i++) {
+                    int windowBegin = getWindowBegin(i);
+                    int windowEnd = windowBegin + WINDOW * SENTENCE_LENGTH - 1;
+                    for (AnnotationFS sentence : CasUtil.selectCovered(cas, sentenceType,
+                            windowBegin, windowEnd)) {
+                        count += CasUtil.selectCovered(cas, tokenType, sentence.getBegin(),
+                                sentence.getEnd()).size();
+                    }
+                }
+                return count;
+            }
+        });
+
+        Result index = BenchmarkRunner.measure("AnnotationIntervalIndex", 1, new Operation()
+        {
+            @Override
+            public long run()
+            {
+                long count = 0;
+                for (int i = 0; i < WINDOWS; i++) {
+                    int windowBegin = getWindowBegin(i);
+                    int windowEnd = windowBegin + WINDOW * SENTENCE_LENGTH - 1;
+                    AnnotationIntervalIndex sentences = AnnotationIntervalIndex.get(cas,
+                            sentenceType);
+                    AnnotationIntervalIndex tokens = AnnotationIntervalIndex.get(cas, tokenType);
+                    for (int s = sentences.indexOfFirstCovered(windowBegin, windowEnd); s >= 0
+                            && s < sentences.size() && sentences.getBegin(s) <= windowEnd; s++) {
+                        count += tokens.selectCovered(sentences.getBegin(s),
+                                sentences.getEnd(s)).size();
+                    }
+                }
+                return count;
+            }
+        });
+
+        assertTrue(index.getMillis() < selectCovered.getMillis());
+    }
+
+    private static int getWindowBegin(int aWindow)
+    {
+        return (aWindow * (SENTENCES / WINDOWS)) * SENTENCE_LENGTH;
+    }
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
+
+import static org.apache.uima.fit.util.CasUtil.getType;
+import static org.apache.uima.fit.util.CasUtil.selectCovered;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasGeneration;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+
+public class AnnotationIntervalIndexTest
+{
+    private CAS cas;
+
+    private Type type;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText(StringUtils.repeat("x", 200));
+        cas = jcas.getCas();
+        type = getType(cas, NamedEntity.class);
+
+        Random rnd = new Random(42);
+        for (int i = 0; i < 300; i++) {
+            int begin = rnd.nextInt(200);
+            int end = Math.min(200, begin + rnd.nextInt(10));
+            cas.addFsToIndexes(cas.createAnnotation(type, begin, end));
+        }
+    }
+
+    @Test
+    public void testSameResultsAsCasUtil()
+    {
+        AnnotationIntervalIndex index = AnnotationIntervalIndex.build(cas, type);
+        assertEquals(CasUtil.select(cas, type).size(), index.size());
+
+        for (int begin = 0; begin < 200; begin += 7) {
+            for (int end = begin; end <= 200; end += 13) {
+                List<AnnotationFS> covered = selectCovered(cas, type, begin, end);
+                assertEquals(covered, index.selectCovered(begin, end));
+                assertEquals(covered,
+                        AnnotationIntervalIndex.get(cas, type).selectCovered(begin, end));
+
+                List<AnnotationFS> overlapping = new ArrayList<AnnotationFS>();
+                List<AnnotationFS> at = new ArrayList<AnnotationFS>();
+                for (AnnotationFS fs : CasUtil.select(cas, type)) {
+                    if (fs.getBegin() < end && fs.getEnd() > begin) {
+                        overlapping.add(fs);
+                    }
+                    if (fs.getBegin() == begin && fs.getEnd() == end) {
+                        at.add(fs);
+                    }
+                }
+                assertEquals(overlapping, index.selectOverlapping(begin, end));
+                assertEquals(at, index.selectAt(begin, end));
+            }
+        }
+    }
+
+    @Test
+    public void testContaining()
+    {
+        AnnotationIntervalIndex index = AnnotationIntervalIndex.build(cas, type);
+        for (int offset = 0; offset <= 200; offset++) {
+            AnnotationFS expected = null;
+            for (AnnotationFS fs : CasUtil.select(cas, type)) {
+                if (fs.getBegin() <= offset && offset <= fs.getEnd()) {
+                    expected = fs;
+                    break;
+                }
+            }
+            int i = index.indexOfContaining(offset);
+            assertEquals(expected, i >= 0 ? index.get(i) : null);
+        }
+    }
+
+    @Test
+    public void testCachedUntilChanged()
+    {
+        AnnotationIntervalIndex index = AnnotationIntervalIndex.get(cas, type);
+        assertSame(index, AnnotationIntervalIndex.get(cas, type));
+
+        // Adding an annotation is detected through the index size
+        cas.addFsToIndexes(cas.createAnnotation(type, 10, 20));
+        AnnotationIntervalIndex added = AnnotationIntervalIndex.get(cas, type);
+        assertNotSame(index, added);
+        assertEquals(index.size() + 1, added.size());
+
+        // Replacing an annotation keeps the size and needs an explicit invalidation
+        AnnotationFS removed = added.get(0);
+        cas.removeFsFromIndexes(removed);
+        cas.addFsToIndexes(cas.createAnnotation(type, 199, 200));
+        AnnotationIntervalIndex.invalidate(cas, type);
+        AnnotationIntervalIndex replaced = AnnotationIntervalIndex.get(cas, type);
+        assertNotSame(added, replaced);
+        assertEquals(CasUtil.select(cas, type), replaced.selectCovered(0, 200));
+
+        // Reloading the CAS starts a new generation
+        CasGeneration.advance(cas);
+        assertNotSame(replaced, AnnotationIntervalIndex.get(cas, type));
+    }
+}
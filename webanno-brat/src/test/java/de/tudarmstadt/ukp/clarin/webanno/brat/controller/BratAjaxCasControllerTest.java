@@ -0,0 +1,358 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
+
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.apache.uima.fit.util.JCasUtil.selectCovered;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
+import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.brat.annotation.BratAnnotatorModel;
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Offsets;
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.OffsetsList;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.BatchOperation;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.BatchResponse;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.Tag;
+import de.tudarmstadt.ukp.clarin.webanno.model.TagSet;
+import de.tudarmstadt.ukp.clarin.webanno.model.User;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
+
+public class BratAjaxCasControllerTest
+{
+    private static final long POS_LAYER = 2;
+    private static final long DEPENDENCY_LAYER = 3;
+
+    private JCas jcas;
+
+    private BratAnnotatorModel model;
+
+    private BratAjaxCasController controller;
+
+    private List<AnnotationLayer> layers;
+
+    private Map<AnnotationLayer, List<AnnotationFeature>> features;
+
+    private Set<Tag> existingTags;
+
+    /** The tags created by the batch with the number of POS annotations at that time. */
+    private Map<String, Integer> createdTags;
+
+    /** The calls to the repository, the batch must neither load nor save the document. */
+    private List<String> repositoryCalls;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("John saw Mary. Mary left.");
+        new Sentence(jcas, 0, 14).addToIndexes();
+        new Sentence(jcas, 15, 25).addToIndexes();
+        for (int[] token : new int[][] { { 0, 4 }, { 5, 8 }, { 9, 13 }, { 13, 14 }, { 15, 19 },
+                { 20, 24 }, { 24, 25 } }) {
+            new Token(jcas, token[0], token[1]).addToIndexes();
+        }
+
+        Project project = new Project();
+        project.setId(1);
+        project.setName("project");
+        User user = new User();
+        user.setUsername("user");
+
+        model = new BratAnnotatorModel();
+        model.setProject(project);
+        model.setUser(user);
+        model.setWindowSize(2);
+        model.setSentenceBeginOffset(0);
+        model.setSentenceEndOffset(14);
+
+        layers = new ArrayList<AnnotationLayer>();
+        features = new LinkedHashMap<AnnotationLayer, List<AnnotationFeature>>();
+        existingTags = new HashSet<Tag>();
+        createdTags = new LinkedHashMap<String, Integer>();
+        repositoryCalls = new ArrayList<String>();
+
+        AnnotationLayer tokenLayer = new AnnotationLayer(Token.class.getName(), "Token",
+                WebAnnoConst.SPAN_TYPE, project, true);
+        tokenLayer.setId(1);
+        AnnotationFeature tokenPos = createFeature(tokenLayer, "pos", POS.class.getName(), null);
+
+        // Open tagset, new values are added as tags
+        TagSet posTags = createTagSet(project, "STTS", true, "NE", "VVFIN");
+        AnnotationLayer posLayer = new AnnotationLayer(POS.class.getName(), "POS",
+                WebAnnoConst.SPAN_TYPE, project, true);
+        posLayer.setId(POS_LAYER);
+        posLayer.setLockToTokenOffset(true);
+        posLayer.setAttachType(tokenLayer);
+        posLayer.setAttachFeature(tokenPos);
+        addLayer(posLayer, createFeature(posLayer, "PosValue", CAS.TYPE_NAME_STRING, posTags));
+
+        // Closed tagset
+        TagSet depTags = createTagSet(project, "Tiger", false, "SB", "OA");
+        AnnotationLayer depLayer = new AnnotationLayer(Dependency.class.getName(), "Dependency",
+                WebAnnoConst.RELATION_TYPE, project, true);
+        depLayer.setId(DEPENDENCY_LAYER);
+        depLayer.setAttachType(tokenLayer);
+        depLayer.setAttachFeature(tokenPos);
+        addLayer(depLayer,
+                createFeature(depLayer, "DependencyType", CAS.TYPE_NAME_STRING, depTags));
+
+        controller = new BratAjaxCasController(createRepositoryService(),
+                createAnnotationService());
+    }
+
+    @Test
+    public void testReferencesToEarlierOperations()
+    {
+        BatchResponse response = controller.batch(model, jcas, Arrays.asList(
+                span(0, 4, "NE"),
+                span(5, 8, "VVFIN"),
+                arcByRef(1, 0, "SB"),
+                setFeaturesByRef(0, "PosValue", "VVFIN")));
+
+        assertEquals(-1, response.getFailed());
+        assertEquals(4, response.getIds().size());
+        assertEquals(response.getIds().get(0), response.getIds().get(3));
+
+        List<POS> pos = new ArrayList<POS>(select(jcas, POS.class));
+        assertEquals(2, pos.size());
+        assertEquals(response.getIds().get(0).intValue(), pos.get(0).getAddress());
+        assertEquals("VVFIN", pos.get(0).getPosValue());
+        assertEquals("VVFIN", pos.get(1).getPosValue());
+
+        List<Dependency> deps = new ArrayList<Dependency>(select(jcas, Dependency.class));
+        assertEquals(1, deps.size());
+        assertEquals(response.getIds().get(2).intValue(), deps.get(0).getAddress());
+        assertEquals("saw", deps.get(0).getGovernor().getCoveredText());
+        assertEquals("John", deps.get(0).getDependent().getCoveredText());
+        assertEquals("SB", deps.get(0).getDependencyType());
+
+        assertTrue(createdTags.isEmpty());
+        assertTrue(repositoryCalls.isEmpty());
+    }
+
+    @Test
+    public void testReferenceToLaterOperationFails()
+    {
+        BatchResponse response = controller.batch(model, jcas, Arrays.asList(
+                span(0, 4, "NE"),
+                setFeaturesByRef(2, "PosValue", "NE"),
+                span(5, 8, "VVFIN")));
+
+        assertEquals(1, response.getFailed());
+        assertEquals("No valid [id] given", response.getError());
+        assertEquals(1, response.getIds().size());
+    }
+
+    @Test
+    public void testFailureStopsBatch()
+    {
+        BatchResponse response = controller.batch(model, jcas, Arrays.asList(
+                span(0, 4, "NEW"),
+                span(5, 8, "VVFIN"),
+                arcByRef(1, 0, "UNKNOWN"),
+                span(9, 13, "OTHER")));
+
+        assertEquals(2, response.getFailed());
+        assertTrue(response.getError().contains("[UNKNOWN] is not in the tag list"));
+        assertEquals(2, response.getIds().size());
+
+        // The operations after the failed one are skipped
+        assertTrue(selectCovered(jcas, POS.class, 9, 13).isEmpty());
+        // The tag introduced before the failure is not created
+        assertTrue(createdTags.isEmpty());
+        // The CAS is neither saved nor reloaded, the caller discards it
+        assertTrue(repositoryCalls.isEmpty());
+    }
+
+    @Test
+    public void testTagsCreatedAfterAllOperations()
+    {
+        BatchResponse response = controller.batch(model, jcas, Arrays.asList(
+                span(0, 4, "NEW"),
+                span(9, 13, "OTHER"),
+                setFeaturesByRef(0, "PosValue", "NEW")));
+
+        assertEquals(-1, response.getFailed());
+
+        // Each new tag is created once, in the order of the operations which introduced them,
+        // and only when all operations have run.
+        Map<String, Integer> expected = new LinkedHashMap<String, Integer>();
+        expected.put("NEW", 2);
+        expected.put("OTHER", 2);
+        assertEquals(expected, createdTags);
+    }
+
+    private static BatchOperation span(int aBegin, int aEnd, String aPosValue)
+    {
+        OffsetsList offsets = new OffsetsList();
+        offsets.add(new Offsets(aBegin, aEnd));
+        BatchOperation op = new BatchOperation();
+        op.setAction(BatchOperation.CREATE_SPAN);
+        op.setLayer(POS_LAYER);
+        op.setOffsets(offsets);
+        op.setFeatures(feature("PosValue", aPosValue));
+        return op;
+    }
+
+    private static BatchOperation arcByRef(int aOriginRef, int aTargetRef, String aType)
+    {
+        BatchOperation op = new BatchOperation();
+        op.setAction(BatchOperation.CREATE_ARC);
+        op.setLayer(DEPENDENCY_LAYER);
+        op.setOriginRef(aOriginRef);
+        op.setTargetRef(aTargetRef);
+        op.setFeatures(feature("DependencyType", aType));
+        return op;
+    }
+
+    private static BatchOperation setFeaturesByRef(int aRef, String aFeature, String aValue)
+    {
+        BatchOperation op = new BatchOperation();
+        op.setAction(BatchOperation.SET_FEATURES);
+        op.setLayer(POS_LAYER);
+        op.setRef(aRef);
+        op.setFeatures(feature(aFeature, aValue));
+        return op;
+    }
+
+    private static Map<String, String> feature(String aName, String aValue)
+    {
+        Map<String, String> features = new LinkedHashMap<String, String>();
+        features.put(aName, aValue);
+        return features;
+    }
+
+    private void addLayer(AnnotationLayer aLayer, AnnotationFeature... aFeatures)
+    {
+        layers.add(aLayer);
+        features.put(aLayer, Arrays.asList(aFeatures));
+    }
+
+    private static AnnotationFeature createFeature(AnnotationLayer aLayer, String aName,
+            String aType, TagSet aTagSet)
+    {
+        AnnotationFeature feature = new AnnotationFeature();
+        feature.setLayer(aLayer);
+        feature.setProject(aLayer.getProject());
+        feature.setName(aName);
+        feature.setUiName(aName);
+        feature.setType(aType);
+        feature.setTagset(aTagSet);
+        return feature;
+    }
+
+    private TagSet createTagSet(Project aProject, String aName, boolean aCreateTag,
+            String... aTags)
+    {
+        TagSet tagSet = new TagSet();
+        tagSet.setProject(aProject);
+        tagSet.setName(aName);
+        tagSet.setCreateTag(aCreateTag);
+        for (String name : aTags) {
+            existingTags.add(createTag(tagSet, name));
+        }
+        return tagSet;
+    }
+
+    private static Tag createTag(TagSet aTagSet, String aName)
+    {
+        Tag tag = new Tag();
+        tag.setTagSet(aTagSet);
+        tag.setName(aName);
+        return tag;
+    }
+
+    /**
+     * Annotation service which only knows the layers, features and tags set up by the test.
+     */
+    private AnnotationService createAnnotationService()
+    {
+        return (AnnotationService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { AnnotationService.class }, new InvocationHandler()
+                {
+                    @Override
+                    public Object invoke(Object aProxy, Method aMethod, Object[] aArgs)
+                    {
+                        String name = aMethod.getName();
+                        if (name.equals("listAnnotationLayer")) {
+                            return layers;
+                        }
+                        else if (name.equals("listAnnotationFeature")
+                                && aArgs[0] instanceof AnnotationLayer) {
+                            List<AnnotationFeature> result = features.get(aArgs[0]);
+                            return result != null ? result : new ArrayList<AnnotationFeature>();
+                        }
+                        else if (name.equals("existsTag")) {
+                            return existingTags.contains(createTag((TagSet) aArgs[1],
+                                    (String) aArgs[0]));
+                        }
+                        else if (name.equals("createTag")) {
+                            Tag tag = (Tag) aArgs[0];
+                            createdTags.put(tag.getName(), select(jcas, POS.class).size());
+                            existingTags.add(tag);
+                            return null;
+                        }
+                        throw new UnsupportedOperationException(name);
+                    }
+                });
+    }
+
+    /**
+     * Repository service which records all calls.
+     */
+    private RepositoryService createRepositoryService()
+    {
+        return (RepositoryService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { RepositoryService.class }, new InvocationHandler()
+                {
+                    @Override
+                    public Object invoke(Object aProxy, Method aMethod, Object[] aArgs)
+                    {
+                        repositoryCalls.add(aMethod.getName());
+                        throw new UnsupportedOperationException(aMethod.getName());
+                    }
+                });
+    }
+}
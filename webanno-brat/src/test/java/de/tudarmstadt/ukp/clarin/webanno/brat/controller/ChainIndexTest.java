@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.FeatureStructure;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.resource.metadata.TypeDescription;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.resource.metadata.impl.TypeSystemDescription_impl;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasGeneration;
+
+public class ChainIndexTest
+{
+    private CAS cas;
+    private Type chainType;
+    private Type linkType;
+    private Feature chainFirst;
+    private Feature linkNext;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        TypeSystemDescription tsd = new TypeSystemDescription_impl();
+        TypeDescription chain = tsd.addType("webanno.custom.TestChain", "", CAS.TYPE_NAME_TOP);
+        chain.addFeature("first", "", "webanno.custom.TestLink");
+        TypeDescription link = tsd.addType("webanno.custom.TestLink", "",
+                CAS.TYPE_NAME_ANNOTATION);
+        link.addFeature("next", "", "webanno.custom.TestLink");
+
+        cas = CasCreationUtils.createCas(tsd, null, null);
+        cas.setDocumentText("One two three four.");
+        chainType = cas.getTypeSystem().getType("webanno.custom.TestChain");
+        linkType = cas.getTypeSystem().getType("webanno.custom.TestLink");
+        chainFirst = chainType.getFeatureByBaseName("first");
+        linkNext = linkType.getFeatureByBaseName("next");
+    }
+
+    @Test
+    public void testLookup()
+    {
+        AnnotationFS[] links = addLinks(0, 4, 8, 14);
+        FeatureStructure chain = addChain(links[0], links[1], links[2]);
+        FeatureStructure single = addChain(links[3]);
+
+        ChainIndex index = getIndex();
+        assertTrue(BratAjaxCasUtil.isSame(chain, index.getChain(cas, links[2])));
+        assertTrue(BratAjaxCasUtil.isSame(single, index.getChain(cas, links[3])));
+        assertNull(index.getPrev(cas, links[0]));
+        assertTrue(BratAjaxCasUtil.isSame(links[1], index.getPrev(cas, links[2])));
+        assertNull(index.getPrev(cas, links[3]));
+    }
+
+    @Test
+    public void testIndexIsRebuiltWhenCasIsLoadedAgain()
+    {
+        String text = cas.getDocumentText();
+        AnnotationFS[] links = addLinks(0, 4, 8);
+        addChain(links[0], links[1], links[2]);
+        assertTrue(BratAjaxCasUtil.isSame(links[0], getIndex().getPrev(cas, links[1])));
+
+        // Same text instance and number of links, but the links are chained the other way round
+        cas.reset();
+        CasGeneration.advance(cas);
+        cas.setDocumentText(text);
+        links = addLinks(0, 4, 8);
+        addChain(links[2], links[1], links[0]);
+
+        assertTrue(BratAjaxCasUtil.isSame(links[2], getIndex().getPrev(cas, links[1])));
+        assertNull(getIndex().getPrev(cas, links[2]));
+    }
+
+    private ChainIndex getIndex()
+    {
+        return ChainIndex.get(cas, chainType, linkType, "first", "next");
+    }
+
+    private AnnotationFS[] addLinks(int... aBegins)
+    {
+        AnnotationFS[] links = new AnnotationFS[aBegins.length];
+        for (int i = 0; i < aBegins.length; i++) {
+            links[i] = cas.createAnnotation(linkType, aBegins[i], aBegins[i] + 3);
+            cas.addFsToIndexes(links[i]);
+        }
+        return links;
+    }
+
+    private FeatureStructure addChain(AnnotationFS... aLinks)
+    {
+        for (int i = 1; i < aLinks.length; i++) {
+            aLinks[i - 1].setFeatureValue(linkNext, aLinks[i]);
+        }
+        FeatureStructure chain = cas.createFS(chainType);
+        chain.setFeatureValue(chainFirst, aLinks[0]);
+        cas.addFsToIndexes(chain);
+        return chain;
+    }
+}
@@ -0,0 +1,131 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasGeneration;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+public class SentenceIndexTest
+{
+    private JCas jcas;
+
+    private List<Sentence> sentences;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("One two. Three four. Five. Six seven eight.");
+        sentences = new ArrayList<Sentence>();
+        sentences.add(addSentence(0, 8));
+        sentences.add(addSentence(9, 20));
+        sentences.add(addSentence(21, 26));
+        sentences.add(addSentence(27, 43));
+    }
+
+    @Test
+    public void testLookup()
+    {
+        SentenceIndex index = SentenceIndex.get(jcas);
+
+        assertEquals(4, index.size());
+        assertEquals(2, index.indexOfAddress(sentences.get(2).getAddress()));
+        assertEquals(-1, index.indexOfAddress(-5));
+        assertEquals(1, index.indexOf(10, 15));
+        assertEquals(-1, index.indexOf(5, 15));
+        assertTrue(index.isSameSentence(21, 26));
+        assertFalse(index.isSameSentence(26, 27));
+    }
+
+    @Test
+    public void testNavigation()
+    {
+        assertEquals(4, BratAjaxCasUtil.getNumberOfPages(jcas));
+        assertEquals(3, BratAjaxCasUtil.getSentenceNumber(jcas, 22));
+        assertEquals(address(3), BratAjaxCasUtil.getSentenceAddress(jcas, 4));
+        assertEquals(2, BratAjaxCasUtil.getFirstSentenceNumber(jcas, address(2)));
+        assertEquals(address(2),
+                BratAjaxCasUtil.getNextDisplayWindowSentenceBeginAddress(jcas, address(0), 2));
+        assertEquals(address(0),
+                BratAjaxCasUtil.getPreviousDisplayWindowSentenceBeginAddress(jcas, address(2), 2));
+        assertEquals(address(2), BratAjaxCasUtil.getLastDisplayWindowFirstSentenceAddress(jcas, 2));
+        assertEquals(address(3),
+                BratAjaxCasUtil.getLastSentenceAddressInDisplayWindow(jcas, address(1), 5));
+    }
+
+    @Test
+    public void testIndexIsRebuiltWhenSentencesChange()
+    {
+        SentenceIndex index = SentenceIndex.get(jcas);
+        assertSame(index, SentenceIndex.get(jcas));
+
+        sentences.get(3).removeFromIndexes();
+        assertEquals(3, SentenceIndex.get(jcas).size());
+
+        jcas.reset();
+        jcas.setDocumentText("Another document.");
+        addSentence(0, 17);
+        assertEquals(1, SentenceIndex.get(jcas).size());
+        assertEquals(0, SentenceIndex.get(jcas).indexOf(0, 17));
+    }
+
+    @Test
+    public void testIndexIsRebuiltWhenCasIsLoadedAgain()
+    {
+        String text = jcas.getDocumentText();
+        assertEquals(0, SentenceIndex.get(jcas).indexOf(0, 8));
+
+        // Same text instance and number of sentences, but different sentence boundaries
+        jcas.reset();
+        CasGeneration.advance(jcas.getCas());
+        jcas.setDocumentText(text);
+        addSentence(0, 20);
+        addSentence(21, 26);
+        addSentence(27, 30);
+        addSentence(31, 43);
+
+        assertEquals(0, SentenceIndex.get(jcas).indexOf(9, 20));
+        assertEquals(3, SentenceIndex.get(jcas).indexOf(31, 43));
+    }
+
+    private Sentence addSentence(int aBegin, int aEnd)
+    {
+        Sentence sentence = new Sentence(jcas, aBegin, aEnd);
+        sentence.addToIndexes();
+        return sentence;
+    }
+
+    private int address(int aIndex)
+    {
+        return sentences.get(aIndex).getAddress();
+    }
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation;
+
+import static java.util.Arrays.asList;
+import static org.apache.uima.fit.util.CasUtil.getType;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkRunner;
+import de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkRunner.Operation;
+import de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkRunner.Result;
+import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.ner.type.NamedEntity;
+
+/**
+ * Compares diffing the sentences of a document one by one using
+ * {@link CasDiff#doDiff(List, Map, int, int)} with diffing all of them in a single sweep using
+ * {@link CasDiff#doDiff(List, Map, Map)}, as done when building the curation view.
+ *
+ * @see BenchmarkRunner
+ */
+public class CasDiffBenchmark
+{
+    private static final int USERS = 3;
+    private static final int SENTENCES = 500;
+    private static final int TOKENS_PER_SENTENCE = 20;
+    private static final int ITERATIONS = 10;
+
+    @Test
+    public void benchmarkDocumentDiff()
+        throws Exception
+    {
+        final Map<String, JCas> casMap = new LinkedHashMap<String, JCas>();
+        for (int u = 0; u < USERS; u++) {
+            casMap.put("user" + u, createCas(u));
+        }
+
+        final Map<Integer, Integer> segments = new HashMap<Integer, Integer>();
+        int sentenceLength = TOKENS_PER_SENTENCE * 4;
+        for (int s = 0; s < SENTENCES; s++) {
+            segments.put(s * sentenceLength, (s + 1) * sentenceLength - 1);
+        }
+
+        JCas first = casMap.values().iterator().next();
+        final List<Type> entryTypes = asList(getType(first.getCas(), POS.class),
+                getType(first.getCas(), NamedEntity.class));
+
+        Result perSegment = BenchmarkRunner.measure("per segment", ITERATIONS, new Operation()
+        {
+            @Override
+            public long run()
+                throws Exception
+            {
+                long count = 0;
+                for (Integer begin : segments.keySet()) {
+                    count += CasDiff.doDiff(entryTypes, casMap, begin, segments.get(begin))
+                            .size();
+                }
+                return count;
+            }
+        });
+
+        Result singleSweep = BenchmarkRunner.measure("single sweep", ITERATIONS, new Operation()
+        {
+            @Override
+            public long run()
+                throws Exception
+            {
+                long count = 0;
+                for (List<AnnotationOption> options : CasDiff.doDiff(entryTypes, casMap,
+                        segments).values()) {
+                    count += options.size();
+                }
+                return count;
+            }
+        });
+
+        assertTrue(singleSweep.getMillis() < perSegment.getMillis());
+    }
+
+    /**
+     * A POS tag on every token and a named entity on every fifth token. Every user disagrees with
+     * the others on some of the tags.
+     */
+    private static JCas createCas(int aUser)
+        throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText(StringUtils.repeat("tok ", SENTENCES * TOKENS_PER_SENTENCE));
+        CAS cas = jcas.getCas();
+        Type posType = getType(cas, POS.class);
+        Feature posValue = posType.getFeatureByBaseName("PosValue");
+        Type neType = getType(cas, NamedEntity.class);
+        Feature neValue = neType.getFeatureByBaseName("value");
+
+        int offset = 0;
+        for (int t = 0; t < SENTENCES * TOKENS_PER_SENTENCE; t++) {
+            AnnotationFS pos = cas.createAnnotation(posType, offset, offset + 3);
+            pos.setStringValue(posValue, t % 7 == aUser ? "VV" : "NN");
+            cas.addFsToIndexes(pos);
+            if (t % 5 == 0) {
+                AnnotationFS ne = cas.createAnnotation(neType, offset, offset + 3);
+                ne.setStringValue(neValue, t % 11 == aUser ? "ORG" : "PER");
+                cas.addFsToIndexes(ne);
+            }
+            offset += 4;
+        }
+        return jcas;
+    }
+}
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation;
+
+import static de.tudarmstadt.ukp.clarin.webanno.brat.curation.StructuralHashTest.SPAN;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.curation.StructuralHashTest.addSpan;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.curation.StructuralHashTest.createCas;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.jcas.JCas;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CasDiffExecutorTest
+{
+    private static final int SEGMENT_LENGTH = 10;
+
+    private static final int SEGMENTS = CasDiffExecutor.SEGMENTS_PER_TASK * 5 + 3;
+
+    private CasDiffExecutor executor;
+
+    private Map<String, JCas> casMap;
+
+    private List<Type> entryTypes;
+
+    private Map<Integer, Integer> segments;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        executor = new CasDiffExecutor();
+        executor.setParallelism(4);
+        executor.start();
+
+        // Segments are separated by a single character which is not in any segment
+        String text = StringUtils.repeat(StringUtils.repeat("x", SEGMENT_LENGTH) + " ", SEGMENTS);
+        segments = new HashMap<Integer, Integer>();
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments.put(i * (SEGMENT_LENGTH + 1), i * (SEGMENT_LENGTH + 1) + SEGMENT_LENGTH);
+        }
+
+        Random rnd = new Random(42);
+        casMap = new LinkedHashMap<String, JCas>();
+        for (String user : asList("user1", "user2", "user3")) {
+            CAS cas = createCas(text);
+            for (int i = 0; i < SEGMENTS * 4; i++) {
+                // Some annotations cross segment ends or lie between segments
+                int begin = rnd.nextInt(text.length());
+                int end = Math.min(text.length(), begin + rnd.nextInt(SEGMENT_LENGTH / 2));
+                addSpan(cas, begin, end, asList("PER", "LOC", "ORG").get(rnd.nextInt(3)));
+            }
+            casMap.put(user, cas.getJCas());
+        }
+
+        entryTypes = asList(casMap.get("user1").getTypeSystem().getType(SPAN));
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.stop();
+    }
+
+    @Test
+    public void testSameAsCasDiff()
+        throws Exception
+    {
+        assertSameOptions(CasDiff.doDiff(entryTypes, casMap, segments),
+                executor.doDiff(entryTypes, casMap, segments));
+    }
+
+    @Test
+    public void testSameAsCasDiffWithDigests()
+        throws Exception
+    {
+        Map<String, AnnotationDigest> digests = new HashMap<String, AnnotationDigest>();
+        for (Map.Entry<String, JCas> e : casMap.entrySet()) {
+            digests.put(e.getKey(), AnnotationDigest.of(e.getKey(), e.getValue(), entryTypes, 0,
+                    e.getValue().getDocumentText().length()));
+        }
+
+        assertSameOptions(CasDiff.doDiff(digests, segments), executor.doDiff(digests, segments));
+    }
+
+    private static void assertSameOptions(Map<Integer, List<AnnotationOption>> aExpected,
+            Map<Integer, List<AnnotationOption>> aActual)
+    {
+        assertEquals(aExpected.keySet(), aActual.keySet());
+        int options = 0;
+        for (Integer segment : aExpected.keySet()) {
+            assertEquals("Segment " + segment, getSelections(aExpected.get(segment)),
+                    getSelections(aActual.get(segment)));
+            options += aExpected.get(segment).size();
+        }
+        // Make sure there is something to compare
+        assertTrue(options > SEGMENTS);
+    }
+
+    private static List<Set<Map<String, Integer>>> getSelections(List<AnnotationOption> aOptions)
+    {
+        List<Set<Map<String, Integer>>> options = new ArrayList<Set<Map<String, Integer>>>();
+        for (AnnotationOption option : aOptions) {
+            Set<Map<String, Integer>> selections = new HashSet<Map<String, Integer>>();
+            for (AnnotationSelection selection : option.getAnnotationSelections()) {
+                selections.add(selection.getAddressByUsername());
+            }
+            options.add(selections);
+        }
+        return options;
+    }
+}
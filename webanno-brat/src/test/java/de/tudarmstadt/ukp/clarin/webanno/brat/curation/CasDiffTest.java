@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation;
+
+import static de.tudarmstadt.ukp.clarin.webanno.brat.curation.StructuralHashTest.SPAN;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.curation.StructuralHashTest.addSpan;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.curation.StructuralHashTest.createCas;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CasDiffTest
+{
+    private Map<String, JCas> casMap;
+
+    private List<Type> entryTypes;
+
+    private Map<Integer, Integer> segments;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        // The values of user1 and user2 have the same String.hashCode()
+        casMap = new LinkedHashMap<String, JCas>();
+        casMap.put("user1", createUserCas("Aa"));
+        casMap.put("user2", createUserCas("BB"));
+        casMap.put("user3", createUserCas("Aa"));
+
+        entryTypes = asList(casMap.get("user1").getTypeSystem().getType(SPAN));
+        segments = singletonMap(0, 14);
+    }
+
+    @Test
+    public void testGroupingByHash()
+        throws Exception
+    {
+        assertGroups(CasDiff.doDiff(entryTypes, casMap, segments).get(0));
+    }
+
+    @Test
+    public void testGroupingByDigest()
+        throws Exception
+    {
+        Map<String, AnnotationDigest> digests = new HashMap<String, AnnotationDigest>();
+        for (Map.Entry<String, JCas> e : casMap.entrySet()) {
+            digests.put(e.getKey(),
+                    AnnotationDigest.of(e.getKey(), e.getValue(), entryTypes, 0, 14));
+        }
+        assertGroups(CasDiff.doDiff(digests, segments).get(0));
+
+        // Users with different values have different sentence hashes
+        Map<Integer, StructuralHash> user1 = digests.get("user1").getSegmentHashes(segments);
+        Map<Integer, StructuralHash> user2 = digests.get("user2").getSegmentHashes(segments);
+        Map<Integer, StructuralHash> user3 = digests.get("user3").getSegmentHashes(segments);
+        assertEquals(user1, user3);
+        assertFalse(user1.equals(user2));
+    }
+
+    @Test
+    public void testMultipleSegmentsSameAsSingleSegments()
+        throws Exception
+    {
+        // "John saw Mary." - the gaps at 4 and 6-9 are not in any segment
+        Map<Integer, Integer> multipleSegments = new HashMap<Integer, Integer>();
+        multipleSegments.put(0, 4);
+        multipleSegments.put(5, 6);
+        multipleSegments.put(9, 14);
+
+        Map<String, JCas> cases = new LinkedHashMap<String, JCas>();
+        CAS cas = createCas();
+        addSpan(cas, 0, 4, "PER");
+        addSpan(cas, 4, 4, "END");
+        addSpan(cas, 4, 5, "GAP");
+        addSpan(cas, 2, 6, "CROSS");
+        addSpan(cas, 9, 13, "PER");
+        addSpan(cas, 14, 14, "END");
+        cases.put("user1", cas.getJCas());
+
+        cas = createCas();
+        addSpan(cas, 0, 4, "LOC");
+        addSpan(cas, 5, 8, "CROSS");
+        addSpan(cas, 6, 6, "END");
+        addSpan(cas, 7, 8, "GAP");
+        addSpan(cas, 9, 13, "PER");
+        addSpan(cas, 9, 14, "ORG");
+        cases.put("user2", cas.getJCas());
+
+        cas = createCas();
+        addSpan(cas, 0, 4, "PER");
+        addSpan(cas, 5, 6, "V");
+        addSpan(cas, 6, 6, "END");
+        addSpan(cas, 2, 6, "CROSS");
+        addSpan(cas, 14, 14, "END");
+        cases.put("user3", cas.getJCas());
+
+        Map<String, AnnotationDigest> digests = new HashMap<String, AnnotationDigest>();
+        for (Map.Entry<String, JCas> e : cases.entrySet()) {
+            digests.put(e.getKey(),
+                    AnnotationDigest.of(e.getKey(), e.getValue(), entryTypes, 0, 14));
+        }
+
+        Map<Integer, List<AnnotationOption>> options = CasDiff.doDiff(entryTypes, cases,
+                multipleSegments);
+        Map<Integer, List<AnnotationOption>> digestOptions = CasDiff.doDiff(digests,
+                multipleSegments);
+        assertEquals(multipleSegments.keySet(), options.keySet());
+        for (Map.Entry<Integer, Integer> segment : multipleSegments.entrySet()) {
+            Set<Set<Map<String, Integer>>> expected = getSelections(CasDiff.doDiff(entryTypes,
+                    cases, segment.getKey(), segment.getValue()));
+            assertEquals("Segment " + segment, expected,
+                    getSelections(options.get(segment.getKey())));
+            assertEquals("Segment " + segment, expected,
+                    getSelections(digestOptions.get(segment.getKey())));
+        }
+    }
+
+    private static Set<Set<Map<String, Integer>>> getSelections(List<AnnotationOption> aOptions)
+    {
+        Set<Set<Map<String, Integer>>> options = new HashSet<Set<Map<String, Integer>>>();
+        for (AnnotationOption option : aOptions) {
+            Set<Map<String, Integer>> selections = new HashSet<Map<String, Integer>>();
+            for (AnnotationSelection selection : option.getAnnotationSelections()) {
+                selections.add(selection.getAddressByUsername());
+            }
+            options.add(selections);
+        }
+        assertEquals(aOptions.size(), options.size());
+        return options;
+    }
+
+    private void assertGroups(List<AnnotationOption> aOptions)
+    {
+        assertEquals(1, aOptions.size());
+        Set<Set<String>> groups = new HashSet<Set<String>>();
+        for (AnnotationSelection selection : aOptions.get(0).getAnnotationSelections()) {
+            groups.add(new HashSet<String>(selection.getAddressByUsername().keySet()));
+        }
+        Set<Set<String>> expected = new HashSet<Set<String>>();
+        expected.add(new HashSet<String>(asList("user1", "user3")));
+        expected.add(new HashSet<String>(asList("user2")));
+        assertEquals(expected, groups);
+    }
+
+    private static JCas createUserCas(String aValue)
+        throws Exception
+    {
+        CAS cas = createCas();
+        addSpan(cas, 0, 4, aValue);
+        return cas.getJCas();
+    }
+}
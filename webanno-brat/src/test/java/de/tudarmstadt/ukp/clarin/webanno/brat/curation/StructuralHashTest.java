@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.resource.metadata.TypeDescription;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.resource.metadata.impl.TypeSystemDescription_impl;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StructuralHashTest
+{
+    static final String SPAN = "webanno.custom.Span";
+    static final String RELATION = "webanno.custom.Relation";
+
+    private CAS cas;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        cas = createCas();
+    }
+
+    @Test
+    public void testEqualStructuresHaveEqualHash()
+        throws Exception
+    {
+        CAS other = createCas();
+        assertEquals(StructuralHash.of(addSpan(cas, 0, 3, "PER")),
+                StructuralHash.of(addSpan(other, 0, 3, "PER")));
+        assertEquals(StructuralHash.of(addRelation(cas, 0, 3, 4, 7, "nsubj")),
+                StructuralHash.of(addRelation(other, 0, 3, 4, 7, "nsubj")));
+    }
+
+    @Test
+    public void testStringHashCollisionsAreDistinguished()
+        throws Exception
+    {
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertFalse(StructuralHash.of(addSpan(cas, 0, 3, "Aa")).equals(
+                StructuralHash.of(addSpan(cas, 0, 3, "BB"))));
+        assertFalse(StructuralHash.of(addSpan(cas, 0, 3, "AaAa")).equals(
+                StructuralHash.of(addSpan(cas, 0, 3, "BBBB"))));
+    }
+
+    @Test
+    public void testValuesAreDelimited()
+        throws Exception
+    {
+        assertFalse(StructuralHash.of(addSpan(cas, 0, 3, null)).equals(
+                StructuralHash.of(addSpan(cas, 0, 3, ""))));
+        assertFalse(StructuralHash.of(addSpan(cas, 0, 3, "PER")).equals(
+                StructuralHash.of(addSpan(cas, 0, 3, "PER "))));
+        assertFalse(StructuralHash.of(addSpan(cas, 0, 3, "PER")).equals(
+                StructuralHash.of(addSpan(cas, 0, 4, "PER"))));
+    }
+
+    @Test
+    public void testReferencedAnnotationOffsets()
+        throws Exception
+    {
+        assertFalse(StructuralHash.of(addRelation(cas, 0, 3, 4, 7, "nsubj")).equals(
+                StructuralHash.of(addRelation(cas, 0, 3, 8, 11, "nsubj"))));
+        assertFalse(StructuralHash.of(addRelation(cas, 0, 3, 4, 7, "nsubj")).equals(
+                StructuralHash.of(addRelation(cas, 4, 7, 0, 3, "nsubj"))));
+    }
+
+    @Test
+    public void testPlusDoesNotDependOnOrder()
+        throws Exception
+    {
+        StructuralHash a = StructuralHash.of(addSpan(cas, 0, 3, "PER"));
+        StructuralHash b = StructuralHash.of(addSpan(cas, 4, 7, "LOC"));
+        assertEquals(a.plus(b), StructuralHash.ZERO.plus(b).plus(a));
+        assertFalse(a.plus(a).equals(a.plus(b)));
+    }
+
+    static CAS createCas()
+        throws Exception
+    {
+        return createCas("John saw Mary.");
+    }
+
+    static CAS createCas(String aText)
+        throws Exception
+    {
+        TypeSystemDescription tsd = new TypeSystemDescription_impl();
+        TypeDescription span = tsd.addType(SPAN, "", CAS.TYPE_NAME_ANNOTATION);
+        span.addFeature("value", "", CAS.TYPE_NAME_STRING);
+        TypeDescription relation = tsd.addType(RELATION, "", CAS.TYPE_NAME_ANNOTATION);
+        relation.addFeature("Governor", "", SPAN);
+        relation.addFeature("Dependent", "", SPAN);
+        relation.addFeature("value", "", CAS.TYPE_NAME_STRING);
+
+        CAS cas = CasCreationUtils.createCas(tsd, null, null);
+        cas.setDocumentText(aText);
+        return cas;
+    }
+
+    static AnnotationFS addSpan(CAS aCas, int aBegin, int aEnd, String aValue)
+    {
+        Type type = aCas.getTypeSystem().getType(SPAN);
+        AnnotationFS span = aCas.createAnnotation(type, aBegin, aEnd);
+        span.setFeatureValueFromString(type.getFeatureByBaseName("value"), aValue);
+        aCas.addFsToIndexes(span);
+        return span;
+    }
+
+    private static AnnotationFS addRelation(CAS aCas, int aGovBegin, int aGovEnd,
+            int aDepBegin, int aDepEnd, String aValue)
+    {
+        Type type = aCas.getTypeSystem().getType(RELATION);
+        AnnotationFS governor = addSpan(aCas, aGovBegin, aGovEnd, null);
+        AnnotationFS dependent = addSpan(aCas, aDepBegin, aDepEnd, null);
+        AnnotationFS relation = aCas.createAnnotation(type, aDepBegin, aDepEnd);
+        relation.setFeatureValue(type.getFeatureByBaseName("Governor"), governor);
+        relation.setFeatureValue(type.getFeatureByBaseName("Dependent"), dependent);
+        relation.setFeatureValueFromString(type.getFeatureByBaseName("value"), aValue);
+        aCas.addFsToIndexes(relation);
+        return relation;
+    }
+}
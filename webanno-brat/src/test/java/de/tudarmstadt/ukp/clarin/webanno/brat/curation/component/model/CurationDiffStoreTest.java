@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.model;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.resource.metadata.TypeDescription;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.resource.metadata.impl.TypeSystemDescription_impl;
+import org.apache.uima.util.CasCreationUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.AnnotationDigest;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+public class CurationDiffStoreTest
+{
+    private static final String SPAN = "webanno.custom.Span";
+
+    private File repository;
+
+    private CurationDiffStore store;
+
+    private SourceDocument document;
+
+    private Map<Integer, Integer> segments;
+
+    @Before
+    public void setup()
+    {
+        repository = new File("target/test-output/CurationDiffStoreTest");
+        FileUtils.deleteQuietly(repository);
+
+        store = new CurationDiffStore();
+        store.setDir(repository);
+
+        Project project = new Project();
+        project.setId(1);
+        document = new SourceDocument();
+        document.setId(2);
+        document.setProject(project);
+
+        segments = new HashMap<Integer, Integer>();
+        segments.put(0, 14);
+        segments.put(15, 29);
+    }
+
+    @Test
+    public void testStatesAreUsedWhileVersionsAreUnchanged()
+        throws Exception
+    {
+        CAS cas1 = createCas();
+        addSpan(cas1, 0, 4, "PER");
+        CAS cas2 = createCas();
+        addSpan(cas2, 0, 4, "LOC");
+        List<Type> types = asList(cas1.getTypeSystem().getType(SPAN));
+        Map<String, AnnotationDigest> digests = digests(types, cas1, cas2);
+
+        Map<String, String> versions = versions("a", "b");
+        assertTrue(store.getSentenceStates(document, types, versions, digests, segments)
+                .isEmpty());
+        store.putSentenceStates(document, types, versions, digests, segments, states());
+
+        // Nothing has to be loaded to use the states
+        Map<String, AnnotationDigest> none = new HashMap<String, AnnotationDigest>();
+        assertEquals(states(), store.getSentenceStates(document, types, versions, none,
+                segments));
+        assertTrue(store.getChangedUsers(document, types, versions, segments).isEmpty());
+
+        // The states were written and can be read by another store
+        CurationDiffStore other = new CurationDiffStore();
+        other.setDir(repository);
+        assertEquals(states(), other.getSentenceStates(document, types, versions, none,
+                segments));
+    }
+
+    @Test
+    public void testOnlyChangedUsersAreChecked()
+        throws Exception
+    {
+        CAS cas1 = createCas();
+        addSpan(cas1, 0, 4, "PER");
+        CAS cas2 = createCas();
+        addSpan(cas2, 0, 4, "LOC");
+        List<Type> types = asList(cas1.getTypeSystem().getType(SPAN));
+        store.putSentenceStates(document, types, versions("a", "b"), digests(types, cas1, cas2),
+                segments, states());
+
+        // user1 saved, but the sentences are unchanged
+        Map<String, String> versions = versions("a2", "b");
+        Map<String, AnnotationDigest> none = new HashMap<String, AnnotationDigest>();
+        assertEquals(singleton("user1"), store.getChangedUsers(document, types, versions,
+                segments));
+        assertTrue(store.getSentenceStates(document, types, versions, none, segments)
+                .isEmpty());
+        Map<String, AnnotationDigest> changed = new HashMap<String, AnnotationDigest>();
+        changed.put("user1", AnnotationDigest.of("user1", cas1.getJCas(), types, 0, 29));
+        assertEquals(states(), store.getSentenceStates(document, types, versions, changed,
+                segments));
+
+        // user1 changed the second sentence
+        addSpan(cas1, 15, 19, "ORG");
+        changed.put("user1", AnnotationDigest.of("user1", cas1.getJCas(), types, 0, 29));
+        Map<Integer, SentenceState> unchanged = store.getSentenceStates(document, types,
+                versions, changed, segments);
+        assertEquals(singleton(0), unchanged.keySet());
+    }
+
+    @Test
+    public void testStatesAreDiscardedIfUsersChange()
+        throws Exception
+    {
+        CAS cas1 = createCas();
+        CAS cas2 = createCas();
+        List<Type> types = asList(cas1.getTypeSystem().getType(SPAN));
+        store.putSentenceStates(document, types, versions("a", "b"), digests(types, cas1, cas2),
+                segments, states());
+
+        Map<String, String> versions = versions("a", "b");
+        versions.put("user3", "c");
+        assertTrue(store.getSentenceStates(document, types, versions,
+                new HashMap<String, AnnotationDigest>(), segments).isEmpty());
+    }
+
+    private static Map<String, String> versions(String aVersion1, String aVersion2)
+    {
+        Map<String, String> versions = new HashMap<String, String>();
+        versions.put("user1", aVersion1);
+        versions.put("user2", aVersion2);
+        return versions;
+    }
+
+    private static Map<String, AnnotationDigest> digests(List<Type> aTypes, CAS aCas1,
+            CAS aCas2)
+        throws Exception
+    {
+        Map<String, AnnotationDigest> digests = new HashMap<String, AnnotationDigest>();
+        digests.put("user1", AnnotationDigest.of("user1", aCas1.getJCas(), aTypes, 0, 29));
+        digests.put("user2", AnnotationDigest.of("user2", aCas2.getJCas(), aTypes, 0, 29));
+        return digests;
+    }
+
+    private static Map<Integer, SentenceState> states()
+    {
+        Map<Integer, SentenceState> states = new HashMap<Integer, SentenceState>();
+        states.put(0, SentenceState.DISAGREE);
+        states.put(15, SentenceState.AGREE);
+        return states;
+    }
+
+    private static CAS createCas()
+        throws Exception
+    {
+        TypeSystemDescription tsd = new TypeSystemDescription_impl();
+        TypeDescription span = tsd.addType(SPAN, "", CAS.TYPE_NAME_ANNOTATION);
+        span.addFeature("value", "", CAS.TYPE_NAME_STRING);
+
+        CAS cas = CasCreationUtils.createCas(tsd, null, null);
+        cas.setDocumentText("John saw Mary. Mary saw John.");
+        return cas;
+    }
+
+    private static void addSpan(CAS aCas, int aBegin, int aEnd, String aValue)
+    {
+        Type type = aCas.getTypeSystem().getType(SPAN);
+        AnnotationFS span = aCas.createAnnotation(type, aBegin, aEnd);
+        span.setFeatureValueFromString(type.getFeatureByBaseName("value"), aValue);
+        aCas.addFsToIndexes(span);
+    }
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.message;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.apache.commons.io.output.StringBuilderWriter;
+import org.apache.commons.lang.StringUtils;
+import org.codehaus.jackson.JsonGenerator;
+import org.junit.Test;
+import org.springframework.http.converter.json.MappingJacksonHttpMessageConverter;
+
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Argument;
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Entity;
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Offsets;
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Relation;
+import de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkRunner;
+import de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkRunner.Operation;
+import de.tudarmstadt.ukp.clarin.webanno.support.BenchmarkRunner.Result;
+import de.tudarmstadt.ukp.clarin.webanno.support.JSONUtil;
+
+/**
+ * Compares the memory allocated when turning a {@link GetDocumentResponse} for a large display
+ * window into the render script, once by serializing it into a string which is then concatenated
+ * into the script and once by serializing it directly into the script buffer, as done by
+ * {@code BratAnnotator}.
+ *
+ * @see BenchmarkRunner
+ */
+public class JsonSerializationBenchmark
+{
+    private static final int SENTENCES = 100;
+    private static final int TOKENS_PER_SENTENCE = 30;
+    private static final int ITERATIONS = 200;
+
+    private static final String PREFIX = "Wicket.$('id1').dispatcher.post('renderData', [";
+    private static final String SUFFIX = "]);";
+
+    @Test
+    public void benchmarkRenderScript()
+        throws Exception
+    {
+        final MappingJacksonHttpMessageConverter jsonConverter =
+                new MappingJacksonHttpMessageConverter();
+        final GetDocumentResponse response = createResponse();
+
+        Result viaString = BenchmarkRunner.measure("via string", ITERATIONS, new Operation()
+        {
+            @Override
+            public long run()
+                throws Exception
+            {
+                return viaString(jsonConverter, response).length();
+            }
+        });
+
+        Result streaming = BenchmarkRunner.measure("streaming", ITERATIONS, new Operation()
+        {
+            @Override
+            public long run()
+                throws Exception
+            {
+                return streaming(jsonConverter, response).length();
+            }
+        });
+
+        if (streaming.getAllocatedBytes() >= 0) {
+            assertTrue(streaming.getAllocatedBytes() < viaString.getAllocatedBytes());
+        }
+    }
+
+    private static String viaString(MappingJacksonHttpMessageConverter aJsonConverter,
+            Object aObject)
+        throws IOException
+    {
+        StringWriter out = new StringWriter();
+        JsonGenerator jsonGenerator = aJsonConverter.getObjectMapper().getJsonFactory()
+                .createJsonGenerator(out);
+        jsonGenerator.writeObject(aObject);
+        return PREFIX + out.toString() + SUFFIX;
+    }
+
+    private static String streaming(MappingJacksonHttpMessageConverter aJsonConverter,
+            Object aObject)
+        throws IOException
+    {
+        StringBuilderWriter out = new StringBuilderWriter(8 * 1024);
+        out.append(PREFIX);
+        JSONUtil.generateJson(aJsonConverter, aObject, out);
+        out.append(SUFFIX);
+        return out.toString();
+    }
+
+    private static GetDocumentResponse createResponse()
+    {
+        GetDocumentResponse response = new GetDocumentResponse();
+        response.setText(StringUtils.repeat("tok ", SENTENCES * TOKENS_PER_SENTENCE));
+        int id = 0;
+        int offset = 0;
+        for (int s = 0; s < SENTENCES; s++) {
+            response.addSentence(offset, offset + TOKENS_PER_SENTENCE * 4 - 1);
+            for (int t = 0; t < TOKENS_PER_SENTENCE; t++) {
+                response.addToken(offset, offset + 3);
+                // A POS tag and a lemma on every token and a dependency to the previous one
+                Offsets offsets = new Offsets(offset, offset + 3);
+                int pos = id++;
+                response.getEntities().add(new Entity(pos, "POS", offsets, "NN", null));
+                response.getEntities().add(new Entity(id++, "Lemma", offsets, "tok", null));
+                if (t > 0) {
+                    response.getRelations().add(new Relation(id++, "Dependency", asList(
+                            new Argument("Arg1", pos - 3), new Argument("Arg2", pos)), "dep",
+                            null));
+                }
+                offset += 4;
+            }
+        }
+        return response;
+    }
+}
@@ -617,8 +617,8 @@ public class ImportUtil
                 String fileName = FilenameUtils.getName(entryName);
                 de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument = aRepository
                         .getSourceDocument(aProject, fileName);
-                File sourceFilePath = aRepository.exportSourceDocument(sourceDocument);
-                FileUtils.copyInputStreamToFile(zip.getInputStream(entry), sourceFilePath);
+                aRepository.createSourceDocumentContent(zip.getInputStream(entry),
+                        sourceDocument);
                 
                 LOG.info("Imported source document content for source document ["
                         + sourceDocument.getId() + "] in project [" + aProject.getName()
@@ -788,8 +788,13 @@ public class ImportUtil
             String entryName = normalizeEntryName(entry);
             
             if (entryName.startsWith(LOG_DIR)) {
-                FileUtils.copyInputStreamToFile(zip.getInputStream(entry),
-                        aRepository.exportProjectLog(aProject));
+                // Rotated log files keep their number, e.g. project-1.log.1
+                String number = FilenameUtils.getExtension(entryName);
+                File logFile = aRepository.exportProjectLog(aProject);
+                if (number.matches("\\d+")) {
+                    logFile = new File(logFile.getPath() + "." + number);
+                }
+                FileUtils.copyInputStreamToFile(zip.getInputStream(entry), logFile);
                 LOG.info("Imported log for project [" + aProject.getName() + "] with id ["
                         + aProject.getId() + "]");
             }
@@ -205,7 +205,10 @@ public class ProjectExportPanel extends Panel {
                         CURATION_USER);
                 if (curationCasFile.exists()) {
                     // Copy CAS - this is used when importing the project again
-                    FileUtils.copyFileToDirectory(curationCasFile, curationCasDir);
+                    File portableCasFile = repository.exportPortableSerializedCas(
+                            sourceDocument, CURATION_USER);
+                    FileUtils.copyFileToDirectory(portableCasFile, curationCasDir);
+                    FileUtils.forceDelete(portableCasFile.getParentFile());
                     
                     // Copy secondary export format for convenience - not used during import
                     File curationFile = repository.exportAnnotationDocument(sourceDocument,
@@ -769,8 +772,11 @@ public class ProjectExportPanel extends Panel {
                                     annotationDocument.getUser(), Mode.ANNOTATION, false);
                         }
                         if (annotationFileAsSerialisedCas.exists()) {
-                            FileUtils.copyFileToDirectory(annotationFileAsSerialisedCas,
+                            File portableCasFile = repository.exportPortableSerializedCas(
+                                    sourceDocument, annotationDocument.getUser());
+                            FileUtils.copyFileToDirectory(portableCasFile,
                                     annotationDocumentAsSerialisedCasDir);
+                            FileUtils.forceDelete(portableCasFile.getParentFile());
                             if (writer != null) {
                                 FileUtils
                                         .copyFileToDirectory(annotationFile, annotationDocumentDir);
@@ -792,7 +798,10 @@ public class ProjectExportPanel extends Panel {
                         File curationCasDir = new File(aCopyDir + CURATION_AS_SERIALISED_CAS
                                 + sourceDocument.getName());
                         FileUtils.forceMkdir(curationCasDir);
-                        FileUtils.copyFileToDirectory(correctionCasFile, curationCasDir);
+                        File portableCasFile = repository.exportPortableSerializedCas(
+                                sourceDocument, CORRECTION_USER);
+                        FileUtils.copyFileToDirectory(portableCasFile, curationCasDir);
+                        FileUtils.forceDelete(portableCasFile.getParentFile());
                         
                         // Copy secondary export format for convenience - not used during import
                         File curationDir = new File(aCopyDir + CURATION_FOLDER + sourceDocument.getName());
@@ -818,8 +827,8 @@ public class ProjectExportPanel extends Panel {
         {
             File logDir = new File(aCopyDir + LOG_FOLDER);
             FileUtils.forceMkdir(logDir);
-            if (repository.exportProjectLog(aProject).exists()) {
-                FileUtils.copyFileToDirectory(repository.exportProjectLog(aProject), logDir);
+            for (File logFile : repository.exportProjectLogs(aProject)) {
+                FileUtils.copyFileToDirectory(logFile, logDir);
             }
         }
 
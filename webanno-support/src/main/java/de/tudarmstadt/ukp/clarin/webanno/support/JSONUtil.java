@@ -19,9 +19,9 @@ package de.tudarmstadt.ukp.clarin.webanno.support;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.Writer;
 
-import org.apache.commons.io.FileUtils;
+import org.codehaus.jackson.JsonEncoding;
 import org.codehaus.jackson.JsonGenerator;
 import org.springframework.http.converter.json.MappingJacksonHttpMessageConverter;
 
@@ -38,12 +38,33 @@ public class JSONUtil
             Object aObject, File aFile)
         throws IOException
     {
-        StringWriter out = new StringWriter();
-
+        // Stream directly into the file instead of building the whole JSON as a string first
         JsonGenerator jsonGenerator = jsonConverter.getObjectMapper().getJsonFactory()
-                .createJsonGenerator(out);
+                .createJsonGenerator(aFile, JsonEncoding.UTF8);
+        try {
+            jsonGenerator.writeObject(aObject);
+        }
+        finally {
+            jsonGenerator.close();
+        }
+    }
 
+    /**
+     * Convert Java objects into JSON format and write it to the given writer. The writer is
+     * flushed but not closed, so further content may be appended to it.
+     *
+     * @param aObject the object.
+     * @param aWriter the writer.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void generateJson(MappingJacksonHttpMessageConverter jsonConverter,
+            Object aObject, Writer aWriter)
+        throws IOException
+    {
+        JsonGenerator jsonGenerator = jsonConverter.getObjectMapper().getJsonFactory()
+                .createJsonGenerator(aWriter);
+        jsonGenerator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
         jsonGenerator.writeObject(aObject);
-        FileUtils.writeStringToFile(aFile, out.toString());
+        jsonGenerator.close();
     }
 }
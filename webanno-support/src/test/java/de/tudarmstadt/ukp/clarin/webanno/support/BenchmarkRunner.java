@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.support;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Measures the operations compared by the benchmarks in the test sources. Benchmarks are JUnit
+ * classes named {@code *Benchmark}. They are not run with the tests but only when the
+ * {@code benchmark} profile is active:
+ *
+ * <pre>
+ * mvn test -Pbenchmark
+ * </pre>
+ *
+ * Each operation is run for a few rounds to warm up the JIT before it is measured. The fastest
+ * measured round is reported, since it is the one least disturbed by garbage collection and other
+ * load on the machine.
+ */
+public final class BenchmarkRunner
+{
+    private static final Log LOG = LogFactory.getLog(BenchmarkRunner.class);
+
+    private static final int WARMUP_ROUNDS = 2;
+
+    private static final int ROUNDS = 3;
+
+    private BenchmarkRunner()
+    {
+        // No instances
+    }
+
+    /**
+     * An operation to measure.
+     */
+    public static interface Operation
+    {
+        /**
+         * @return a value derived from the result of the operation, e.g. the number of found
+         *         annotations, so the JIT cannot drop the work.
+         * @throws Exception
+         *             if the operation fails.
+         */
+        long run()
+            throws Exception;
+    }
+
+    /**
+     * Time and memory spent per run of an operation.
+     */
+    public static final class Result
+    {
+        private final double millis;
+        private final long allocatedBytes;
+
+        private Result(double aMillis, long aAllocatedBytes)
+        {
+            millis = aMillis;
+            allocatedBytes = aAllocatedBytes;
+        }
+
+        public double getMillis()
+        {
+            return millis;
+        }
+
+        /**
+         * @return the bytes allocated by the benchmark thread or -1 if the JVM cannot report them.
+         */
+        public long getAllocatedBytes()
+        {
+            return allocatedBytes;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%.3f ms/op, %d bytes/op", millis, allocatedBytes);
+        }
+    }
+
+    /**
+     * Measure an operation.
+     *
+     * @param aName
+     *            the name under which the result is logged.
+     * @param aIterations
+     *            the number of runs per round.
+     * @param aOperation
+     *            the operation.
+     * @return the result of the fastest round.
+     * @throws Exception
+     *             if the operation fails.
+     */
+    public static Result measure(String aName, int aIterations, Operation aOperation)
+        throws Exception
+    {
+        Result best = null;
+        long checksum = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            long allocated = getAllocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < aIterations; i++) {
+                checksum += aOperation.run();
+            }
+            long time = System.nanoTime() - start;
+            long bytes = allocated < 0 ? -1 : (getAllocatedBytes() - allocated) / aIterations;
+
+            Result result = new Result(time / 1000000.0 / aIterations, bytes);
+            if (round >= WARMUP_ROUNDS && (best == null || result.millis < best.millis)) {
+                best = result;
+            }
+        }
+        LOG.info(aName + ": " + best + " (checksum " + checksum + ")");
+        return best;
+    }
+
+    private static long getAllocatedBytes()
+    {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread
+                    .currentThread().getId());
+        }
+        return -1;
+    }
+}
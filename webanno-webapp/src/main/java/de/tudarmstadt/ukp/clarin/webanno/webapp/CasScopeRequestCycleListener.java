@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.webapp;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.wicket.core.request.handler.IPageClassRequestHandler;
+import org.apache.wicket.injection.Injector;
+import org.apache.wicket.request.IRequestHandler;
+import org.apache.wicket.request.cycle.AbstractRequestCycleListener;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.spring.injection.annot.SpringBean;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
+import de.tudarmstadt.ukp.clarin.webanno.webapp.page.annotation.AnnotationPage;
+import de.tudarmstadt.ukp.clarin.webanno.webapp.page.automation.AutomationPage;
+import de.tudarmstadt.ukp.clarin.webanno.webapp.page.correction.CorrectionPage;
+import de.tudarmstadt.ukp.clarin.webanno.webapp.page.curation.CurationPage;
+
+/**
+ * Returns the CASes loaded while handling a request of one of the annotation pages to the CAS pool
+ * once the request has been handled. These pages load the document again for every request and do
+ * not keep CASes between requests. Pages which do (e.g. the monitoring page) are not included.
+ */
+public class CasScopeRequestCycleListener
+    extends AbstractRequestCycleListener
+{
+    private static final List<Class<?>> PAGES = Arrays.<Class<?>> asList(AnnotationPage.class,
+            CorrectionPage.class, AutomationPage.class, CurationPage.class);
+
+    @SpringBean(name = "documentRepository")
+    private RepositoryService repository;
+
+    public CasScopeRequestCycleListener()
+    {
+        Injector.get().inject(this);
+    }
+
+    @Override
+    public void onRequestHandlerResolved(RequestCycle aCycle, IRequestHandler aHandler)
+    {
+        if (aHandler instanceof IPageClassRequestHandler
+                && PAGES.contains(((IPageClassRequestHandler) aHandler).getPageClass())) {
+            repository.beginCasScope();
+        }
+    }
+
+    @Override
+    public void onDetach(RequestCycle aCycle)
+    {
+        repository.endCasScope();
+    }
+}
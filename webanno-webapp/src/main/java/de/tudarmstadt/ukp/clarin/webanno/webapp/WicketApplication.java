@@ -64,6 +64,7 @@ public class WicketApplication
             super.init();
             getComponentInstantiationListeners().add(new SpringComponentInjector(this));
             setListeners();
+            getRequestCycleListeners().add(new CasScopeRequestCycleListener());
 
             // Enable dynamic switching between JQuery 1 and JQuery 2 based on the browser
             // identification. 
@@ -87,6 +87,7 @@ public class AnnotationPreferenceModalPanel
             // Import current settings from the annotator
             getModelObject().numberOfSentences = bModel.getWindowSize();
             getModelObject().scrollPage = bModel.isScrollPage();
+            getModelObject().virtualScrolling = bModel.isVirtualScrolling();
             getModelObject().staticColor = bModel.isStaticColor();
             for (AnnotationLayer layer : bModel.getAnnotationLayers()) {
                 getModelObject().annotationLayers.add(layer);
@@ -142,6 +143,9 @@ public class AnnotationPreferenceModalPanel
             // Add a Checkbox to enable/disable automatic page navigations while annotating
             add(new CheckBox("scrollPage"));
 
+            // Add a Checkbox to enable/disable paging when scrolling past the end of the page
+            add(new CheckBox("virtualScrolling"));
+
             add(new CheckBox("staticColor"));
 
             add(new Label("scrollPageLabel", "Auto-scroll document while annotating :"));
@@ -154,6 +158,7 @@ public class AnnotationPreferenceModalPanel
                 protected void onSubmit(AjaxRequestTarget aTarget, Form<?> aForm)
                 {
                     bModel.setScrollPage(getModelObject().scrollPage);
+                    bModel.setVirtualScrolling(getModelObject().virtualScrolling);
                     bModel.setAnnotationLayers(getModelObject().annotationLayers);
                     bModel.setWindowSize(getModelObject().numberOfSentences);
                     bModel.setStaticColor(getModelObject().staticColor);
@@ -203,6 +208,7 @@ public class AnnotationPreferenceModalPanel
         public SourceDocument document;
         public int numberOfSentences;
         public boolean scrollPage;
+        public boolean virtualScrolling;
         public boolean staticColor;
         public List<AnnotationLayer> annotationLayers = new ArrayList<AnnotationLayer>();
     }